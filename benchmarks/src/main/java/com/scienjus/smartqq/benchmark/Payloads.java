@@ -0,0 +1,251 @@
+package com.scienjus.smartqq.benchmark;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 基准测试使用的接口返回数据.
+ * 结构与抓包记录的返回结果一致（字段、嵌套方式、字体和表情的写法），按给定的规模用固定种子生成，每次运行的数据相同.
+ *
+ * @author ScienJus
+ * @date 2026/10/17.
+ */
+public final class Payloads {
+
+    //当前登录账号
+    public static final long SELF_UIN = 3023615011L;
+
+    //抓包记录中的ptwebqq和qrsig
+    public static final String PTWEBQQ = "e2f1b0d5e7c3a6bd84ac0c4f73e8fdbb2e3b1c3b5f1c0f3c7a8e6b5d4c3b2a19";
+
+    public static final String QRSIG = "Dz4Lrm1K6xOBKpC7s1JvZ8G0tF8i*Yc5S3uQn0H6wEdWk2aN9xbPj-RmT4gLq7Ve";
+
+    public static final String VFWEBQQ = "e7d2d4e3b9c05b6f4e5ad2f0dd2e1f6f8a1c4e0e2b3c5d7f9a1b3c5d7e9f1a3b5c7d9e1f3a5b7";
+
+    public static final String PSESSIONID = "8368046764001d636f6e6e7365727665725f77656271714031302e3133332e34312e383400001ad00000066b026e040015808a206d0000000a406172314338344a69526d0000002859185d94e66218548d1ecb1a12513c86126b3afb97a3c2955b1070324790733ddb059ab166de6857";
+
+    private static final String[] NICKS = {"小明", "阿狸", "Tom", "快乐的鱼", "🐱喵", "路人甲", "Jerry_2015", "风之子", "老王", "一只小可爱"};
+
+    private static final String[] TEXTS = {"哈哈哈", "收到", "今晚一起吃饭吗？", "ok", "这个bug修好了没",
+            "http://w.qq.com", "[图片]", "明天上午十点开会，大家记得带电脑", "👍", "好的，我看一下"};
+
+    private static final String[] FONT_NAMES = {"微软雅黑", "宋体", "Tahoma"};
+
+    private Payloads() {
+    }
+
+    /**
+     * 一次拉取消息的返回结果，群消息、好友消息和讨论组消息按7:2:1混合，消息多时对应短时间内的消息突发
+     *
+     * @param messages 消息数
+     * @return
+     */
+    public static String pollResponse(int messages) {
+        Random random = new Random(messages);
+        JSONArray result = new JSONArray();
+        for (int i = 0; i < messages; i++) {
+            int type = random.nextInt(10);
+            JSONObject item = new JSONObject(true);
+            if (type < 7) {
+                item.put("poll_type", "group_message");
+                item.put("value", groupMessageValue(random, i));
+            } else if (type < 9) {
+                item.put("poll_type", "message");
+                item.put("value", friendMessageValue(random, i));
+            } else {
+                item.put("poll_type", "discu_message");
+                item.put("value", discussMessageValue(random, i));
+            }
+            result.add(item);
+        }
+        JSONObject json = new JSONObject(true);
+        json.put("result", result);
+        json.put("retcode", 0);
+        return json.toJSONString();
+    }
+
+    /**
+     * 一条群消息的value字段
+     *
+     * @return
+     */
+    public static JSONObject groupMessageValue() {
+        return groupMessageValue(new Random(1), 1);
+    }
+
+    /**
+     * 一条好友消息的value字段
+     *
+     * @return
+     */
+    public static JSONObject friendMessageValue() {
+        return friendMessageValue(new Random(2), 2);
+    }
+
+    /**
+     * 一条讨论组消息的value字段
+     *
+     * @return
+     */
+    public static JSONObject discussMessageValue() {
+        return discussMessageValue(new Random(3), 3);
+    }
+
+    private static JSONObject groupMessageValue(Random random, int index) {
+        long groupCode = 2323421101L + random.nextInt(20);
+        JSONObject value = new JSONObject(true);
+        value.put("content", content(random));
+        value.put("from_uin", groupCode);
+        value.put("group_code", groupCode);
+        value.put("msg_id", 50873 + index);
+        value.put("msg_type", 4);
+        value.put("send_uin", uin(random));
+        value.put("time", 1456688700 + index);
+        value.put("to_uin", SELF_UIN);
+        return value;
+    }
+
+    private static JSONObject friendMessageValue(Random random, int index) {
+        JSONObject value = new JSONObject(true);
+        value.put("content", content(random));
+        value.put("from_uin", uin(random));
+        value.put("msg_id", 50873 + index);
+        value.put("msg_type", 0);
+        value.put("time", 1456688700 + index);
+        value.put("to_uin", SELF_UIN);
+        return value;
+    }
+
+    private static JSONObject discussMessageValue(Random random, int index) {
+        long did = 1234567L + random.nextInt(5);
+        JSONObject value = new JSONObject(true);
+        value.put("content", discussContent(random));
+        value.put("did", did);
+        value.put("from_uin", did);
+        value.put("msg_id", 50873 + index);
+        value.put("msg_type", 5);
+        value.put("send_uin", uin(random));
+        value.put("time", 1456688700 + index);
+        value.put("to_uin", SELF_UIN);
+        return value;
+    }
+
+    //消息内容：字体，然后是文字和表情交替出现
+    private static JSONArray content(Random random) {
+        JSONArray content = new JSONArray();
+        JSONObject font = new JSONObject(true);
+        font.put("color", "000000");
+        font.put("name", FONT_NAMES[random.nextInt(FONT_NAMES.length)]);
+        font.put("size", 10);
+        font.put("style", new JSONArray(new ArrayList<Object>(Arrays.<Object>asList(0, 0, 0))));
+        JSONArray fontSegment = new JSONArray();
+        fontSegment.add("font");
+        fontSegment.add(font);
+        content.add(fontSegment);
+        int segments = 1 + random.nextInt(3);
+        for (int i = 0; i < segments; i++) {
+            if (i > 0 && random.nextInt(3) == 0) {
+                JSONArray face = new JSONArray();
+                face.add("face");
+                face.add(random.nextInt(200));
+                content.add(face);
+            }
+            content.add(TEXTS[random.nextInt(TEXTS.length)] + " ");
+        }
+        return content;
+    }
+
+    //讨论组消息的内容只有一段文字，或者文字、表情、文字三段，与DiscussMessage的解析方式一致
+    private static JSONArray discussContent(Random random) {
+        JSONArray content = content(random);
+        while (content.size() > 2) {
+            content.remove(content.size() - 1);
+        }
+        if (random.nextBoolean()) {
+            JSONArray face = new JSONArray();
+            face.add("face");
+            face.add(random.nextInt(200));
+            content.add(face);
+            content.add(TEXTS[random.nextInt(TEXTS.length)]);
+        }
+        return content;
+    }
+
+    /**
+     * 获取好友列表的result字段
+     *
+     * @param friends 好友数
+     * @return
+     */
+    public static JSONObject friendListResult(int friends) {
+        Random random = new Random(friends);
+        JSONArray friendArray = new JSONArray();
+        JSONArray marknames = new JSONArray();
+        JSONArray vipinfo = new JSONArray();
+        JSONArray info = new JSONArray();
+        for (int i = 0; i < friends; i++) {
+            long uin = 1000000000L + i * 7919L;
+            friendArray.add(object("flag", random.nextInt(4) * 4, "uin", uin, "categories", random.nextInt(5)));
+            if (random.nextInt(10) < 3) {
+                marknames.add(object("uin", uin, "markname", "备注" + i, "type", 0));
+            }
+            vipinfo.add(object("vip_level", random.nextInt(8), "u", uin, "is_vip", random.nextInt(2)));
+            info.add(object("face", random.nextInt(600), "flag", 8388608, "nick", NICKS[random.nextInt(NICKS.length)] + i,
+                    "uin", uin));
+        }
+        JSONArray categories = new JSONArray();
+        for (int i = 1; i < 5; i++) {
+            categories.add(object("index", i, "sort", i, "name", "分组" + i));
+        }
+        return object("friends", friendArray, "marknames", marknames, "categories", categories,
+                "vipinfo", vipinfo, "info", info);
+    }
+
+    /**
+     * 获取群资料的result字段
+     *
+     * @param members 群成员数
+     * @return
+     */
+    public static JSONObject groupInfoResult(int members) {
+        Random random = new Random(members);
+        JSONArray minfo = new JSONArray();
+        JSONArray stats = new JSONArray();
+        JSONArray cards = new JSONArray();
+        JSONArray vipinfo = new JSONArray();
+        for (int i = 0; i < members; i++) {
+            long uin = 1000000000L + i * 104729L;
+            minfo.add(object("nick", NICKS[random.nextInt(NICKS.length)] + i, "province", "广东", "gender",
+                    random.nextBoolean() ? "male" : "female", "uin", uin, "country", "中国", "city", "深圳"));
+            //约四成成员在线
+            if (random.nextInt(10) < 4) {
+                stats.add(object("client_type", 1 + random.nextInt(3), "uin", uin, "stat", 10));
+            }
+            if (random.nextBoolean()) {
+                cards.add(object("muin", uin, "card", "群名片" + i));
+            }
+            vipinfo.add(object("vip_level", random.nextInt(8), "u", uin, "is_vip", random.nextInt(2)));
+        }
+        JSONObject ginfo = object("face", 0, "memo", "群公告", "class", 10048, "fingermemo", "", "code", 3056318101L,
+                "createtime", 1456688700, "flag", 1090519041, "level", 0, "name", "大群", "gid", 2323421101L,
+                "owner", 1000000000L, "markname", "", "option", 2);
+        return object("stats", stats, "minfo", minfo, "ginfo", ginfo, "cards", cards, "vipinfo", vipinfo);
+    }
+
+    private static JSONObject object(Object... keyValues) {
+        JSONObject json = new JSONObject(true);
+        for (int i = 0; i < keyValues.length; i += 2) {
+            json.put((String) keyValues[i], keyValues[i + 1]);
+        }
+        return json;
+    }
+
+    private static long uin(Random random) {
+        return 1000000000L + random.nextInt(2000) * 104729L;
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.scienjus.smartqq.client;
+
+import com.alibaba.fastjson.JSONObject;
+import com.scienjus.smartqq.benchmark.Payloads;
+import com.scienjus.smartqq.model.Friend;
+import com.scienjus.smartqq.model.GroupInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 好友列表和群资料的组装，输入是已经解析好的result字段，只测量组装过程.
+ *
+ * @author ScienJus
+ * @date 2026/10/17.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContactParseBenchmark {
+
+    //好友数或群成员数，2000是大群的上限
+    @Param({"100", "500", "2000"})
+    public int size;
+
+    private JSONObject friendList;
+
+    private JSONObject groupInfo;
+
+    @Setup
+    public void setUp() {
+        friendList = Payloads.friendListResult(size);
+        groupInfo = Payloads.groupInfoResult(size);
+    }
+
+    @Benchmark
+    public Map<Long, Friend> parseFriendMap() {
+        return SmartQQClient.parseFriendMap(friendList);
+    }
+
+    @Benchmark
+    public GroupInfo parseGroupInfo() {
+        return SmartQQClient.parseGroupInfo(groupInfo);
+    }
+
+}
@@ -0,0 +1,47 @@
+package com.scienjus.smartqq.client;
+
+import com.scienjus.smartqq.benchmark.Payloads;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 获取好友和群列表时的hash参数，以及校验二维码时的ptqrtoken.
+ *
+ * @author ScienJus
+ * @date 2026/10/17.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashBenchmark {
+
+    //放在字段中，避免被当作常量折叠
+    public long uin = Payloads.SELF_UIN;
+
+    public String ptwebqq = Payloads.PTWEBQQ;
+
+    public String qrsig = Payloads.QRSIG;
+
+    @Benchmark
+    public String hash() {
+        return SmartQQClient.hash(uin, ptwebqq);
+    }
+
+    @Benchmark
+    public int hash33() {
+        return SmartQQClient.hash33(qrsig);
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.scienjus.smartqq.client;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.scienjus.smartqq.benchmark.Payloads;
+import com.scienjus.smartqq.callback.MessageCallback;
+import com.scienjus.smartqq.model.DiscussMessage;
+import com.scienjus.smartqq.model.GroupMessage;
+import com.scienjus.smartqq.model.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 拉取消息的返回结果解析.
+ * streaming是客户端当前使用的流式解析，tree是先解析为JSONObject再逐条构造消息的旧做法，作为对照.
+ *
+ * @author ScienJus
+ * @date 2026/10/17.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PollMessageBenchmark {
+
+    //一次返回的消息数，1是平时的情况，20和100对应消息突发
+    @Param({"1", "20", "100"})
+    public int messages;
+
+    private byte[] body;
+
+    private MessageCallback callback;
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        body = Payloads.pollResponse(messages).getBytes(StandardCharsets.UTF_8);
+        callback = new MessageCallback() {
+            @Override
+            public void onMessage(Message message) {
+                blackhole.consume(message);
+            }
+
+            @Override
+            public void onGroupMessage(GroupMessage message) {
+                blackhole.consume(message);
+            }
+
+            @Override
+            public void onDiscussMessage(DiscussMessage message) {
+                blackhole.consume(message);
+            }
+        };
+    }
+
+    @Benchmark
+    public Integer streaming() {
+        return PollMessageDecoder.decode(
+                new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8), callback);
+    }
+
+    @Benchmark
+    public Integer tree() {
+        JSONObject json = JSON.parseObject(new String(body, StandardCharsets.UTF_8));
+        JSONArray result = json.getJSONArray("result");
+        for (int i = 0; result != null && i < result.size(); i++) {
+            JSONObject message = result.getJSONObject(i);
+            String type = message.getString("poll_type");
+            if ("message".equals(type)) {
+                callback.onMessage(new Message(message.getJSONObject("value")));
+            } else if ("group_message".equals(type)) {
+                callback.onGroupMessage(new GroupMessage(message.getJSONObject("value")));
+            } else if ("discu_message".equals(type)) {
+                callback.onDiscussMessage(new DiscussMessage(message.getJSONObject("value")));
+            }
+        }
+        return json.getInteger("retcode");
+    }
+
+}
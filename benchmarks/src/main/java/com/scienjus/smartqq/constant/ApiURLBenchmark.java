@@ -0,0 +1,56 @@
+package com.scienjus.smartqq.constant;
+
+import com.scienjus.smartqq.benchmark.Payloads;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 请求地址的拼接，参数个数从1到3.
+ *
+ * @author ScienJus
+ * @date 2026/10/17.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ApiURLBenchmark {
+
+    public long groupCode = 3056318101L;
+
+    public long friendId = 3938287219L;
+
+    public int ptqrtoken = 1736455418;
+
+    @Benchmark
+    public String verifyQRCode() {
+        return ApiURL.VERIFY_QR_CODE.buildUrl(ptqrtoken);
+    }
+
+    @Benchmark
+    public String groupInfo() {
+        return ApiURL.GET_GROUP_INFO.buildUrl(groupCode, Payloads.VFWEBQQ);
+    }
+
+    @Benchmark
+    public String friendInfo() {
+        return ApiURL.GET_FRIEND_INFO.buildUrl(friendId, Payloads.VFWEBQQ, Payloads.PSESSIONID);
+    }
+
+    @Benchmark
+    public String origin() {
+        return ApiURL.POLL_MESSAGE.getOrigin();
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.scienjus.smartqq.model;
+
+import com.alibaba.fastjson.JSONObject;
+import com.scienjus.smartqq.benchmark.Payloads;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 从已解析的value字段构造消息.
+ *
+ * @author ScienJus
+ * @date 2026/10/17.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark {
+
+    private JSONObject friendValue;
+
+    private JSONObject groupValue;
+
+    private JSONObject discussValue;
+
+    @Setup
+    public void setUp() {
+        friendValue = Payloads.friendMessageValue();
+        groupValue = Payloads.groupMessageValue();
+        discussValue = Payloads.discussMessageValue();
+    }
+
+    @Benchmark
+    public Message message() {
+        return new Message(friendValue);
+    }
+
+    @Benchmark
+    public GroupMessage groupMessage() {
+        return new GroupMessage(groupValue);
+    }
+
+    @Benchmark
+    public DiscussMessage discussMessage() {
+        return new DiscussMessage(discussValue);
+    }
+
+}
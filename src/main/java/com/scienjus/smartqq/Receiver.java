@@ -2,6 +2,8 @@ package com.scienjus.smartqq;
 
 import com.scienjus.smartqq.callback.MessageCallback;
 import com.scienjus.smartqq.client.SmartQQClient;
+import com.scienjus.smartqq.contact.ContactDirectory;
+import com.scienjus.smartqq.contact.ContactInfoCache;
 import com.scienjus.smartqq.model.*;
 
 import java.text.SimpleDateFormat;
@@ -17,15 +19,6 @@ import java.util.*;
 
 public class Receiver {
 
-    private static List<Friend> friendList = new ArrayList<>();                 //好友列表
-    private static List<Group> groupList = new ArrayList<>();                   //群列表
-    private static List<Discuss> discussList = new ArrayList<>();               //讨论组列表
-    private static Map<Long, Friend> friendFromID = new HashMap<>();            //好友id到好友映射
-    private static Map<Long, Group> groupFromID = new HashMap<>();              //群id到群映射
-    private static Map<Long, GroupInfo> groupInfoFromID = new HashMap<>();      //群id到群详情映射
-    private static Map<Long, Discuss> discussFromID = new HashMap<>();          //讨论组id到讨论组映射
-    private static Map<Long, DiscussInfo> discussInfoFromID = new HashMap<>();  //讨论组id到讨论组详情映射
-
     private static boolean working;
     /**
      * SmartQQ客户端
@@ -71,6 +64,16 @@ public class Receiver {
     }
     );
 
+    /**
+     * 群详情和讨论组详情缓存
+     */
+    private static ContactInfoCache contactInfoCache = new ContactInfoCache(client);
+
+    /**
+     * 好友、群和讨论组列表，在后台定期刷新
+     */
+    private static ContactDirectory contactDirectory = new ContactDirectory(client);
+
     /**
      * 获取本地系统时间
      *
@@ -85,26 +88,22 @@ public class Receiver {
      * 获取群id对应群详情
      *
      * @param id 被查询的群id
-     * @return 该群详情
+     * @return 该群详情，群列表中还没有该群时返回null
      */
     private static GroupInfo getGroupInfoFromID(Long id) {
-        if (!groupInfoFromID.containsKey(id)) {
-            groupInfoFromID.put(id, client.getGroupInfo(groupFromID.get(id).getCode()));
-        }
-        return groupInfoFromID.get(id);
+        Group group = contactDirectory.getGroup(id);
+        return group == null ? null : contactInfoCache.getGroupInfo(group.getCode());
     }
 
     /**
      * 获取讨论组id对应讨论组详情
      *
      * @param id 被查询的讨论组id
-     * @return 该讨论组详情
+     * @return 该讨论组详情，讨论组列表中还没有该讨论组时返回null
      */
     private static DiscussInfo getDiscussInfoFromID(Long id) {
-        if (!discussInfoFromID.containsKey(id)) {
-            discussInfoFromID.put(id, client.getDiscussInfo(discussFromID.get(id).getId()));
-        }
-        return discussInfoFromID.get(id);
+        Discuss discuss = contactDirectory.getDiscuss(id);
+        return discuss == null ? null : contactInfoCache.getDiscussInfo(discuss.getId());
     }
 
     /**
@@ -114,7 +113,8 @@ public class Receiver {
      * @return 该消息所在群名称
      */
     private static String getGroupName(GroupMessage msg) {
-        return getGroup(msg).getName();
+        Group group = getGroup(msg);
+        return group == null ? String.valueOf(msg.getGroupId()) : group.getName(); //群列表刷新前显示群id
     }
 
     /**
@@ -124,7 +124,8 @@ public class Receiver {
      * @return 该消息所在讨论组名称
      */
     private static String getDiscussName(DiscussMessage msg) {
-        return getDiscuss(msg).getName();
+        Discuss discuss = getDiscuss(msg);
+        return discuss == null ? String.valueOf(msg.getDiscussId()) : discuss.getName(); //讨论组列表刷新前显示讨论组id
     }
 
     /**
@@ -134,7 +135,7 @@ public class Receiver {
      * @return 该消息所在群
      */
     private static Group getGroup(GroupMessage msg) {
-        return groupFromID.get(msg.getGroupId());
+        return contactDirectory.getGroup(msg.getGroupId());
     }
 
     /**
@@ -144,7 +145,7 @@ public class Receiver {
      * @return 该消息所在讨论组
      */
     private static Discuss getDiscuss(DiscussMessage msg) {
-        return discussFromID.get(msg.getDiscussId());
+        return contactDirectory.getDiscuss(msg.getDiscussId());
     }
 
     /**
@@ -154,8 +155,10 @@ public class Receiver {
      * @return 该消息发送者
      */
     private static String getFriendNick(Message msg) {
-        Friend user = friendFromID.get(msg.getUserId());
-        if (user.getMarkname() == null || user.getMarkname().equals("")) {
+        Friend user = contactDirectory.getFriend(msg.getUserId());
+        if (user == null) {
+            return String.valueOf(msg.getUserId()); //好友列表刷新前显示好友id
+        } else if (user.getMarkname() == null || user.getMarkname().equals("")) {
             return user.getNickname(); //若发送者无备注则返回其昵称
         } else {
             return user.getMarkname(); //否则返回其备注
@@ -170,17 +173,13 @@ public class Receiver {
      * @return 该消息发送者昵称
      */
     private static String getGroupUserNick(GroupMessage msg) {
-        for (GroupUser user : getGroupInfoFromID(msg.getGroupId()).getUsers()) {
-            if (user.getUin() == msg.getUserId()) {
-                if (user.getCard() == null || user.getCard().equals("")) {
-                    return user.getNick(); //若发送者无群名片则返回其昵称
-                } else {
-                    return user.getCard(); //否则返回其群名片
-                }
-            }
+        GroupInfo groupInfo = getGroupInfoFromID(msg.getGroupId());
+        String nick = groupInfo == null ? null : groupInfo.getDisplayName(msg.getUserId());
+        if (nick == null) {
+            return "系统消息"; //若在群成员列表中查询不到，则为系统消息
+            //TODO: 也有可能是新加群的用户或匿名用户
         }
-        return "系统消息"; //若在群成员列表中查询不到，则为系统消息
-        //TODO: 也有可能是新加群的用户或匿名用户
+        return nick; //有群名片时为群名片，否则为昵称
     }
 
     /**
@@ -190,30 +189,20 @@ public class Receiver {
      * @return 该消息发送者昵称
      */
     private static String getDiscussUserNick(DiscussMessage msg) {
-        for (DiscussUser user : getDiscussInfoFromID(msg.getDiscussId()).getUsers()) {
-            if (user.getUin() == msg.getUserId()) {
-                return user.getNick(); //返回发送者昵称
-            }
+        DiscussInfo discussInfo = getDiscussInfoFromID(msg.getDiscussId());
+        String nick = discussInfo == null ? null : discussInfo.getDisplayName(msg.getUserId());
+        if (nick == null) {
+            return "系统消息"; //若在讨论组成员列表中查询不到，则为系统消息
+            //TODO: 也有可能是新加讨论组的用户
         }
-        return "系统消息"; //若在讨论组成员列表中查询不到，则为系统消息
-        //TODO: 也有可能是新加讨论组的用户
+        return nick;
     }
 
     public static void main(String[] args) {
-        working = false;                                    //映射建立完毕前暂停工作以避免NullPointerException
-        friendList = client.getFriendList();                //获取好友列表
-        groupList = client.getGroupList();                  //获取群列表
-        discussList = client.getDiscussList();              //获取讨论组列表
-        for (Friend friend : friendList) {                  //建立好友id到好友映射
-            friendFromID.put(friend.getUserId(), friend);
-        }
-        for (Group group : groupList) {                     //建立群id到群映射
-            groupFromID.put(group.getId(), group);
-        }
-        for (Discuss discuss : discussList) {               //建立讨论组id到讨论组映射
-            discussFromID.put(discuss.getId(), discuss);
-        }
-        working = true;                                     //映射建立完毕后恢复工作
+        working = false;                                    //列表获取完毕前暂停工作
+        contactDirectory.refreshNow();                      //获取好友、群和讨论组列表
+        contactDirectory.start();                           //之后在后台定期刷新，出现未知id时也会触发刷新
+        working = true;                                     //列表获取完毕后恢复工作
         //为防止请求过多导致服务器启动自我保护
         //群id到群详情映射 和 讨论组id到讨论组详情映射 将在第一次请求时创建
         //TODO: 可考虑在出现第一条讨论组消息时再建立相关映射，以防Api错误返回
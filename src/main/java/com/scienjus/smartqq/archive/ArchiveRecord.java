@@ -0,0 +1,104 @@
+package com.scienjus.smartqq.archive;
+
+import com.scienjus.smartqq.model.DiscussMessage;
+import com.scienjus.smartqq.model.Font;
+import com.scienjus.smartqq.model.GroupMessage;
+import com.scienjus.smartqq.model.Message;
+
+/**
+ * 归档中的一条消息，三种消息统一为一行.
+ */
+final class ArchiveRecord {
+
+    static final byte FRIEND = 0;
+
+    static final byte GROUP = 1;
+
+    static final byte DISCUSS = 2;
+
+    final byte type;
+
+    //会话id：私聊为好友id，群为群id，讨论组为讨论组id
+    final long conversationId;
+
+    final long userId;
+
+    final long time;
+
+    final Font font;
+
+    final String content;
+
+    ArchiveRecord(byte type, long conversationId, long userId, long time, Font font, String content) {
+        this.type = type;
+        this.conversationId = conversationId;
+        this.userId = userId;
+        this.time = time;
+        this.font = font;
+        this.content = content;
+    }
+
+    static ArchiveRecord of(Message message) {
+        return new ArchiveRecord(FRIEND, message.getUserId(), message.getUserId(), message.getTime(),
+                message.getFont(), message.getContent());
+    }
+
+    static ArchiveRecord of(GroupMessage message) {
+        return new ArchiveRecord(GROUP, message.getGroupId(), message.getUserId(), message.getTime(),
+                message.getFont(), message.getContent());
+    }
+
+    static ArchiveRecord of(DiscussMessage message) {
+        return new ArchiveRecord(DISCUSS, message.getDiscussId(), message.getUserId(), message.getTime(),
+                message.getFont(), message.getContent());
+    }
+
+    /**
+     * 会话在索引中的键，由会话类型和id组成
+     *
+     * @param type           会话类型
+     * @param conversationId 会话id
+     * @return
+     */
+    static long key(byte type, long conversationId) {
+        return conversationId << 2 | type;
+    }
+
+    long key() {
+        return key(type, conversationId);
+    }
+
+    /**
+     * 还原为消息对象
+     *
+     * @return Message、GroupMessage或DiscussMessage
+     */
+    Object toMessage() {
+        switch (type) {
+            case GROUP:
+                GroupMessage groupMessage = new GroupMessage();
+                groupMessage.setGroupId(conversationId);
+                groupMessage.setUserId(userId);
+                groupMessage.setTime(time);
+                groupMessage.setFont(font);
+                groupMessage.setContent(content);
+                return groupMessage;
+            case DISCUSS:
+                DiscussMessage discussMessage = new DiscussMessage();
+                discussMessage.setDiscussId(conversationId);
+                discussMessage.setUserId(userId);
+                discussMessage.setTime(time);
+                discussMessage.setFont(font);
+                discussMessage.setContent(content);
+                return discussMessage;
+            default:
+                Message message = new Message();
+                message.setUserId(userId);
+                message.setTime(time);
+                message.setFont(font);
+                message.setContent(content);
+                return message;
+        }
+    }
+
+}
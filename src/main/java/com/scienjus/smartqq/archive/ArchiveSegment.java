@@ -0,0 +1,550 @@
+package com.scienjus.smartqq.archive;
+
+import com.scienjus.smartqq.model.Font;
+import com.scienjus.smartqq.util.Varint;
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * 归档的一个分段文件.
+ * <pre>
+ * 文件头   MAGIC(4) 版本(1)
+ * 数据块   长度(4) CRC32(4) 块内容，重复多次
+ * 索引     字体字典，每个数据块的位置、时间范围和包含的会话
+ * 文件尾   索引位置(8) 索引长度(4) 索引CRC32(4) MAGIC(4)
+ * </pre>
+ * 块内按列存储：消息数、本块新增的字体、类型列、会话id列、发送者列、时间列（与上一条的差值）、字体编号列、
+ * 内容长度列，最后是所有内容拼接在一起，整数都是变长编码.
+ * 查询时只读取索引中包含目标会话且时间范围有重叠的块，块内只还原匹配的行.
+ * 进程退出时没有写入索引的分段，在下次打开时逐块校验并重建索引.
+ * 写入由归档加锁保证串行，查询可以和写入同时进行：数据块信息和字体字典只会追加，查询只读取快照时已有的数据块.
+ */
+class ArchiveSegment implements Closeable {
+
+    //日志
+    private static final Logger LOGGER = Logger.getLogger(ArchiveSegment.class);
+
+    private static final int MAGIC = 0x53514152;
+
+    private static final byte VERSION = 1;
+
+    private static final int HEADER_SIZE = 5;
+
+    private static final int FRAME_HEADER_SIZE = 8;
+
+    private static final int TRAILER_SIZE = 20;
+
+    private final File file;
+
+    private final FileChannel channel;
+
+    //字体字典，块中保存字体的编号+1，0表示没有字体；查询线程不加锁读取
+    private final List<Font> fonts = new CopyOnWriteArrayList<>();
+
+    private final Map<Font, Integer> fontIds = new HashMap<>();
+
+    //查询线程不加锁读取
+    private final List<BlockInfo> blocks = new CopyOnWriteArrayList<>();
+
+    //下一个数据块的写入位置
+    private long end;
+
+    //是否已经写入索引
+    private boolean sealed;
+
+    private final CRC32 crc = new CRC32();
+
+    private ArchiveSegment(File file, FileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+    }
+
+    /**
+     * 创建新的分段
+     *
+     * @param file 分段文件
+     * @return
+     * @throws IOException
+     */
+    static ArchiveSegment create(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ArchiveSegment segment = new ArchiveSegment(file, channel);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).put(VERSION).flip();
+        segment.writeFully(header, 0);
+        segment.end = HEADER_SIZE;
+        return segment;
+    }
+
+    /**
+     * 打开已有的分段，没有索引时重建索引
+     *
+     * @param file 分段文件
+     * @return
+     * @throws IOException
+     */
+    static ArchiveSegment open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ArchiveSegment segment = new ArchiveSegment(file, channel);
+        try {
+            ByteBuffer header = segment.read(0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.get() != VERSION) {
+                throw new IOException("不是归档文件：" + file.getAbsolutePath());
+            }
+            if (!segment.loadIndex()) {
+                segment.recover();
+                segment.seal();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return segment;
+    }
+
+    //从文件尾读取索引，文件尾无效时返回false
+    private boolean loadIndex() throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE + TRAILER_SIZE) {
+            return false;
+        }
+        ByteBuffer trailer = read(size - TRAILER_SIZE, TRAILER_SIZE);
+        long indexOffset = trailer.getLong();
+        int indexLength = trailer.getInt();
+        int indexCrc = trailer.getInt();
+        if (trailer.getInt() != MAGIC || indexOffset < HEADER_SIZE || indexOffset + indexLength != size - TRAILER_SIZE) {
+            return false;
+        }
+        ByteBuffer index = read(indexOffset, indexLength);
+        crc.reset();
+        crc.update(index.array(), 0, indexLength);
+        if ((int) crc.getValue() != indexCrc) {
+            return false;
+        }
+        int fontCount = Varint.readInt(index);
+        for (int i = 0; i < fontCount; i++) {
+            registerFont(readFont(index));
+        }
+        int blockCount = Varint.readInt(index);
+        for (int i = 0; i < blockCount; i++) {
+            blocks.add(BlockInfo.read(index));
+        }
+        this.end = indexOffset;
+        this.sealed = true;
+        return true;
+    }
+
+    //逐块校验重建索引，截掉最后一个有效块之后的数据
+    private void recover() throws IOException {
+        long size = channel.size();
+        long position = HEADER_SIZE;
+        while (position + FRAME_HEADER_SIZE <= size) {
+            ByteBuffer frameHeader = read(position, FRAME_HEADER_SIZE);
+            int length = frameHeader.getInt();
+            int frameCrc = frameHeader.getInt();
+            if (length <= 0 || position + FRAME_HEADER_SIZE + length > size) {
+                break;
+            }
+            ByteBuffer block = read(position + FRAME_HEADER_SIZE, length);
+            crc.reset();
+            crc.update(block.array(), 0, length);
+            if ((int) crc.getValue() != frameCrc) {
+                break;
+            }
+            Columns columns = Columns.decode(block, this, true);
+            blocks.add(columns.toBlockInfo(position, FRAME_HEADER_SIZE + length));
+            position += FRAME_HEADER_SIZE + length;
+        }
+        if (position < size) {
+            LOGGER.warn(String.format("归档文件%s在%d处不完整，丢弃之后的%d字节", file.getName(), position, size - position));
+            channel.truncate(position);
+        }
+        this.end = position;
+    }
+
+    /**
+     * 写入一个数据块
+     *
+     * @param records 块中的消息
+     * @throws IOException
+     */
+    void append(List<ArchiveRecord> records) throws IOException {
+        if (sealed) {
+            //继续写入时去掉原来的索引，关闭时重新写入
+            channel.truncate(end);
+            sealed = false;
+        }
+        byte[] block = encode(records);
+        crc.reset();
+        crc.update(block, 0, block.length);
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + block.length);
+        frame.putInt(block.length).putInt((int) crc.getValue()).put(block).flip();
+        writeFully(frame, end);
+
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+        TreeSet<Long> keys = new TreeSet<>();
+        for (ArchiveRecord record : records) {
+            minTime = Math.min(minTime, record.time);
+            maxTime = Math.max(maxTime, record.time);
+            keys.add(record.key());
+        }
+        blocks.add(new BlockInfo(end, frame.limit(), records.size(), minTime, maxTime, toArray(keys)));
+        end += frame.limit();
+    }
+
+    private byte[] encode(List<ArchiveRecord> records) {
+        int count = records.size();
+        int firstNewFont = fonts.size();
+        int[] fontColumn = new int[count];
+        for (int i = 0; i < count; i++) {
+            Font font = records.get(i).font;
+            fontColumn[i] = font == null ? 0 : registerFont(font) + 1;
+        }
+        ByteArrayOutputStream newFonts = new ByteArrayOutputStream();
+        Varint.write(newFonts, fonts.size() - firstNewFont);
+        for (int i = firstNewFont; i < fonts.size(); i++) {
+            writeFont(newFonts, fonts.get(i));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + count * 48);
+        Varint.write(out, count);
+        Varint.write(out, newFonts.size());
+        out.write(newFonts.toByteArray(), 0, newFonts.size());
+        for (ArchiveRecord record : records) {
+            out.write(record.type);
+        }
+        for (ArchiveRecord record : records) {
+            Varint.write(out, record.conversationId);
+        }
+        for (ArchiveRecord record : records) {
+            Varint.write(out, record.userId);
+        }
+        long previous = 0;
+        for (ArchiveRecord record : records) {
+            Varint.writeSigned(out, record.time - previous);
+            previous = record.time;
+        }
+        for (int id : fontColumn) {
+            Varint.write(out, id);
+        }
+        byte[][] contents = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            String content = records.get(i).content;
+            contents[i] = content == null ? null : content.getBytes(StandardCharsets.UTF_8);
+            Varint.write(out, contents[i] == null ? 0 : contents[i].length + 1);
+        }
+        for (byte[] content : contents) {
+            if (content != null) {
+                out.write(content, 0, content.length);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    //返回字体的编号，不存在时加入字典
+    private int registerFont(Font font) {
+        Integer id = fontIds.get(font);
+        if (id == null) {
+            id = fonts.size();
+            fonts.add(font);
+            fontIds.put(font, id);
+        }
+        return id;
+    }
+
+    private static void writeFont(ByteArrayOutputStream out, Font font) {
+        Varint.writeString(out, font.getName());
+        Varint.writeSigned(out, font.getSize());
+        Varint.writeString(out, font.getColor());
+        int[] style = font.getStyle();
+        Varint.write(out, style.length);
+        for (int value : style) {
+            Varint.writeSigned(out, value);
+        }
+    }
+
+    private static Font readFont(ByteBuffer in) {
+        String name = Varint.readString(in);
+        int size = (int) Varint.readSigned(in);
+        String color = Varint.readString(in);
+        int[] style = new int[Varint.readInt(in)];
+        for (int i = 0; i < style.length; i++) {
+            style[i] = (int) Varint.readSigned(in);
+        }
+        return new Font(name, size, color, style).intern();
+    }
+
+    /**
+     * 写入索引和文件尾，之后仍然可以继续写入
+     *
+     * @throws IOException
+     */
+    void seal() throws IOException {
+        if (sealed) {
+            return;
+        }
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        Varint.write(index, fonts.size());
+        for (Font font : fonts) {
+            writeFont(index, font);
+        }
+        Varint.write(index, blocks.size());
+        for (BlockInfo block : blocks) {
+            block.write(index);
+        }
+        byte[] bytes = index.toByteArray();
+        crc.reset();
+        crc.update(bytes, 0, bytes.length);
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length + TRAILER_SIZE);
+        buffer.put(bytes).putLong(end).putInt(bytes.length).putInt((int) crc.getValue()).putInt(MAGIC).flip();
+        writeFully(buffer, end);
+        channel.force(true);
+        sealed = true;
+    }
+
+    /**
+     * 从新到旧查找会话在时间范围内的消息
+     *
+     * @param key        会话的键
+     * @param fromTime   开始时间（包含）
+     * @param toTime     结束时间（包含）
+     * @param limit      out中最多的消息数
+     * @param blockCount 只查询前blockCount个数据块
+     * @param out        按从新到旧的顺序加入找到的消息
+     * @return 读取的数据块数
+     * @throws IOException
+     */
+    int query(long key, long fromTime, long toTime, int limit, int blockCount, List<ArchiveRecord> out)
+            throws IOException {
+        int blocksRead = 0;
+        for (int i = blockCount - 1; i >= 0 && out.size() < limit; i--) {
+            BlockInfo block = blocks.get(i);
+            if (!block.matches(key, fromTime, toTime)) {
+                continue;
+            }
+            ByteBuffer buffer = read(block.offset + FRAME_HEADER_SIZE, block.length - FRAME_HEADER_SIZE);
+            blocksRead++;
+            Columns columns = Columns.decode(buffer, this, false);
+            for (int row = columns.count - 1; row >= 0 && out.size() < limit; row--) {
+                if (columns.keys[row] == key && columns.times[row] >= fromTime && columns.times[row] <= toTime) {
+                    out.add(columns.record(row, fonts));
+                }
+            }
+        }
+        return blocksRead;
+    }
+
+    int getBlockCount() {
+        return blocks.size();
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException(file.getName());
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static long[] toArray(TreeSet<Long> keys) {
+        long[] result = new long[keys.size()];
+        int i = 0;
+        for (long key : keys) {
+            result[i++] = key;
+        }
+        return result;
+    }
+
+    /**
+     * 一个数据块在索引中的信息
+     */
+    static class BlockInfo {
+
+        //数据块在文件中的位置和长度，包括块头
+        final long offset;
+
+        final int length;
+
+        final int count;
+
+        final long minTime;
+
+        final long maxTime;
+
+        //块中出现的会话，升序
+        final long[] keys;
+
+        BlockInfo(long offset, int length, int count, long minTime, long maxTime, long[] keys) {
+            this.offset = offset;
+            this.length = length;
+            this.count = count;
+            this.minTime = minTime;
+            this.maxTime = maxTime;
+            this.keys = keys;
+        }
+
+        boolean matches(long key, long fromTime, long toTime) {
+            return maxTime >= fromTime && minTime <= toTime && Arrays.binarySearch(keys, key) >= 0;
+        }
+
+        void write(ByteArrayOutputStream out) {
+            Varint.write(out, offset);
+            Varint.write(out, length);
+            Varint.write(out, count);
+            Varint.writeSigned(out, minTime);
+            Varint.write(out, maxTime - minTime);
+            Varint.write(out, keys.length);
+            long previous = 0;
+            for (long key : keys) {
+                Varint.write(out, key - previous);
+                previous = key;
+            }
+        }
+
+        static BlockInfo read(ByteBuffer in) {
+            long offset = Varint.read(in);
+            int length = Varint.readInt(in);
+            int count = Varint.readInt(in);
+            long minTime = Varint.readSigned(in);
+            long maxTime = minTime + Varint.read(in);
+            long[] keys = new long[Varint.readInt(in)];
+            long previous = 0;
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = previous + Varint.read(in);
+                previous = keys[i];
+            }
+            return new BlockInfo(offset, length, count, minTime, maxTime, keys);
+        }
+    }
+
+    /**
+     * 解码后的数据块，内容只在还原匹配的行时才解码
+     */
+    private static class Columns {
+
+        int count;
+
+        byte[] types;
+
+        long[] conversations;
+
+        long[] keys;
+
+        long[] users;
+
+        long[] times;
+
+        int[] fonts;
+
+        //每行内容在buffer中的起始位置，-1表示null
+        int[] contentOffsets;
+
+        int[] contentLengths;
+
+        ByteBuffer buffer;
+
+        static Columns decode(ByteBuffer in, ArchiveSegment segment, boolean registerFonts) {
+            Columns columns = new Columns();
+            int count = Varint.readInt(in);
+            columns.count = count;
+            int newFontsLength = Varint.readInt(in);
+            if (registerFonts) {
+                int newFonts = Varint.readInt(in);
+                for (int i = 0; i < newFonts; i++) {
+                    segment.registerFont(readFont(in));
+                }
+            } else {
+                in.position(in.position() + newFontsLength);
+            }
+            columns.types = new byte[count];
+            in.get(columns.types);
+            columns.conversations = new long[count];
+            columns.keys = new long[count];
+            for (int i = 0; i < count; i++) {
+                columns.conversations[i] = Varint.read(in);
+                columns.keys[i] = ArchiveRecord.key(columns.types[i], columns.conversations[i]);
+            }
+            columns.users = new long[count];
+            for (int i = 0; i < count; i++) {
+                columns.users[i] = Varint.read(in);
+            }
+            columns.times = new long[count];
+            long previous = 0;
+            for (int i = 0; i < count; i++) {
+                previous += Varint.readSigned(in);
+                columns.times[i] = previous;
+            }
+            columns.fonts = new int[count];
+            for (int i = 0; i < count; i++) {
+                columns.fonts[i] = Varint.readInt(in);
+            }
+            columns.contentOffsets = new int[count];
+            columns.contentLengths = new int[count];
+            for (int i = 0; i < count; i++) {
+                columns.contentLengths[i] = Varint.readInt(in) - 1;
+            }
+            int offset = in.position();
+            for (int i = 0; i < count; i++) {
+                columns.contentOffsets[i] = offset;
+                offset += Math.max(columns.contentLengths[i], 0);
+            }
+            columns.buffer = in;
+            return columns;
+        }
+
+        ArchiveRecord record(int row, List<Font> fontDictionary) {
+            String content = null;
+            if (contentLengths[row] >= 0) {
+                content = new String(buffer.array(), buffer.arrayOffset() + contentOffsets[row], contentLengths[row],
+                        StandardCharsets.UTF_8);
+            }
+            Font font = fonts[row] == 0 ? null : fontDictionary.get(fonts[row] - 1);
+            return new ArchiveRecord(types[row], conversations[row], users[row], times[row], font, content);
+        }
+
+        BlockInfo toBlockInfo(long offset, int length) {
+            long minTime = Long.MAX_VALUE;
+            long maxTime = Long.MIN_VALUE;
+            TreeSet<Long> keySet = new TreeSet<>();
+            for (int i = 0; i < count; i++) {
+                minTime = Math.min(minTime, times[i]);
+                maxTime = Math.max(maxTime, times[i]);
+                keySet.add(keys[i]);
+            }
+            return new BlockInfo(offset, length, count, minTime, maxTime, toArray(keySet));
+        }
+    }
+
+}
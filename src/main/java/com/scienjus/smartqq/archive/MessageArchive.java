@@ -0,0 +1,356 @@
+package com.scienjus.smartqq.archive;
+
+import com.scienjus.smartqq.callback.MessageCallback;
+import com.scienjus.smartqq.model.DiscussMessage;
+import com.scienjus.smartqq.model.GroupMessage;
+import com.scienjus.smartqq.model.Message;
+import com.scienjus.smartqq.util.NamedThreadFactory;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 消息归档.
+ * 消息先在内存中攒成一个数据块，按列压缩后追加到当前分段，分段写满后写入索引并开始新的分段.
+ * 内存中的消息攒满一个数据块或者到达刷新间隔时写入文件，进程崩溃时最多丢失一个刷新间隔内的消息；
+ * 消息少时数据块会比较小，压缩率随之下降.
+ * 查询时在锁内取分段和内存中消息的快照，读文件在锁外进行，不阻塞写入.
+ * 每个分段的索引记录了每个数据块的时间范围和包含的会话，查询某个会话最近的消息时只读取相关的数据块.
+ * 可以直接作为回调使用，也可以在自己的回调中调用append.
+ * <pre>
+ * MessageArchive archive = new MessageArchive(new File("archive"));
+ * //群里最近的一万条消息
+ * List&lt;GroupMessage&gt; messages = archive.getGroupMessages(groupId, 0, Long.MAX_VALUE, 10000);
+ * </pre>
+ */
+public class MessageArchive implements MessageCallback, Closeable {
+
+    /**
+     * 默认每个数据块的消息数
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+    /**
+     * 默认每个分段的数据块数
+     */
+    public static final int DEFAULT_BLOCKS_PER_SEGMENT = 256;
+
+    /**
+     * 默认的刷新间隔（秒）
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL_SECONDS = 30;
+
+    //日志
+    private static final Logger LOGGER = Logger.getLogger(MessageArchive.class);
+
+    private static final String SEGMENT_SUFFIX = ".archive";
+
+    private final File dir;
+
+    private final int blockSize;
+
+    private final int blocksPerSegment;
+
+    //所有分段，最后一个是正在写入的分段
+    private final List<ArchiveSegment> segments = new ArrayList<>();
+
+    private int nextSegmentId;
+
+    //还没有写入文件的消息
+    private final List<ArchiveRecord> buffer = new ArrayList<>();
+
+    //查询读取过的数据块数
+    private final AtomicLong blocksRead = new AtomicLong();
+
+    //定时刷新内存中的消息
+    private final ScheduledExecutorService flushExecutor;
+
+    private boolean closed;
+
+    /**
+     * 使用默认的数据块大小、分段大小和刷新间隔
+     *
+     * @param dir 归档目录，不存在时创建
+     * @throws IOException
+     */
+    public MessageArchive(File dir) throws IOException {
+        this(dir, DEFAULT_BLOCK_SIZE, DEFAULT_BLOCKS_PER_SEGMENT);
+    }
+
+    /**
+     * 使用默认的刷新间隔
+     *
+     * @param dir              归档目录，不存在时创建
+     * @param blockSize        每个数据块的消息数，也是查询时读取的最小单位
+     * @param blocksPerSegment 每个分段的数据块数
+     * @throws IOException
+     */
+    public MessageArchive(File dir, int blockSize, int blocksPerSegment) throws IOException {
+        this(dir, blockSize, blocksPerSegment, DEFAULT_FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param dir              归档目录，不存在时创建
+     * @param blockSize        每个数据块的消息数，也是查询时读取的最小单位
+     * @param blocksPerSegment 每个分段的数据块数
+     * @param flushInterval    内存中的消息最长多久写入文件，也是进程崩溃时可能丢失消息的时间范围
+     * @param unit             刷新间隔的单位
+     * @throws IOException
+     */
+    public MessageArchive(File dir, int blockSize, int blocksPerSegment, long flushInterval, TimeUnit unit)
+            throws IOException {
+        if (blockSize <= 0 || blocksPerSegment <= 0 || flushInterval <= 0) {
+            throw new IllegalArgumentException("数据块大小、分段大小和刷新间隔必须大于0");
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("无法创建归档目录：" + dir.getAbsolutePath());
+        }
+        this.dir = dir;
+        this.blockSize = blockSize;
+        this.blocksPerSegment = blocksPerSegment;
+        String[] names = dir.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (names != null) {
+            //文件名是定长的序号，按名称排序即按创建顺序
+            Arrays.sort(names);
+            try {
+                for (String name : names) {
+                    segments.add(ArchiveSegment.open(new File(dir, name)));
+                    nextSegmentId = Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length())) + 1;
+                }
+            } catch (IOException | RuntimeException e) {
+                closeSegments();
+                throw e;
+            }
+        }
+        this.flushExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("smartqq-archive"));
+        flushExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.error("定时写入归档失败", e);
+                }
+            }
+        }, flushInterval, flushInterval, unit);
+    }
+
+    /**
+     * 归档私聊消息
+     *
+     * @param message 私聊消息
+     * @throws IOException
+     */
+    public synchronized void append(Message message) throws IOException {
+        append(ArchiveRecord.of(message));
+    }
+
+    /**
+     * 归档群消息
+     *
+     * @param message 群消息
+     * @throws IOException
+     */
+    public synchronized void append(GroupMessage message) throws IOException {
+        append(ArchiveRecord.of(message));
+    }
+
+    /**
+     * 归档讨论组消息
+     *
+     * @param message 讨论组消息
+     * @throws IOException
+     */
+    public synchronized void append(DiscussMessage message) throws IOException {
+        append(ArchiveRecord.of(message));
+    }
+
+    private void append(ArchiveRecord record) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("归档已关闭");
+        }
+        buffer.add(record);
+        if (buffer.size() >= blockSize) {
+            flush();
+        }
+    }
+
+    /**
+     * 把内存中的消息写成一个数据块，不刷盘
+     *
+     * @throws IOException
+     */
+    public synchronized void flush() throws IOException {
+        if (buffer.isEmpty() || closed) {
+            return;
+        }
+        ArchiveSegment current = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (current == null || current.getBlockCount() >= blocksPerSegment) {
+            if (current != null) {
+                current.seal();
+            }
+            current = ArchiveSegment.create(new File(dir, String.format("%010d%s", nextSegmentId++, SEGMENT_SUFFIX)));
+            segments.add(current);
+        }
+        current.append(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * 查询好友的私聊消息
+     *
+     * @param userId   好友id
+     * @param fromTime 开始时间（秒，包含）
+     * @param toTime   结束时间（秒，包含）
+     * @param limit    最多返回的消息数，超过时返回最新的
+     * @return 按归档顺序排列
+     * @throws IOException
+     */
+    public List<Message> getFriendMessages(long userId, long fromTime, long toTime, int limit) throws IOException {
+        return query(ArchiveRecord.FRIEND, userId, fromTime, toTime, limit, Message.class);
+    }
+
+    /**
+     * 查询群消息
+     *
+     * @param groupId  群id
+     * @param fromTime 开始时间（秒，包含）
+     * @param toTime   结束时间（秒，包含）
+     * @param limit    最多返回的消息数，超过时返回最新的
+     * @return 按归档顺序排列
+     * @throws IOException
+     */
+    public List<GroupMessage> getGroupMessages(long groupId, long fromTime, long toTime, int limit)
+            throws IOException {
+        return query(ArchiveRecord.GROUP, groupId, fromTime, toTime, limit, GroupMessage.class);
+    }
+
+    /**
+     * 查询讨论组消息
+     *
+     * @param discussId 讨论组id
+     * @param fromTime  开始时间（秒，包含）
+     * @param toTime    结束时间（秒，包含）
+     * @param limit     最多返回的消息数，超过时返回最新的
+     * @return 按归档顺序排列
+     * @throws IOException
+     */
+    public List<DiscussMessage> getDiscussMessages(long discussId, long fromTime, long toTime, int limit)
+            throws IOException {
+        return query(ArchiveRecord.DISCUSS, discussId, fromTime, toTime, limit, DiscussMessage.class);
+    }
+
+    private <T> List<T> query(byte type, long conversationId, long fromTime, long toTime, int limit,
+                              Class<T> messageClass) throws IOException {
+        long key = ArchiveRecord.key(type, conversationId);
+        List<ArchiveRecord> found = new ArrayList<>();
+        ArchiveSegment[] snapshot;
+        //快照时每个分段的数据块数，之后写入的数据块中的消息已经从内存中查过了
+        int[] blockCounts;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("归档已关闭");
+            }
+            //先查还在内存中的消息
+            for (int i = buffer.size() - 1; i >= 0 && found.size() < limit; i--) {
+                ArchiveRecord record = buffer.get(i);
+                if (record.key() == key && record.time >= fromTime && record.time <= toTime) {
+                    found.add(record);
+                }
+            }
+            snapshot = segments.toArray(new ArchiveSegment[segments.size()]);
+            blockCounts = new int[snapshot.length];
+            for (int i = 0; i < snapshot.length; i++) {
+                blockCounts[i] = snapshot[i].getBlockCount();
+            }
+        }
+        //再从新到旧查各个分段，不持有锁
+        for (int i = snapshot.length - 1; i >= 0 && found.size() < limit; i--) {
+            blocksRead.addAndGet(snapshot[i].query(key, fromTime, toTime, limit, blockCounts[i], found));
+        }
+        Collections.reverse(found);
+        List<T> result = new ArrayList<>(found.size());
+        for (ArchiveRecord record : found) {
+            result.add(messageClass.cast(record.toMessage()));
+        }
+        return result;
+    }
+
+    //查询读取过的数据块数
+    long getBlocksRead() {
+        return blocksRead.get();
+    }
+
+    @Override
+    public void onMessage(Message message) {
+        try {
+            append(message);
+        } catch (IOException e) {
+            throw new IllegalStateException("归档消息失败", e);
+        }
+    }
+
+    @Override
+    public void onGroupMessage(GroupMessage message) {
+        try {
+            append(message);
+        } catch (IOException e) {
+            throw new IllegalStateException("归档消息失败", e);
+        }
+    }
+
+    @Override
+    public void onDiscussMessage(DiscussMessage message) {
+        try {
+            append(message);
+        } catch (IOException e) {
+            throw new IllegalStateException("归档消息失败", e);
+        }
+    }
+
+    /**
+     * 写入内存中的消息和当前分段的索引后关闭，正在进行的查询可能因为文件关闭而失败
+     *
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        //不等待定时刷新结束，它在拿到锁之后发现已经关闭就直接返回
+        flushExecutor.shutdown();
+        try {
+            flush();
+            if (!segments.isEmpty()) {
+                segments.get(segments.size() - 1).seal();
+            }
+        } finally {
+            closed = true;
+            closeSegments();
+        }
+    }
+
+    private void closeSegments() throws IOException {
+        for (ArchiveSegment segment : segments) {
+            segment.close();
+        }
+    }
+
+}
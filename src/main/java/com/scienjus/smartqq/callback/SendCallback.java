@@ -0,0 +1,21 @@
+package com.scienjus.smartqq.callback;
+
+import com.scienjus.smartqq.model.SendResult;
+
+/**
+ * 异步发送消息的回调
+ */
+public interface SendCallback {
+
+    /**
+     * 收到发送接口的返回后的回调，是否发送成功需要检查{@link SendResult#isSuccess()}
+     * @param result
+     */
+    void onComplete(SendResult result);
+
+    /**
+     * 请求过程中出现异常（如网络错误）后的回调
+     * @param e
+     */
+    void onError(Throwable e);
+}
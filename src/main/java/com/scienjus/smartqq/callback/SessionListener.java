@@ -0,0 +1,16 @@
+package com.scienjus.smartqq.callback;
+
+import com.scienjus.smartqq.constant.SessionState;
+
+/**
+ * 登录状态变化的回调
+ */
+public interface SessionListener {
+
+    /**
+     * 登录状态变化后的回调，在触发变化的线程（通常是拉取消息的线程）上执行，不要在回调中阻塞
+     * @param oldState
+     * @param newState
+     */
+    void onStateChanged(SessionState oldState, SessionState newState);
+}
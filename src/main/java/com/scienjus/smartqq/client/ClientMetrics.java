@@ -0,0 +1,229 @@
+package com.scienjus.smartqq.client;
+
+import com.scienjus.smartqq.callback.MessageCallback;
+import com.scienjus.smartqq.constant.ApiURL;
+import com.scienjus.smartqq.metrics.Counter;
+import com.scienjus.smartqq.metrics.Gauge;
+import com.scienjus.smartqq.metrics.Histogram;
+import com.scienjus.smartqq.metrics.MetricsRegistry;
+import com.scienjus.smartqq.model.DiscussMessage;
+import com.scienjus.smartqq.model.GroupMessage;
+import com.scienjus.smartqq.model.Message;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 客户端记录的指标.
+ * 热点路径上使用的指标在创建时就从注册表中取出，记录时不再查找.
+ * 所有指标都带有account标签，多个客户端共用一个注册表时各自的指标互不覆盖.
+ */
+class ClientMetrics {
+
+    //未指定账号名时的客户端编号
+    private static final AtomicInteger CLIENT_SEQUENCE = new AtomicInteger();
+
+    //发送队列长度的指标名，关闭时注销
+    private static final String SEND_QUEUE_DEPTH = "smartqq_send_queue_depth";
+
+    private final MetricsRegistry registry;
+
+    //account标签的值
+    private final String account;
+
+    //每个接口的请求次数，每次重试单独计数
+    private final Map<ApiURL, Counter> requests = new EnumMap<>(ApiURL.class);
+
+    //每个接口的耗时
+    private final Map<ApiURL, Histogram> latencies = new EnumMap<>(ApiURL.class);
+
+    //拉取消息从发出请求到收到响应的时间，包括服务端挂起的时间
+    private final Histogram pollRtt;
+
+    private final Counter pollErrors;
+
+    private final Counter friendMessages;
+
+    private final Counter groupMessages;
+
+    private final Counter discussMessages;
+
+    private final Histogram friendCallbacks;
+
+    private final Histogram groupCallbacks;
+
+    private final Histogram discussCallbacks;
+
+    private final Counter callbackErrors;
+
+    /**
+     * @param registry 注册表
+     * @param account  account标签的值，为null时使用"client-编号"
+     */
+    ClientMetrics(MetricsRegistry registry, String account) {
+        this.registry = registry;
+        this.account = account != null ? account : "client-" + CLIENT_SEQUENCE.incrementAndGet();
+        for (ApiURL api : ApiURL.values()) {
+            requests.put(api, registry.counter("smartqq_api_requests_total", "接口请求次数，重试单独计数",
+                    labels("api", api.name())));
+            latencies.put(api, registry.histogram("smartqq_api_latency_seconds", "接口请求耗时",
+                    Histogram.LATENCY_BUCKETS, labels("api", api.name())));
+        }
+        this.pollRtt = registry.histogram("smartqq_poll_rtt_seconds", "拉取消息的往返时间，包括服务端挂起的时间",
+                Histogram.POLL_BUCKETS, labels());
+        this.pollErrors = registry.counter("smartqq_poll_errors_total", "拉取消息失败次数，不包括长轮询超时", labels());
+        this.friendMessages = received("friend");
+        this.groupMessages = received("group");
+        this.discussMessages = received("discuss");
+        this.friendCallbacks = callback("friend");
+        this.groupCallbacks = callback("group");
+        this.discussCallbacks = callback("discuss");
+        this.callbackErrors = registry.counter("smartqq_callback_errors_total", "消息回调抛出异常的次数", labels());
+    }
+
+    //在标签前加上account标签
+    private String[] labels(String... labels) {
+        String[] result = new String[labels.length + 2];
+        result[0] = "account";
+        result[1] = account;
+        System.arraycopy(labels, 0, result, 2, labels.length);
+        return result;
+    }
+
+    private Counter received(String type) {
+        return registry.counter("smartqq_messages_received_total", "收到的消息数", labels("type", type));
+    }
+
+    private Histogram callback(String type) {
+        return registry.histogram("smartqq_callback_seconds", "消息回调的执行时间",
+                Histogram.CALLBACK_BUCKETS, labels("type", type));
+    }
+
+    MetricsRegistry getRegistry() {
+        return registry;
+    }
+
+    //记录一次收到响应的请求
+    void recordRequest(ApiURL api, long startNanos, int statusCode) {
+        requests.get(api).increment();
+        latencies.get(api).record(System.nanoTime() - startNanos);
+        if (statusCode != 200) {
+            registry.counter("smartqq_api_errors_total", "接口请求失败次数", labels("api", api.name(),
+                    "reason", "http_" + statusCode)).increment();
+        }
+    }
+
+    //记录一次没有收到响应的请求
+    void recordRequestFailure(ApiURL api, long startNanos, Exception e) {
+        requests.get(api).increment();
+        latencies.get(api).record(System.nanoTime() - startNanos);
+        registry.counter("smartqq_api_errors_total", "接口请求失败次数", labels("api", api.name(),
+                "reason", reason(e))).increment();
+    }
+
+    //失败原因取异常链中第一个IOException的类名，种类有限，不会产生过多的标签值
+    private static String reason(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return cause.getClass().getSimpleName();
+            }
+        }
+        return "other";
+    }
+
+    //记录非0的Api返回码
+    void recordRetcode(Integer retcode) {
+        if (retcode == null || retcode != 0) {
+            registry.counter("smartqq_api_retcode_errors_total", "接口返回的非0返回码次数",
+                    labels("retcode", String.valueOf(retcode))).increment();
+        }
+    }
+
+    void recordPoll(long startNanos) {
+        pollRtt.record(System.nanoTime() - startNanos);
+    }
+
+    void recordPollError() {
+        pollErrors.increment();
+    }
+
+    //发送队列长度
+    void sendQueueDepth(Gauge gauge) {
+        registry.gauge(SEND_QUEUE_DEPTH, "等待发送的消息数", gauge, labels());
+    }
+
+    //客户端关闭时注销瞬时值，计数器保留在注册表中
+    void close() {
+        registry.unregister(SEND_QUEUE_DEPTH, labels());
+    }
+
+    //统计收到的消息后交给dispatch
+    MessageCallback counting(final MessageCallback dispatch) {
+        return new MessageCallback() {
+            @Override
+            public void onMessage(Message message) {
+                friendMessages.increment();
+                dispatch.onMessage(message);
+            }
+
+            @Override
+            public void onGroupMessage(GroupMessage message) {
+                groupMessages.increment();
+                dispatch.onGroupMessage(message);
+            }
+
+            @Override
+            public void onDiscussMessage(DiscussMessage message) {
+                discussMessages.increment();
+                dispatch.onDiscussMessage(message);
+            }
+        };
+    }
+
+    //统计回调的执行时间，在分发器的线程上执行
+    MessageCallback timing(final MessageCallback callback) {
+        return new MessageCallback() {
+            @Override
+            public void onMessage(Message message) {
+                long start = System.nanoTime();
+                try {
+                    callback.onMessage(message);
+                } catch (RuntimeException e) {
+                    callbackErrors.increment();
+                    throw e;
+                } finally {
+                    friendCallbacks.record(System.nanoTime() - start);
+                }
+            }
+
+            @Override
+            public void onGroupMessage(GroupMessage message) {
+                long start = System.nanoTime();
+                try {
+                    callback.onGroupMessage(message);
+                } catch (RuntimeException e) {
+                    callbackErrors.increment();
+                    throw e;
+                } finally {
+                    groupCallbacks.record(System.nanoTime() - start);
+                }
+            }
+
+            @Override
+            public void onDiscussMessage(DiscussMessage message) {
+                long start = System.nanoTime();
+                try {
+                    callback.onDiscussMessage(message);
+                } catch (RuntimeException e) {
+                    callbackErrors.increment();
+                    throw e;
+                } finally {
+                    discussCallbacks.record(System.nanoTime() - start);
+                }
+            }
+        };
+    }
+
+}
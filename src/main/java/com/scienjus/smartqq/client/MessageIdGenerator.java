@@ -0,0 +1,34 @@
+package com.scienjus.smartqq.client;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 消息id生成器，每个客户端一个实例，可以在多个线程中同时使用.
+ */
+class MessageIdGenerator {
+
+    //与网页版相同的取值范围，起始值随机，避免同一进程中多个客户端的id重叠
+    private static final long SEED_BASE = 10000000L;
+    private static final int SEED_RANGE = 80000000;
+
+    private final AtomicLong next;
+
+    MessageIdGenerator() {
+        this(SEED_BASE + new Random().nextInt(SEED_RANGE));
+    }
+
+    MessageIdGenerator(long seed) {
+        this.next = new AtomicLong(seed);
+    }
+
+    /**
+     * 获得下一个消息id
+     *
+     * @return
+     */
+    long nextId() {
+        return next.getAndIncrement();
+    }
+
+}
@@ -0,0 +1,221 @@
+package com.scienjus.smartqq.client;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONReader;
+import com.scienjus.smartqq.callback.MessageCallback;
+import com.scienjus.smartqq.model.DiscussMessage;
+import com.scienjus.smartqq.model.Font;
+import com.scienjus.smartqq.model.GroupMessage;
+import com.scienjus.smartqq.model.Message;
+
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * 拉取消息接口返回结果的流式解析器.
+ * 直接从响应流中逐个解析出消息对象，不生成中间的字符串和JSONObject.
+ */
+class PollMessageDecoder {
+
+    private PollMessageDecoder() {
+    }
+
+    /**
+     * 解析拉取消息接口的返回结果，每解析出一条消息就交给回调
+     *
+     * @param in       响应内容
+     * @param callback 接收解析出的消息
+     * @return 返回结果中的retcode，没有时为null
+     */
+    static Integer decode(Reader in, MessageCallback callback) {
+        Integer retcode = null;
+        JSONReader reader = new JSONReader(in);
+        try {
+            reader.startObject();
+            while (reader.hasNext()) {
+                String key = reader.readString();
+                if ("retcode".equals(key)) {
+                    retcode = reader.readInteger();
+                } else if ("result".equals(key)) {
+                    readResult(reader, callback);
+                } else {
+                    reader.readObject();
+                }
+            }
+            reader.endObject();
+        } finally {
+            reader.close();
+        }
+        return retcode;
+    }
+
+    //result: [{"poll_type": "...", "value": {...}}, ...]
+    private static void readResult(JSONReader reader, MessageCallback callback) {
+        reader.startArray();
+        while (reader.hasNext()) {
+            String type = null;
+            RawMessage value = null;
+            reader.startObject();
+            while (reader.hasNext()) {
+                String key = reader.readString();
+                if ("poll_type".equals(key)) {
+                    type = reader.readString();
+                } else if ("value".equals(key)) {
+                    value = readValue(reader);
+                } else {
+                    reader.readObject();
+                }
+            }
+            reader.endObject();
+            //poll_type和value的先后顺序不确定，读完整个对象后再决定消息类型
+            if (value != null) {
+                emit(type, value, callback);
+            }
+        }
+        reader.endArray();
+    }
+
+    private static void emit(String type, RawMessage value, MessageCallback callback) {
+        if ("message".equals(type)) {
+            Message message = new Message();
+            message.setContent(value.content);
+            message.setFont(value.font);
+            message.setTime(value.time);
+            message.setUserId(value.fromUin);
+            callback.onMessage(message);
+        } else if ("group_message".equals(type)) {
+            GroupMessage message = new GroupMessage();
+            message.setContent(value.content);
+            message.setFont(value.font);
+            message.setTime(value.time);
+            message.setGroupId(value.groupCode);
+            message.setUserId(value.sendUin);
+            callback.onGroupMessage(message);
+        } else if ("discu_message".equals(type)) {
+            DiscussMessage message = new DiscussMessage();
+            message.setContent(value.content);
+            message.setFont(value.font);
+            message.setTime(value.time);
+            message.setDiscussId(value.did);
+            message.setUserId(value.sendUin);
+            callback.onDiscussMessage(message);
+        }
+    }
+
+    private static RawMessage readValue(JSONReader reader) {
+        RawMessage value = new RawMessage();
+        reader.startObject();
+        while (reader.hasNext()) {
+            String key = reader.readString();
+            switch (key) {
+                case "content":
+                    readContent(reader, value);
+                    break;
+                case "time":
+                    value.time = reader.readLong();
+                    break;
+                case "from_uin":
+                    value.fromUin = reader.readLong();
+                    break;
+                case "send_uin":
+                    value.sendUin = reader.readLong();
+                    break;
+                case "group_code":
+                    value.groupCode = reader.readLong();
+                    break;
+                case "did":
+                    value.did = reader.readLong();
+                    break;
+                default:
+                    reader.readObject();
+            }
+        }
+        reader.endObject();
+        return value;
+    }
+
+    //content: [["font", {...}], "文字", ["face", 14], ...]
+    private static void readContent(JSONReader reader, RawMessage value) {
+        reader.startArray();
+        reader.startArray();
+        reader.readString();
+        value.font = readFont(reader);
+        reader.endArray();
+        StringBuilder content = new StringBuilder();
+        while (reader.hasNext()) {
+            Object part = reader.readObject();
+            if (part instanceof String) {
+                content.append((String) part);
+            } else {
+                //表情等非文字内容保留原始的json
+                content.append(JSON.toJSONString(part));
+            }
+        }
+        reader.endArray();
+        value.content = content.toString();
+    }
+
+    //字体对象会被大量消息共用，解析后取共享实例
+    private static Font readFont(JSONReader reader) {
+        String name = null;
+        int size = 0;
+        String color = null;
+        int[] style = null;
+        reader.startObject();
+        while (reader.hasNext()) {
+            String key = reader.readString();
+            switch (key) {
+                case "name":
+                    name = reader.readString();
+                    break;
+                case "size":
+                    size = reader.readInteger();
+                    break;
+                case "color":
+                    color = reader.readString();
+                    break;
+                case "style":
+                    style = readStyle(reader);
+                    break;
+                default:
+                    reader.readObject();
+            }
+        }
+        reader.endObject();
+        return new Font(name, size, color, style).intern();
+    }
+
+    private static int[] readStyle(JSONReader reader) {
+        int[] style = new int[3];
+        int length = 0;
+        reader.startArray();
+        while (reader.hasNext()) {
+            int flag = reader.readInteger();
+            if (length == style.length) {
+                style = Arrays.copyOf(style, length * 2);
+            }
+            style[length++] = flag;
+        }
+        reader.endArray();
+        return length == style.length ? style : Arrays.copyOf(style, length);
+    }
+
+    //value中用到的字段，三种消息共用
+    private static class RawMessage {
+
+        private String content;
+
+        private Font font;
+
+        private long time;
+
+        private long fromUin;
+
+        private long sendUin;
+
+        private long groupCode;
+
+        private long did;
+    }
+
+}
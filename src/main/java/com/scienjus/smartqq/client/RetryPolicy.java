@@ -0,0 +1,172 @@
+package com.scienjus.smartqq.client;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 请求失败后的重试策略.
+ * <ul>
+ * <li>只重试可恢复的失败：网络异常，以及404（服务端nginx偶发）、408、429和5xx等Http返回码；发送消息的接口不幂等，网络异常时不重试</li>
+ * <li>重试间隔从initialDelay开始按multiplier倍增长，不超过maxDelay，并加入随机抖动避免多个客户端同时重试</li>
+ * <li>总尝试次数不超过maxAttempts，从第一次请求开始的总耗时不超过maxElapsed</li>
+ * </ul>
+ * 不可变对象，可以被多个客户端共用.
+ */
+public class RetryPolicy {
+
+    /**
+     * 默认策略：最多请求5次，间隔从200毫秒开始翻倍，最长5秒，总耗时不超过30秒
+     */
+    public static final RetryPolicy DEFAULT = new RetryPolicy(5, 200, 5000, 2, 0.5, 30000, TimeUnit.MILLISECONDS);
+
+    //最多尝试次数，包括第一次请求
+    private final int maxAttempts;
+
+    //第一次重试前的等待时间
+    private final long initialDelayMillis;
+
+    //最长等待时间
+    private final long maxDelayMillis;
+
+    //等待时间的增长倍数
+    private final double multiplier;
+
+    //随机抖动的比例，0表示不抖动，0.5表示等待时间在[50%, 100%]之间随机
+    private final double jitter;
+
+    //从第一次请求开始的最长总耗时
+    private final long maxElapsedMillis;
+
+    /**
+     * @param maxAttempts  最多尝试次数，包括第一次请求
+     * @param initialDelay 第一次重试前的等待时间
+     * @param maxDelay     最长等待时间
+     * @param multiplier   等待时间的增长倍数
+     * @param jitter       随机抖动的比例，取值[0, 1]
+     * @param maxElapsed   从第一次请求开始的最长总耗时
+     * @param unit         时间单位
+     */
+    public RetryPolicy(int maxAttempts, long initialDelay, long maxDelay, double multiplier, double jitter,
+                       long maxElapsed, TimeUnit unit) {
+        if (maxAttempts < 1 || multiplier < 1 || jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("重试策略参数不正确");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialDelayMillis = unit.toMillis(initialDelay);
+        this.maxDelayMillis = unit.toMillis(maxDelay);
+        this.multiplier = multiplier;
+        this.jitter = jitter;
+        this.maxElapsedMillis = unit.toMillis(maxElapsed);
+    }
+
+    /**
+     * Http返回码是否值得重试
+     *
+     * @param statusCode Http返回码
+     * @return
+     */
+    public boolean isRetryableStatus(int statusCode) {
+        return statusCode == 404 || statusCode == 408 || statusCode == 429 || statusCode >= 500;
+    }
+
+    /**
+     * 异常是否值得重试，网络异常（连接失败、超时等）可以重试，其它异常直接抛出
+     *
+     * @param e 请求过程中的异常
+     * @return
+     */
+    public boolean isRetryable(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 获得第retries次重试前的等待时间，已包含随机抖动
+     *
+     * @param retries 已经重试的次数，从0开始
+     * @return 等待时间（毫秒）
+     */
+    public long getDelayMillis(int retries) {
+        double delay = initialDelayMillis * Math.pow(multiplier, retries);
+        delay = Math.min(delay, maxDelayMillis);
+        delay -= delay * jitter * ThreadLocalRandom.current().nextDouble();
+        return (long) delay;
+    }
+
+    /**
+     * 开始一次请求的重试计数
+     *
+     * @return
+     */
+    public Retry newRetry() {
+        return new Retry();
+    }
+
+    /**
+     * 一次请求的重试状态，每个请求单独使用，非线程安全.
+     * shouldRetry返回true时已经等待过重试间隔，调用方直接重新请求即可.
+     */
+    public class Retry {
+
+        private final long startedAt = System.currentTimeMillis();
+
+        private int attempts = 1;
+
+        private Retry() {
+        }
+
+        /**
+         * 请求返回了非200的Http返回码后调用
+         *
+         * @param statusCode Http返回码
+         * @return 是否应该重试
+         */
+        public boolean shouldRetry(int statusCode) {
+            return statusCode != 200 && isRetryableStatus(statusCode) && await();
+        }
+
+        /**
+         * 请求抛出异常后调用
+         *
+         * @param e 请求过程中的异常
+         * @return 是否应该重试
+         */
+        public boolean shouldRetry(Throwable e) {
+            return isRetryable(e) && await();
+        }
+
+        //还有重试机会时等待重试间隔
+        private boolean await() {
+            if (attempts >= maxAttempts) {
+                return false;
+            }
+            long delay = getDelayMillis(attempts - 1);
+            if (System.currentTimeMillis() + delay - startedAt > maxElapsedMillis) {
+                return false;
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            attempts++;
+            return true;
+        }
+
+        /**
+         * 获得已经尝试的次数
+         *
+         * @return
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.scienjus.smartqq.client;
+
+import com.scienjus.smartqq.callback.SendCallback;
+import com.scienjus.smartqq.model.SendResult;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 异步发送消息的结果，可以阻塞等待，也可以注册回调.
+ */
+public class SendFuture implements Future<SendResult> {
+
+    //日志
+    private static final Logger LOGGER = Logger.getLogger(SendFuture.class);
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    //以下字段都在this上同步
+    private List<SendCallback> callbacks = new ArrayList<>();
+    private SendResult result;
+    private Throwable error;
+    private boolean cancelled;
+
+    /**
+     * 注册回调，如果已经发送完成会立即在当前线程上执行，否则在完成发送的线程上执行
+     *
+     * @param callback 回调
+     * @return 当前对象
+     */
+    public SendFuture addCallback(SendCallback callback) {
+        synchronized (this) {
+            if (callbacks != null) {
+                callbacks.add(callback);
+                return this;
+            }
+        }
+        notifyCallback(callback);
+        return this;
+    }
+
+    /**
+     * 设置发送结果
+     *
+     * @param result 发送结果
+     * @return 是否设置成功，已完成时返回false
+     */
+    boolean complete(SendResult result) {
+        return finish(result, null, false);
+    }
+
+    /**
+     * 设置发送异常
+     *
+     * @param error 异常
+     * @return 是否设置成功，已完成时返回false
+     */
+    boolean fail(Throwable error) {
+        return finish(null, error, false);
+    }
+
+    //结果、异常和取消标记在同一个同步块里设置，只有第一个完成的线程能成功
+    private boolean finish(SendResult result, Throwable error, boolean cancelled) {
+        List<SendCallback> toNotify;
+        synchronized (this) {
+            if (callbacks == null) {
+                return false;
+            }
+            this.result = result;
+            this.error = error;
+            this.cancelled = cancelled;
+            toNotify = callbacks;
+            callbacks = null;
+        }
+        done.countDown();
+        for (SendCallback callback : toNotify) {
+            notifyCallback(callback);
+        }
+        return true;
+    }
+
+    private void notifyCallback(SendCallback callback) {
+        try {
+            if (cancelled) {
+                callback.onError(new CancellationException());
+            } else if (error != null) {
+                callback.onError(error);
+            } else {
+                callback.onComplete(result);
+            }
+        } catch (Exception e) {
+            LOGGER.error("发送回调执行失败", e);
+        }
+    }
+
+    /**
+     * 只能取消还没有开始发送的消息，已经发出的请求无法撤回
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return finish(null, new CancellationException(), true);
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    @Override
+    public SendResult get() throws InterruptedException, ExecutionException {
+        done.await();
+        return report();
+    }
+
+    @Override
+    public SendResult get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return report();
+    }
+
+    private synchronized SendResult report() throws ExecutionException {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,461 @@
+package com.scienjus.smartqq.client;
+
+import com.scienjus.smartqq.callback.SendCallback;
+import com.scienjus.smartqq.model.SendResult;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 消息发送调度器，放在sendMessageTo*方法前面控制发送速率.
+ * <ul>
+ * <li>全局令牌桶限制整个账号的发送速率</li>
+ * <li>每个接收者单独的令牌桶限制对同一个好友、群或讨论组的发送速率</li>
+ * <li>同一个接收者同一时间只有一条消息在发送，上一条发送完成后才发出下一条，保证到达顺序</li>
+ * <li>开启合并后，同一个接收者在合并窗口内排队的多条短消息会用换行拼接成一条发送</li>
+ * </ul>
+ * 各项参数需要在{@link SmartQQClient#setSendScheduler(SendScheduler)}之前设置.
+ */
+public class SendScheduler implements Closeable {
+
+    //日志
+    private static final Logger LOGGER = Logger.getLogger(SendScheduler.class);
+
+    //合并消息时使用的分隔符
+    private static final String COALESCE_SEPARATOR = "\n";
+
+    //每秒最多发送的消息数
+    private final double globalRate;
+
+    //每个接收者每秒最多发送的消息数
+    private final double perTargetRate;
+
+    //全局突发数
+    private int globalBurst = 1;
+
+    //每个接收者的突发数
+    private int perTargetBurst = 1;
+
+    //合并窗口，0表示不合并
+    private long coalesceWindowNanos;
+
+    //合并后消息的最大长度
+    private int maxCoalescedLength = 500;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition changed = lock.newCondition();
+
+    //以下字段都由lock保护
+    private final Map<TargetKey, TargetQueue> targets = new LinkedHashMap<>();
+    private TokenBucket globalBucket;
+    private int queueSize;
+    private boolean running;
+
+    private SmartQQClient client;
+
+    private Thread thread;
+
+    /**
+     * @param globalRate    每秒最多发送的消息数
+     * @param perTargetRate 每个接收者每秒最多发送的消息数
+     */
+    public SendScheduler(double globalRate, double perTargetRate) {
+        if (globalRate <= 0 || perTargetRate <= 0) {
+            throw new IllegalArgumentException("发送速率必须大于0");
+        }
+        this.globalRate = globalRate;
+        this.perTargetRate = perTargetRate;
+    }
+
+    /**
+     * 设置全局允许的突发数，默认为1
+     *
+     * @param globalBurst 突发数
+     */
+    public void setGlobalBurst(int globalBurst) {
+        this.globalBurst = globalBurst;
+    }
+
+    /**
+     * 设置每个接收者允许的突发数，默认为1
+     *
+     * @param perTargetBurst 突发数
+     */
+    public void setPerTargetBurst(int perTargetBurst) {
+        this.perTargetBurst = perTargetBurst;
+    }
+
+    /**
+     * 设置合并窗口，消息至少排队这么久才会发出，期间发给同一个接收者的消息会合并成一条，默认不合并
+     *
+     * @param window 合并窗口，0表示不合并
+     * @param unit   时间单位
+     */
+    public void setCoalesceWindow(long window, TimeUnit unit) {
+        this.coalesceWindowNanos = unit.toNanos(window);
+    }
+
+    /**
+     * 设置合并后消息的最大长度，超过的消息不会再合并进来，默认为500
+     *
+     * @param maxCoalescedLength 最大长度
+     */
+    public void setMaxCoalescedLength(int maxCoalescedLength) {
+        this.maxCoalescedLength = maxCoalescedLength;
+    }
+
+    /**
+     * 获得排队中的消息数
+     *
+     * @return
+     */
+    public int getQueueSize() {
+        lock.lock();
+        try {
+            return queueSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //绑定客户端并启动调度线程
+    void start(SmartQQClient client) {
+        bind(client, System.nanoTime());
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "smartqq-send-scheduler");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    //绑定客户端，不启动调度线程
+    void bind(SmartQQClient client, long now) {
+        lock.lock();
+        try {
+            if (this.client != null) {
+                throw new IllegalStateException("调度器已经绑定了其它客户端");
+            }
+            this.client = client;
+            this.globalBucket = new TokenBucket(globalRate, globalBurst, now);
+            this.running = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 消息入队
+     *
+     * @param type 接收者类型
+     * @param id   接收者id
+     * @param msg  消息内容
+     * @return 发送结果
+     */
+    SendFuture submit(TargetType type, long id, String msg) {
+        return submit(type, id, msg, System.nanoTime());
+    }
+
+    /**
+     * 消息入队
+     *
+     * @param type 接收者类型
+     * @param id   接收者id
+     * @param msg  消息内容
+     * @param now  当前时间（System.nanoTime）
+     * @return 发送结果
+     */
+    SendFuture submit(TargetType type, long id, String msg, long now) {
+        SendFuture future = new SendFuture();
+        lock.lock();
+        try {
+            if (!running) {
+                future.fail(new IllegalStateException("发送调度器未启动或已关闭"));
+                return future;
+            }
+            TargetKey key = new TargetKey(type, id);
+            TargetQueue queue = targets.get(key);
+            if (queue == null) {
+                queue = new TargetQueue(new TokenBucket(perTargetRate, perTargetBurst, now));
+                targets.put(key, queue);
+            }
+            queue.pending.add(new Pending(msg, future, now));
+            queueSize++;
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+        return future;
+    }
+
+    private void loop() {
+        List<Batch> batches = new ArrayList<>();
+        while (true) {
+            lock.lock();
+            try {
+                if (!running) {
+                    return;
+                }
+                long wait = collect(System.nanoTime(), batches);
+                if (batches.isEmpty()) {
+                    if (wait == Long.MAX_VALUE) {
+                        changed.await();
+                    } else {
+                        changed.awaitNanos(wait);
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            //在锁外提交发送请求
+            for (Batch batch : batches) {
+                try {
+                    client.sendNow(batch.key.type, batch.key.id, batch.content, batch.futures);
+                } catch (RejectedExecutionException e) {
+                    for (SendFuture future : batch.futures) {
+                        future.fail(new IllegalStateException("客户端已关闭"));
+                    }
+                }
+            }
+            batches.clear();
+        }
+    }
+
+    //挑出当前可以发送的消息，返回距离下一次可能有消息可发需要等待的时间，调用时需持有lock
+    long collect(long now, List<Batch> batches) {
+        long wait = Long.MAX_VALUE;
+        List<TargetKey> served = new ArrayList<>();
+        Iterator<Map.Entry<TargetKey, TargetQueue>> iterator = targets.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<TargetKey, TargetQueue> entry = iterator.next();
+            TargetQueue queue = entry.getValue();
+            Pending head = queue.pending.peek();
+            if (head == null) {
+                //空闲且令牌已补满的接收者可以回收
+                if (!queue.inFlight && queue.bucket.isFull(now)) {
+                    iterator.remove();
+                }
+                continue;
+            }
+            //上一条还没有发送完，发送完成时会唤醒调度线程
+            if (queue.inFlight) {
+                continue;
+            }
+            long readyAt = head.enqueuedAt + coalesceWindowNanos;
+            if (readyAt > now) {
+                wait = Math.min(wait, readyAt - now);
+                continue;
+            }
+            long targetWait = queue.bucket.nanosUntilAvailable(now);
+            if (targetWait > 0) {
+                wait = Math.min(wait, targetWait);
+                continue;
+            }
+            long globalWait = globalBucket.nanosUntilAvailable(now);
+            if (globalWait > 0) {
+                wait = Math.min(wait, globalWait);
+                break;
+            }
+            queue.bucket.consume(now);
+            globalBucket.consume(now);
+            Batch batch = drain(entry.getKey(), queue);
+            queue.inFlight = true;
+            releaseWhenDone(entry.getKey(), batch.futures);
+            batches.add(batch);
+            served.add(entry.getKey());
+        }
+        //已发送的接收者移到队尾，轮流发送
+        for (TargetKey key : served) {
+            targets.put(key, targets.remove(key));
+        }
+        return wait;
+    }
+
+    //这一批的结果全部确定（发送完成、失败或取消）后，允许发送该接收者的下一批
+    private void releaseWhenDone(final TargetKey key, List<SendFuture> futures) {
+        final AtomicInteger remaining = new AtomicInteger(futures.size());
+        SendCallback release = new SendCallback() {
+            @Override
+            public void onComplete(SendResult result) {
+                countDown();
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                countDown();
+            }
+
+            private void countDown() {
+                if (remaining.decrementAndGet() > 0) {
+                    return;
+                }
+                lock.lock();
+                try {
+                    TargetQueue queue = targets.get(key);
+                    if (queue != null) {
+                        queue.inFlight = false;
+                    }
+                    changed.signal();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        };
+        for (SendFuture future : futures) {
+            future.addCallback(release);
+        }
+    }
+
+    //取出一条消息，开启合并时把后面能放下的消息也一起取出
+    private Batch drain(TargetKey key, TargetQueue queue) {
+        Pending first = queue.pending.poll();
+        queueSize--;
+        List<SendFuture> futures = new ArrayList<>();
+        futures.add(first.future);
+        if (coalesceWindowNanos <= 0) {
+            return new Batch(key, first.msg, futures);
+        }
+        StringBuilder content = new StringBuilder(first.msg);
+        Pending next;
+        while ((next = queue.pending.peek()) != null
+                && content.length() + COALESCE_SEPARATOR.length() + next.msg.length() <= maxCoalescedLength) {
+            queue.pending.poll();
+            queueSize--;
+            content.append(COALESCE_SEPARATOR).append(next.msg);
+            futures.add(next.future);
+        }
+        return new Batch(key, content.toString(), futures);
+    }
+
+    /**
+     * 停止调度，还在排队的消息不再发送
+     */
+    @Override
+    public void close() {
+        List<Pending> dropped = new ArrayList<>();
+        lock.lock();
+        try {
+            running = false;
+            for (TargetQueue queue : targets.values()) {
+                dropped.addAll(queue.pending);
+            }
+            targets.clear();
+            queueSize = 0;
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (!dropped.isEmpty()) {
+            LOGGER.warn(String.format("发送调度器已关闭，%d条消息未发送", dropped.size()));
+        }
+        for (Pending pending : dropped) {
+            pending.future.fail(new IllegalStateException("发送调度器已关闭"));
+        }
+    }
+
+    //接收者
+    private static class TargetKey {
+
+        private final TargetType type;
+
+        private final long id;
+
+        TargetKey(TargetType type, long id) {
+            this.type = type;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof TargetKey)) {
+                return false;
+            }
+            TargetKey that = (TargetKey) o;
+            return id == that.id && type == that.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * type.hashCode() + (int) (id ^ (id >>> 32));
+        }
+    }
+
+    //单个接收者的排队消息
+    private static class TargetQueue {
+
+        private final TokenBucket bucket;
+
+        private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+
+        //是否有一批消息正在发送
+        private boolean inFlight;
+
+        TargetQueue(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+    }
+
+    //排队中的消息
+    private static class Pending {
+
+        private final String msg;
+
+        private final SendFuture future;
+
+        private final long enqueuedAt;
+
+        Pending(String msg, SendFuture future, long enqueuedAt) {
+            this.msg = msg;
+            this.future = future;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    //一次实际发送
+    static class Batch {
+
+        private final TargetKey key;
+
+        private final String content;
+
+        private final List<SendFuture> futures;
+
+        Batch(TargetKey key, String content, List<SendFuture> futures) {
+            this.key = key;
+            this.content = content;
+            this.futures = futures;
+        }
+
+        long getTargetId() {
+            return key.id;
+        }
+
+        String getContent() {
+            return content;
+        }
+
+        List<SendFuture> getFutures() {
+            return futures;
+        }
+    }
+
+}
@@ -4,24 +4,53 @@ import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 import com.scienjus.smartqq.callback.MessageCallback;
+import com.scienjus.smartqq.callback.SendCallback;
+import com.scienjus.smartqq.callback.SessionListener;
 import com.scienjus.smartqq.constant.ApiURL;
+import com.scienjus.smartqq.constant.SessionState;
+import com.scienjus.smartqq.dispatch.MessageDispatcher;
+import com.scienjus.smartqq.dispatch.ThreadPoolMessageDispatcher;
+import com.scienjus.smartqq.journal.MessageJournal;
+import com.scienjus.smartqq.metrics.Gauge;
+import com.scienjus.smartqq.metrics.MetricsRegistry;
 import com.scienjus.smartqq.model.*;
+import com.scienjus.smartqq.session.SessionSnapshot;
+import com.scienjus.smartqq.session.SessionStore;
+import com.scienjus.smartqq.util.NamedThreadFactory;
+import com.scienjus.smartqq.session.SessionCookie;
+import com.scienjus.smartqq.transport.HttpRequest;
+import com.scienjus.smartqq.transport.HttpResponse;
+import com.scienjus.smartqq.transport.HttpTransport;
+import com.scienjus.smartqq.transport.RequestsTransport;
+import com.scienjus.smartqq.transport.ResponseCallback;
+import com.scienjus.smartqq.transport.TransportSession;
 import net.dongliu.requests.Client;
-import net.dongliu.requests.HeadOnlyRequestBuilder;
-import net.dongliu.requests.Response;
-import net.dongliu.requests.Session;
+import net.dongliu.requests.PooledClientBuilder;
 import net.dongliu.requests.exception.RequestException;
-import net.dongliu.requests.struct.Cookie;
+import net.dongliu.requests.struct.Proxy;
 import org.apache.log4j.Logger;
 
 import java.awt.Desktop;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.net.SocketTimeoutException;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 
 /**
  * Api客户端.
@@ -35,79 +64,604 @@ public class SmartQQClient implements Closeable {
     //日志
     private static final Logger LOGGER = Logger.getLogger(SmartQQClient.class);
 
-    //发生ngnix 404 时的重试次数
-    private static int retryTimesOnFailed = 3;
-    
-    //消息id，这个好像可以随便设置，所以设成全局的
-    private static long MESSAGE_ID = 43690001;
-
     //客户端id，固定的
     private static final long Client_ID = 53999199;
 
-    //消息发送失败重发次数
-    private static final long RETRY_TIMES = 5;
+    //登录状态失效的Api返回码：103为登录状态过期，121为被其它地方的登录踢下线
+    private static final int RETCODE_SESSION_EXPIRED = 103;
+    private static final int RETCODE_SESSION_KICKED = 121;
+
+    //登录状态失效后，连续这么多次重新获取vfwebqq和psessionid失败后进入OFFLINE状态（或重新扫码登录）
+    private static final int RECOVER_ATTEMPTS = 3;
+
+    //两次恢复尝试之间的等待时间，连续失败时从1秒开始翻倍，最长60秒
+    private static final RetryPolicy RECOVER_POLICY = new RetryPolicy(Integer.MAX_VALUE, 1, 60, 2, 0.2, Long.MAX_VALUE, TimeUnit.SECONDS);
+
+    //十六进制字符表
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
 
-    //客户端
-    private Client client;
+    //异步发送消息的线程数，比连接池的单路由连接数少一个，给拉取消息留出连接
+    private static final int SEND_THREADS = 4;
+
+    //传输层
+    private final HttpTransport transport;
 
     //会话
-    private Session session;
+    private final TransportSession session;
+
+    //请求头中的User-Agent
+    private final String userAgent;
+
+    //接收消息的回调
+    private final MessageCallback callback;
+
+    //是否已经调用过start，由loginLock保护
+    private boolean started;
 
     //二维码令牌
     private String qrsig;
 
-    //鉴权参数
-    private String ptwebqq;
-    private String vfwebqq;
-    private long uin;
-    private String psessionid;
+    //鉴权参数，发送线程和拉取线程都会读取
+    private volatile String ptwebqq;
+    private volatile String vfwebqq;
+    private volatile long uin;
+    private volatile String psessionid;
+
+    //上一次计算的hash，uin和ptwebqq在一次登录中不变
+    private volatile HashCache hashCache;
+
+    //消息id，这个好像可以随便设置，只要同一个客户端内不重复即可
+    private final MessageIdGenerator messageIdGenerator = new MessageIdGenerator();
 
     //线程开关
     private volatile boolean pollStarted;
 
+    //消息分发器
+    private final MessageDispatcher dispatcher;
+
+    //异步发送消息的线程池
+    private final ExecutorService sendExecutor;
+
+    //执行拉取消息任务的线程池
+    private final ScheduledExecutorService pollExecutor;
+
+    //传输层、线程池和分发器是否归当前客户端所有，由SmartQQClientManager创建的客户端共用这些资源，关闭时不释放
+    private final boolean ownsResources;
+
+    //发送调度器
+    private volatile SendScheduler sendScheduler;
+
+    //请求失败时的重试策略
+    private volatile RetryPolicy retryPolicy;
+
+    //登录状态的存储，为null时每次都扫码登录
+    private final SessionStore sessionStore;
+
+    //指标
+    private final ClientMetrics metrics;
+
+    //收到的消息的预写日志，可以为null
+    private final MessageJournal journal;
+
+    //登录状态
+    private final AtomicReference<SessionState> sessionState = new AtomicReference<>(SessionState.LOGGING_IN);
+
+    //登录状态变化的监听器
+    private final List<SessionListener> sessionListeners = new CopyOnWriteArrayList<>();
+
+    //保护鉴权参数的修改，只在请求接口和替换鉴权参数时持有，不在等待扫码或退避等待时持有
+    private final Object sessionLock = new Object();
+
+    //保证同一时间只有一个线程在登录，扫码等待期间持有，拉取线程不会获取这个锁
+    private final Object loginLock = new Object();
+
+    //每次重新登录结束后加1，用于判断发现登录失效后是否已经有其它线程重新登录过，只在sessionLock内修改，读取时不加锁
+    private final AtomicLong sessionGeneration = new AtomicLong();
+
+    //连续恢复登录状态失败的次数，由sessionLock保护
+    private int recoverFailures;
+
+    //登录状态无法恢复时是否在拉取线程上重新扫码登录
+    private final boolean qrCodeRecovery;
 
+    /**
+     * 创建客户端并登录，回调在单独的分发线程上按消息到达顺序执行，不会阻塞消息拉取
+     *
+     * @param callback 接收消息的回调，不需要接收消息时传null
+     */
     public SmartQQClient(final MessageCallback callback) {
-        this.client = Client.pooled().maxPerRoute(5).maxTotal(10).build();
-        this.session = client.session();
-        login();
+        this(callback, callback == null ? null : new ThreadPoolMessageDispatcher());
+    }
+
+    /**
+     * 创建客户端并登录
+     *
+     * @param callback   接收消息的回调，不需要接收消息时传null
+     * @param dispatcher 消息分发器，决定回调在哪些线程上执行
+     */
+    public SmartQQClient(final MessageCallback callback, MessageDispatcher dispatcher) {
+        this(callback, dispatcher, null);
+    }
+
+    /**
+     * 创建客户端并登录，启动时先尝试用保存的登录状态登录，失败后再扫码登录，登录成功后保存新的登录状态
+     *
+     * @param callback     接收消息的回调，不需要接收消息时传null
+     * @param dispatcher   消息分发器，决定回调在哪些线程上执行
+     * @param sessionStore 登录状态的存储
+     */
+    public SmartQQClient(final MessageCallback callback, MessageDispatcher dispatcher, SessionStore sessionStore) {
+        this(checkDispatcher(callback, dispatcher).sessionStore(sessionStore));
+        start();
+    }
+
+    //构造方法要求接收消息时必须指定分发器，Builder会自动创建默认的分发器
+    private static Builder checkDispatcher(MessageCallback callback, MessageDispatcher dispatcher) {
+        if (callback != null && dispatcher == null) {
+            throw new IllegalArgumentException("接收消息时必须指定消息分发器");
+        }
+        return new Builder().callback(callback).dispatcher(dispatcher);
+    }
+
+    private SmartQQClient(Builder builder) {
+        this.callback = builder.callback;
+        this.dispatcher = builder.callback != null && builder.dispatcher == null
+                ? new ThreadPoolMessageDispatcher() : builder.dispatcher;
+        this.sessionStore = builder.sessionStore;
+        this.qrCodeRecovery = builder.qrCodeRecovery;
+        this.retryPolicy = builder.retryPolicy;
+        this.userAgent = builder.userAgent;
+        if (builder.sharedPollExecutor != null) {
+            this.transport = builder.transport;
+            this.pollExecutor = builder.sharedPollExecutor;
+            this.sendExecutor = builder.sharedSendExecutor;
+            this.ownsResources = false;
+        } else {
+            this.transport = builder.transport != null ? builder.transport : builder.buildTransport();
+            //拉取线程默认不是守护线程，保证只接收消息的程序不会在main方法返回后退出
+            this.pollExecutor = Executors.newSingleThreadScheduledExecutor(builder.threadFactory("smartqq-poll", false));
+            this.sendExecutor = Executors.newFixedThreadPool(builder.sendThreads, builder.threadFactory("smartqq-send", true));
+            this.ownsResources = true;
+        }
+        this.session = transport.newSession();
+        this.journal = builder.journal;
+        this.metrics = new ClientMetrics(builder.metrics != null ? builder.metrics : new MetricsRegistry(),
+                builder.metricsAccount);
+        this.metrics.sendQueueDepth(new Gauge() {
+            @Override
+            public long getValue() {
+                long depth = 0;
+                SendScheduler scheduler = sendScheduler;
+                if (scheduler != null) {
+                    depth += scheduler.getQueueSize();
+                }
+                if (sendExecutor instanceof ThreadPoolExecutor) {
+                    depth += ((ThreadPoolExecutor) sendExecutor).getQueue().size();
+                }
+                return depth;
+            }
+        });
+    }
+
+    /**
+     * 登录并开始接收消息，登录完成（可能需要扫码）后才返回，只能调用一次
+     */
+    public void start() {
+        synchronized (loginLock) {
+            if (started) {
+                throw new IllegalStateException("客户端已经启动");
+            }
+            login();
+            started = true;
+        }
+        changeState(SessionState.ONLINE);
         if (callback != null) {
             this.pollStarted = true;
-            new Thread(new Runnable() {
+            MessageCallback timing = metrics.timing(callback);
+            if (journal != null) {
+                //先处理上次没有处理完的消息
+                journal.replay(dispatcher, timing);
+            }
+            new PollTask(timing).schedule(0);
+        }
+    }
+
+    /**
+     * 重新登录，优先使用保存的登录状态，失效时需要重新扫码.
+     * 等待扫码期间不持有拉取线程用到的锁，共用拉取线程的其它账号照常拉取消息，扫码成功后再替换鉴权参数
+     */
+    public void relogin() {
+        synchronized (loginLock) {
+            changeState(SessionState.RECOVERING);
+            try {
+                login();
+            } catch (RuntimeException e) {
+                synchronized (sessionLock) {
+                    recoverFailures++;
+                }
+                changeState(SessionState.OFFLINE);
+                throw e;
+            }
+            synchronized (sessionLock) {
+                sessionGeneration.incrementAndGet();
+                recoverFailures = 0;
+            }
+            changeState(SessionState.ONLINE);
+        }
+    }
+
+    /**
+     * 获得客户端的指标，可以交给{@link com.scienjus.smartqq.metrics.MetricsExporter}导出
+     *
+     * @return
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics.getRegistry();
+    }
+
+    /**
+     * 设置请求失败时的重试策略，拉取消息失败后的等待时间也由它决定
+     *
+     * @param retryPolicy 重试策略
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * 获得当前的登录状态
+     *
+     * @return
+     */
+    public SessionState getSessionState() {
+        return sessionState.get();
+    }
+
+    /**
+     * 添加登录状态变化的监听器
+     *
+     * @param listener 监听器
+     */
+    public void addSessionListener(SessionListener listener) {
+        sessionListeners.add(listener);
+    }
+
+    /**
+     * 移除登录状态变化的监听器
+     *
+     * @param listener 监听器
+     */
+    public void removeSessionListener(SessionListener listener) {
+        sessionListeners.remove(listener);
+    }
+
+    //修改登录状态并通知监听器，关闭后不再变化
+    private void changeState(SessionState newState) {
+        SessionState oldState;
+        do {
+            oldState = sessionState.get();
+            if (oldState == newState || oldState == SessionState.CLOSED) {
+                return;
+            }
+        } while (!sessionState.compareAndSet(oldState, newState));
+        LOGGER.debug(String.format("登录状态从%s变为%s", oldState, newState));
+        for (SessionListener listener : sessionListeners) {
+            try {
+                listener.onStateChanged(oldState, newState);
+            } catch (Exception e) {
+                LOGGER.error("登录状态监听器执行失败：" + e.getMessage());
+            }
+        }
+    }
+
+    //Api返回码是否表示登录状态已失效
+    private static boolean isSessionInvalid(Integer retcode) {
+        return retcode != null && (retcode == RETCODE_SESSION_EXPIRED || retcode == RETCODE_SESSION_KICKED);
+    }
+
+    //发现登录状态失效后，到下一次恢复尝试前的等待时间
+    private long recoverDelay() {
+        synchronized (sessionLock) {
+            return RECOVER_POLICY.getDelayMillis(recoverFailures);
+        }
+    }
+
+    /**
+     * 尝试恢复一次失效的登录状态，由拉取任务按返回的等待时间反复调用，两次尝试之间不持有sessionLock.
+     * 用ptwebqq重新获取vfwebqq和psessionid，连续失败{@value #RECOVER_ATTEMPTS}次后状态变为OFFLINE，之后继续按退避间隔尝试；
+     * 设置了{@link Builder#qrCodeRecovery(boolean)}时改为在当前线程上重新扫码登录.
+     * 登录状态已经被其它线程恢复或重新登录时直接返回.
+     *
+     * @param generation 发现登录失效的请求发出时的登录状态版本
+     * @return 0表示已经恢复（或不再需要恢复），否则为下一次尝试前的等待毫秒数
+     */
+    private long recoverSession(long generation) {
+        synchronized (sessionLock) {
+            if (generation != sessionGeneration.get() || sessionState.get() == SessionState.CLOSED) {
+                return 0;
+            }
+            changeState(SessionState.RECOVERING);
+            try {
+                getVfwebqq();
+                getUinAndPsessionid();
+                validateSession();
+                saveSession();
+                sessionGeneration.incrementAndGet();
+                recoverFailures = 0;
+                changeState(SessionState.ONLINE);
+                return 0;
+            } catch (Exception e) {
+                LOGGER.warn("重新获取psessionid失败：" + e.getMessage());
+            }
+            recoverFailures++;
+            if (recoverFailures % RECOVER_ATTEMPTS != 0) {
+                return RECOVER_POLICY.getDelayMillis(recoverFailures);
+            }
+            if (!qrCodeRecovery) {
+                LOGGER.error("登录状态已失效且无法恢复，需要调用relogin()重新扫码登录");
+                changeState(SessionState.OFFLINE);
+                return RECOVER_POLICY.getDelayMillis(recoverFailures);
+            }
+        }
+        try {
+            LOGGER.info("登录状态已失效，尝试重新登录");
+            relogin();
+            return 0;
+        } catch (Exception e) {
+            LOGGER.error("重新登录失败：" + e.getMessage());
+            return recoverDelay();
+        }
+    }
+
+    /**
+     * 拉取消息的任务.
+     * 每次只拉取一次，结束后把自己重新提交给线程池，出错时按重试策略延迟提交，多个客户端可以共用同一个线程池.
+     * 使用异步传输层时，等待响应期间不占用拉取线程.
+     */
+    private class PollTask implements Runnable, ResponseCallback {
+
+        //把解析出的消息交给分发器
+        private final MessageCallback dispatch;
+
+        //连续失败的次数，用于计算下一次拉取前的等待时间
+        //同一时间只有一个线程访问，在线程之间传递时由线程池保证可见性
+        private int failures;
+
+        //本次拉取开始时的登录状态版本
+        private long generation;
+
+        //本次拉取的开始时间
+        private long startNanos;
+
+        //登录状态已失效，下一次执行时先尝试恢复而不是拉取
+        private boolean recovering;
+
+        PollTask(final MessageCallback callback) {
+            this.dispatch = metrics.counting(new MessageCallback() {
+                @Override
+                public void onMessage(Message message) {
+                    if (journal == null) {
+                        dispatcher.dispatch(message, callback);
+                    } else {
+                        dispatcher.dispatch(message, journal.acknowledging(journal.append(message), callback));
+                    }
+                }
+
+                @Override
+                public void onGroupMessage(GroupMessage message) {
+                    if (journal == null) {
+                        dispatcher.dispatch(message, callback);
+                    } else {
+                        dispatcher.dispatch(message, journal.acknowledging(journal.append(message), callback));
+                    }
+                }
+
+                @Override
+                public void onDiscussMessage(DiscussMessage message) {
+                    if (journal == null) {
+                        dispatcher.dispatch(message, callback);
+                    } else {
+                        dispatcher.dispatch(message, journal.acknowledging(journal.append(message), callback));
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            if (!pollStarted) {
+                return;
+            }
+            if (recovering) {
+                //每次只尝试一次，没有恢复时按退避间隔重新提交，不占用共用的拉取线程
+                long delay = recoverSession(generation);
+                if (delay > 0) {
+                    schedule(delay);
+                    return;
+                }
+                recovering = false;
+            }
+            LOGGER.debug("开始接收消息");
+            generation = sessionGeneration.get();
+            startNanos = System.nanoTime();
+            try {
+                session.execute(buildPollRequest(), this);
+            } catch (Exception e) {
+                onFailure(e);
+            }
+        }
+
+        //异步传输层在IO线程上回调，解析、分发和重新登录都交回拉取线程池执行
+        @Override
+        public void onResponse(final HttpResponse response) {
+            metrics.recordPoll(startNanos);
+            submit(new Runnable() {
                 @Override
                 public void run() {
-                    while (true) {
-                        if (!pollStarted) {
-                            return;
-                        }
-                        try {
-                            pollMessage(callback);
-                        } catch (RequestException e) {
-                            //忽略SocketTimeoutException
-                            if (!(e.getCause() instanceof SocketTimeoutException)) {
-                                LOGGER.error(e.getMessage());
-                            }
-                        } catch (Exception e) {
-                            LOGGER.error(e.getMessage());
+                    //客户端已关闭，分发器可能已经关闭，不再分发
+                    if (!pollStarted) {
+                        return;
+                    }
+                    long delay = 0;
+                    try {
+                        if (isSessionInvalid(decodePollResponse(response, dispatch))) {
+                            recovering = true;
+                            delay = recoverDelay();
                         }
+                        failures = 0;
+                    } catch (Exception e) {
+                        delay = failureDelay(e);
                     }
+                    syncJournal();
+                    schedule(delay);
+                }
+            });
+        }
+
+        @Override
+        public void onFailure(final Exception e) {
+            metrics.recordPoll(startNanos);
+            submit(new Runnable() {
+                @Override
+                public void run() {
+                    syncJournal();
+                    schedule(failureDelay(e));
                 }
-            }).start();
+            });
+        }
+
+        //计算失败后到下一次拉取的等待时间
+        private long failureDelay(Exception e) {
+            //长轮询超时是正常情况，立即重新拉取
+            if (e instanceof RequestException && e.getCause() instanceof SocketTimeoutException) {
+                failures = 0;
+                return 0;
+            }
+            metrics.recordPollError();
+            LOGGER.error(e.getMessage());
+            return retryPolicy.getDelayMillis(failures++);
+        }
+
+        //每次拉取结束后批量刷盘，长轮询空闲返回时也会把上一批消息刷到磁盘
+        private void syncJournal() {
+            if (journal != null) {
+                journal.sync();
+            }
+        }
+
+        private void submit(Runnable task) {
+            try {
+                pollExecutor.execute(task);
+            } catch (RejectedExecutionException e) {
+                //线程池已关闭
+                pollStarted = false;
+            }
+        }
+
+        void schedule(long delay) {
+            if (!pollStarted) {
+                return;
+            }
+            try {
+                pollExecutor.schedule(this, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                //线程池已关闭
+                pollStarted = false;
+            }
         }
     }
 
     /**
-     * 登录
+     * 登录，等待扫码期间不持有sessionLock，只在请求鉴权参数时持有
      */
     private void login() {
-        getQRCode();
-        String url = verifyQRCode();
-        getPtwebqq(url);
-        getVfwebqq();
-        getUinAndPsessionid();
-        getFriendStatus(); //修复Api返回码[103]的问题
-        //登录成功欢迎语
-        UserInfo userInfo = getAccountInfo();
-        LOGGER.info(userInfo.getNick() + "，欢迎！");
+        synchronized (loginLock) {
+            UserInfo userInfo;
+            synchronized (sessionLock) {
+                userInfo = restoreSession();
+            }
+            if (userInfo == null) {
+                getQRCode();
+                String url = verifyQRCode();
+                synchronized (sessionLock) {
+                    getPtwebqq(url);
+                    getVfwebqq();
+                    getUinAndPsessionid();
+                    getFriendStatus(); //修复Api返回码[103]的问题
+                    userInfo = getAccountInfo();
+                }
+            }
+            //登录成功欢迎语
+            LOGGER.info(userInfo.getNick() + "，欢迎！");
+            synchronized (sessionLock) {
+                saveSession();
+            }
+        }
+    }
+
+    //用保存的登录状态登录，成功时返回登录用户信息，失败时返回null
+    private UserInfo restoreSession() {
+        if (sessionStore == null) {
+            return null;
+        }
+        SessionSnapshot snapshot = sessionStore.load();
+        if (snapshot == null || snapshot.getPtwebqq() == null) {
+            return null;
+        }
+        LOGGER.info("正在恢复上次的登录状态");
+        session.addCookies(snapshot.getCookies());
+        this.ptwebqq = snapshot.getPtwebqq();
+        this.vfwebqq = snapshot.getVfwebqq();
+        this.uin = snapshot.getUin();
+        this.psessionid = snapshot.getPsessionid();
+        try {
+            //上次的psessionid还在线时直接使用
+            return validateSession();
+        } catch (Exception e) {
+            LOGGER.debug("上次的psessionid已失效：" + e.getMessage());
+        }
+        try {
+            //ptwebqq的有效期比psessionid长，用它重新走一遍登录流程4、5
+            getVfwebqq();
+            getUinAndPsessionid();
+            return validateSession();
+        } catch (Exception e) {
+            LOGGER.info("登录状态已失效，请重新扫码登录");
+            session.clearCookies();
+            sessionStore.clear();
+            this.ptwebqq = null;
+            this.vfwebqq = null;
+            this.uin = 0;
+            this.psessionid = null;
+            return null;
+        }
+    }
+
+    //检查当前的鉴权参数是否可用，返回码[103]等异常状态时抛出异常
+    private UserInfo validateSession() {
+        HttpResponse response = get(ApiURL.GET_FRIEND_STATUS, vfwebqq, psessionid);
+        checkStatusCode(response.getStatusCode());
+        Integer retcode = JSON.parseObject(response.getBody()).getInteger("retcode");
+        metrics.recordRetcode(retcode);
+        if (retcode == null || retcode != 0) {
+            throw new RequestException(String.format("请求失败，Api返回码[%d]", retcode));
+        }
+        return getAccountInfo();
+    }
+
+    //保存当前的登录状态
+    private void saveSession() {
+        if (sessionStore == null) {
+            return;
+        }
+        SessionSnapshot snapshot = new SessionSnapshot();
+        snapshot.setPtwebqq(ptwebqq);
+        snapshot.setVfwebqq(vfwebqq);
+        snapshot.setUin(uin);
+        snapshot.setPsessionid(psessionid);
+        snapshot.setCookies(session.getCookies());
+        snapshot.setSavedAt(System.currentTimeMillis());
+        sessionStore.save(snapshot);
     }
 
     //登录流程1：获取二维码
@@ -121,20 +675,29 @@ public class SmartQQClient implements Closeable {
         } catch (IOException e) {
             throw new IllegalStateException("二维码保存失败");
         }
-        Response response = session.get(ApiURL.GET_QR_CODE.getUrl())
-                .addHeader("User-Agent", ApiURL.USER_AGENT)
-                .file(filePath);
-        for (Cookie cookie : response.getCookies()) {
-            if (Objects.equals(cookie.getName(), "qrsig")) {
-                qrsig = cookie.getValue();
-                break;
-            }
+        HttpResponse response = execute(ApiURL.GET_QR_CODE, HttpRequest.get(ApiURL.GET_QR_CODE.getUrl())
+                .addHeader("User-Agent", userAgent));
+        try {
+            Files.write(new File(filePath).toPath(), response.getBodyBytes());
+        } catch (IOException e) {
+            throw new IllegalStateException("二维码保存失败");
         }
+        qrsig = getCookie("qrsig");
         LOGGER.info("二维码已保存在 " + filePath + " 文件中，请打开手机QQ并扫描二维码");
     }
 
+    //获得会话中的Cookie，不存在时返回null
+    private String getCookie(String name) {
+        for (SessionCookie cookie : session.getCookies()) {
+            if (Objects.equals(cookie.getName(), name)) {
+                return cookie.getValue();
+            }
+        }
+        return null;
+    }
+
     //用于生成ptqrtoken的哈希函数
-    private static int hash33(String s) {
+    static int hash33(String s) {
         int e = 0, n = s.length();
         for (int i = 0; n > i; ++i)
             e += (e << 5) + s.charAt(i);
@@ -145,10 +708,16 @@ public class SmartQQClient implements Closeable {
     private String verifyQRCode() {
         LOGGER.debug("等待扫描二维码");
 
-        //阻塞直到确认二维码认证成功
+        //阻塞直到确认二维码认证成功，客户端关闭或线程被中断时放弃
         while (true) {
-            sleep(1);
-            Response<String> response = get(ApiURL.VERIFY_QR_CODE, hash33(qrsig));
+            sleepMillis(1000);
+            if (Thread.currentThread().isInterrupted()) {
+                throw new IllegalStateException("等待扫码时线程被中断");
+            }
+            if (sessionState.get() == SessionState.CLOSED) {
+                throw new IllegalStateException("客户端已关闭，停止等待扫码");
+            }
+            HttpResponse response = get(ApiURL.VERIFY_QR_CODE, hash33(qrsig));
             String result = response.getBody();
             if (result.contains("成功")) {
                 for (String content : result.split("','")) {
@@ -170,20 +739,18 @@ public class SmartQQClient implements Closeable {
     private void getPtwebqq(String url) {
         LOGGER.debug("开始获取ptwebqq");
 
-        Response<String> response = get(ApiURL.GET_PTWEBQQ, url);
-        this.ptwebqq = response.getCookies().get("ptwebqq").iterator().next().getValue();
+        get(ApiURL.GET_PTWEBQQ, url);
+        this.ptwebqq = getCookie("ptwebqq");
+        if (this.ptwebqq == null) {
+            throw new IllegalStateException("获取ptwebqq失败");
+        }
     }
 
     //登录流程4：获取vfwebqq
     private void getVfwebqq() {
         LOGGER.debug("开始获取vfwebqq");
 
-        Response<String> response = get(ApiURL.GET_VFWEBQQ, ptwebqq);
-        int retryTimes4Vfwebqq = retryTimesOnFailed;
-        while (response.getStatusCode() == 404 && retryTimes4Vfwebqq > 0) {
-            response = get(ApiURL.GET_VFWEBQQ, ptwebqq);
-            retryTimes4Vfwebqq--; 
-        }
+        HttpResponse response = get(ApiURL.GET_VFWEBQQ, ptwebqq);
         this.vfwebqq = getJsonObjectResult(response).getString("vfwebqq");
     }
 
@@ -197,7 +764,7 @@ public class SmartQQClient implements Closeable {
         r.put("psessionid", "");
         r.put("status", "online");
 
-        Response<String> response = post(ApiURL.GET_UIN_AND_PSESSIONID, r);
+        HttpResponse response = post(ApiURL.GET_UIN_AND_PSESSIONID, r);
         JSONObject result = getJsonObjectResult(response);
         this.psessionid = result.getString("psessionid");
         this.uin = result.getLongValue("uin");
@@ -215,43 +782,38 @@ public class SmartQQClient implements Closeable {
         r.put("vfwebqq", vfwebqq);
         r.put("hash", hash());
 
-        Response<String> response = post(ApiURL.GET_GROUP_LIST, r);
-        int retryTimes4getGroupList = retryTimesOnFailed;
-        while (response.getStatusCode() == 404 && retryTimes4getGroupList > 0) {
-            response = post(ApiURL.GET_GROUP_LIST, r);
-            retryTimes4getGroupList--;
-        }
+        HttpResponse response = post(ApiURL.GET_GROUP_LIST, r);
         JSONObject result = getJsonObjectResult(response);
         return JSON.parseArray(result.getJSONArray("gnamelist").toJSONString(), Group.class);
     }
 
-    /**
-     * 拉取消息
-     *
-     * @param callback 获取消息后的回调
-     */
-    private void pollMessage(MessageCallback callback) {
-        LOGGER.debug("开始接收消息");
-
+    //构造拉取消息的请求
+    private HttpRequest buildPollRequest() {
         JSONObject r = new JSONObject();
         r.put("ptwebqq", ptwebqq);
         r.put("clientid", Client_ID);
         r.put("psessionid", psessionid);
         r.put("key", "");
+        return postRequest(ApiURL.POLL_MESSAGE, r).longPoll(true);
+    }
 
-        Response<String> response = post(ApiURL.POLL_MESSAGE, r);
-        JSONArray array = getJsonArrayResult(response);
-        for (int i = 0; array != null && i < array.size(); i++) {
-            JSONObject message = array.getJSONObject(i);
-            String type = message.getString("poll_type");
-            if ("message".equals(type)) {
-                callback.onMessage(new Message(message.getJSONObject("value")));
-            } else if ("group_message".equals(type)) {
-                callback.onGroupMessage(new GroupMessage(message.getJSONObject("value")));
-            } else if ("discu_message".equals(type)) {
-                callback.onDiscussMessage(new DiscussMessage(message.getJSONObject("value")));
-            }
+    /**
+     * 解析拉取消息的返回结果，解析出的消息直接交给分发器，不在拉取线程上执行回调
+     *
+     * @param response 拉取消息的响应
+     * @param dispatch 接收解析出的消息
+     * @return Api返回码，登录状态失效的返回码交给调用者处理
+     */
+    private Integer decodePollResponse(HttpResponse response, MessageCallback dispatch) {
+        checkStatusCode(response.getStatusCode());
+        Integer retcode = PollMessageDecoder.decode(
+                new InputStreamReader(response.getBodyStream(), StandardCharsets.UTF_8), dispatch);
+        if (isSessionInvalid(retcode)) {
+            metrics.recordRetcode(retcode);
+        } else {
+            checkRetcode(retcode);
         }
+        return retcode;
     }
 
     /**
@@ -263,16 +825,30 @@ public class SmartQQClient implements Closeable {
     public void sendMessageToGroup(long groupId, String msg) {
         LOGGER.debug("开始发送群消息");
 
-        JSONObject r = new JSONObject();
-        r.put("group_uin", groupId);
-        r.put("content", JSON.toJSONString(Arrays.asList(msg, Arrays.asList("font", Font.DEFAULT_FONT))));  //注意这里虽然格式是Json，但是实际是String
-        r.put("face", 573);
-        r.put("clientid", Client_ID);
-        r.put("msg_id", MESSAGE_ID++);
-        r.put("psessionid", psessionid);
+        sendMessage(TargetType.GROUP, groupId, msg);
+    }
 
-        Response<String> response = postWithRetry(ApiURL.SEND_MESSAGE_TO_GROUP, r);
-        checkSendMsgResult(response);
+    /**
+     * 异步发送群消息
+     *
+     * @param groupId 群id
+     * @param msg     消息内容
+     * @return 发送结果
+     */
+    public SendFuture sendMessageToGroupAsync(long groupId, String msg) {
+        return sendMessageAsync(TargetType.GROUP, groupId, msg);
+    }
+
+    /**
+     * 异步发送群消息
+     *
+     * @param groupId  群id
+     * @param msg      消息内容
+     * @param callback 发送完成后的回调
+     * @return 发送结果
+     */
+    public SendFuture sendMessageToGroupAsync(long groupId, String msg, SendCallback callback) {
+        return sendMessageToGroupAsync(groupId, msg).addCallback(callback);
     }
 
     /**
@@ -284,16 +860,30 @@ public class SmartQQClient implements Closeable {
     public void sendMessageToDiscuss(long discussId, String msg) {
         LOGGER.debug("开始发送讨论组消息");
 
-        JSONObject r = new JSONObject();
-        r.put("did", discussId);
-        r.put("content", JSON.toJSONString(Arrays.asList(msg, Arrays.asList("font", Font.DEFAULT_FONT))));  //注意这里虽然格式是Json，但是实际是String
-        r.put("face", 573);
-        r.put("clientid", Client_ID);
-        r.put("msg_id", MESSAGE_ID++);
-        r.put("psessionid", psessionid);
+        sendMessage(TargetType.DISCUSS, discussId, msg);
+    }
 
-        Response<String> response = postWithRetry(ApiURL.SEND_MESSAGE_TO_DISCUSS, r);
-        checkSendMsgResult(response);
+    /**
+     * 异步发送讨论组消息
+     *
+     * @param discussId 讨论组id
+     * @param msg       消息内容
+     * @return 发送结果
+     */
+    public SendFuture sendMessageToDiscussAsync(long discussId, String msg) {
+        return sendMessageAsync(TargetType.DISCUSS, discussId, msg);
+    }
+
+    /**
+     * 异步发送讨论组消息
+     *
+     * @param discussId 讨论组id
+     * @param msg       消息内容
+     * @param callback  发送完成后的回调
+     * @return 发送结果
+     */
+    public SendFuture sendMessageToDiscussAsync(long discussId, String msg, SendCallback callback) {
+        return sendMessageToDiscussAsync(discussId, msg).addCallback(callback);
     }
 
     /**
@@ -305,16 +895,115 @@ public class SmartQQClient implements Closeable {
     public void sendMessageToFriend(long friendId, String msg) {
         LOGGER.debug("开始发送消息");
 
+        sendMessage(TargetType.FRIEND, friendId, msg);
+    }
+
+    /**
+     * 异步发送消息
+     *
+     * @param friendId 好友id
+     * @param msg      消息内容
+     * @return 发送结果
+     */
+    public SendFuture sendMessageToFriendAsync(long friendId, String msg) {
+        return sendMessageAsync(TargetType.FRIEND, friendId, msg);
+    }
+
+    /**
+     * 异步发送消息
+     *
+     * @param friendId 好友id
+     * @param msg      消息内容
+     * @param callback 发送完成后的回调
+     * @return 发送结果
+     */
+    public SendFuture sendMessageToFriendAsync(long friendId, String msg, SendCallback callback) {
+        return sendMessageToFriendAsync(friendId, msg).addCallback(callback);
+    }
+
+    /**
+     * 设置发送调度器，之后所有消息都经过调度器限速后发送
+     *
+     * @param sendScheduler 发送调度器
+     */
+    public void setSendScheduler(SendScheduler sendScheduler) {
+        sendScheduler.start(this);
+        this.sendScheduler = sendScheduler;
+    }
+
+    //发送消息，设置了调度器时排队等待发送结果；等待时被中断会抛出异常，此时消息仍在队列中，可能随后发出
+    private void sendMessage(TargetType type, long targetId, String msg) {
+        if (sendScheduler == null) {
+            postMessage(type, targetId, msg);
+            return;
+        }
+        try {
+            sendScheduler.submit(type, targetId, msg).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待发送结果时线程被中断", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RequestException(e.getCause());
+        }
+    }
+
+    //异步发送消息，设置了调度器时排队发送，否则直接在发送线程池中发送
+    private SendFuture sendMessageAsync(TargetType type, long targetId, String msg) {
+        if (sendScheduler != null) {
+            return sendScheduler.submit(type, targetId, msg);
+        }
+        SendFuture future = new SendFuture();
+        sendNow(type, targetId, msg, Collections.singletonList(future));
+        return future;
+    }
+
+    //在发送线程池中立即发送，发送结果通知给所有的future
+    void sendNow(final TargetType type, final long targetId, final String msg, final List<SendFuture> futures) {
+        sendExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean cancelled = true;
+                for (SendFuture future : futures) {
+                    cancelled &= future.isCancelled();
+                }
+                if (cancelled) {
+                    return;
+                }
+                try {
+                    SendResult result = postMessage(type, targetId, msg);
+                    for (SendFuture future : futures) {
+                        future.complete(result);
+                    }
+                } catch (Exception e) {
+                    LOGGER.error("发送失败：" + e.getMessage());
+                    for (SendFuture future : futures) {
+                        future.fail(e);
+                    }
+                }
+            }
+        });
+    }
+
+    //调用发送接口
+    private SendResult postMessage(TargetType type, long targetId, String msg) {
+        JSONObject r = buildSendRequest(type, targetId, msg, messageIdGenerator.nextId(), psessionid);
+        HttpResponse response = post(type.getUrl(), r);
+        return checkSendMsgResult(response);
+    }
+
+    //构造发送接口的请求参数
+    static JSONObject buildSendRequest(TargetType type, long targetId, String msg, long msgId, String psessionid) {
         JSONObject r = new JSONObject();
-        r.put("to", friendId);
+        r.put(type.getIdKey(), targetId);
         r.put("content", JSON.toJSONString(Arrays.asList(msg, Arrays.asList("font", Font.DEFAULT_FONT))));  //注意这里虽然格式是Json，但是实际是String
         r.put("face", 573);
         r.put("clientid", Client_ID);
-        r.put("msg_id", MESSAGE_ID++);
+        r.put("msg_id", msgId);
         r.put("psessionid", psessionid);
-
-        Response<String> response = postWithRetry(ApiURL.SEND_MESSAGE_TO_FRIEND, r);
-        checkSendMsgResult(response);
+        return r;
     }
 
     /**
@@ -325,7 +1014,7 @@ public class SmartQQClient implements Closeable {
     public List<Discuss> getDiscussList() {
         LOGGER.debug("开始获取讨论组列表");
 
-        Response<String> response = get(ApiURL.GET_DISCUSS_LIST, psessionid, vfwebqq);
+        HttpResponse response = get(ApiURL.GET_DISCUSS_LIST, psessionid, vfwebqq);
         return JSON.parseArray(getJsonObjectResult(response).getJSONArray("dnamelist").toJSONString(), Discuss.class);
     }
 
@@ -341,7 +1030,7 @@ public class SmartQQClient implements Closeable {
         r.put("vfwebqq", vfwebqq);
         r.put("hash", hash());
 
-        Response<String> response = post(ApiURL.GET_FRIEND_LIST, r);
+        HttpResponse response = post(ApiURL.GET_FRIEND_LIST, r);
         JSONObject result = getJsonObjectResult(response);
         //获得好友信息
         Map<Long, Friend> friendMap = parseFriendMap(result);
@@ -374,12 +1063,12 @@ public class SmartQQClient implements Closeable {
         r.put("vfwebqq", vfwebqq);
         r.put("hash", hash());
 
-        Response<String> response = post(ApiURL.GET_FRIEND_LIST, r);
+        HttpResponse response = post(ApiURL.GET_FRIEND_LIST, r);
         return new ArrayList<>(parseFriendMap(getJsonObjectResult(response)).values());
     }
 
     //将json解析为好友列表
-    private static Map<Long, Friend> parseFriendMap(JSONObject result) {
+    static Map<Long, Friend> parseFriendMap(JSONObject result) {
         Map<Long, Friend> friendMap = new HashMap<>();
         JSONArray info = result.getJSONArray("info");
         for (int i = 0; info != null && i < info.size(); i++) {
@@ -412,12 +1101,7 @@ public class SmartQQClient implements Closeable {
     public UserInfo getAccountInfo() {
         LOGGER.debug("开始获取登录用户信息");
 
-        Response<String> response = get(ApiURL.GET_ACCOUNT_INFO);
-        int retryTimes4AccountInfo = retryTimesOnFailed;
-        while (response.getStatusCode() == 404 && retryTimes4AccountInfo > 0) {
-            response = get(ApiURL.GET_ACCOUNT_INFO);
-            retryTimes4AccountInfo--;
-        }
+        HttpResponse response = get(ApiURL.GET_ACCOUNT_INFO);
         return JSON.parseObject(getJsonObjectResult(response).toJSONString(), UserInfo.class);
     }
 
@@ -429,7 +1113,7 @@ public class SmartQQClient implements Closeable {
     public UserInfo getFriendInfo(long friendId) {
         LOGGER.debug("开始获取好友信息");
 
-        Response<String> response = get(ApiURL.GET_FRIEND_INFO, friendId, vfwebqq, psessionid);
+        HttpResponse response = get(ApiURL.GET_FRIEND_INFO, friendId, vfwebqq, psessionid);
         return JSON.parseObject(getJsonObjectResult(response).toJSONString(), UserInfo.class);
     }
 
@@ -446,7 +1130,7 @@ public class SmartQQClient implements Closeable {
         r.put("clientid", Client_ID);
         r.put("psessionid", "");
 
-        Response<String> response = post(ApiURL.GET_RECENT_LIST, r);
+        HttpResponse response = post(ApiURL.GET_RECENT_LIST, r);
         return JSON.parseArray(getJsonArrayResult(response).toJSONString(), Recent.class);
     }
 
@@ -459,7 +1143,7 @@ public class SmartQQClient implements Closeable {
     public long getQQById(long friendId) {
         LOGGER.debug("开始获取QQ号");
 
-        Response<String> response = get(ApiURL.GET_QQ_BY_ID, friendId, vfwebqq);
+        HttpResponse response = get(ApiURL.GET_QQ_BY_ID, friendId, vfwebqq);
         return getJsonObjectResult(response).getLongValue("account");
     }
 
@@ -531,7 +1215,7 @@ public class SmartQQClient implements Closeable {
     public List<FriendStatus> getFriendStatus() {
         LOGGER.debug("开始获取好友状态");
 
-        Response<String> response = get(ApiURL.GET_FRIEND_STATUS, vfwebqq, psessionid);
+        HttpResponse response = get(ApiURL.GET_FRIEND_STATUS, vfwebqq, psessionid);
         return JSON.parseArray(getJsonArrayResult(response).toJSONString(), FriendStatus.class);
     }
 
@@ -544,33 +1228,34 @@ public class SmartQQClient implements Closeable {
     public GroupInfo getGroupInfo(long groupCode) {
         LOGGER.debug("开始获取群资料");
 
-        Response<String> response = get(ApiURL.GET_GROUP_INFO, groupCode, vfwebqq);
-        JSONObject result = getJsonObjectResult(response);
+        HttpResponse response = get(ApiURL.GET_GROUP_INFO, groupCode, vfwebqq);
+        return parseGroupInfo(getJsonObjectResult(response));
+    }
+
+    //将json解析为群资料，包括群成员信息
+    static GroupInfo parseGroupInfo(JSONObject result) {
         GroupInfo groupInfo = result.getObject("ginfo", GroupInfo.class);
         //获得群成员信息
-        Map<Long, GroupUser> groupUserMap = new HashMap<>();
         JSONArray minfo = result.getJSONArray("minfo");
         for (int i = 0; minfo != null && i < minfo.size(); i++) {
-            GroupUser groupUser = minfo.getObject(i, GroupUser.class);
-            groupUserMap.put(groupUser.getUin(), groupUser);
-            groupInfo.addUser(groupUser);
+            groupInfo.addUser(minfo.getObject(i, GroupUser.class));
         }
         JSONArray stats = result.getJSONArray("stats");
         for (int i = 0; stats != null && i < stats.size(); i++) {
             JSONObject item = stats.getJSONObject(i);
-            GroupUser groupUser = groupUserMap.get(item.getLongValue("uin"));
+            GroupUser groupUser = groupInfo.getUser(item.getLongValue("uin"));
             groupUser.setClientType(item.getIntValue("client_type"));
             groupUser.setStatus(item.getIntValue("stat"));
         }
         JSONArray cards = result.getJSONArray("cards");
         for (int i = 0; cards != null && i < cards.size(); i++) {
             JSONObject item = cards.getJSONObject(i);
-            groupUserMap.get(item.getLongValue("muin")).setCard(item.getString("card"));
+            groupInfo.getUser(item.getLongValue("muin")).setCard(item.getString("card"));
         }
         JSONArray vipinfo = result.getJSONArray("vipinfo");
         for (int i = 0; vipinfo != null && i < vipinfo.size(); i++) {
             JSONObject item = vipinfo.getJSONObject(i);
-            GroupUser groupUser = groupUserMap.get(item.getLongValue("u"));
+            GroupUser groupUser = groupInfo.getUser(item.getLongValue("u"));
             groupUser.setVip(item.getIntValue("is_vip") == 1);
             groupUser.setVipLevel(item.getIntValue("vip_level"));
         }
@@ -586,89 +1271,115 @@ public class SmartQQClient implements Closeable {
     public DiscussInfo getDiscussInfo(long discussId) {
         LOGGER.debug("开始获取讨论组资料");
 
-        Response<String> response = get(ApiURL.GET_DISCUSS_INFO, discussId, vfwebqq, psessionid);
+        HttpResponse response = get(ApiURL.GET_DISCUSS_INFO, discussId, vfwebqq, psessionid);
         JSONObject result = getJsonObjectResult(response);
         DiscussInfo discussInfo = result.getObject("info", DiscussInfo.class);
         //获得讨论组成员信息
-        Map<Long, DiscussUser> discussUserMap = new HashMap<>();
         JSONArray minfo = result.getJSONArray("mem_info");
         for (int i = 0; minfo != null && i < minfo.size(); i++) {
-            DiscussUser discussUser = minfo.getObject(i, DiscussUser.class);
-            discussUserMap.put(discussUser.getUin(), discussUser);
-            discussInfo.addUser(discussUser);
+            discussInfo.addUser(minfo.getObject(i, DiscussUser.class));
         }
         JSONArray stats = result.getJSONArray("mem_status");
         for (int i = 0; stats != null && i < stats.size(); i++) {
             JSONObject item = stats.getJSONObject(i);
-            DiscussUser discussUser = discussUserMap.get(item.getLongValue("uin"));
+            DiscussUser discussUser = discussInfo.getUser(item.getLongValue("uin"));
             discussUser.setClientType(item.getIntValue("client_type"));
             discussUser.setStatus(item.getString("status"));
         }
         return discussInfo;
     }
 
-    //发送get请求
-    private Response<String> get(ApiURL url, Object... params) {
-        HeadOnlyRequestBuilder request = session.get(url.buildUrl(params))
-                .addHeader("User-Agent", ApiURL.USER_AGENT);
+    //发送get请求，失败时按重试策略重试
+    private HttpResponse get(ApiURL url, Object... params) {
+        HttpRequest request = HttpRequest.get(url.buildUrl(params))
+                .addHeader("User-Agent", userAgent);
         if (url.getReferer() != null) {
             request.addHeader("Referer", url.getReferer());
         }
-        return request.text(StandardCharsets.UTF_8); 
+        return execute(url, request);
     }
 
-    //发送post请求
-    private Response<String> post(ApiURL url, JSONObject r) {
-        return session.post(url.getUrl())
-                .addHeader("User-Agent", ApiURL.USER_AGENT)
+    //发送post请求，失败时按重试策略重试
+    private HttpResponse post(ApiURL url, JSONObject r) {
+        return execute(url, postRequest(url, r));
+    }
+
+    //构造post请求
+    private HttpRequest postRequest(ApiURL url, JSONObject r) {
+        return HttpRequest.post(url.getUrl())
+                .addHeader("User-Agent", userAgent)
                 .addHeader("Referer", url.getReferer())
                 .addHeader("Origin", url.getOrigin())
-                .addForm("r", r.toJSONString())
-                .text(StandardCharsets.UTF_8);
+                .addForm("r", r.toJSONString());
     }
 
-    //发送post请求，失败时重试
-    private Response<String> postWithRetry(ApiURL url, JSONObject r) {
-        int times = 0;
-        Response<String> response;
-        do {
-            response = post(url, r);
-            times++;
-        } while (times < RETRY_TIMES && response.getStatusCode() != 200);
-        return response;
+    //发送请求，失败时按重试策略重试，每次请求都记录指标
+    //不幂等的接口只在返回了可重试的Http返回码时重试，网络异常（包括读取超时）时请求可能已经被处理，直接抛出
+    private HttpResponse execute(ApiURL api, HttpRequest request) {
+        RetryPolicy.Retry retry = retryPolicy.newRetry();
+        while (true) {
+            long start = System.nanoTime();
+            try {
+                HttpResponse response = session.execute(request);
+                metrics.recordRequest(api, start, response.getStatusCode());
+                if (!retry.shouldRetry(response.getStatusCode())) {
+                    return response;
+                }
+            } catch (RequestException e) {
+                metrics.recordRequestFailure(api, start, e);
+                if (!api.isIdempotent() || !retry.shouldRetry(e)) {
+                    throw e;
+                }
+            }
+            LOGGER.debug(String.format("请求失败，第%d次重试", retry.getAttempts() - 1));
+        }
     }
 
     //获取返回json的result字段（JSONObject类型）
-    private static JSONObject getJsonObjectResult(Response<String> response) {
+    private JSONObject getJsonObjectResult(HttpResponse response) {
         return getResponseJson(response).getJSONObject("result");
     }
 
     //获取返回json的result字段（JSONArray类型）
-    private static JSONArray getJsonArrayResult(Response<String> response) {
+    private JSONArray getJsonArrayResult(HttpResponse response) {
         return getResponseJson(response).getJSONArray("result");
     }
 
     //检查消息是否发送成功
-    private static void checkSendMsgResult(Response<String> response) {
+    private SendResult checkSendMsgResult(HttpResponse response) {
         if (response.getStatusCode() != 200) {
             LOGGER.error(String.format("发送失败，Http返回码[%d]", response.getStatusCode()));
+            return new SendResult(response.getStatusCode(), null);
         }
         JSONObject json = JSON.parseObject(response.getBody());
         Integer errCode = json.getInteger("retcode");
+        metrics.recordRetcode(errCode);
         if (errCode != null && errCode == 0) {
             LOGGER.debug("发送成功");
         } else {
             LOGGER.error(String.format("发送失败，Api返回码[%d]", json.getInteger("retcode")));
         }
+        return new SendResult(response.getStatusCode(), errCode);
     }
 
     //检验Json返回结果
-    private static JSONObject getResponseJson(Response<String> response) {
-        if (response.getStatusCode() != 200) {
-            throw new RequestException(String.format("请求失败，Http返回码[%d]", response.getStatusCode()));
-        }
+    private JSONObject getResponseJson(HttpResponse response) {
+        checkStatusCode(response.getStatusCode());
         JSONObject json = JSON.parseObject(response.getBody());
-        Integer retCode = json.getInteger("retcode");
+        checkRetcode(json.getInteger("retcode"));
+        return json;
+    }
+
+    //检验Http返回码
+    private static void checkStatusCode(int statusCode) {
+        if (statusCode != 200) {
+            throw new RequestException(String.format("请求失败，Http返回码[%d]", statusCode));
+        }
+    }
+
+    //检验Api返回码
+    private void checkRetcode(Integer retCode) {
+        metrics.recordRetcode(retCode);
         if (retCode == null) {
             throw new RequestException(String.format("请求失败，Api返回异常", retCode));
         } else if (retCode != 0) {
@@ -686,56 +1397,445 @@ public class SmartQQClient implements Closeable {
                 }
             }
         }
-        return json;
     }
 
-    //hash加密方法
+    //hash加密方法，uin和ptwebqq不变时使用上一次的结果
     private String hash() {
-        return hash(uin, ptwebqq);
+        long uin = this.uin;
+        String ptwebqq = this.ptwebqq;
+        HashCache cache = hashCache;
+        if (cache == null || cache.uin != uin || !cache.ptwebqq.equals(ptwebqq)) {
+            cache = new HashCache(uin, ptwebqq, hash(uin, ptwebqq));
+            hashCache = cache;
+        }
+        return cache.hash;
     }
 
-    //线程暂停
-    private static void sleep(long seconds) {
+    //线程暂停（毫秒）
+    private static void sleepMillis(long millis) {
         try {
-            Thread.sleep(seconds * 1000);
+            Thread.sleep(millis);
         } catch (InterruptedException e) {
-            //忽略InterruptedException
+            Thread.currentThread().interrupt();
         }
     }
 
     //hash加密方法
-    private static String hash(long x, String K) {
-        int[] N = new int[4];
-        for (int T = 0; T < K.length(); T++) {
-            N[T % 4] ^= K.charAt(T);
+    //ptwebqq的每个字符按下标模4异或到4个数中，uin的4个字节分别与"ECOK"异或，两组数交替排列后按十六进制输出
+    static String hash(long x, String K) {
+        int n0 = 0, n1 = 0, n2 = 0, n3 = 0;
+        final int length = K.length();
+        for (int T = 0; T < length; T++) {
+            switch (T & 3) {
+                case 0:
+                    n0 ^= K.charAt(T);
+                    break;
+                case 1:
+                    n1 ^= K.charAt(T);
+                    break;
+                case 2:
+                    n2 ^= K.charAt(T);
+                    break;
+                default:
+                    n3 ^= K.charAt(T);
+            }
         }
-        String[] U = {"EC", "OK"};
-        long[] V = new long[4];
-        V[0] = x >> 24 & 255 ^ U[0].charAt(0);
-        V[1] = x >> 16 & 255 ^ U[0].charAt(1);
-        V[2] = x >> 8 & 255 ^ U[1].charAt(0);
-        V[3] = x & 255 ^ U[1].charAt(1);
+        char[] result = new char[16];
+        putHex(result, 0, n0);
+        putHex(result, 2, (int) (x >> 24 & 255) ^ 'E');
+        putHex(result, 4, n1);
+        putHex(result, 6, (int) (x >> 16 & 255) ^ 'C');
+        putHex(result, 8, n2);
+        putHex(result, 10, (int) (x >> 8 & 255) ^ 'O');
+        putHex(result, 12, n3);
+        putHex(result, 14, (int) (x & 255) ^ 'K');
+        return new String(result);
+    }
 
-        long[] U1 = new long[8];
+    //写入value低8位的两个十六进制字符
+    private static void putHex(char[] dest, int offset, int value) {
+        dest[offset] = HEX_DIGITS[value >> 4 & 15];
+        dest[offset + 1] = HEX_DIGITS[value & 15];
+    }
 
-        for (int T = 0; T < 8; T++) {
-            U1[T] = T % 2 == 0 ? N[T >> 1] : V[T >> 1];
-        }
+    //hash的计算结果
+    private static class HashCache {
+
+        private final long uin;
+
+        private final String ptwebqq;
 
-        String[] N1 = {"0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "A", "B", "C", "D", "E", "F"};
-        String V1 = "";
-        for (long aU1 : U1) {
-            V1 += N1[(int) ((aU1 >> 4) & 15)];
-            V1 += N1[(int) (aU1 & 15)];
+        private final String hash;
+
+        HashCache(long uin, String ptwebqq, String hash) {
+            this.uin = uin;
+            this.ptwebqq = ptwebqq;
+            this.hash = hash;
         }
-        return V1;
     }
 
     @Override
     public void close() throws IOException {
         this.pollStarted = false;
-        if (this.client != null) {
-            this.client.close();
+        changeState(SessionState.CLOSED);
+        this.metrics.close();
+        if (this.sendScheduler != null) {
+            this.sendScheduler.close();
+        }
+        if (this.ownsResources) {
+            //先停止拉取，等分发器执行完已经入队的回调并提交日志后再关闭日志，否则这些消息下次启动时会被重复投递
+            this.pollExecutor.shutdown();
+            if (this.dispatcher != null) {
+                this.dispatcher.close();
+            }
+        }
+        if (this.journal != null) {
+            this.journal.close();
+        }
+        if (!this.ownsResources) {
+            return;
+        }
+        this.sendExecutor.shutdown();
+        this.transport.close();
+    }
+
+    /**
+     * 客户端的构造器.
+     * build()只创建客户端，不会登录，设置好监听器、发送调度器等之后再调用{@link SmartQQClient#start()}登录.
+     * <pre>
+     * SmartQQClient client = new SmartQQClient.Builder()
+     *         .callback(callback)
+     *         .connectTimeout(5, TimeUnit.SECONDS)
+     *         .pollTimeout(90, TimeUnit.SECONDS)
+     *         .build();
+     * client.addSessionListener(listener);
+     * client.start();
+     * </pre>
+     */
+    public static class Builder {
+
+        private MessageCallback callback;
+
+        private MessageDispatcher dispatcher;
+
+        private SessionStore sessionStore;
+
+        private RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+
+        private int maxConnections = 10;
+
+        private int maxConnectionsPerRoute = 5;
+
+        //拉取消息的连接池大小，单个账号同一时间只有一个长轮询
+        private int pollMaxConnections = 2;
+
+        private boolean qrCodeRecovery;
+
+        private int connectTimeoutMillis = 10000;
+
+        private int readTimeoutMillis = 10000;
+
+        //服务端会把拉取消息的请求挂起一段时间，超时要比挂起时间长，否则每次都以超时结束
+        private int pollTimeoutMillis = 65000;
+
+        //连接的最长存活时间，-1表示不限制
+        private long keepAliveMillis = -1;
+
+        private Proxy proxy;
+
+        private String userAgent = ApiURL.USER_AGENT;
+
+        private ThreadFactory threadFactory;
+
+        private int sendThreads = SEND_THREADS;
+
+        private HttpTransport transport;
+
+        private MetricsRegistry metrics;
+
+        //指标的account标签
+        private String metricsAccount;
+
+        private MessageJournal journal;
+
+        //由SmartQQClientManager设置的共用资源
+        private ScheduledExecutorService sharedPollExecutor;
+        private ExecutorService sharedSendExecutor;
+
+        /**
+         * 设置接收消息的回调，不设置时不接收消息
+         *
+         * @param callback
+         * @return
+         */
+        public Builder callback(MessageCallback callback) {
+            this.callback = callback;
+            return this;
+        }
+
+        /**
+         * 设置消息分发器，设置了回调但没有设置分发器时使用单线程的{@link ThreadPoolMessageDispatcher}
+         *
+         * @param dispatcher
+         * @return
+         */
+        public Builder dispatcher(MessageDispatcher dispatcher) {
+            this.dispatcher = dispatcher;
+            return this;
+        }
+
+        /**
+         * 设置登录状态的存储
+         *
+         * @param sessionStore
+         * @return
+         */
+        public Builder sessionStore(SessionStore sessionStore) {
+            this.sessionStore = sessionStore;
+            return this;
+        }
+
+        /**
+         * 设置登录状态失效且无法用ptwebqq恢复时，是否自动重新扫码登录，默认关闭.
+         * 扫码在发现失效的拉取线程上等待，等待期间该线程不能拉取其它账号的消息，多个账号共用拉取线程时不要开启；
+         * 关闭时客户端进入OFFLINE状态并继续尝试恢复，可以监听状态变化后调用{@link SmartQQClient#relogin()}
+         *
+         * @param qrCodeRecovery
+         * @return
+         */
+        public Builder qrCodeRecovery(boolean qrCodeRecovery) {
+            this.qrCodeRecovery = qrCodeRecovery;
+            return this;
+        }
+
+        /**
+         * 设置请求失败时的重试策略，默认为{@link RetryPolicy#DEFAULT}
+         *
+         * @param retryPolicy
+         * @return
+         */
+        public Builder retryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * 设置连接池的最大连接数，默认为10
+         *
+         * @param maxConnections
+         * @return
+         */
+        public Builder maxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        /**
+         * 设置连接池中每个域名的最大连接数，默认为5
+         *
+         * @param maxConnectionsPerRoute
+         * @return
+         */
+        public Builder maxConnectionsPerRoute(int maxConnectionsPerRoute) {
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+            return this;
+        }
+
+        /**
+         * 设置拉取消息的连接池的最大连接数，默认为2.
+         * 多个账号共用传输层时，每个同时进行的长轮询占用一个连接，应不少于同时拉取的账号数
+         *
+         * @param pollMaxConnections
+         * @return
+         */
+        public Builder pollMaxConnections(int pollMaxConnections) {
+            this.pollMaxConnections = pollMaxConnections;
+            return this;
+        }
+
+        /**
+         * 设置连接超时，默认为10秒
+         *
+         * @param timeout
+         * @param unit
+         * @return
+         */
+        public Builder connectTimeout(long timeout, TimeUnit unit) {
+            this.connectTimeoutMillis = toMillis(timeout, unit);
+            return this;
+        }
+
+        /**
+         * 设置拉取消息以外的请求的读取超时，默认为10秒
+         *
+         * @param timeout
+         * @param unit
+         * @return
+         */
+        public Builder readTimeout(long timeout, TimeUnit unit) {
+            this.readTimeoutMillis = toMillis(timeout, unit);
+            return this;
+        }
+
+        /**
+         * 设置拉取消息的读取超时，默认为65秒
+         *
+         * @param timeout
+         * @param unit
+         * @return
+         */
+        public Builder pollTimeout(long timeout, TimeUnit unit) {
+            this.pollTimeoutMillis = toMillis(timeout, unit);
+            return this;
+        }
+
+        /**
+         * 设置连接的最长存活时间，超过后不再复用，默认不限制
+         *
+         * @param keepAlive
+         * @param unit
+         * @return
+         */
+        public Builder keepAlive(long keepAlive, TimeUnit unit) {
+            this.keepAliveMillis = unit.toMillis(keepAlive);
+            return this;
+        }
+
+        /**
+         * 设置代理
+         *
+         * @param proxy
+         * @return
+         */
+        public Builder proxy(Proxy proxy) {
+            this.proxy = proxy;
+            return this;
+        }
+
+        /**
+         * 设置请求头中的User-Agent，默认为{@link ApiURL#USER_AGENT}
+         *
+         * @param userAgent
+         * @return
+         */
+        public Builder userAgent(String userAgent) {
+            this.userAgent = userAgent;
+            return this;
+        }
+
+        /**
+         * 设置拉取线程和发送线程的线程工厂
+         *
+         * @param threadFactory
+         * @return
+         */
+        public Builder threadFactory(ThreadFactory threadFactory) {
+            this.threadFactory = threadFactory;
+            return this;
+        }
+
+        /**
+         * 设置异步发送消息的线程数，默认为4
+         *
+         * @param sendThreads
+         * @return
+         */
+        public Builder sendThreads(int sendThreads) {
+            this.sendThreads = sendThreads;
+            return this;
+        }
+
+        /**
+         * 设置传输层，关闭客户端时一起关闭.
+         * 设置后不再创建内置的Http客户端，maxConnections、maxConnectionsPerRoute、pollMaxConnections、
+         * connectTimeout、readTimeout、pollTimeout、keepAlive、proxy和userAgent都不再生效，需要在传输层上自行配置
+         *
+         * @param transport
+         * @return
+         */
+        public Builder transport(HttpTransport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * 设置指标注册表，多个客户端可以共用，默认每个客户端单独创建
+         *
+         * @param metrics
+         * @return
+         */
+        public Builder metrics(MetricsRegistry metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * 设置指标的account标签，共用注册表时用于区分各个客户端，默认为"client-编号"
+         *
+         * @param account 账号名
+         * @return
+         */
+        public Builder metricsAccount(String account) {
+            this.metricsAccount = account;
+            return this;
+        }
+
+        /**
+         * 设置收到的消息的预写日志，消息写入日志后再分发，启动时重放上次没有处理完的消息，关闭客户端时一起关闭
+         *
+         * @param journal
+         * @return
+         */
+        public Builder journal(MessageJournal journal) {
+            this.journal = journal;
+            return this;
+        }
+
+        //使用SmartQQClientManager的共用资源，此时传输层和线程相关的设置不生效
+        Builder shareResources(HttpTransport transport, ScheduledExecutorService pollExecutor,
+                               ExecutorService sendExecutor) {
+            this.transport = transport;
+            this.sharedPollExecutor = pollExecutor;
+            this.sharedSendExecutor = sendExecutor;
+            return this;
+        }
+
+        /**
+         * 创建客户端，需要调用{@link SmartQQClient#start()}后才会登录
+         *
+         * @return
+         */
+        public SmartQQClient build() {
+            return new SmartQQClient(this);
+        }
+
+        //按当前设置创建默认的传输层，拉取消息使用单独的连接池
+        HttpTransport buildTransport() {
+            return new RequestsTransport(buildClient(maxConnections, maxConnectionsPerRoute, readTimeoutMillis),
+                    buildClient(pollMaxConnections, pollMaxConnections, pollTimeoutMillis));
+        }
+
+        //按当前设置创建Http客户端
+        Client buildClient(int maxTotal, int maxPerRoute, int socketTimeoutMillis) {
+            PooledClientBuilder builder = Client.pooled()
+                    .maxTotal(maxTotal)
+                    .maxPerRoute(maxPerRoute)
+                    .connectTimeout(connectTimeoutMillis)
+                    .socketTimeout(socketTimeoutMillis)
+                    .timeToLive(keepAliveMillis)
+                    .userAgent(userAgent);
+            if (proxy != null) {
+                builder.proxy(proxy);
+            }
+            return builder.build();
+        }
+
+        private ThreadFactory threadFactory(String prefix, boolean daemon) {
+            return threadFactory != null ? threadFactory : new NamedThreadFactory(prefix, daemon);
+        }
+
+        private static int toMillis(long timeout, TimeUnit unit) {
+            return (int) Math.min(unit.toMillis(timeout), Integer.MAX_VALUE);
         }
     }
 }
@@ -0,0 +1,213 @@
+package com.scienjus.smartqq.client;
+
+import com.scienjus.smartqq.callback.MessageCallback;
+import com.scienjus.smartqq.dispatch.MessageDispatcher;
+import com.scienjus.smartqq.dispatch.PartitionedMessageDispatcher;
+import com.scienjus.smartqq.metrics.MetricsRegistry;
+import com.scienjus.smartqq.session.SessionStore;
+import com.scienjus.smartqq.transport.HttpTransport;
+import com.scienjus.smartqq.util.NamedThreadFactory;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * 在同一个进程中管理多个账号.
+ * 所有账号共用一个传输层（连接池）、一个拉取消息的线程池、一个发送线程池、一个消息分发器和一个指标注册表，每个账号只有自己的会话（Cookie和鉴权参数）.
+ * 各账号的指标以账号名作为account标签.
+ * 默认的传输层是阻塞的，同时在线的账号数超过拉取线程数时，多出的账号要等其它账号的长轮询返回后才能拉取，
+ * 因此拉取线程数一般设置为账号数；使用异步传输层时没有这个限制.
+ */
+public class SmartQQClientManager implements Closeable {
+
+    //日志
+    private static final Logger LOGGER = Logger.getLogger(SmartQQClientManager.class);
+
+    //默认的最大连接数
+    private static final int DEFAULT_MAX_CONNECTIONS = 200;
+
+    //默认的拉取线程数
+    private static final int DEFAULT_POLL_THREADS = 16;
+
+    //发送消息的线程数
+    private static final int SEND_THREADS = 4;
+
+    //所有账号共用的传输层
+    private final HttpTransport transport;
+
+    private final MessageDispatcher dispatcher;
+
+    private final ScheduledExecutorService pollExecutor;
+
+    private final ExecutorService sendExecutor;
+
+    //所有账号共用的指标注册表
+    private final MetricsRegistry metrics = new MetricsRegistry();
+
+    //账号名到客户端的映射
+    private final ConcurrentMap<String, SmartQQClient> accounts = new ConcurrentHashMap<>();
+
+    private volatile boolean closed;
+
+    /**
+     * 最多200个连接，16个拉取线程，消息按会话分区分发
+     */
+    public SmartQQClientManager() {
+        this(DEFAULT_MAX_CONNECTIONS, DEFAULT_POLL_THREADS, new PartitionedMessageDispatcher());
+    }
+
+    /**
+     * @param maxConnections 最大连接数，所有账号的请求都发往相同的几个域名，所以同时也是每个域名的最大连接数
+     * @param pollThreads    拉取消息的线程数，拉取消息的连接池按线程数的两倍创建，留出连接超时后重建的余量
+     * @param dispatcher     所有账号共用的消息分发器，关闭时一起关闭
+     */
+    public SmartQQClientManager(int maxConnections, int pollThreads, MessageDispatcher dispatcher) {
+        this(new SmartQQClient.Builder()
+                .maxConnections(maxConnections)
+                .maxConnectionsPerRoute(maxConnections)
+                .pollMaxConnections(pollThreads * 2)
+                .buildTransport(), pollThreads, dispatcher);
+    }
+
+    /**
+     * 使用{@link com.scienjus.smartqq.transport.AsyncHttpTransport}时，拉取消息不占用线程，少量拉取线程就可以支持大量账号
+     *
+     * @param transport   所有账号共用的传输层，关闭时一起关闭
+     * @param pollThreads 拉取消息的线程数
+     * @param dispatcher  所有账号共用的消息分发器，关闭时一起关闭
+     */
+    public SmartQQClientManager(HttpTransport transport, int pollThreads, MessageDispatcher dispatcher) {
+        this.transport = transport;
+        this.dispatcher = dispatcher;
+        this.pollExecutor = Executors.newScheduledThreadPool(pollThreads, new NamedThreadFactory("smartqq-poll", false));
+        this.sendExecutor = Executors.newFixedThreadPool(SEND_THREADS, new NamedThreadFactory("smartqq-send"));
+    }
+
+    /**
+     * 添加账号并登录，登录完成（可能需要扫码）后才返回
+     *
+     * @param name         账号名，用于之后查找、移除账号
+     * @param callback     接收消息的回调，不需要接收消息时传null
+     * @param sessionStore 登录状态的存储，可以为null
+     * @return 登录后的客户端
+     */
+    public SmartQQClient addAccount(String name, MessageCallback callback, SessionStore sessionStore) {
+        if (closed) {
+            throw new IllegalStateException("客户端管理器已关闭");
+        }
+        if (accounts.containsKey(name)) {
+            throw new IllegalArgumentException("账号已存在：" + name);
+        }
+        SmartQQClient account = new SmartQQClient.Builder()
+                .callback(callback)
+                .dispatcher(dispatcher)
+                .sessionStore(sessionStore)
+                .shareResources(transport, pollExecutor, sendExecutor)
+                .metrics(metrics)
+                .metricsAccount(name)
+                .build();
+        if (accounts.putIfAbsent(name, account) != null) {
+            closeQuietly(account);
+            throw new IllegalArgumentException("账号已存在：" + name);
+        }
+        try {
+            account.start();
+        } catch (RuntimeException e) {
+            accounts.remove(name, account);
+            closeQuietly(account);
+            throw e;
+        }
+        return account;
+    }
+
+    /**
+     * 根据账号名获得客户端
+     *
+     * @param name 账号名
+     * @return 不存在时返回null
+     */
+    public SmartQQClient getAccount(String name) {
+        return accounts.get(name);
+    }
+
+    /**
+     * 获得所有账号共用的指标注册表，可以交给{@link com.scienjus.smartqq.metrics.MetricsExporter}导出
+     *
+     * @return
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 获得所有账号名
+     *
+     * @return
+     */
+    public List<String> getAccountNames() {
+        return Collections.unmodifiableList(new ArrayList<>(accounts.keySet()));
+    }
+
+    /**
+     * 移除账号并停止接收该账号的消息
+     *
+     * @param name 账号名
+     * @return 账号是否存在
+     */
+    public boolean removeAccount(String name) {
+        SmartQQClient account = accounts.remove(name);
+        if (account == null) {
+            return false;
+        }
+        closeQuietly(account);
+        return true;
+    }
+
+    /**
+     * 重新登录账号
+     *
+     * @param name 账号名
+     */
+    public void relogin(String name) {
+        SmartQQClient account = accounts.get(name);
+        if (account == null) {
+            throw new IllegalArgumentException("账号不存在：" + name);
+        }
+        account.relogin();
+    }
+
+    private static void closeQuietly(SmartQQClient account) {
+        try {
+            account.close();
+        } catch (IOException e) {
+            LOGGER.error("关闭客户端失败：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 关闭所有账号并释放共用的资源
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (String name : accounts.keySet()) {
+            removeAccount(name);
+        }
+        if (dispatcher != null) {
+            dispatcher.close();
+        }
+        pollExecutor.shutdown();
+        sendExecutor.shutdown();
+        transport.close();
+    }
+
+}
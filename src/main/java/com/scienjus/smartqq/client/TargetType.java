@@ -0,0 +1,32 @@
+package com.scienjus.smartqq.client;
+
+import com.scienjus.smartqq.constant.ApiURL;
+
+/**
+ * 消息接收者类型，对应各自的发送接口和接收者id参数名.
+ */
+enum TargetType {
+
+    FRIEND(ApiURL.SEND_MESSAGE_TO_FRIEND, "to"),
+
+    GROUP(ApiURL.SEND_MESSAGE_TO_GROUP, "group_uin"),
+
+    DISCUSS(ApiURL.SEND_MESSAGE_TO_DISCUSS, "did");
+
+    private final ApiURL url;
+
+    private final String idKey;
+
+    TargetType(ApiURL url, String idKey) {
+        this.url = url;
+        this.idKey = idKey;
+    }
+
+    public ApiURL getUrl() {
+        return url;
+    }
+
+    public String getIdKey() {
+        return idKey;
+    }
+}
@@ -0,0 +1,80 @@
+package com.scienjus.smartqq.client;
+
+/**
+ * 令牌桶，按固定速率补充令牌，最多积攒capacity个.
+ * 非线程安全，由调用方加锁.
+ */
+class TokenBucket {
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    //容量
+    private final double capacity;
+
+    //每个令牌的补充间隔
+    private final double nanosPerToken;
+
+    //当前令牌数
+    private double tokens;
+
+    //上次补充令牌的时间
+    private long lastRefill;
+
+    /**
+     * @param ratePerSecond 每秒补充的令牌数
+     * @param capacity      最多积攒的令牌数，即允许的突发数
+     * @param now           当前时间（System.nanoTime）
+     */
+    TokenBucket(double ratePerSecond, double capacity, long now) {
+        if (ratePerSecond <= 0 || capacity < 1) {
+            throw new IllegalArgumentException("速率必须大于0，容量不能小于1");
+        }
+        this.capacity = capacity;
+        this.nanosPerToken = NANOS_PER_SECOND / ratePerSecond;
+        this.tokens = capacity;
+        this.lastRefill = now;
+    }
+
+    private void refill(long now) {
+        if (now > lastRefill) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) / nanosPerToken);
+            lastRefill = now;
+        }
+    }
+
+    /**
+     * 距离下一个令牌可用还需要等待的时间，0表示当前就有可用令牌
+     *
+     * @param now 当前时间
+     * @return 等待的纳秒数
+     */
+    long nanosUntilAvailable(long now) {
+        refill(now);
+        if (tokens >= 1) {
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) * nanosPerToken);
+    }
+
+    /**
+     * 消耗一个令牌，调用前应先确认有可用令牌
+     *
+     * @param now 当前时间
+     */
+    void consume(long now) {
+        refill(now);
+        tokens -= 1;
+    }
+
+    /**
+     * 令牌是否已经补满，补满的桶与新建的桶等价，可以回收
+     *
+     * @param now 当前时间
+     * @return
+     */
+    boolean isFull(long now) {
+        refill(now);
+        return tokens >= capacity;
+    }
+
+}
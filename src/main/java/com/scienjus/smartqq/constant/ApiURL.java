@@ -1,7 +1,13 @@
 package com.scienjus.smartqq.constant;
 
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
- * Api的请求地址和Referer
+ * Api的请求地址和Referer.
+ * 地址模板在类加载时拆分为字面量片段和参数位置，拼接地址时只需遍历一次.
  *
  * @author ScienJus
  * @date 2015/12/19
@@ -24,7 +30,8 @@ public enum ApiURL {
     ),
     GET_PTWEBQQ(
             "{1}",
-            null
+            null,
+            false   //参数是校验二维码返回的完整地址，不需要编码
     ),
     GET_VFWEBQQ(
             "https://s.web2.qq.com/api/getvfwebqq?ptwebqq={1}&clientid=53999199&psessionid=&t=0.1",
@@ -93,17 +100,48 @@ public enum ApiURL {
 
     public static final String USER_AGENT = "Mozilla/5.0 (Windows NT 6.3; WOW64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/45.0.2454.101 Safari/537.36";
 
-    private String url;
+    //真实地址的协议头
+    private static final String SCHEME = "https://";
+
+    //真实地址模板
+    private final String url;
+
+    private final String referer;
+
+    //参数是否需要URL编码
+    private final boolean encodeParams;
 
-    private String referer;
+    //当前使用的地址模板，设置了模拟服务器时替换为模拟服务器的地址
+    private volatile Template template;
 
     ApiURL(String url, String referer) {
+        this(url, referer, true);
+    }
+
+    ApiURL(String url, String referer, boolean encodeParams) {
         this.url = url;
         this.referer = referer;
+        this.encodeParams = encodeParams;
+        this.template = new Template(url);
+    }
+
+    /**
+     * 把所有请求发往指定的服务器，只替换协议和域名，路径和参数不变，用于测试
+     *
+     * @param baseUrl 服务器地址，如http://127.0.0.1:8080，为null时恢复为真实地址
+     */
+    public static void setBaseUrl(String baseUrl) {
+        for (ApiURL api : values()) {
+            String url = api.url;
+            if (baseUrl != null && url.startsWith(SCHEME)) {
+                url = baseUrl + url.substring(url.indexOf('/', SCHEME.length()));
+            }
+            api.template = new Template(url);
+        }
     }
 
     public String getUrl() {
-        return url;
+        return template.url;
     }
 
 
@@ -111,16 +149,129 @@ public enum ApiURL {
         return referer;
     }
 
+    /**
+     * 重复请求是否安全.发送消息的接口每次请求都会发出一条消息，超时时服务端可能已经收到，不能在网络异常后重试
+     *
+     * @return
+     */
+    public boolean isIdempotent() {
+        return this != SEND_MESSAGE_TO_FRIEND && this != SEND_MESSAGE_TO_GROUP && this != SEND_MESSAGE_TO_DISCUSS;
+    }
+
+    /**
+     * 用参数替换地址中的{1}、{2}...
+     *
+     * @param params 参数，按位置对应
+     * @return
+     */
     public String buildUrl(Object... params) {
-        int i = 1;
-        String url = this.url;
-        for (Object param : params) {
-            url = url.replace("{" + i++ + "}", param.toString());
+        Template template = this.template;
+        if (params.length < template.maxSlot) {
+            throw new IllegalArgumentException(String.format("%s需要%d个参数", name(), template.maxSlot));
+        }
+        String[] literals = template.literals;
+        int[] slots = template.slots;
+        //预先算好长度，psessionid有两百多个字符，避免扩容
+        int capacity = template.literalLength;
+        for (int slot : slots) {
+            Object param = params[slot];
+            capacity += param instanceof CharSequence ? ((CharSequence) param).length() : 20;
+        }
+        StringBuilder builder = new StringBuilder(capacity);
+        builder.append(literals[0]);
+        for (int i = 0; i < slots.length; i++) {
+            appendParam(builder, params[slots[i]]);
+            builder.append(literals[i + 1]);
+        }
+        return builder.toString();
+    }
+
+    //写入参数，整数直接写入，其它参数按需要编码
+    private void appendParam(StringBuilder builder, Object param) {
+        if (param instanceof Long || param instanceof Integer) {
+            builder.append(((Number) param).longValue());
+            return;
+        }
+        String value = param.toString();
+        if (!encodeParams) {
+            builder.append(value);
+            return;
         }
-        return url;
+        //鉴权参数都是十六进制字符串，不需要编码时直接写入
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (!isUnreserved(c)) {
+                try {
+                    builder.append(value, 0, i).append(URLEncoder.encode(value.substring(i), "UTF-8"));
+                } catch (UnsupportedEncodingException e) {
+                    throw new IllegalStateException(e);
+                }
+                return;
+            }
+        }
+        builder.append(value);
+    }
+
+    private static boolean isUnreserved(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '_' || c == '.' || c == '~';
     }
 
     public String getOrigin() {
-        return this.url.substring(0, url.lastIndexOf("/"));
+        return template.origin;
+    }
+
+    //拆分后的地址模板，创建后不再修改
+    private static class Template {
+
+        private final String url;
+
+        private final String origin;
+
+        //参数之间的字面量，比参数位置多一个
+        private final String[] literals;
+
+        //每个参数位置对应的参数下标（从0开始）
+        private final int[] slots;
+
+        //字面量的总长度
+        private final int literalLength;
+
+        //最大的参数编号，即至少需要的参数个数
+        private final int maxSlot;
+
+        Template(String url) {
+            this.url = url;
+            this.origin = url.substring(0, Math.max(url.lastIndexOf("/"), 0));
+            List<String> literals = new ArrayList<>();
+            List<Integer> slots = new ArrayList<>();
+            int start = 0;
+            int open = url.indexOf('{');
+            while (open >= 0) {
+                int close = url.indexOf('}', open);
+                if (close < 0) {
+                    break;
+                }
+                literals.add(url.substring(start, open));
+                slots.add(Integer.parseInt(url.substring(open + 1, close)) - 1);
+                start = close + 1;
+                open = url.indexOf('{', start);
+            }
+            literals.add(url.substring(start));
+            this.literals = literals.toArray(new String[literals.size()]);
+            this.slots = new int[slots.size()];
+            int length = 0;
+            int maxSlot = 0;
+            for (int i = 0; i < this.slots.length; i++) {
+                this.slots[i] = slots.get(i);
+                maxSlot = Math.max(maxSlot, this.slots[i] + 1);
+            }
+            for (String literal : this.literals) {
+                length += literal.length();
+            }
+            this.literalLength = length;
+            this.maxSlot = maxSlot;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,22 @@
+package com.scienjus.smartqq.constant;
+
+/**
+ * 客户端的登录状态
+ */
+public enum SessionState {
+
+    //正在登录
+    LOGGING_IN,
+
+    //已登录，可以正常收发消息
+    ONLINE,
+
+    //登录状态失效（Api返回码[103]、[121]等），正在重新登录
+    RECOVERING,
+
+    //重新登录失败，等待下一次重试
+    OFFLINE,
+
+    //客户端已关闭
+    CLOSED
+}
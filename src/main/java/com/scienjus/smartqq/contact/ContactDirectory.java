@@ -0,0 +1,249 @@
+package com.scienjus.smartqq.contact;
+
+import com.scienjus.smartqq.client.SmartQQClient;
+import com.scienjus.smartqq.model.Discuss;
+import com.scienjus.smartqq.model.Friend;
+import com.scienjus.smartqq.model.Group;
+import com.scienjus.smartqq.util.NamedThreadFactory;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 好友、群和讨论组列表.
+ * 列表在后台线程中定期重新获取，获取成功后整体替换为新的只读快照，查询时只读取当前快照，不会等待网络请求.
+ * 查询到不存在的id时（如刚加入的群或新好友）会触发一次后台刷新.
+ */
+public class ContactDirectory implements Closeable {
+
+    //日志
+    private static final Logger LOGGER = Logger.getLogger(ContactDirectory.class);
+
+    //默认刷新间隔
+    private static final long DEFAULT_REFRESH_MINUTES = 10;
+
+    //两次按需刷新的最小间隔，防止不断出现的未知id（如匿名用户）频繁触发刷新
+    private static final long MIN_ON_DEMAND_INTERVAL_SECONDS = 30;
+
+    private final SmartQQClient client;
+
+    private final long refreshPeriodNanos;
+
+    private final ScheduledExecutorService executor;
+
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(new Snapshot(
+            Collections.<Long, Friend>emptyMap(), Collections.<Long, Group>emptyMap(), Collections.<Long, Discuss>emptyMap()));
+
+    //是否已经有一次等待执行的刷新
+    private final AtomicBoolean refreshPending = new AtomicBoolean();
+
+    //上一次刷新的开始时间
+    private volatile long lastRefresh = System.nanoTime() - TimeUnit.SECONDS.toNanos(MIN_ON_DEMAND_INTERVAL_SECONDS);
+
+    /**
+     * 每10分钟刷新一次
+     *
+     * @param client 客户端
+     */
+    public ContactDirectory(SmartQQClient client) {
+        this(client, DEFAULT_REFRESH_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * @param client        客户端
+     * @param refreshPeriod 刷新间隔
+     * @param unit          时间单位
+     */
+    public ContactDirectory(SmartQQClient client, long refreshPeriod, TimeUnit unit) {
+        this.client = client;
+        this.refreshPeriodNanos = unit.toNanos(refreshPeriod);
+        this.executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("smartqq-contact-directory"));
+    }
+
+    /**
+     * 开始定期刷新，第一次刷新在一个刷新间隔之后执行，启动时的列表需要先调用{@link #refreshNow()}获取
+     */
+    public void start() {
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                refreshNow();
+            }
+        }, refreshPeriodNanos, refreshPeriodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 在当前线程中立即刷新，某个列表获取失败时保留该列表的旧数据
+     *
+     * @return 三个列表是否都刷新成功
+     */
+    public boolean refreshNow() {
+        lastRefresh = System.nanoTime();
+        Snapshot current = snapshot.get();
+        boolean success = true;
+        Map<Long, Friend> friends = current.friends;
+        try {
+            List<Friend> list = client.getFriendList();
+            friends = new HashMap<>(list.size() * 2);
+            for (Friend friend : list) {
+                friends.put(friend.getUserId(), friend);
+            }
+        } catch (Exception e) {
+            LOGGER.warn("刷新好友列表失败：" + e.getMessage());
+            success = false;
+        }
+        Map<Long, Group> groups = current.groups;
+        try {
+            List<Group> list = client.getGroupList();
+            groups = new HashMap<>(list.size() * 2);
+            for (Group group : list) {
+                groups.put(group.getId(), group);
+            }
+        } catch (Exception e) {
+            LOGGER.warn("刷新群列表失败：" + e.getMessage());
+            success = false;
+        }
+        Map<Long, Discuss> discusses = current.discusses;
+        try {
+            List<Discuss> list = client.getDiscussList();
+            discusses = new HashMap<>(list.size() * 2);
+            for (Discuss discuss : list) {
+                discusses.put(discuss.getId(), discuss);
+            }
+        } catch (Exception e) {
+            LOGGER.warn("刷新讨论组列表失败：" + e.getMessage());
+            success = false;
+        }
+        snapshot.set(new Snapshot(friends, groups, discusses));
+        return success;
+    }
+
+    /**
+     * 请求在后台刷新一次，多次请求会合并，距离上一次刷新太近时忽略
+     */
+    public void requestRefresh() {
+        if (System.nanoTime() - lastRefresh < TimeUnit.SECONDS.toNanos(MIN_ON_DEMAND_INTERVAL_SECONDS)) {
+            return;
+        }
+        if (!refreshPending.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    refreshPending.set(false);
+                    refreshNow();
+                }
+            });
+        } catch (RuntimeException e) {
+            refreshPending.set(false);
+        }
+    }
+
+    /**
+     * 根据id获得好友
+     *
+     * @param userId 好友id
+     * @return 好友，不存在时返回null并触发后台刷新
+     */
+    public Friend getFriend(long userId) {
+        Friend friend = snapshot.get().friends.get(userId);
+        if (friend == null) {
+            requestRefresh();
+        }
+        return friend;
+    }
+
+    /**
+     * 根据id获得群
+     *
+     * @param groupId 群id
+     * @return 群，不存在时返回null并触发后台刷新
+     */
+    public Group getGroup(long groupId) {
+        Group group = snapshot.get().groups.get(groupId);
+        if (group == null) {
+            requestRefresh();
+        }
+        return group;
+    }
+
+    /**
+     * 根据id获得讨论组
+     *
+     * @param discussId 讨论组id
+     * @return 讨论组，不存在时返回null并触发后台刷新
+     */
+    public Discuss getDiscuss(long discussId) {
+        Discuss discuss = snapshot.get().discusses.get(discussId);
+        if (discuss == null) {
+            requestRefresh();
+        }
+        return discuss;
+    }
+
+    /**
+     * 获得当前的好友列表
+     *
+     * @return
+     */
+    public List<Friend> getFriends() {
+        return values(snapshot.get().friends.values());
+    }
+
+    /**
+     * 获得当前的群列表
+     *
+     * @return
+     */
+    public List<Group> getGroups() {
+        return values(snapshot.get().groups.values());
+    }
+
+    /**
+     * 获得当前的讨论组列表
+     *
+     * @return
+     */
+    public List<Discuss> getDiscusses() {
+        return values(snapshot.get().discusses.values());
+    }
+
+    private static <T> List<T> values(Collection<T> values) {
+        return Collections.unmodifiableList(new ArrayList<>(values));
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    //某一时刻的列表，创建后不再修改
+    private static class Snapshot {
+
+        private final Map<Long, Friend> friends;
+
+        private final Map<Long, Group> groups;
+
+        private final Map<Long, Discuss> discusses;
+
+        Snapshot(Map<Long, Friend> friends, Map<Long, Group> groups, Map<Long, Discuss> discusses) {
+            this.friends = friends;
+            this.groups = groups;
+            this.discusses = discusses;
+        }
+    }
+
+}
@@ -0,0 +1,111 @@
+package com.scienjus.smartqq.contact;
+
+import com.scienjus.smartqq.client.SmartQQClient;
+import com.scienjus.smartqq.model.DiscussInfo;
+import com.scienjus.smartqq.model.GroupInfo;
+import com.scienjus.smartqq.util.NamedThreadFactory;
+
+import java.io.Closeable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 群资料和讨论组资料的缓存.
+ * 多个线程同时查询同一个群时只会调用一次{@link SmartQQClient#getGroupInfo(long)}，
+ * 资料在一段时间后会在后台刷新，超过有效期后重新加载.
+ */
+public class ContactInfoCache implements Closeable {
+
+    //默认最多缓存的群和讨论组数
+    private static final int DEFAULT_MAXIMUM_SIZE = 1000;
+
+    //默认有效期
+    private static final long DEFAULT_EXPIRE_MINUTES = 60;
+
+    //默认后台刷新间隔
+    private static final long DEFAULT_REFRESH_MINUTES = 10;
+
+    private final ExecutorService refreshExecutor;
+
+    private final ExpiringCache<Long, GroupInfo> groupInfos;
+
+    private final ExpiringCache<Long, DiscussInfo> discussInfos;
+
+    /**
+     * 使用默认配置：最多1000个，10分钟后台刷新，60分钟过期
+     *
+     * @param client 客户端
+     */
+    public ContactInfoCache(SmartQQClient client) {
+        this(client, DEFAULT_MAXIMUM_SIZE, DEFAULT_EXPIRE_MINUTES, DEFAULT_REFRESH_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * @param client            客户端
+     * @param maximumSize       群和讨论组各自最多缓存的数量
+     * @param expireAfterWrite  加载后多久过期
+     * @param refreshAfterWrite 加载后多久开始后台刷新，0表示不刷新
+     * @param unit              时间单位
+     */
+    public ContactInfoCache(final SmartQQClient client, int maximumSize, long expireAfterWrite, long refreshAfterWrite,
+                            TimeUnit unit) {
+        this.refreshExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("smartqq-contact-refresh"));
+        this.groupInfos = new ExpiringCache<>(new ExpiringCache.Loader<Long, GroupInfo>() {
+            @Override
+            public GroupInfo load(Long groupCode) {
+                return client.getGroupInfo(groupCode);
+            }
+        }, maximumSize, expireAfterWrite, refreshAfterWrite, unit, refreshExecutor);
+        this.discussInfos = new ExpiringCache<>(new ExpiringCache.Loader<Long, DiscussInfo>() {
+            @Override
+            public DiscussInfo load(Long discussId) {
+                return client.getDiscussInfo(discussId);
+            }
+        }, maximumSize, expireAfterWrite, refreshAfterWrite, unit, refreshExecutor);
+    }
+
+    /**
+     * 获得群资料
+     *
+     * @param groupCode 群编号
+     * @return
+     */
+    public GroupInfo getGroupInfo(long groupCode) {
+        return groupInfos.get(groupCode);
+    }
+
+    /**
+     * 获得讨论组资料
+     *
+     * @param discussId 讨论组id
+     * @return
+     */
+    public DiscussInfo getDiscussInfo(long discussId) {
+        return discussInfos.get(discussId);
+    }
+
+    /**
+     * 移除群资料，下一次查询时重新加载（如收到新成员的消息时）
+     *
+     * @param groupCode 群编号
+     */
+    public void invalidateGroupInfo(long groupCode) {
+        groupInfos.invalidate(groupCode);
+    }
+
+    /**
+     * 移除讨论组资料，下一次查询时重新加载
+     *
+     * @param discussId 讨论组id
+     */
+    public void invalidateDiscussInfo(long discussId) {
+        discussInfos.invalidate(discussId);
+    }
+
+    @Override
+    public void close() {
+        refreshExecutor.shutdownNow();
+    }
+
+}
@@ -0,0 +1,251 @@
+package com.scienjus.smartqq.contact;
+
+import org.apache.log4j.Logger;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 线程安全的加载缓存.
+ * <ul>
+ * <li>同一个key同时只会有一个线程在加载，其它线程等待同一个结果</li>
+ * <li>写入超过expireAfterWrite后过期，下一次读取时同步重新加载</li>
+ * <li>写入超过refreshAfterWrite后仍然返回旧值，同时在后台重新加载一次</li>
+ * <li>超过最大数量时淘汰最久没有被访问的条目</li>
+ * </ul>
+ */
+public class ExpiringCache<K, V> {
+
+    //日志
+    private static final Logger LOGGER = Logger.getLogger(ExpiringCache.class);
+
+    /**
+     * 缓存未命中时的加载方法
+     */
+    public interface Loader<K, V> {
+
+        /**
+         * 加载key对应的值，不能返回null
+         *
+         * @param key
+         * @return
+         */
+        V load(K key);
+    }
+
+    private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+
+    private final Loader<K, V> loader;
+
+    private final int maximumSize;
+
+    private final long expireAfterWriteNanos;
+
+    private final long refreshAfterWriteNanos;
+
+    private final Executor refreshExecutor;
+
+    /**
+     * @param loader            加载方法
+     * @param maximumSize       最多缓存的条目数
+     * @param expireAfterWrite  写入后多久过期
+     * @param refreshAfterWrite 写入后多久开始后台刷新，0表示不刷新
+     * @param unit              时间单位
+     * @param refreshExecutor   执行后台刷新的线程池
+     */
+    public ExpiringCache(Loader<K, V> loader, int maximumSize, long expireAfterWrite, long refreshAfterWrite,
+                         TimeUnit unit, Executor refreshExecutor) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("缓存数量必须大于0");
+        }
+        this.loader = loader;
+        this.maximumSize = maximumSize;
+        this.expireAfterWriteNanos = unit.toNanos(expireAfterWrite);
+        this.refreshAfterWriteNanos = unit.toNanos(refreshAfterWrite);
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    /**
+     * 获得key对应的值，不存在或已过期时加载
+     *
+     * @param key
+     * @return
+     */
+    public V get(K key) {
+        while (true) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null) {
+                if (!entry.task.isDone()) {
+                    //其它线程正在加载，等待同一个结果
+                    return await(entry);
+                }
+                long now = System.nanoTime();
+                if (entry.loaded && now - entry.loadedAt < expireAfterWriteNanos) {
+                    entry.lastAccess = now;
+                    if (refreshAfterWriteNanos > 0 && now - entry.loadedAt >= refreshAfterWriteNanos
+                            && entry.refreshing.compareAndSet(false, true)) {
+                        refresh(key, entry);
+                    }
+                    return await(entry);
+                }
+            }
+            Entry<V> loading = newEntry(key);
+            boolean owner = entry == null ? entries.putIfAbsent(key, loading) == null : entries.replace(key, entry, loading);
+            if (!owner) {
+                continue;
+            }
+            evictIfNecessary();
+            loading.task.run();
+            try {
+                return await(loading);
+            } catch (RuntimeException | Error e) {
+                //加载失败不缓存，下一次读取时重试
+                entries.remove(key, loading);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 获得已经缓存的值，不会触发加载
+     *
+     * @param key
+     * @return 未缓存、正在加载或已过期时返回null
+     */
+    public V getIfPresent(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null || !entry.loaded || System.nanoTime() - entry.loadedAt >= expireAfterWriteNanos) {
+            return null;
+        }
+        try {
+            return entry.task.get();
+        } catch (InterruptedException | ExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 移除key对应的缓存
+     *
+     * @param key
+     */
+    public void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * 获得缓存的条目数
+     *
+     * @return
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    private Entry<V> newEntry(final K key) {
+        final Entry<V> entry = new Entry<>();
+        entry.task = new FutureTask<>(new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                V value = loader.load(key);
+                if (value == null) {
+                    throw new IllegalStateException("加载结果不能为null：" + key);
+                }
+                entry.loadedAt = entry.lastAccess = System.nanoTime();
+                entry.loaded = true;
+                return value;
+            }
+        });
+        return entry;
+    }
+
+    //在后台重新加载，成功后替换旧的条目，失败时保留旧值等待下一次刷新
+    private void refresh(final K key, final Entry<V> stale) {
+        refreshExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Entry<V> fresh = newEntry(key);
+                fresh.task.run();
+                try {
+                    fresh.task.get();
+                    entries.replace(key, stale, fresh);
+                } catch (Exception e) {
+                    LOGGER.warn("后台刷新缓存失败：" + key, e);
+                    stale.refreshing.set(false);
+                }
+            }
+        });
+    }
+
+    //超过最大数量时淘汰最久没有被访问的已加载条目
+    private void evictIfNecessary() {
+        while (entries.size() > maximumSize) {
+            K eldestKey = null;
+            Entry<V> eldest = null;
+            for (Map.Entry<K, Entry<V>> candidate : entries.entrySet()) {
+                Entry<V> entry = candidate.getValue();
+                if (entry.loaded && (eldest == null || entry.lastAccess - eldest.lastAccess < 0)) {
+                    eldestKey = candidate.getKey();
+                    eldest = entry;
+                }
+            }
+            if (eldest == null || !entries.remove(eldestKey, eldest)) {
+                return;
+            }
+        }
+    }
+
+    private static <V> V await(Entry<V> entry) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return entry.task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    //缓存条目
+    private static class Entry<V> {
+
+        private FutureTask<V> task;
+
+        private volatile boolean loaded;
+
+        private volatile long loadedAt;
+
+        private volatile long lastAccess;
+
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+    }
+
+}
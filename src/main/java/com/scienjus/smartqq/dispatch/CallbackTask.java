@@ -0,0 +1,77 @@
+package com.scienjus.smartqq.dispatch;
+
+import com.scienjus.smartqq.callback.MessageCallback;
+import com.scienjus.smartqq.model.DiscussMessage;
+import com.scienjus.smartqq.model.GroupMessage;
+import com.scienjus.smartqq.model.Message;
+import org.apache.log4j.Logger;
+
+/**
+ * 一次回调调用，回调抛出的异常只记录日志，不影响工作线程.
+ * 分发器丢弃任务时调用{@link #discard(Runnable)}，通知实现了{@link DiscardListener}的回调.
+ */
+abstract class CallbackTask implements Runnable {
+
+    //日志
+    private static final Logger LOGGER = Logger.getLogger(CallbackTask.class);
+
+    protected final MessageCallback callback;
+
+    private CallbackTask(MessageCallback callback) {
+        this.callback = callback;
+    }
+
+    static CallbackTask of(final Message message, MessageCallback callback) {
+        return new CallbackTask(callback) {
+            @Override
+            protected void invoke() {
+                this.callback.onMessage(message);
+            }
+        };
+    }
+
+    static CallbackTask of(final GroupMessage message, MessageCallback callback) {
+        return new CallbackTask(callback) {
+            @Override
+            protected void invoke() {
+                this.callback.onGroupMessage(message);
+            }
+        };
+    }
+
+    static CallbackTask of(final DiscussMessage message, MessageCallback callback) {
+        return new CallbackTask(callback) {
+            @Override
+            protected void invoke() {
+                this.callback.onDiscussMessage(message);
+            }
+        };
+    }
+
+    protected abstract void invoke();
+
+    /**
+     * 任务被丢弃，不会再执行
+     *
+     * @param task 被丢弃的任务
+     */
+    static void discard(Runnable task) {
+        if (task instanceof CallbackTask && ((CallbackTask) task).callback instanceof DiscardListener) {
+            try {
+                ((DiscardListener) ((CallbackTask) task).callback).onDiscarded();
+            } catch (Exception e) {
+                LOGGER.error("消息丢弃通知执行失败", e);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            invoke();
+        } catch (Exception e) {
+            LOGGER.error("消息回调执行失败", e);
+        }
+    }
+
+}
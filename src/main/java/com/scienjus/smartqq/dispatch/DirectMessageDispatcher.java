@@ -0,0 +1,33 @@
+package com.scienjus.smartqq.dispatch;
+
+import com.scienjus.smartqq.callback.MessageCallback;
+import com.scienjus.smartqq.model.DiscussMessage;
+import com.scienjus.smartqq.model.GroupMessage;
+import com.scienjus.smartqq.model.Message;
+
+/**
+ * 在拉取线程上直接执行回调，回调耗时会直接拖慢下一次拉取，只适合非常轻量的回调.
+ */
+public class DirectMessageDispatcher implements MessageDispatcher {
+
+    @Override
+    public void dispatch(Message message, MessageCallback callback) {
+        CallbackTask.of(message, callback).run();
+    }
+
+    @Override
+    public void dispatch(GroupMessage message, MessageCallback callback) {
+        CallbackTask.of(message, callback).run();
+    }
+
+    @Override
+    public void dispatch(DiscussMessage message, MessageCallback callback) {
+        CallbackTask.of(message, callback).run();
+    }
+
+    @Override
+    public void close() {
+        //没有需要释放的资源
+    }
+
+}
@@ -0,0 +1,14 @@
+package com.scienjus.smartqq.dispatch;
+
+/**
+ * 消息被分发器丢弃时的通知.
+ * 回调同时实现该接口时，消息因队列已满（{@link OverflowPolicy#DISCARD}、{@link OverflowPolicy#DISCARD_OLDEST}）
+ * 或分发器已关闭而不会执行回调时，分发器调用{@link #onDiscarded()}代替回调.
+ */
+public interface DiscardListener {
+
+    /**
+     * 消息被丢弃，不会再执行回调
+     */
+    void onDiscarded();
+}
@@ -0,0 +1,45 @@
+package com.scienjus.smartqq.dispatch;
+
+import com.scienjus.smartqq.callback.MessageCallback;
+import com.scienjus.smartqq.model.DiscussMessage;
+import com.scienjus.smartqq.model.GroupMessage;
+import com.scienjus.smartqq.model.Message;
+
+import java.io.Closeable;
+
+/**
+ * 消息分发器，决定拉取到的消息在哪个线程上执行回调.
+ * 拉取线程只负责解析并调用dispatch方法，实现类应尽快返回以免阻塞下一次拉取.
+ */
+public interface MessageDispatcher extends Closeable {
+
+    /**
+     * 分发私聊消息
+     *
+     * @param message  私聊消息
+     * @param callback 回调
+     */
+    void dispatch(Message message, MessageCallback callback);
+
+    /**
+     * 分发群消息
+     *
+     * @param message  群消息
+     * @param callback 回调
+     */
+    void dispatch(GroupMessage message, MessageCallback callback);
+
+    /**
+     * 分发讨论组消息
+     *
+     * @param message  讨论组消息
+     * @param callback 回调
+     */
+    void dispatch(DiscussMessage message, MessageCallback callback);
+
+    /**
+     * 停止接收新消息，已经入队的消息会继续执行完
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,99 @@
+package com.scienjus.smartqq.dispatch;
+
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * 分发队列已满时的处理策略.
+ * 丢弃消息时通知实现了{@link DiscardListener}的回调.
+ */
+public enum OverflowPolicy {
+
+    /**
+     * 阻塞拉取线程直到队列有空位，压力会反馈到拉取速度上，不丢消息
+     */
+    BLOCK {
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("分发器已关闭");
+            }
+            try {
+                executor.getQueue().put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("等待分发队列时被中断", e);
+            }
+        }
+    },
+
+    /**
+     * 由拉取线程直接执行回调
+     */
+    CALLER_RUNS {
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (!executor.isShutdown()) {
+                task.run();
+            } else {
+                CallbackTask.discard(task);
+            }
+        }
+    },
+
+    /**
+     * 丢弃新到的消息
+     */
+    DISCARD {
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            LOGGER.warn("分发队列已满，丢弃一条消息");
+            CallbackTask.discard(task);
+        }
+    },
+
+    /**
+     * 丢弃队列中最早的消息，再尝试放入新消息
+     */
+    DISCARD_OLDEST {
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (!executor.isShutdown()) {
+                Runnable oldest = executor.getQueue().poll();
+                LOGGER.warn("分发队列已满，丢弃最早的一条消息");
+                CallbackTask.discard(oldest);
+                executor.execute(task);
+            } else {
+                CallbackTask.discard(task);
+            }
+        }
+    };
+
+    //日志
+    private static final Logger LOGGER = Logger.getLogger(OverflowPolicy.class);
+
+    /**
+     * 处理无法放入队列的任务
+     *
+     * @param task     任务
+     * @param executor 线程池
+     */
+    public abstract void rejectedExecution(Runnable task, ThreadPoolExecutor executor);
+
+    /**
+     * 转换为线程池使用的拒绝策略
+     *
+     * @return
+     */
+    RejectedExecutionHandler toHandler() {
+        return new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+                OverflowPolicy.this.rejectedExecution(task, executor);
+            }
+        };
+    }
+}
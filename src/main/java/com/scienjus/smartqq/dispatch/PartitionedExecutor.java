@@ -0,0 +1,109 @@
+package com.scienjus.smartqq.dispatch;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按key分区的执行器.
+ * 每个分区是一个单线程、有界队列的线程池，相同key的任务总是落在同一个分区上按提交顺序执行，
+ * 不同key的任务分散到各个分区并行执行.
+ */
+public class PartitionedExecutor {
+
+    //分区
+    private final ThreadPoolExecutor[] partitions;
+
+    /**
+     * @param partitions     分区数，即工作线程数
+     * @param queueCapacity  每个分区的等待队列长度
+     * @param overflowPolicy 队列已满时的处理策略
+     * @param threadFactory  工作线程工厂
+     */
+    public PartitionedExecutor(int partitions, int queueCapacity, OverflowPolicy overflowPolicy,
+                               ThreadFactory threadFactory) {
+        if (partitions <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("分区数和队列长度必须大于0");
+        }
+        this.partitions = new ThreadPoolExecutor[partitions];
+        for (int i = 0; i < partitions; i++) {
+            this.partitions[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueCapacity), threadFactory, overflowPolicy.toHandler());
+        }
+    }
+
+    /**
+     * 提交任务，相同key的任务按提交顺序依次执行
+     *
+     * @param key  分区key
+     * @param task 任务
+     */
+    public void execute(long key, Runnable task) {
+        partitions[partitionOf(key)].execute(task);
+    }
+
+    /**
+     * 计算key所在的分区
+     *
+     * @param key 分区key
+     * @return 分区下标
+     */
+    int partitionOf(long key) {
+        //打散连续的id，避免集中在少数分区上
+        long h = key * 0x9E3779B97F4A7C15L;
+        int hash = (int) (h ^ (h >>> 32));
+        return (hash & Integer.MAX_VALUE) % partitions.length;
+    }
+
+    /**
+     * 获得分区数
+     *
+     * @return
+     */
+    public int getPartitionCount() {
+        return partitions.length;
+    }
+
+    /**
+     * 获得所有分区中排队的任务总数
+     *
+     * @return
+     */
+    public int getQueueSize() {
+        int size = 0;
+        for (ThreadPoolExecutor partition : partitions) {
+            size += partition.getQueue().size();
+        }
+        return size;
+    }
+
+    /**
+     * 不再接收新任务，已提交的任务会继续执行
+     */
+    public void shutdown() {
+        for (ThreadPoolExecutor partition : partitions) {
+            partition.shutdown();
+        }
+    }
+
+    /**
+     * 等待所有分区执行完剩余任务
+     *
+     * @param timeout 超时时间
+     * @param unit    时间单位
+     * @return 是否在超时前全部结束
+     * @throws InterruptedException
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (ThreadPoolExecutor partition : partitions) {
+            long remaining = deadline - System.nanoTime();
+            if (!partition.awaitTermination(Math.max(remaining, 0L), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
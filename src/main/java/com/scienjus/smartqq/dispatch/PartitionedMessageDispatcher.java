@@ -0,0 +1,108 @@
+package com.scienjus.smartqq.dispatch;
+
+import com.scienjus.smartqq.callback.MessageCallback;
+import com.scienjus.smartqq.model.DiscussMessage;
+import com.scienjus.smartqq.model.GroupMessage;
+import com.scienjus.smartqq.model.Message;
+import com.scienjus.smartqq.util.NamedThreadFactory;
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按会话分区的消息分发器.
+ * 同一个好友、群或讨论组的消息按到达顺序依次执行回调，不同会话之间并行执行.
+ */
+public class PartitionedMessageDispatcher implements MessageDispatcher {
+
+    //日志
+    private static final Logger LOGGER = Logger.getLogger(PartitionedMessageDispatcher.class);
+
+    //每个分区的默认队列长度
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+    //关闭时等待剩余回调执行完的时间
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+    //会话类型，避免好友id和群id相同时落在同一个分区
+    private static final int FRIEND = 0;
+    private static final int GROUP = 1;
+    private static final int DISCUSS = 2;
+
+    private final PartitionedExecutor executor;
+
+    /**
+     * 分区数与CPU核数相同
+     */
+    public PartitionedMessageDispatcher() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * @param partitions     分区数，即工作线程数
+     * @param queueCapacity  每个分区的等待队列长度
+     * @param overflowPolicy 队列已满时的处理策略
+     */
+    public PartitionedMessageDispatcher(int partitions, int queueCapacity, OverflowPolicy overflowPolicy) {
+        this(partitions, queueCapacity, overflowPolicy, new NamedThreadFactory("smartqq-dispatch"));
+    }
+
+    /**
+     * @param partitions     分区数，即工作线程数
+     * @param queueCapacity  每个分区的等待队列长度
+     * @param overflowPolicy 队列已满时的处理策略
+     * @param threadFactory  工作线程工厂
+     */
+    public PartitionedMessageDispatcher(int partitions, int queueCapacity, OverflowPolicy overflowPolicy,
+                                        ThreadFactory threadFactory) {
+        this.executor = new PartitionedExecutor(partitions, queueCapacity, overflowPolicy, threadFactory);
+    }
+
+    @Override
+    public void dispatch(Message message, MessageCallback callback) {
+        submit(FRIEND, message.getUserId(), CallbackTask.of(message, callback));
+    }
+
+    @Override
+    public void dispatch(GroupMessage message, MessageCallback callback) {
+        submit(GROUP, message.getGroupId(), CallbackTask.of(message, callback));
+    }
+
+    @Override
+    public void dispatch(DiscussMessage message, MessageCallback callback) {
+        submit(DISCUSS, message.getDiscussId(), CallbackTask.of(message, callback));
+    }
+
+    private void submit(int type, long id, CallbackTask task) {
+        try {
+            executor.execute(id * 31 + type, task);
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("消息分发失败：" + e.getMessage());
+            CallbackTask.discard(task);
+        }
+    }
+
+    /**
+     * 获得当前排队中的消息数
+     *
+     * @return
+     */
+    public int getQueueSize() {
+        return executor.getQueueSize();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOGGER.warn("分发器关闭超时，仍有回调未执行完");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.scienjus.smartqq.dispatch;
+
+import com.scienjus.smartqq.callback.MessageCallback;
+import com.scienjus.smartqq.model.DiscussMessage;
+import com.scienjus.smartqq.model.GroupMessage;
+import com.scienjus.smartqq.model.Message;
+import com.scienjus.smartqq.util.NamedThreadFactory;
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 使用固定大小线程池和有界队列执行回调，拉取线程只负责入队.
+ * 只有一个工作线程时所有消息严格按到达顺序执行；多个工作线程时不保证顺序，
+ * 需要按会话保序请使用{@link PartitionedMessageDispatcher}.
+ */
+public class ThreadPoolMessageDispatcher implements MessageDispatcher {
+
+    //日志
+    private static final Logger LOGGER = Logger.getLogger(ThreadPoolMessageDispatcher.class);
+
+    //默认队列长度
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    //关闭时等待剩余回调执行完的时间
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * 单个工作线程，保持消息的到达顺序
+     */
+    public ThreadPoolMessageDispatcher() {
+        this(1, DEFAULT_QUEUE_CAPACITY, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * @param threads        工作线程数
+     * @param queueCapacity  等待队列长度
+     * @param overflowPolicy 队列已满时的处理策略
+     */
+    public ThreadPoolMessageDispatcher(int threads, int queueCapacity, OverflowPolicy overflowPolicy) {
+        this(threads, queueCapacity, overflowPolicy, new NamedThreadFactory("smartqq-dispatch"));
+    }
+
+    /**
+     * @param threads        工作线程数
+     * @param queueCapacity  等待队列长度
+     * @param overflowPolicy 队列已满时的处理策略
+     * @param threadFactory  工作线程工厂
+     */
+    public ThreadPoolMessageDispatcher(int threads, int queueCapacity, OverflowPolicy overflowPolicy,
+                                       ThreadFactory threadFactory) {
+        if (threads <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("线程数和队列长度必须大于0");
+        }
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), threadFactory, overflowPolicy.toHandler());
+    }
+
+    @Override
+    public void dispatch(Message message, MessageCallback callback) {
+        submit(CallbackTask.of(message, callback));
+    }
+
+    @Override
+    public void dispatch(GroupMessage message, MessageCallback callback) {
+        submit(CallbackTask.of(message, callback));
+    }
+
+    @Override
+    public void dispatch(DiscussMessage message, MessageCallback callback) {
+        submit(CallbackTask.of(message, callback));
+    }
+
+    private void submit(CallbackTask task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("消息分发失败：" + e.getMessage());
+            CallbackTask.discard(task);
+        }
+    }
+
+    /**
+     * 获得当前排队中的消息数
+     *
+     * @return
+     */
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOGGER.warn("分发器关闭超时，仍有回调未执行完");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,158 @@
+package com.scienjus.smartqq.journal;
+
+import com.scienjus.smartqq.model.DiscussMessage;
+import com.scienjus.smartqq.model.Font;
+import com.scienjus.smartqq.model.GroupMessage;
+import com.scienjus.smartqq.model.Message;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 日志记录中消息的二进制编码.
+ * 类型(1) 时间(8) 发送者(8) 会话id(8) 字体 内容，字符串为长度(4，null为-1)加UTF-8.
+ */
+final class JournalCodec {
+
+    static final byte FRIEND = 0;
+
+    static final byte GROUP = 1;
+
+    static final byte DISCUSS = 2;
+
+    private JournalCodec() {
+    }
+
+    static ByteBuffer encode(Message message, ByteBuffer buffer) {
+        return encode(FRIEND, message.getTime(), message.getUserId(), 0, message.getFont(), message.getContent(), buffer);
+    }
+
+    static ByteBuffer encode(GroupMessage message, ByteBuffer buffer) {
+        return encode(GROUP, message.getTime(), message.getUserId(), message.getGroupId(), message.getFont(),
+                message.getContent(), buffer);
+    }
+
+    static ByteBuffer encode(DiscussMessage message, ByteBuffer buffer) {
+        return encode(DISCUSS, message.getTime(), message.getUserId(), message.getDiscussId(), message.getFont(),
+                message.getContent(), buffer);
+    }
+
+    //编码到buffer中，容量不够时返回新的buffer，返回的buffer已flip
+    private static ByteBuffer encode(byte type, long time, long userId, long conversationId, Font font, String content,
+                                     ByteBuffer buffer) {
+        byte[] name = bytes(font == null ? null : font.getName());
+        byte[] color = bytes(font == null ? null : font.getColor());
+        int[] style = font == null ? null : font.getStyle();
+        byte[] text = bytes(content);
+        int size = 1 + 8 + 8 + 8 + 1 + length(name) + 4 + length(color) + 4 + (style == null ? 0 : 4 * style.length)
+                + length(text);
+        if (buffer.capacity() < size) {
+            buffer = ByteBuffer.allocate(Math.max(size, buffer.capacity() * 2));
+        }
+        buffer.clear();
+        buffer.put(type).putLong(time).putLong(userId).putLong(conversationId);
+        buffer.put((byte) (font == null ? 0 : 1));
+        putBytes(buffer, name);
+        buffer.putInt(font == null ? 0 : font.getSize());
+        putBytes(buffer, color);
+        if (style == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(style.length);
+            for (int value : style) {
+                buffer.putInt(value);
+            }
+        }
+        putBytes(buffer, text);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 解码一条消息
+     *
+     * @param buffer 从记录内容的开头读取
+     * @return Message、GroupMessage或DiscussMessage
+     */
+    static Object decode(ByteBuffer buffer) {
+        byte type = buffer.get();
+        long time = buffer.getLong();
+        long userId = buffer.getLong();
+        long conversationId = buffer.getLong();
+        boolean hasFont = buffer.get() != 0;
+        String name = getString(buffer);
+        int size = buffer.getInt();
+        String color = getString(buffer);
+        int styleLength = buffer.getInt();
+        int[] style = null;
+        if (styleLength >= 0) {
+            style = new int[styleLength];
+            for (int i = 0; i < styleLength; i++) {
+                style[i] = buffer.getInt();
+            }
+        }
+        String content = getString(buffer);
+        Font font = hasFont ? new Font(name, size, color, style).intern() : null;
+        switch (type) {
+            case FRIEND:
+                Message message = new Message();
+                message.setTime(time);
+                message.setUserId(userId);
+                message.setFont(font);
+                message.setContent(content);
+                return message;
+            case GROUP:
+                GroupMessage groupMessage = new GroupMessage();
+                groupMessage.setTime(time);
+                groupMessage.setUserId(userId);
+                groupMessage.setGroupId(conversationId);
+                groupMessage.setFont(font);
+                groupMessage.setContent(content);
+                return groupMessage;
+            case DISCUSS:
+                DiscussMessage discussMessage = new DiscussMessage();
+                discussMessage.setTime(time);
+                discussMessage.setUserId(userId);
+                discussMessage.setDiscussId(conversationId);
+                discussMessage.setFont(font);
+                discussMessage.setContent(content);
+                return discussMessage;
+            default:
+                throw new IllegalArgumentException("未知的消息类型：" + type);
+        }
+    }
+
+    private static byte[] bytes(String s) {
+        return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] bytes) {
+        return 4 + (bytes == null ? 0 : bytes.length);
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String s;
+        if (buffer.hasArray()) {
+            s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes, 0, length);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        buffer.position(buffer.position() + length);
+        return s;
+    }
+
+}
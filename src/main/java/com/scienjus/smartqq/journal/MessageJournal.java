@@ -0,0 +1,660 @@
+package com.scienjus.smartqq.journal;
+
+import com.scienjus.smartqq.callback.MessageCallback;
+import com.scienjus.smartqq.dispatch.DiscardListener;
+import com.scienjus.smartqq.dispatch.MessageDispatcher;
+import com.scienjus.smartqq.model.DiscussMessage;
+import com.scienjus.smartqq.model.GroupMessage;
+import com.scienjus.smartqq.model.Message;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * 收到的消息的预写日志.
+ * 拉取到的消息先顺序写入内存映射的日志文件再分发，回调执行成功后提交消费位置，
+ * 进程退出后重新启动时，从提交的位置开始重放还没有处理完的消息.
+ * <p>
+ * 写入内存映射文件后即使进程崩溃，数据也已经在操作系统的页缓存中；刷盘按时间间隔批量进行，
+ * 只有操作系统崩溃或断电时才会丢失最后一个间隔内的消息.
+ * 消息至少被处理一次：进程在回调执行完之前退出时，重启后这条消息和之后的消息都会被重放，回调应当是幂等的.
+ * <p>
+ * 回调抛出异常时立即重新投递，连续失败达到最大投递次数后，消息转入死信文件并提交，不会阻塞之后的消息；
+ * 分发器因队列已满或已关闭丢弃的消息同样转入死信文件.死信可以通过{@link #readDeadLetters()}读取后人工处理.
+ * <p>
+ * 日志由多个分段文件组成，文件名为分段起始位置，所有消息都处理完的分段会被删除.
+ * 只有当前写入的分段是内存映射的，重放和转入死信时通过文件通道读取之前的分段，不产生新的映射.
+ * 每条记录为 长度(4) CRC32(4) 内容，长度为0或校验失败的位置视为日志的结尾.
+ */
+public class MessageJournal implements Closeable {
+
+    //日志
+    private static final Logger LOGGER = Logger.getLogger(MessageJournal.class);
+
+    /**
+     * 默认的分段大小
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * 默认的刷盘间隔（毫秒）
+     */
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 200;
+
+    /**
+     * 默认的最大投递次数
+     */
+    public static final int DEFAULT_MAX_DELIVERIES = 3;
+
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    //死信文件，记录格式与日志分段相同
+    private static final String DEAD_LETTER_FILE = "dead.letter";
+
+    //保存消费位置的文件
+    private static final String OFFSET_FILE = "consumer.offset";
+
+    //记录头：长度(4) CRC32(4)
+    private static final int HEADER_SIZE = 8;
+
+    //消费位置的校验值，与位置异或后保存
+    private static final long OFFSET_CHECK = 0x53515151494e424fL;
+
+    private final File dir;
+
+    private final int segmentSize;
+
+    private final long syncIntervalNanos;
+
+    private final int maxDeliveries;
+
+    //死信文件，第一次写入时打开
+    private RandomAccessFile deadLetters;
+
+    //所有分段的起始位置，升序
+    private final List<Long> segments = new ArrayList<>();
+
+    //当前写入的分段
+    private MappedByteBuffer writeBuffer;
+
+    private long writeBase;
+
+    //消费位置：位置(8) 校验值(8)
+    private final MappedByteBuffer offsetBuffer;
+
+    private long committed;
+
+    //已经分发、回调还没有执行成功的记录
+    private final TreeSet<Long> pending = new TreeSet<>();
+
+    //编码消息用的缓冲区，只在持有锁时使用
+    private ByteBuffer scratch = ByteBuffer.allocate(1024);
+
+    private final CRC32 crc = new CRC32();
+
+    //上次刷盘后是否有写入
+    private boolean dirty;
+
+    private long lastSyncNanos = System.nanoTime();
+
+    private boolean closed;
+
+    /**
+     * 使用默认的分段大小和刷盘间隔
+     *
+     * @param dir 日志目录，不存在时创建，每个账号使用单独的目录
+     * @throws IOException
+     */
+    public MessageJournal(File dir) throws IOException {
+        this(dir, DEFAULT_SEGMENT_SIZE, DEFAULT_SYNC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param dir          日志目录，不存在时创建，每个账号使用单独的目录
+     * @param segmentSize  分段大小（字节）
+     * @param syncInterval 刷盘间隔，0表示每次{@link #sync()}都刷盘
+     * @param unit         刷盘间隔的单位
+     * @throws IOException
+     */
+    public MessageJournal(File dir, int segmentSize, long syncInterval, TimeUnit unit) throws IOException {
+        this(dir, segmentSize, syncInterval, unit, DEFAULT_MAX_DELIVERIES);
+    }
+
+    /**
+     * @param dir           日志目录，不存在时创建，每个账号使用单独的目录
+     * @param segmentSize   分段大小（字节）
+     * @param syncInterval  刷盘间隔，0表示每次{@link #sync()}都刷盘
+     * @param unit          刷盘间隔的单位
+     * @param maxDeliveries 回调连续失败多少次后转入死信
+     * @throws IOException
+     */
+    public MessageJournal(File dir, int segmentSize, long syncInterval, TimeUnit unit, int maxDeliveries)
+            throws IOException {
+        if (segmentSize < 1024) {
+            throw new IllegalArgumentException("分段大小不能小于1KB");
+        }
+        if (maxDeliveries < 1) {
+            throw new IllegalArgumentException("最大投递次数必须大于0");
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("无法创建日志目录：" + dir.getAbsolutePath());
+        }
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.syncIntervalNanos = unit.toNanos(syncInterval);
+        this.maxDeliveries = maxDeliveries;
+        this.offsetBuffer = map(new File(dir, OFFSET_FILE), 16);
+        segments.addAll(listSegments(dir));
+
+        long stored = offsetBuffer.getLong(0);
+        boolean valid = offsetBuffer.getLong(8) == (stored ^ OFFSET_CHECK);
+        if (segments.isEmpty()) {
+            this.committed = valid ? stored : 0;
+            openSegment(committed, segmentSize);
+        } else {
+            //从最后一个分段中找到日志的结尾，继续写入
+            long last = segments.get(segments.size() - 1);
+            this.writeBuffer = map(segmentFile(last), 0);
+            this.writeBase = last;
+            writeBuffer.position(scan(writeBuffer, 0));
+            //校验失败时重放所有保留的消息
+            this.committed = valid ? Math.max(stored, segments.get(0)) : segments.get(0);
+            this.committed = Math.min(committed, getEndOffset());
+        }
+        storeCommitted();
+        deleteConsumed();
+    }
+
+    private static List<Long> listSegments(File dir) {
+        String[] names = dir.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        List<Long> result = new ArrayList<>();
+        if (names != null) {
+            for (String name : names) {
+                try {
+                    result.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    LOGGER.warn("忽略无法识别的日志文件：" + name);
+                }
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private File segmentFile(long base) {
+        return new File(dir, String.format("%020d%s", base, SEGMENT_SUFFIX));
+    }
+
+    //映射整个文件，size大于0时先把文件扩展到该大小
+    private static MappedByteBuffer map(File file, long size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (size > raf.length()) {
+                raf.setLength(size);
+            }
+            //映射在通道关闭后仍然有效
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+        }
+    }
+
+    //通过文件通道读取之前分段中从position开始的最多length字节，映射要等到被回收才释放，所以这里不映射
+    private ByteBuffer readSegment(long base, long position, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentFile(base).toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(0, Math.min(length, channel.size() - position)));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    private void openSegment(long base, int size) throws IOException {
+        this.writeBuffer = map(segmentFile(base), size);
+        this.writeBase = base;
+        segments.add(base);
+    }
+
+    //从from开始逐条校验记录，返回第一条无效记录的位置
+    private int scan(ByteBuffer buffer, int from) {
+        int position = from;
+        while (readRecord(buffer, position) >= 0) {
+            position += HEADER_SIZE + buffer.getInt(position);
+        }
+        return position;
+    }
+
+    //校验position处的记录，有效时把内容读入scratch并返回内容长度，否则返回-1
+    private int readRecord(ByteBuffer buffer, int position) {
+        if (position + HEADER_SIZE > buffer.limit()) {
+            return -1;
+        }
+        int length = buffer.getInt(position);
+        if (length <= 0 || length > buffer.limit() - position - HEADER_SIZE) {
+            return -1;
+        }
+        if (scratch.capacity() < length) {
+            scratch = ByteBuffer.allocate(length);
+        }
+        ByteBuffer record = buffer.duplicate();
+        record.position(position + HEADER_SIZE);
+        record.get(scratch.array(), 0, length);
+        crc.reset();
+        crc.update(scratch.array(), 0, length);
+        if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+            return -1;
+        }
+        scratch.clear();
+        scratch.limit(length);
+        return length;
+    }
+
+    /**
+     * 写入私聊消息
+     *
+     * @param message 私聊消息
+     * @return 记录的位置，用于提交；写入失败时记录日志并返回-1，消息照常分发但不会被重放
+     */
+    public synchronized long append(Message message) {
+        if (closed) {
+            return -1;
+        }
+        scratch = JournalCodec.encode(message, scratch);
+        return write();
+    }
+
+    /**
+     * 写入群消息
+     *
+     * @param message 群消息
+     * @return 记录的位置，用于提交；写入失败时记录日志并返回-1，消息照常分发但不会被重放
+     */
+    public synchronized long append(GroupMessage message) {
+        if (closed) {
+            return -1;
+        }
+        scratch = JournalCodec.encode(message, scratch);
+        return write();
+    }
+
+    /**
+     * 写入讨论组消息
+     *
+     * @param message 讨论组消息
+     * @return 记录的位置，用于提交；写入失败时记录日志并返回-1，消息照常分发但不会被重放
+     */
+    public synchronized long append(DiscussMessage message) {
+        if (closed) {
+            return -1;
+        }
+        scratch = JournalCodec.encode(message, scratch);
+        return write();
+    }
+
+    //把scratch中编码好的消息写入当前分段
+    private long write() {
+        int length = scratch.remaining();
+        try {
+            if (writeBuffer.remaining() < HEADER_SIZE + length) {
+                roll(length);
+            }
+        } catch (IOException e) {
+            LOGGER.error("写入消息日志失败：" + e.getMessage());
+            return -1;
+        }
+        crc.reset();
+        crc.update(scratch.array(), 0, length);
+        int position = writeBuffer.position();
+        writeBuffer.position(position + HEADER_SIZE);
+        writeBuffer.put(scratch);
+        //预先写入结尾标记，重新打开时不会把上次残留的数据当成记录
+        if (writeBuffer.remaining() >= 4) {
+            writeBuffer.putInt(writeBuffer.position(), 0);
+        }
+        //最后写长度，写到一半时记录是无效的
+        writeBuffer.putInt(position + 4, (int) crc.getValue());
+        writeBuffer.putInt(position, length);
+        long offset = writeBase + position;
+        pending.add(offset);
+        dirty = true;
+        return offset;
+    }
+
+    //当前分段写满，刷盘后创建新的分段
+    private void roll(int length) throws IOException {
+        writeBuffer.force();
+        openSegment(getEndOffset(), Math.max(segmentSize, HEADER_SIZE + length + 4));
+        deleteConsumed();
+    }
+
+    //删除所有消息都已提交的分段
+    private void deleteConsumed() {
+        while (segments.size() > 1 && segments.get(1) <= committed) {
+            File file = segmentFile(segments.remove(0));
+            if (!file.delete()) {
+                LOGGER.warn("删除日志分段失败：" + file.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * 提交一条记录，所有更早的记录都提交后消费位置才会前进
+     *
+     * @param offset {@link #append}返回的位置
+     */
+    public synchronized void acknowledge(long offset) {
+        if (closed || offset < 0 || !pending.remove(offset)) {
+            return;
+        }
+        long next = pending.isEmpty() ? getEndOffset() : pending.first();
+        if (next > committed) {
+            committed = next;
+            storeCommitted();
+        }
+    }
+
+    private void storeCommitted() {
+        offsetBuffer.putLong(0, committed);
+        offsetBuffer.putLong(8, committed ^ OFFSET_CHECK);
+        dirty = true;
+    }
+
+    /**
+     * 返回在回调执行成功后提交记录的回调.
+     * 回调抛出异常时重新投递，达到最大投递次数后转入死信；分发器丢弃消息时也转入死信
+     *
+     * @param offset   {@link #append}返回的位置
+     * @param callback 回调
+     * @return
+     */
+    public MessageCallback acknowledging(long offset, MessageCallback callback) {
+        if (offset < 0) {
+            return callback;
+        }
+        return new Delivery(offset, callback);
+    }
+
+    /**
+     * 一条记录的投递，回调成功后提交
+     */
+    private class Delivery implements MessageCallback, DiscardListener {
+
+        private final long offset;
+
+        private final MessageCallback callback;
+
+        Delivery(long offset, MessageCallback callback) {
+            this.offset = offset;
+            this.callback = callback;
+        }
+
+        @Override
+        public void onMessage(Message message) {
+            deliver(message);
+        }
+
+        @Override
+        public void onGroupMessage(GroupMessage message) {
+            deliver(message);
+        }
+
+        @Override
+        public void onDiscussMessage(DiscussMessage message) {
+            deliver(message);
+        }
+
+        @Override
+        public void onDiscarded() {
+            LOGGER.warn(String.format("位置%d的消息被分发器丢弃，转入死信", offset));
+            deadLetter(offset);
+        }
+
+        private void deliver(Object message) {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    invoke(message);
+                    acknowledge(offset);
+                    return;
+                } catch (RuntimeException e) {
+                    if (attempt >= maxDeliveries) {
+                        LOGGER.error(String.format("位置%d的消息回调失败%d次，转入死信", offset, attempt), e);
+                        deadLetter(offset);
+                        return;
+                    }
+                    LOGGER.warn(String.format("位置%d的消息回调失败，第%d次重新投递：%s", offset, attempt, e.getMessage()));
+                }
+            }
+        }
+
+        private void invoke(Object message) {
+            if (message instanceof GroupMessage) {
+                callback.onGroupMessage((GroupMessage) message);
+            } else if (message instanceof DiscussMessage) {
+                callback.onDiscussMessage((DiscussMessage) message);
+            } else {
+                callback.onMessage((Message) message);
+            }
+        }
+    }
+
+    //把记录复制到死信文件后提交，写入失败时仍然提交，避免一直占住消费位置
+    private synchronized void deadLetter(long offset) {
+        if (closed || !pending.contains(offset)) {
+            return;
+        }
+        try {
+            int index = segments.size() - 1;
+            while (index > 0 && segments.get(index) > offset) {
+                index--;
+            }
+            long base = segments.get(index);
+            ByteBuffer buffer;
+            int position;
+            if (base == writeBase) {
+                buffer = writeBuffer.duplicate();
+                position = (int) (offset - base);
+            } else {
+                //先读记录头得到长度，再读整条记录
+                ByteBuffer header = readSegment(base, offset - base, HEADER_SIZE);
+                int recordLength = header.remaining() < HEADER_SIZE ? 0 : Math.max(header.getInt(0), 0);
+                buffer = readSegment(base, offset - base, HEADER_SIZE + recordLength);
+                position = 0;
+            }
+            int length = readRecord(buffer, position);
+            if (length < 0) {
+                throw new IOException("记录已损坏");
+            }
+            RandomAccessFile file = openDeadLetters();
+            byte[] record = new byte[HEADER_SIZE + length];
+            buffer.position(position);
+            buffer.get(record);
+            file.write(record);
+        } catch (IOException e) {
+            LOGGER.error(String.format("写入死信失败，位置%d的消息被丢弃：%s", offset, e.getMessage()));
+        }
+        acknowledge(offset);
+    }
+
+    //打开死信文件，截掉上次写到一半的记录
+    private RandomAccessFile openDeadLetters() throws IOException {
+        if (deadLetters == null) {
+            File file = new File(dir, DEAD_LETTER_FILE);
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            int end = scan(ByteBuffer.wrap(Files.readAllBytes(file.toPath())), 0);
+            raf.setLength(end);
+            raf.seek(end);
+            this.deadLetters = raf;
+        }
+        return deadLetters;
+    }
+
+    /**
+     * 读取所有转入死信的消息，按转入的顺序排列
+     *
+     * @return 私聊消息、群消息或讨论组消息
+     * @throws IOException
+     */
+    public synchronized List<Object> readDeadLetters() throws IOException {
+        List<Object> messages = new ArrayList<>();
+        File file = new File(dir, DEAD_LETTER_FILE);
+        if (!file.exists()) {
+            return messages;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        int position = 0;
+        int length;
+        while ((length = readRecord(buffer, position)) >= 0) {
+            messages.add(JournalCodec.decode(scratch));
+            position += HEADER_SIZE + length;
+        }
+        return messages;
+    }
+
+    /**
+     * 重放从消费位置开始还没有提交的消息，回调执行成功后提交，应在开始拉取消息之前调用
+     *
+     * @param dispatcher 分发器
+     * @param callback   回调
+     * @return 重放的消息数
+     */
+    public int replay(MessageDispatcher dispatcher, MessageCallback callback) {
+        List<Long> offsets = new ArrayList<>();
+        List<Object> messages = new ArrayList<>();
+        //先全部登记为未提交再分发，避免同步执行的回调提前把消费位置推到结尾
+        synchronized (this) {
+            for (int i = 0; i < segments.size() && !closed; i++) {
+                long base = segments.get(i);
+                long next = i + 1 < segments.size() ? segments.get(i + 1) : Long.MAX_VALUE;
+                if (next <= committed) {
+                    continue;
+                }
+                int start = (int) Math.max(committed - base, 0);
+                ByteBuffer buffer;
+                //buffer开头在日志中的位置
+                long bufferBase;
+                int position;
+                try {
+                    if (base == writeBase) {
+                        buffer = writeBuffer.duplicate();
+                        bufferBase = base;
+                        position = start;
+                    } else {
+                        buffer = readSegment(base, start, Long.MAX_VALUE);
+                        bufferBase = base + start;
+                        position = 0;
+                    }
+                } catch (IOException e) {
+                    LOGGER.error("读取消息日志失败：" + e.getMessage());
+                    continue;
+                }
+                int length;
+                while ((length = readRecord(buffer, position)) >= 0) {
+                    offsets.add(bufferBase + position);
+                    messages.add(JournalCodec.decode(scratch));
+                    position += HEADER_SIZE + length;
+                }
+            }
+            pending.addAll(offsets);
+        }
+        for (int i = 0; i < messages.size(); i++) {
+            Object message = messages.get(i);
+            MessageCallback acknowledging = acknowledging(offsets.get(i), callback);
+            if (message instanceof GroupMessage) {
+                dispatcher.dispatch((GroupMessage) message, acknowledging);
+            } else if (message instanceof DiscussMessage) {
+                dispatcher.dispatch((DiscussMessage) message, acknowledging);
+            } else {
+                dispatcher.dispatch((Message) message, acknowledging);
+            }
+        }
+        if (!messages.isEmpty()) {
+            LOGGER.info(String.format("重放了%d条未处理完的消息", messages.size()));
+        }
+        return messages.size();
+    }
+
+    /**
+     * 距离上次刷盘超过刷盘间隔时，把写入的消息和消费位置刷到磁盘，每批消息写入后调用
+     */
+    public synchronized void sync() {
+        if (closed || !dirty || System.nanoTime() - lastSyncNanos < syncIntervalNanos) {
+            return;
+        }
+        force();
+    }
+
+    private void force() {
+        writeBuffer.force();
+        offsetBuffer.force();
+        dirty = false;
+        lastSyncNanos = System.nanoTime();
+    }
+
+    /**
+     * 获得已提交的消费位置
+     *
+     * @return
+     */
+    public synchronized long getCommittedOffset() {
+        return committed;
+    }
+
+    /**
+     * 获得下一条记录的写入位置
+     *
+     * @return
+     */
+    public synchronized long getEndOffset() {
+        return writeBase + writeBuffer.position();
+    }
+
+    /**
+     * 获得已经分发、还没有提交的消息数
+     *
+     * @return
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * 刷盘并关闭，之后的写入和提交都被忽略，未提交的消息在下次打开时重放
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        force();
+        closed = true;
+        if (deadLetters != null) {
+            try {
+                deadLetters.close();
+            } catch (IOException e) {
+                LOGGER.error("关闭死信文件失败：" + e.getMessage());
+            }
+        }
+    }
+
+}
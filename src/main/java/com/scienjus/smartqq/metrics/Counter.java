@@ -0,0 +1,35 @@
+package com.scienjus.smartqq.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 只增不减的计数器.
+ */
+public class Counter {
+
+    private final AtomicLong value = new AtomicLong();
+
+    /**
+     * 加1
+     */
+    public void increment() {
+        value.incrementAndGet();
+    }
+
+    /**
+     * 增加指定的值
+     *
+     * @param delta 增加的值，不能为负数
+     */
+    public void add(long delta) {
+        if (delta < 0) {
+            throw new IllegalArgumentException("计数器不能减少");
+        }
+        value.addAndGet(delta);
+    }
+
+    public long getValue() {
+        return value.get();
+    }
+
+}
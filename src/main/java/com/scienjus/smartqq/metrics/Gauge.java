@@ -0,0 +1,15 @@
+package com.scienjus.smartqq.metrics;
+
+/**
+ * 读取时才计算的瞬时值，如队列长度.
+ */
+public interface Gauge {
+
+    /**
+     * 获得当前值，导出时调用，需要线程安全
+     *
+     * @return
+     */
+    long getValue();
+
+}
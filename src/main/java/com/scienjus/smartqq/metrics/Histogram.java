@@ -0,0 +1,101 @@
+package com.scienjus.smartqq.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 耗时分布.
+ * 按固定的上界分桶计数，同时记录总次数和总耗时，记录时不加锁也不分配对象.
+ */
+public class Histogram {
+
+    /**
+     * 普通请求的分桶：5毫秒到10秒
+     */
+    public static final double[] LATENCY_BUCKETS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    /**
+     * 长轮询的分桶：100毫秒到2分钟
+     */
+    public static final double[] POLL_BUCKETS = {0.1, 0.5, 1, 5, 10, 30, 60, 90, 120};
+
+    /**
+     * 回调执行时间的分桶：100微秒到5秒
+     */
+    public static final double[] CALLBACK_BUCKETS = {0.0001, 0.0005, 0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5};
+
+    //每个桶的上界（秒），升序
+    private final double[] bounds;
+
+    //每个桶的上界（纳秒）
+    private final long[] boundNanos;
+
+    //每个桶的计数，最后一个桶没有上界，不是累计值
+    private final AtomicLongArray counts;
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong sumNanos = new AtomicLong();
+
+    /**
+     * @param bounds 每个桶的上界（秒），升序
+     */
+    public Histogram(double... bounds) {
+        this.bounds = bounds.clone();
+        this.boundNanos = new long[bounds.length];
+        for (int i = 0; i < bounds.length; i++) {
+            if (i > 0 && bounds[i] <= bounds[i - 1]) {
+                throw new IllegalArgumentException("分桶的上界必须升序");
+            }
+            this.boundNanos[i] = (long) (bounds[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+        this.counts = new AtomicLongArray(bounds.length + 1);
+    }
+
+    /**
+     * 记录一次耗时
+     *
+     * @param nanos 耗时（纳秒）
+     */
+    public void record(long nanos) {
+        int index = 0;
+        while (index < boundNanos.length && nanos > boundNanos[index]) {
+            index++;
+        }
+        counts.incrementAndGet(index);
+        count.incrementAndGet();
+        sumNanos.addAndGet(nanos);
+    }
+
+    /**
+     * 获得每个桶的上界（秒）
+     *
+     * @return
+     */
+    public double[] getBounds() {
+        return bounds.clone();
+    }
+
+    /**
+     * 获得每个桶的计数，比上界多一个，最后一个是超过所有上界的次数
+     *
+     * @return
+     */
+    public long[] getCounts() {
+        long[] result = new long[counts.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = counts.get(i);
+        }
+        return result;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getSumNanos() {
+        return sumNanos.get();
+    }
+
+}
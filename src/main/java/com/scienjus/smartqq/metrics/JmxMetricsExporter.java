@@ -0,0 +1,156 @@
+package com.scienjus.smartqq.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 通过JMX导出指标，在jconsole、VisualVM等工具中查看.
+ * 注册为com.scienjus.smartqq:type=Metrics,name=名称，每个计数器和瞬时值是一个属性，
+ * 耗时分布导出次数（_count）和平均耗时（_mean，秒）两个属性.
+ */
+public class JmxMetricsExporter implements MetricsExporter {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final ObjectName objectName;
+
+    private final MBeanServer server;
+
+    /**
+     * @param name 名称，同一个进程中有多个客户端时用于区分，如账号名
+     */
+    public JmxMetricsExporter(String name) {
+        this(name, ManagementFactory.getPlatformMBeanServer());
+    }
+
+    /**
+     * @param name   名称
+     * @param server 注册到的MBeanServer
+     */
+    public JmxMetricsExporter(String name, MBeanServer server) {
+        try {
+            this.objectName = new ObjectName("com.scienjus.smartqq:type=Metrics,name=" + ObjectName.quote(name));
+        } catch (JMException e) {
+            throw new IllegalArgumentException("名称不正确：" + name, e);
+        }
+        this.server = server;
+    }
+
+    @Override
+    public void start(MetricsRegistry registry) {
+        try {
+            server.registerMBean(new MetricsMBean(registry), objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException("注册MBean失败：" + objectName, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("注销MBean失败：" + objectName, e);
+        }
+    }
+
+    public ObjectName getObjectName() {
+        return objectName;
+    }
+
+    //读取注册表当前值的只读MBean，属性随注册表中的指标变化
+    private static class MetricsMBean implements DynamicMBean {
+
+        private final MetricsRegistry registry;
+
+        MetricsMBean(MetricsRegistry registry) {
+            this.registry = registry;
+        }
+
+        //属性名到当前值
+        private Map<String, Object> snapshot() {
+            Map<String, Object> values = new LinkedHashMap<>();
+            for (MetricsRegistry.Family family : registry.getFamilies()) {
+                for (Map.Entry<Map<String, String>, Object> series : family.getSeries()) {
+                    String suffix = series.getKey().isEmpty() ? "" : series.getKey().toString();
+                    Object metric = series.getValue();
+                    if (metric instanceof Counter) {
+                        values.put(family.getName() + suffix, ((Counter) metric).getValue());
+                    } else if (metric instanceof Gauge) {
+                        values.put(family.getName() + suffix, ((Gauge) metric).getValue());
+                    } else {
+                        Histogram histogram = (Histogram) metric;
+                        long count = histogram.getCount();
+                        values.put(family.getName() + "_count" + suffix, count);
+                        values.put(family.getName() + "_mean" + suffix,
+                                count == 0 ? 0.0 : histogram.getSumNanos() / NANOS_PER_SECOND / count);
+                    }
+                }
+            }
+            return values;
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Map<String, Object> values = snapshot();
+            if (!values.containsKey(attribute)) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return values.get(attribute);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Object> values = snapshot();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                if (values.containsKey(attribute)) {
+                    list.add(new Attribute(attribute, values.get(attribute)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("指标是只读的：" + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (Map.Entry<String, Object> value : snapshot().entrySet()) {
+                attributes.add(new MBeanAttributeInfo(value.getKey(), value.getValue().getClass().getName(),
+                        value.getKey(), true, false, false));
+            }
+            return new MBeanInfo(MetricsMBean.class.getName(), "SmartQQ客户端指标",
+                    attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, null, null);
+        }
+    }
+
+}
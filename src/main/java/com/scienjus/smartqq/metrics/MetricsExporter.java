@@ -0,0 +1,23 @@
+package com.scienjus.smartqq.metrics;
+
+import java.io.Closeable;
+
+/**
+ * 把指标导出到外部系统.
+ */
+public interface MetricsExporter extends Closeable {
+
+    /**
+     * 开始导出指定注册表中的指标
+     *
+     * @param registry 指标注册表
+     */
+    void start(MetricsRegistry registry);
+
+    /**
+     * 停止导出
+     */
+    @Override
+    void close();
+
+}
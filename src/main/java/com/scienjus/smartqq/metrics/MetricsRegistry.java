@@ -0,0 +1,190 @@
+package com.scienjus.smartqq.metrics;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 指标的注册表.
+ * 同名的指标组成一个指标族，族内按标签区分，如smartqq_api_requests_total{api="POLL_MESSAGE"}.
+ * 获取指标时不存在则创建，同样的名称和标签总是返回同一个实例，热点路径上应保存返回的实例而不是每次查找.
+ */
+public class MetricsRegistry {
+
+    /**
+     * 指标类型
+     */
+    public enum Type {
+        COUNTER, GAUGE, HISTOGRAM
+    }
+
+    private final ConcurrentMap<String, Family> families = new ConcurrentHashMap<>();
+
+    /**
+     * 获得计数器
+     *
+     * @param name   指标名
+     * @param help   说明
+     * @param labels 标签，按名称、值交替排列
+     * @return
+     */
+    public Counter counter(String name, String help, String... labels) {
+        Family family = family(name, help, Type.COUNTER);
+        List<String> key = key(labels);
+        Object metric = family.series.get(key);
+        if (metric == null) {
+            Object created = new Counter();
+            metric = family.series.putIfAbsent(key, created);
+            if (metric == null) {
+                metric = created;
+            }
+        }
+        return (Counter) metric;
+    }
+
+    /**
+     * 获得耗时分布
+     *
+     * @param name    指标名
+     * @param help    说明
+     * @param buckets 每个桶的上界（秒），只在第一次创建时使用
+     * @param labels  标签，按名称、值交替排列
+     * @return
+     */
+    public Histogram histogram(String name, String help, double[] buckets, String... labels) {
+        Family family = family(name, help, Type.HISTOGRAM);
+        List<String> key = key(labels);
+        Object metric = family.series.get(key);
+        if (metric == null) {
+            Object created = new Histogram(buckets);
+            metric = family.series.putIfAbsent(key, created);
+            if (metric == null) {
+                metric = created;
+            }
+        }
+        return (Histogram) metric;
+    }
+
+    /**
+     * 注册瞬时值，同样的名称和标签再次注册时替换原来的
+     *
+     * @param name   指标名
+     * @param help   说明
+     * @param gauge  读取瞬时值的方法
+     * @param labels 标签，按名称、值交替排列
+     */
+    public void gauge(String name, String help, Gauge gauge, String... labels) {
+        family(name, help, Type.GAUGE).series.put(key(labels), gauge);
+    }
+
+    /**
+     * 移除指标，用于注销不再使用的瞬时值，避免注册表一直引用已经关闭的对象
+     *
+     * @param name   指标名
+     * @param labels 标签，按名称、值交替排列
+     */
+    public void unregister(String name, String... labels) {
+        Family family = families.get(name);
+        if (family != null) {
+            family.series.remove(key(labels));
+        }
+    }
+
+    /**
+     * 获得所有指标族，按名称排序，用于导出
+     *
+     * @return
+     */
+    public List<Family> getFamilies() {
+        List<Family> result = new ArrayList<>(families.values());
+        Collections.sort(result, new Comparator<Family>() {
+            @Override
+            public int compare(Family o1, Family o2) {
+                return o1.name.compareTo(o2.name);
+            }
+        });
+        return result;
+    }
+
+    private Family family(String name, String help, Type type) {
+        Family family = families.get(name);
+        if (family == null) {
+            Family created = new Family(name, help, type);
+            family = families.putIfAbsent(name, created);
+            if (family == null) {
+                family = created;
+            }
+        }
+        if (family.type != type) {
+            throw new IllegalArgumentException(String.format("指标%s已注册为%s", name, family.type));
+        }
+        return family;
+    }
+
+    private static List<String> key(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("标签必须按名称、值成对出现");
+        }
+        return Collections.unmodifiableList(Arrays.asList(labels.clone()));
+    }
+
+    /**
+     * 同名的一组指标
+     */
+    public static class Family {
+
+        private final String name;
+
+        private final String help;
+
+        private final Type type;
+
+        //标签到指标的映射
+        private final ConcurrentMap<List<String>, Object> series = new ConcurrentHashMap<>();
+
+        Family(String name, String help, Type type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getHelp() {
+            return help;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * 获得族内的所有指标，键为标签（名称到值），值为Counter、Gauge或Histogram
+         *
+         * @return
+         */
+        public List<Map.Entry<Map<String, String>, Object>> getSeries() {
+            List<Map.Entry<Map<String, String>, Object>> result = new ArrayList<>();
+            for (Map.Entry<List<String>, Object> entry : series.entrySet()) {
+                Map<String, String> labels = new LinkedHashMap<>();
+                List<String> key = entry.getKey();
+                for (int i = 0; i < key.size(); i += 2) {
+                    labels.put(key.get(i), key.get(i + 1));
+                }
+                result.add(new AbstractMap.SimpleImmutableEntry<Map<String, String>, Object>(
+                        Collections.unmodifiableMap(labels), entry.getValue()));
+            }
+            return result;
+        }
+    }
+
+}
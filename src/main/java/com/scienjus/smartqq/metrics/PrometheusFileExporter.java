@@ -0,0 +1,72 @@
+package com.scienjus.smartqq.metrics;
+
+import com.scienjus.smartqq.util.NamedThreadFactory;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 定期把指标以Prometheus文本格式写入文件，配合node_exporter的textfile收集器使用，也可以直接查看.
+ * 先写临时文件再替换，读取方不会读到写了一半的内容.
+ */
+public class PrometheusFileExporter implements MetricsExporter {
+
+    //日志
+    private static final Logger LOGGER = Logger.getLogger(PrometheusFileExporter.class);
+
+    private final File file;
+
+    private final long periodMillis;
+
+    private final ScheduledExecutorService executor;
+
+    /**
+     * @param file   输出文件，node_exporter要求以.prom结尾
+     * @param period 写入间隔
+     * @param unit   时间单位
+     */
+    public PrometheusFileExporter(File file, long period, TimeUnit unit) {
+        this.file = file;
+        this.periodMillis = unit.toMillis(period);
+        this.executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("smartqq-metrics"));
+    }
+
+    @Override
+    public void start(final MetricsRegistry registry) {
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write(registry);
+                } catch (IOException e) {
+                    LOGGER.warn("写入指标失败：" + e.getMessage());
+                }
+            }
+        }, 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    //写入一次
+    void write(MetricsRegistry registry) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        File temp = new File(dir, file.getName() + ".tmp");
+        try {
+            Files.write(temp.toPath(), PrometheusTextFormat.toString(registry).getBytes(StandardCharsets.UTF_8));
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.scienjus.smartqq.metrics;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按Prometheus文本格式（0.0.4）输出指标.
+ * 耗时以秒为单位，耗时分布输出为累计的_bucket以及_sum、_count.
+ */
+public final class PrometheusTextFormat {
+
+    /**
+     * Http响应的Content-Type
+     */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private PrometheusTextFormat() {
+    }
+
+    /**
+     * 输出为字符串
+     *
+     * @param registry 指标注册表
+     * @return
+     */
+    public static String toString(MetricsRegistry registry) {
+        StringWriter writer = new StringWriter();
+        try {
+            write(registry, writer);
+        } catch (IOException e) {
+            //StringWriter不会抛出IOException
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * 输出到writer，不会关闭writer
+     *
+     * @param registry 指标注册表
+     * @param writer   输出
+     * @throws IOException
+     */
+    public static void write(MetricsRegistry registry, Writer writer) throws IOException {
+        for (MetricsRegistry.Family family : registry.getFamilies()) {
+            String name = family.getName();
+            writer.write("# HELP " + name + " " + escapeHelp(family.getHelp()) + "\n");
+            writer.write("# TYPE " + name + " " + family.getType().name().toLowerCase() + "\n");
+            for (Map.Entry<Map<String, String>, Object> series : family.getSeries()) {
+                Map<String, String> labels = series.getKey();
+                Object metric = series.getValue();
+                if (metric instanceof Counter) {
+                    writeSample(writer, name, labels, null, ((Counter) metric).getValue());
+                } else if (metric instanceof Gauge) {
+                    writeSample(writer, name, labels, null, ((Gauge) metric).getValue());
+                } else {
+                    writeHistogram(writer, name, labels, (Histogram) metric);
+                }
+            }
+        }
+    }
+
+    private static void writeHistogram(Writer writer, String name, Map<String, String> labels, Histogram histogram)
+            throws IOException {
+        double[] bounds = histogram.getBounds();
+        long[] counts = histogram.getCounts();
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative += counts[i];
+            writeSample(writer, name + "_bucket", labels, Double.toString(bounds[i]), cumulative);
+        }
+        cumulative += counts[bounds.length];
+        writeSample(writer, name + "_bucket", labels, "+Inf", cumulative);
+        writer.write(name + "_sum" + formatLabels(labels, null) + " " + histogram.getSumNanos() / NANOS_PER_SECOND + "\n");
+        writeSample(writer, name + "_count", labels, null, cumulative);
+    }
+
+    private static void writeSample(Writer writer, String name, Map<String, String> labels, String le, long value)
+            throws IOException {
+        writer.write(name + formatLabels(labels, le) + " " + value + "\n");
+    }
+
+    private static String formatLabels(Map<String, String> labels, String le) {
+        if (labels.isEmpty() && le == null) {
+            return "";
+        }
+        StringBuilder builder = new StringBuilder("{");
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+            if (builder.length() > 1) {
+                builder.append(',');
+            }
+            builder.append(label.getKey()).append("=\"").append(escapeValue(label.getValue())).append('"');
+        }
+        if (le != null) {
+            if (builder.length() > 1) {
+                builder.append(',');
+            }
+            builder.append("le=\"").append(le).append('"');
+        }
+        return builder.append('}').toString();
+    }
+
+    private static String escapeHelp(String help) {
+        return help.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    private static String escapeValue(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+}
@@ -2,10 +2,13 @@ package com.scienjus.smartqq.model;
 
 import com.alibaba.fastjson.annotation.JSONField;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 讨论组资料.
+ * 讨论组成员按uin建立了索引，通过{@link #addUser(DiscussUser)}或{@link #setUsers(List)}添加成员时同步更新.
  *
  * @author ScienJus
  * @author <a href="http://88250.b3log.org">Liang Ding</a>
@@ -21,8 +24,33 @@ public class DiscussInfo {
 
     private List<DiscussUser> users = new ArrayList<>();
 
+    //uin到讨论组成员的索引
+    private Map<Long, DiscussUser> userIndex = new HashMap<>();
+
     public void addUser(DiscussUser user) {
         this.users.add(user);
+        this.userIndex.put(user.getUin(), user);
+    }
+
+    /**
+     * 根据uin获得讨论组成员
+     *
+     * @param uin 成员uin
+     * @return 讨论组成员，不在讨论组中时返回null
+     */
+    public DiscussUser getUser(long uin) {
+        return userIndex.get(uin);
+    }
+
+    /**
+     * 获得讨论组成员的昵称
+     *
+     * @param uin 成员uin
+     * @return 昵称，不在讨论组中时返回null
+     */
+    public String getDisplayName(long uin) {
+        DiscussUser user = userIndex.get(uin);
+        return user == null ? null : user.getNick();
     }
 
     public long getId() {
@@ -47,6 +75,10 @@ public class DiscussInfo {
 
     public void setUsers(List<DiscussUser> users) {
         this.users = users;
+        this.userIndex = new HashMap<>();
+        for (DiscussUser user : users) {
+            this.userIndex.put(user.getUin(), user);
+        }
     }
 
 }
@@ -22,9 +22,12 @@ public class DiscussMessage {
 
     private Font font;
 
+    public DiscussMessage() {
+    }
+
     public DiscussMessage(JSONObject json) {
         JSONArray content = json.getJSONArray("content");
-        this.font = content.getJSONArray(0).getObject(1, Font.class);
+        this.font = Font.fromJson(content.getJSONArray(0).getJSONObject(1));
         this.content = content.getString(1);
         if (content.size() > 2)
 			this.content += content.getString(3);
@@ -1,7 +1,16 @@
 package com.scienjus.smartqq.model;
 
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.annotation.JSONCreator;
+import com.alibaba.fastjson.annotation.JSONField;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * 字体.
+ * 不可变对象，绝大部分消息只使用少数几种字体，可以通过{@link #intern()}共享同一个实例.
  *
  * @author ScienJus
  * @author <a href="http://88250.b3log.org">Liang Ding</a>
@@ -9,55 +18,112 @@ package com.scienjus.smartqq.model;
  */
 public class Font {
 
-    public static final Font DEFAULT_FONT = defaultFont();
+    //最多缓存的字体数，防止异常数据撑爆缓存
+    private static final int MAX_INTERNED = 4096;
+
+    private static final ConcurrentHashMap<Font, Font> INTERNED = new ConcurrentHashMap<>();
+
+    public static final Font DEFAULT_FONT = new Font("宋体", 10, "000000", new int[]{0, 0, 0}).intern();
+
+    private final int[] style;
+
+    private final String color;
+
+    private final String name;
 
-    private static Font defaultFont() {
-        Font font = new Font();
-        font.setColor("000000");
-        font.setStyle(new int[]{0, 0, 0});
-        font.setName("宋体");
-        font.setSize(10);
-        return font;
+    private final int size;
+
+    @JSONCreator
+    public Font(@JSONField(name = "name") String name,
+                @JSONField(name = "size") int size,
+                @JSONField(name = "color") String color,
+                @JSONField(name = "style") int[] style) {
+        this.name = name;
+        this.size = size;
+        this.color = color;
+        this.style = style == null ? new int[0] : style.clone();
     }
 
-    private int[] style;
+    //从消息内容中的字体json解析出共享实例
+    static Font fromJson(JSONObject json) {
+        JSONArray array = json.getJSONArray("style");
+        int[] style = new int[array == null ? 0 : array.size()];
+        for (int i = 0; i < style.length; i++) {
+            style[i] = array.getIntValue(i);
+        }
+        return new Font(json.getString("name"), json.getIntValue("size"), json.getString("color"), style).intern();
+    }
 
-    private String color;
+    /**
+     * 获得与当前字体相同的共享实例
+     *
+     * @return
+     */
+    public Font intern() {
+        Font interned = INTERNED.get(this);
+        if (interned != null) {
+            return interned;
+        }
+        if (INTERNED.size() >= MAX_INTERNED) {
+            return this;
+        }
+        interned = INTERNED.putIfAbsent(this, this);
+        return interned == null ? this : interned;
+    }
 
-    private String name;
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Font)) {
+            return false;
+        }
+        Font font = (Font) o;
+        return size == font.size
+                && (name == null ? font.name == null : name.equals(font.name))
+                && (color == null ? font.color == null : color.equals(font.color))
+                && Arrays.equals(style, font.style);
+    }
 
-    private int size;
+    @Override
+    public int hashCode() {
+        int result = name != null ? name.hashCode() : 0;
+        result = 31 * result + size;
+        result = 31 * result + (color != null ? color.hashCode() : 0);
+        result = 31 * result + Arrays.hashCode(style);
+        return result;
+    }
 
-    public int[] getStyle() {
-        return style;
+    @Override
+    public String toString() {
+        return "Font{"
+                + "name='" + name + '\''
+                + ", size=" + size
+                + ", color='" + color + '\''
+                + ", style=" + Arrays.toString(style)
+                + '}';
     }
 
-    public void setStyle(int[] style) {
-        this.style = style;
+    /**
+     * 返回副本，修改不会影响共享的字体
+     *
+     * @return
+     */
+    public int[] getStyle() {
+        return style.clone();
     }
 
     public String getColor() {
         return color;
     }
 
-    public void setColor(String color) {
-        this.color = color;
-    }
-
     public String getName() {
         return name;
     }
 
-    public void setName(String name) {
-        this.name = name;
-    }
-
     public int getSize() {
         return size;
     }
 
-    public void setSize(int size) {
-        this.size = size;
-    }
-
 }
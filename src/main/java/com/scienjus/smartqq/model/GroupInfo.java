@@ -1,10 +1,13 @@
 package com.scienjus.smartqq.model;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 群资料.
+ * 群成员按uin建立了索引，通过{@link #addUser(GroupUser)}或{@link #setUsers(List)}添加成员时同步更新.
  *
  * @author ScienJus
  * @author <a href="http://88250.b3log.org">Liang Ding</a>
@@ -26,8 +29,33 @@ public class GroupInfo {
 
     private List<GroupUser> users = new ArrayList<>();
 
+    //uin到群成员的索引
+    private Map<Long, GroupUser> userIndex = new HashMap<>();
+
     public void addUser(GroupUser user) {
         this.users.add(user);
+        this.userIndex.put(user.getUin(), user);
+    }
+
+    /**
+     * 根据uin获得群成员
+     *
+     * @param uin 成员uin
+     * @return 群成员，不在群中时返回null
+     */
+    public GroupUser getUser(long uin) {
+        return userIndex.get(uin);
+    }
+
+    /**
+     * 获得群成员在群中显示的名称，有群名片时返回群名片，否则返回昵称
+     *
+     * @param uin 成员uin
+     * @return 显示名称，不在群中时返回null
+     */
+    public String getDisplayName(long uin) {
+        GroupUser user = userIndex.get(uin);
+        return user == null ? null : user.getDisplayName();
     }
 
     public long getGid() {
@@ -84,6 +112,10 @@ public class GroupInfo {
 
     public void setUsers(List<GroupUser> users) {
         this.users = users;
+        this.userIndex = new HashMap<>();
+        for (GroupUser user : users) {
+            this.userIndex.put(user.getUin(), user);
+        }
     }
 
 }
@@ -22,9 +22,12 @@ public class GroupMessage {
 
     private Font font;
 
+    public GroupMessage() {
+    }
+
     public GroupMessage(JSONObject json) {
         JSONArray cont = json.getJSONArray("content");
-        this.font = cont.getJSONArray(0).getObject(1, Font.class);
+        this.font = Font.fromJson(cont.getJSONArray(0).getJSONObject(1));
 
         final int size = cont.size();
         final StringBuilder contentBuilder = new StringBuilder();
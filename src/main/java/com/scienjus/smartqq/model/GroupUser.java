@@ -1,5 +1,7 @@
 package com.scienjus.smartqq.model;
 
+import com.alibaba.fastjson.annotation.JSONField;
+
 /**
  * 群成员.
  *
@@ -31,6 +33,16 @@ public class GroupUser {
 
     private int vipLevel;
 
+    /**
+     * 获得在群中显示的名称，有群名片时返回群名片，否则返回昵称
+     *
+     * @return
+     */
+    @JSONField(serialize = false)
+    public String getDisplayName() {
+        return card == null || card.isEmpty() ? nick : card;
+    }
+
     public String getNick() {
         return nick;
     }
@@ -20,9 +20,12 @@ public class Message {
 
     private Font font;
 
+    public Message() {
+    }
+
     public Message(JSONObject json) {
         JSONArray cont = json.getJSONArray("content");
-        this.font = cont.getJSONArray(0).getObject(1, Font.class);
+        this.font = Font.fromJson(cont.getJSONArray(0).getJSONObject(1));
 
         final int size = cont.size();
         final StringBuilder contentBuilder = new StringBuilder();
@@ -0,0 +1,53 @@
+package com.scienjus.smartqq.model;
+
+/**
+ * 消息发送结果.
+ */
+public class SendResult {
+
+    private int statusCode;
+
+    private Integer retcode;
+
+    public SendResult() {
+    }
+
+    public SendResult(int statusCode, Integer retcode) {
+        this.statusCode = statusCode;
+        this.retcode = retcode;
+    }
+
+    /**
+     * Http返回码和Api返回码都正常时才算发送成功
+     *
+     * @return
+     */
+    public boolean isSuccess() {
+        return statusCode == 200 && retcode != null && retcode == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "SendResult{"
+                + "statusCode=" + statusCode
+                + ", retcode=" + retcode
+                + '}';
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public void setStatusCode(int statusCode) {
+        this.statusCode = statusCode;
+    }
+
+    public Integer getRetcode() {
+        return retcode;
+    }
+
+    public void setRetcode(Integer retcode) {
+        this.retcode = retcode;
+    }
+
+}
@@ -0,0 +1,191 @@
+package com.scienjus.smartqq.router;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * 字典树和建立在它上面的Aho-Corasick自动机，构建后不可修改，可以在多个线程上同时匹配.
+ * 只沿子节点走就是前缀树，用于匹配消息开头的命令；带上失败指针一遍扫描就能找出消息中出现的所有关键词.
+ * 规则和消息都按字符转为小写后匹配，需要区分大小写的规则由调用方再比较原文.
+ */
+class Automaton {
+
+    private static final int[] NONE = new int[0];
+
+    //每个节点的子节点字符，升序
+    private final char[][] labels;
+
+    //与labels一一对应的子节点
+    private final int[][] targets;
+
+    //失败指针
+    private final int[] fail;
+
+    //在该节点结束的规则
+    private final int[][] outputs;
+
+    //沿失败指针最近的有规则结束的节点，没有时为-1
+    private final int[] outputLinks;
+
+    private Automaton(List<Map<Character, Integer>> children, List<List<Integer>> ends) {
+        int size = children.size();
+        this.labels = new char[size][];
+        this.targets = new int[size][];
+        this.outputs = new int[size][];
+        for (int node = 0; node < size; node++) {
+            Map<Character, Integer> map = children.get(node);
+            labels[node] = new char[map.size()];
+            targets[node] = new int[map.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> entry : map.entrySet()) {
+                labels[node][i] = entry.getKey();
+                targets[node][i] = entry.getValue();
+                i++;
+            }
+            List<Integer> list = ends.get(node);
+            if (list.isEmpty()) {
+                outputs[node] = NONE;
+            } else {
+                outputs[node] = new int[list.size()];
+                for (int j = 0; j < list.size(); j++) {
+                    outputs[node][j] = list.get(j);
+                }
+            }
+        }
+
+        //按层遍历，父节点的失败指针总是先算好
+        this.fail = new int[size];
+        this.outputLinks = new int[size];
+        outputLinks[0] = -1;
+        Queue<Integer> queue = new LinkedList<>();
+        queue.add(0);
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (int i = 0; i < labels[node].length; i++) {
+                int child = targets[node][i];
+                int target = 0;
+                if (node != 0) {
+                    int state = fail[node];
+                    while (state != 0 && next(state, labels[node][i]) < 0) {
+                        state = fail[state];
+                    }
+                    target = Math.max(next(state, labels[node][i]), 0);
+                }
+                fail[child] = target;
+                outputLinks[child] = outputs[target].length > 0 ? target : outputLinks[target];
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * 匹配时使用的字符
+     *
+     * @param c 原字符
+     * @return
+     */
+    static char fold(char c) {
+        return Character.toLowerCase(c);
+    }
+
+    /**
+     * 沿子节点走一步
+     *
+     * @param node 当前节点
+     * @param c    转为小写后的字符
+     * @return 子节点，没有时为-1
+     */
+    int next(int node, char c) {
+        int index = Arrays.binarySearch(labels[node], c);
+        return index < 0 ? -1 : targets[node][index];
+    }
+
+    /**
+     * 自动机走一步，没有子节点时沿失败指针回退
+     *
+     * @param node 当前节点
+     * @param c    转为小写后的字符
+     * @return
+     */
+    int step(int node, char c) {
+        while (true) {
+            int child = next(node, c);
+            if (child >= 0) {
+                return child;
+            }
+            if (node == 0) {
+                return 0;
+            }
+            node = fail[node];
+        }
+    }
+
+    /**
+     * 在节点结束的规则
+     *
+     * @param node 节点
+     * @return
+     */
+    int[] outputs(int node) {
+        return outputs[node];
+    }
+
+    /**
+     * 沿失败指针最近的有规则结束的节点，即当前位置结束的更短的规则
+     *
+     * @param node 节点
+     * @return 没有时为-1
+     */
+    int outputLink(int node) {
+        return outputLinks[node];
+    }
+
+    static class Builder {
+
+        private final List<Map<Character, Integer>> children = new ArrayList<>();
+
+        private final List<List<Integer>> ends = new ArrayList<>();
+
+        Builder() {
+            newNode();
+        }
+
+        private int newNode() {
+            children.add(new TreeMap<Character, Integer>());
+            ends.add(new ArrayList<Integer>());
+            return children.size() - 1;
+        }
+
+        /**
+         * 加入规则
+         *
+         * @param pattern 规则
+         * @param id      规则的编号，匹配时返回
+         * @return
+         */
+        Builder add(String pattern, int id) {
+            int node = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = fold(pattern.charAt(i));
+                Integer child = children.get(node).get(c);
+                if (child == null) {
+                    child = newNode();
+                    children.get(node).put(c, child);
+                }
+                node = child;
+            }
+            ends.get(node).add(id);
+            return this;
+        }
+
+        Automaton build() {
+            return new Automaton(children, ends);
+        }
+    }
+
+}
@@ -0,0 +1,198 @@
+package com.scienjus.smartqq.router;
+
+import com.scienjus.smartqq.model.DiscussMessage;
+import com.scienjus.smartqq.model.GroupMessage;
+import com.scienjus.smartqq.model.Message;
+
+/**
+ * 一条消息命中一条规则时传给处理器的信息.
+ */
+public class MessageContext {
+
+    private static final String[] EMPTY = new String[0];
+
+    /**
+     * 消息所在的会话类型
+     */
+    public enum Type {
+        FRIEND, GROUP, DISCUSS
+    }
+
+    private final Type type;
+
+    //私聊为好友id，群和讨论组为群id和讨论组id
+    private final long conversationId;
+
+    private final long userId;
+
+    private final long time;
+
+    private final String content;
+
+    //原始消息
+    private final Object message;
+
+    //命中的原文，兜底处理器为null
+    private final String matched;
+
+    //命中的位置
+    private final int offset;
+
+    //命令和前缀之后的内容
+    private final String argument;
+
+    private MessageContext(Type type, long conversationId, long userId, long time, String content, Object message,
+                           String matched, int offset, String argument) {
+        this.type = type;
+        this.conversationId = conversationId;
+        this.userId = userId;
+        this.time = time;
+        this.content = content;
+        this.message = message;
+        this.matched = matched;
+        this.offset = offset;
+        this.argument = argument;
+    }
+
+    static MessageContext of(Message message) {
+        return new MessageContext(Type.FRIEND, message.getUserId(), message.getUserId(), message.getTime(),
+                content(message.getContent()), message, null, -1, null);
+    }
+
+    static MessageContext of(GroupMessage message) {
+        return new MessageContext(Type.GROUP, message.getGroupId(), message.getUserId(), message.getTime(),
+                content(message.getContent()), message, null, -1, null);
+    }
+
+    static MessageContext of(DiscussMessage message) {
+        return new MessageContext(Type.DISCUSS, message.getDiscussId(), message.getUserId(), message.getTime(),
+                content(message.getContent()), message, null, -1, null);
+    }
+
+    private static String content(String content) {
+        return content == null ? "" : content;
+    }
+
+    /**
+     * 带上命中信息的副本
+     *
+     * @param offset   命中的位置
+     * @param length   命中的长度
+     * @param argument 命令和前缀之后的内容，关键词为null
+     * @return
+     */
+    MessageContext matched(int offset, int length, String argument) {
+        return new MessageContext(type, conversationId, userId, time, content, message,
+                content.substring(offset, offset + length), offset, argument);
+    }
+
+    /**
+     * 会话的键，用于规则的范围判断
+     *
+     * @return
+     */
+    long getKey() {
+        return key(type, conversationId);
+    }
+
+    static long key(Type type, long conversationId) {
+        return conversationId << 2 | type.ordinal();
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * 会话id，私聊为好友id，群和讨论组为群id和讨论组id
+     *
+     * @return
+     */
+    public long getConversationId() {
+        return conversationId;
+    }
+
+    /**
+     * 发送者id
+     *
+     * @return
+     */
+    public long getUserId() {
+        return userId;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    /**
+     * 命中的原文，大小写与消息一致；兜底处理器为null
+     *
+     * @return
+     */
+    public String getMatched() {
+        return matched;
+    }
+
+    /**
+     * 命中的原文在消息中的位置；兜底处理器为-1
+     *
+     * @return
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * 命令和前缀之后的内容，去掉了首尾空白；关键词和兜底处理器为null
+     *
+     * @return
+     */
+    public String getArgument() {
+        return argument;
+    }
+
+    /**
+     * 按空白切分的参数
+     *
+     * @return
+     */
+    public String[] getArguments() {
+        if (argument == null || argument.isEmpty()) {
+            return EMPTY;
+        }
+        return argument.split("\\s+");
+    }
+
+    /**
+     * 私聊消息，其它会话为null
+     *
+     * @return
+     */
+    public Message getFriendMessage() {
+        return type == Type.FRIEND ? (Message) message : null;
+    }
+
+    /**
+     * 群消息，其它会话为null
+     *
+     * @return
+     */
+    public GroupMessage getGroupMessage() {
+        return type == Type.GROUP ? (GroupMessage) message : null;
+    }
+
+    /**
+     * 讨论组消息，其它会话为null
+     *
+     * @return
+     */
+    public DiscussMessage getDiscussMessage() {
+        return type == Type.DISCUSS ? (DiscussMessage) message : null;
+    }
+
+}
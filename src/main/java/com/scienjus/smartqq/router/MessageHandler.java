@@ -0,0 +1,14 @@
+package com.scienjus.smartqq.router;
+
+/**
+ * 路由命中后的处理器
+ */
+public interface MessageHandler {
+
+    /**
+     * 处理命中规则的消息
+     *
+     * @param context 消息和命中的信息
+     */
+    void handle(MessageContext context);
+}
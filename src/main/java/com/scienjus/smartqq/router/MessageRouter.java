@@ -0,0 +1,206 @@
+package com.scienjus.smartqq.router;
+
+import com.scienjus.smartqq.callback.MessageCallback;
+import com.scienjus.smartqq.model.DiscussMessage;
+import com.scienjus.smartqq.model.GroupMessage;
+import com.scienjus.smartqq.model.Message;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 按命令、前缀和关键词把消息路由给处理器.
+ * 所有规则在构建时编译：命令和前缀放进一棵前缀树，从消息开头走一遍；关键词放进一个Aho-Corasick自动机，
+ * 对消息内容扫描一遍就能找出所有命中的关键词.匹配的耗时只与消息长度和命中数有关，与规则的数量无关.
+ * <p>
+ * 一条消息可以命中多条规则，每条规则最多处理一次，按规则加入的顺序调用；没有命中任何规则时调用兜底处理器.
+ * 处理器抛出的异常只记录日志，不影响其它处理器.路由构建后不可修改，可以配合多线程的消息分发使用.
+ * <pre>
+ * MessageRouter router = new MessageRouter.Builder()
+ *         .add(Route.command("/help", helpHandler))
+ *         .add(Route.prefix("#", topicHandler).inGroup(groupId))
+ *         .add(Route.keyword("代购", adHandler).inGroup(groupId).inDiscuss(discussId))
+ *         .fallback(defaultHandler)
+ *         .build();
+ * SmartQQClient client = new SmartQQClient.Builder().callback(router).build();
+ * </pre>
+ */
+public class MessageRouter implements MessageCallback {
+
+    //日志
+    private static final Logger LOGGER = Logger.getLogger(MessageRouter.class);
+
+    //按加入顺序排列，编号即下标
+    private final Route[] routes;
+
+    //命令和前缀
+    private final Automaton commands;
+
+    //关键词
+    private final Automaton keywords;
+
+    private final MessageHandler fallback;
+
+    private MessageRouter(Builder builder) {
+        this.routes = builder.routes.toArray(new Route[builder.routes.size()]);
+        Automaton.Builder commands = new Automaton.Builder();
+        Automaton.Builder keywords = new Automaton.Builder();
+        for (int id = 0; id < routes.length; id++) {
+            if (routes[id].getKind() == Route.Kind.KEYWORD) {
+                keywords.add(routes[id].getPattern(), id);
+            } else {
+                commands.add(routes[id].getPattern(), id);
+            }
+        }
+        this.commands = commands.build();
+        this.keywords = keywords.build();
+        this.fallback = builder.fallback;
+    }
+
+    @Override
+    public void onMessage(Message message) {
+        route(MessageContext.of(message));
+    }
+
+    @Override
+    public void onGroupMessage(GroupMessage message) {
+        route(MessageContext.of(message));
+    }
+
+    @Override
+    public void onDiscussMessage(DiscussMessage message) {
+        route(MessageContext.of(message));
+    }
+
+    /**
+     * 找出消息命中的规则，按规则编号排列
+     *
+     * @param context 消息
+     * @return
+     */
+    Map<Integer, MessageContext> match(MessageContext context) {
+        String content = context.getContent();
+        long key = context.getKey();
+        Map<Integer, MessageContext> matches = null;
+
+        //命令和前缀：跳过开头的空白，沿前缀树走到走不下去为止，经过的每个规则都是候选
+        int start = 0;
+        while (start < content.length() && Character.isWhitespace(content.charAt(start))) {
+            start++;
+        }
+        int node = 0;
+        for (int i = start; i < content.length(); i++) {
+            node = commands.next(node, Automaton.fold(content.charAt(i)));
+            if (node < 0) {
+                break;
+            }
+            int end = i + 1;
+            for (int id : commands.outputs(node)) {
+                Route route = routes[id];
+                if (route.getKind() == Route.Kind.COMMAND
+                        && end < content.length() && !Character.isWhitespace(content.charAt(end))) {
+                    continue;
+                }
+                if (accept(route, key, content, start)) {
+                    if (matches == null) {
+                        matches = new TreeMap<>();
+                    }
+                    matches.put(id, context.matched(start, end - start, content.substring(end).trim()));
+                }
+            }
+        }
+
+        //关键词：一遍扫描，每个位置沿输出链取出在这里结束的所有关键词，只保留第一次出现
+        node = 0;
+        for (int i = 0; i < content.length(); i++) {
+            node = keywords.step(node, Automaton.fold(content.charAt(i)));
+            int output = keywords.outputs(node).length > 0 ? node : keywords.outputLink(node);
+            while (output >= 0) {
+                for (int id : keywords.outputs(output)) {
+                    if (matches != null && matches.containsKey(id)) {
+                        continue;
+                    }
+                    Route route = routes[id];
+                    int offset = i + 1 - route.getPattern().length();
+                    if (accept(route, key, content, offset)) {
+                        if (matches == null) {
+                            matches = new TreeMap<>();
+                        }
+                        matches.put(id, context.matched(offset, route.getPattern().length(), null));
+                    }
+                }
+                output = keywords.outputLink(output);
+            }
+        }
+        return matches == null ? Collections.<Integer, MessageContext>emptyMap() : matches;
+    }
+
+    //会话在范围内，区分大小写时原文也一致
+    private static boolean accept(Route route, long key, String content, int offset) {
+        return route.accept(key)
+                && (route.isIgnoreCase() || content.startsWith(route.getPattern(), offset));
+    }
+
+    private void route(MessageContext context) {
+        Map<Integer, MessageContext> matches = match(context);
+        if (matches.isEmpty()) {
+            if (fallback != null) {
+                handle(fallback, context, "兜底处理器");
+            }
+            return;
+        }
+        for (Map.Entry<Integer, MessageContext> entry : matches.entrySet()) {
+            Route route = routes[entry.getKey()];
+            handle(route.getHandler(), entry.getValue(), route.getPattern());
+        }
+    }
+
+    private static void handle(MessageHandler handler, MessageContext context, String name) {
+        try {
+            handler.handle(context);
+        } catch (Exception e) {
+            LOGGER.error("消息处理器执行失败：" + name, e);
+        }
+    }
+
+    public static class Builder {
+
+        private final List<Route> routes = new ArrayList<>();
+
+        private MessageHandler fallback;
+
+        /**
+         * 加入规则，规则加入后不要再修改
+         *
+         * @param route 规则
+         * @return
+         */
+        public Builder add(Route route) {
+            if (route == null) {
+                throw new IllegalArgumentException("规则不能为空");
+            }
+            routes.add(route);
+            return this;
+        }
+
+        /**
+         * 没有命中任何规则时的处理器
+         *
+         * @param fallback 处理器
+         * @return
+         */
+        public Builder fallback(MessageHandler fallback) {
+            this.fallback = fallback;
+            return this;
+        }
+
+        public MessageRouter build() {
+            return new MessageRouter(this);
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+package com.scienjus.smartqq.router;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 路由规则.
+ * <pre>
+ * //只在两个群里响应“代购”，不区分大小写
+ * Route route = Route.keyword("代购", handler)
+ *         .inGroup(groupId1)
+ *         .inGroup(groupId2)
+ *         .ignoreCase();
+ * </pre>
+ */
+public class Route {
+
+    /**
+     * 规则的种类
+     */
+    public enum Kind {
+        //消息开头是命令，命令后面是空白或消息结尾
+        COMMAND,
+        //消息开头是前缀，前缀后面可以直接跟内容
+        PREFIX,
+        //消息任意位置包含关键词
+        KEYWORD
+    }
+
+    private final Kind kind;
+
+    private final String pattern;
+
+    private final MessageHandler handler;
+
+    //限定的会话，为空时不限定
+    private final Set<Long> keys = new HashSet<>();
+
+    private boolean ignoreCase;
+
+    private Route(Kind kind, String pattern, MessageHandler handler) {
+        if (pattern == null || pattern.isEmpty()) {
+            throw new IllegalArgumentException("规则不能为空");
+        }
+        if (handler == null) {
+            throw new IllegalArgumentException("处理器不能为空");
+        }
+        this.kind = kind;
+        this.pattern = pattern;
+        this.handler = handler;
+    }
+
+    /**
+     * 命令，如“/help”可以匹配“/help”和“/help all”，不匹配“/helpme”
+     *
+     * @param command 命令
+     * @param handler 处理器
+     * @return
+     */
+    public static Route command(String command, MessageHandler handler) {
+        return new Route(Kind.COMMAND, command, handler);
+    }
+
+    /**
+     * 前缀，如“#”可以匹配“#话题”
+     *
+     * @param prefix  前缀
+     * @param handler 处理器
+     * @return
+     */
+    public static Route prefix(String prefix, MessageHandler handler) {
+        return new Route(Kind.PREFIX, prefix, handler);
+    }
+
+    /**
+     * 关键词，消息中出现多次时也只处理一次
+     *
+     * @param keyword 关键词
+     * @param handler 处理器
+     * @return
+     */
+    public static Route keyword(String keyword, MessageHandler handler) {
+        return new Route(Kind.KEYWORD, keyword, handler);
+    }
+
+    /**
+     * 限定在群中，可以多次调用限定多个群
+     *
+     * @param groupId 群id
+     * @return
+     */
+    public Route inGroup(long groupId) {
+        keys.add(MessageContext.key(MessageContext.Type.GROUP, groupId));
+        return this;
+    }
+
+    /**
+     * 限定在讨论组中，可以多次调用
+     *
+     * @param discussId 讨论组id
+     * @return
+     */
+    public Route inDiscuss(long discussId) {
+        keys.add(MessageContext.key(MessageContext.Type.DISCUSS, discussId));
+        return this;
+    }
+
+    /**
+     * 限定在与好友的私聊中，可以多次调用
+     *
+     * @param userId 好友id
+     * @return
+     */
+    public Route withFriend(long userId) {
+        keys.add(MessageContext.key(MessageContext.Type.FRIEND, userId));
+        return this;
+    }
+
+    /**
+     * 匹配时不区分大小写
+     *
+     * @return
+     */
+    public Route ignoreCase() {
+        this.ignoreCase = true;
+        return this;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    MessageHandler getHandler() {
+        return handler;
+    }
+
+    boolean isIgnoreCase() {
+        return ignoreCase;
+    }
+
+    //消息所在的会话是否在范围内
+    boolean accept(long key) {
+        return keys.isEmpty() || keys.contains(key);
+    }
+
+}
@@ -0,0 +1,278 @@
+package com.scienjus.smartqq.search;
+
+import com.scienjus.smartqq.util.Varint;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 磁盘上不可变的分段，通过内存映射读取.
+ * <pre>
+ * 文件头   MAGIC(4) 版本(1) 合并层级(1) 第一个文档的序号(8)
+ * 文档     类型(1) 会话id 发送者 时间 内容，依次排列
+ * 倒排表   文档数，然后每个文档为 文档号差值 词频 位置差值...
+ * 词典     词数，然后每个词为 词 倒排表位置，按字典序排列
+ * 文档索引 文档数，然后每个文档为 位置差值 会话的键 时间差值
+ * 文件尾   词典位置(8) 文档索引位置(8) MAGIC(4)
+ * </pre>
+ * 整数都是变长编码.词典和文档索引在打开时读入内存，倒排表和文档内容在查询时才从映射中读取.
+ */
+class DiskSegment extends Segment {
+
+    private static final int MAGIC = 0x53515849;
+
+    private static final byte VERSION = 1;
+
+    private static final int HEADER_SIZE = 14;
+
+    private static final int TRAILER_SIZE = 20;
+
+    private static final SearchHit.Type[] TYPES = SearchHit.Type.values();
+
+    private final File file;
+
+    private final int level;
+
+    private final long minSeq;
+
+    private final MappedByteBuffer buffer;
+
+    //词典，升序
+    private final String[] terms;
+
+    private final int[] postingsOffsets;
+
+    private final int[] docOffsets;
+
+    private final long[] keys;
+
+    private final long[] times;
+
+    private DiskSegment(File file) throws IOException {
+        this.file = file;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() < HEADER_SIZE + TRAILER_SIZE || raf.length() > Integer.MAX_VALUE) {
+                throw new IOException("索引文件长度不正确：" + file.getName());
+            }
+            this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+        ByteBuffer in = buffer.duplicate();
+        if (in.getInt() != MAGIC || in.get() != VERSION) {
+            throw new IOException("不是索引文件：" + file.getName());
+        }
+        this.level = in.get();
+        this.minSeq = in.getLong();
+        in.position(in.limit() - TRAILER_SIZE);
+        int termsOffset = (int) in.getLong();
+        int docIndexOffset = (int) in.getLong();
+        if (in.getInt() != MAGIC) {
+            throw new IOException("索引文件不完整：" + file.getName());
+        }
+
+        in.position(termsOffset);
+        int termCount = Varint.readInt(in);
+        this.terms = new String[termCount];
+        this.postingsOffsets = new int[termCount];
+        for (int i = 0; i < termCount; i++) {
+            terms[i] = Varint.readString(in);
+            postingsOffsets[i] = Varint.readInt(in);
+        }
+
+        in.position(docIndexOffset);
+        int docCount = Varint.readInt(in);
+        this.docOffsets = new int[docCount];
+        this.keys = new long[docCount];
+        this.times = new long[docCount];
+        int offset = HEADER_SIZE;
+        long time = 0;
+        for (int i = 0; i < docCount; i++) {
+            offset += Varint.readInt(in);
+            docOffsets[i] = offset;
+            keys[i] = Varint.read(in);
+            time += Varint.readSigned(in);
+            times[i] = time;
+        }
+    }
+
+    /**
+     * 打开分段文件
+     *
+     * @param file 分段文件
+     * @return
+     * @throws IOException
+     */
+    static DiskSegment open(File file) throws IOException {
+        try {
+            return new DiskSegment(file);
+        } catch (RuntimeException e) {
+            throw new IOException("索引文件已损坏：" + file.getName(), e);
+        }
+    }
+
+    /**
+     * 把分段写入文件，先写临时文件再改名，不会留下写了一半的分段
+     *
+     * @param source 分段
+     * @param file   分段文件
+     * @param level  合并层级，新写入的分段为0，每合并一次加1
+     * @return 写入的分段
+     * @throws IOException
+     */
+    static DiskSegment write(Segment source, File file, int level) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).put(VERSION).put((byte) level).putLong(source.getMinSeq());
+            out.write(header.array());
+            long position = HEADER_SIZE;
+
+            int docCount = source.getDocCount();
+            ByteArrayOutputStream docIndex = new ByteArrayOutputStream(docCount * 8 + 8);
+            Varint.write(docIndex, docCount);
+            ByteArrayOutputStream section = new ByteArrayOutputStream(4096);
+            long previousTime = 0;
+            int previousStart = 0;
+            for (int doc = 0; doc < docCount; doc++) {
+                int start = section.size();
+                SearchHit hit = source.getHit(doc);
+                section.write(hit.getType().ordinal());
+                Varint.write(section, hit.getConversationId());
+                Varint.write(section, hit.getUserId());
+                Varint.writeSigned(section, hit.getTime());
+                Varint.writeString(section, hit.getContent());
+                Varint.write(docIndex, start - previousStart);
+                Varint.write(docIndex, SearchHit.key(hit.getType(), hit.getConversationId()));
+                Varint.writeSigned(docIndex, hit.getTime() - previousTime);
+                previousTime = hit.getTime();
+                previousStart = start;
+            }
+            section.writeTo(out);
+            position += section.size();
+
+            List<String> termList = source.getTerms();
+            ByteArrayOutputStream dictionary = new ByteArrayOutputStream(termList.size() * 8 + 8);
+            Varint.write(dictionary, termList.size());
+            section = new ByteArrayOutputStream(4096);
+            for (String term : termList) {
+                Varint.writeString(dictionary, term);
+                Varint.write(dictionary, position + section.size());
+                int[] postings = source.getPostings(term);
+                int count = 0;
+                for (int i = 0; i < postings.length; i += 2 + postings[i + 1]) {
+                    count++;
+                }
+                Varint.write(section, count);
+                int previousDoc = 0;
+                for (int i = 0; i < postings.length; ) {
+                    int freq = postings[i + 1];
+                    Varint.write(section, postings[i] - previousDoc);
+                    previousDoc = postings[i];
+                    Varint.write(section, freq);
+                    int previousPosition = 0;
+                    for (int j = 0; j < freq; j++) {
+                        Varint.write(section, postings[i + 2 + j] - previousPosition);
+                        previousPosition = postings[i + 2 + j];
+                    }
+                    i += 2 + freq;
+                }
+            }
+            section.writeTo(out);
+            position += section.size();
+
+            long termsOffset = position;
+            dictionary.writeTo(out);
+            position += dictionary.size();
+            long docIndexOffset = position;
+            docIndex.writeTo(out);
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+            trailer.putLong(termsOffset).putLong(docIndexOffset).putInt(MAGIC);
+            out.write(trailer.array());
+        } catch (IOException | RuntimeException e) {
+            temp.delete();
+            throw e;
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        return open(file);
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    @Override
+    int getDocCount() {
+        return docOffsets.length;
+    }
+
+    @Override
+    long getMinSeq() {
+        return minSeq;
+    }
+
+    @Override
+    List<String> getTerms() {
+        return Arrays.asList(terms);
+    }
+
+    @Override
+    int[] getPostings(String term) {
+        int index = Arrays.binarySearch(terms, term);
+        if (index < 0) {
+            return null;
+        }
+        ByteBuffer in = buffer.duplicate();
+        in.position(postingsOffsets[index]);
+        int count = Varint.readInt(in);
+        IntList list = new IntList(count * 3);
+        int doc = 0;
+        for (int i = 0; i < count; i++) {
+            doc += Varint.readInt(in);
+            int freq = Varint.readInt(in);
+            list.add(doc);
+            list.add(freq);
+            int position = 0;
+            for (int j = 0; j < freq; j++) {
+                position += Varint.readInt(in);
+                list.add(position);
+            }
+        }
+        return list.toArray();
+    }
+
+    @Override
+    long getKey(int doc) {
+        return keys[doc];
+    }
+
+    @Override
+    long getTime(int doc) {
+        return times[doc];
+    }
+
+    @Override
+    SearchHit getHit(int doc) {
+        ByteBuffer in = buffer.duplicate();
+        in.position(docOffsets[doc]);
+        SearchHit.Type type = TYPES[in.get()];
+        long conversationId = Varint.read(in);
+        long userId = Varint.read(in);
+        long time = Varint.readSigned(in);
+        return new SearchHit(type, conversationId, userId, time, Varint.readString(in));
+    }
+
+}
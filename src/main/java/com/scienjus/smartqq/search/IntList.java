@@ -0,0 +1,41 @@
+package com.scienjus.smartqq.search;
+
+import java.util.Arrays;
+
+/**
+ * 可以自动扩容的int数组，避免装箱.
+ */
+final class IntList {
+
+    private int[] values;
+
+    private int size;
+
+    IntList() {
+        this(8);
+    }
+
+    IntList(int capacity) {
+        this.values = new int[capacity];
+    }
+
+    void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, Math.max(8, size * 2));
+        }
+        values[size++] = value;
+    }
+
+    int get(int index) {
+        return values[index];
+    }
+
+    int size() {
+        return size;
+    }
+
+    int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+}
@@ -0,0 +1,136 @@
+package com.scienjus.smartqq.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 内存中的分段.
+ * 新消息先加入内存分段，写满或到达刷新间隔后写成磁盘分段；合并时也先在内存中合并再写入磁盘.
+ * 写入和查询可以在不同的线程上进行.
+ */
+class MemorySegment extends Segment {
+
+    private final long minSeq;
+
+    private final Map<String, IntList> postings = new HashMap<>();
+
+    private final List<SearchHit> docs = new ArrayList<>();
+
+    MemorySegment(long minSeq) {
+        this.minSeq = minSeq;
+    }
+
+    /**
+     * 分词后加入文档
+     *
+     * @param doc 文档
+     */
+    synchronized void add(SearchHit doc) {
+        int id = docs.size();
+        docs.add(doc);
+        //同一个词的所有位置放在一起
+        Map<String, IntList> positions = new LinkedHashMap<>();
+        List<String> tokens = Tokenizer.tokenize(doc.getContent());
+        for (int i = 0; i < tokens.size(); i++) {
+            IntList list = positions.get(tokens.get(i));
+            if (list == null) {
+                list = new IntList(4);
+                positions.put(tokens.get(i), list);
+            }
+            list.add(i);
+        }
+        for (Map.Entry<String, IntList> entry : positions.entrySet()) {
+            IntList list = postings(entry.getKey());
+            IntList termPositions = entry.getValue();
+            list.add(id);
+            list.add(termPositions.size());
+            for (int i = 0; i < termPositions.size(); i++) {
+                list.add(termPositions.get(i));
+            }
+        }
+    }
+
+    /**
+     * 合并时按顺序加入另一个分段的所有文档和倒排表
+     *
+     * @param segment 已有的分段
+     */
+    synchronized void addAll(Segment segment) {
+        int base = docs.size();
+        int count = segment.getDocCount();
+        for (int doc = 0; doc < count; doc++) {
+            docs.add(segment.getHit(doc));
+        }
+        for (String term : segment.getTerms()) {
+            int[] source = segment.getPostings(term);
+            IntList list = postings(term);
+            for (int i = 0; i < source.length; ) {
+                int freq = source[i + 1];
+                list.add(source[i] + base);
+                list.add(freq);
+                for (int j = 0; j < freq; j++) {
+                    list.add(source[i + 2 + j]);
+                }
+                i += 2 + freq;
+            }
+        }
+    }
+
+    private IntList postings(String term) {
+        IntList list = postings.get(term);
+        if (list == null) {
+            list = new IntList(4);
+            postings.put(term, list);
+        }
+        return list;
+    }
+
+    @Override
+    synchronized int getDocCount() {
+        return docs.size();
+    }
+
+    @Override
+    long getMinSeq() {
+        return minSeq;
+    }
+
+    @Override
+    synchronized List<String> getTerms() {
+        List<String> terms = new ArrayList<>(postings.keySet());
+        Collections.sort(terms);
+        return terms;
+    }
+
+    @Override
+    synchronized int[] getPostings(String term) {
+        IntList list = postings.get(term);
+        return list == null ? null : list.toArray();
+    }
+
+    @Override
+    synchronized long getKey(int doc) {
+        SearchHit hit = docs.get(doc);
+        return SearchHit.key(hit.getType(), hit.getConversationId());
+    }
+
+    @Override
+    synchronized long getTime(int doc) {
+        return docs.get(doc).getTime();
+    }
+
+    @Override
+    synchronized SearchHit getHit(int doc) {
+        return docs.get(doc);
+    }
+
+    @Override
+    synchronized void search(SearchQuery query, List<SearchHit> out) {
+        super.search(query, out);
+    }
+
+}
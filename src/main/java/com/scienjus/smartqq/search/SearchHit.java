@@ -0,0 +1,74 @@
+package com.scienjus.smartqq.search;
+
+/**
+ * 搜索结果中的一条消息.
+ */
+public class SearchHit {
+
+    /**
+     * 消息所在的会话类型
+     */
+    public enum Type {
+        FRIEND, GROUP, DISCUSS
+    }
+
+    private final Type type;
+
+    private final long conversationId;
+
+    private final long userId;
+
+    private final long time;
+
+    private final String content;
+
+    SearchHit(Type type, long conversationId, long userId, long time, String content) {
+        this.type = type;
+        this.conversationId = conversationId;
+        this.userId = userId;
+        this.time = time;
+        this.content = content;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * 会话id：私聊为好友id，群为群id，讨论组为讨论组id
+     *
+     * @return
+     */
+    public long getConversationId() {
+        return conversationId;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    //会话在索引中的键
+    static long key(Type type, long conversationId) {
+        return conversationId << 2 | type.ordinal();
+    }
+
+    @Override
+    public String toString() {
+        return "SearchHit{"
+                + "type=" + type
+                + ", conversationId=" + conversationId
+                + ", userId=" + userId
+                + ", time=" + time
+                + ", content='" + content + '\''
+                + '}';
+    }
+
+}
@@ -0,0 +1,428 @@
+package com.scienjus.smartqq.search;
+
+import com.scienjus.smartqq.callback.MessageCallback;
+import com.scienjus.smartqq.model.DiscussMessage;
+import com.scienjus.smartqq.model.GroupMessage;
+import com.scienjus.smartqq.model.Message;
+import com.scienjus.smartqq.util.NamedThreadFactory;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 消息内容的全文索引.
+ * 作为回调使用时，回调只把消息放入队列，分词和写入在单独的索引线程上进行，不会阻塞消息的接收.
+ * 新消息先写入内存分段，可以立即被搜索到；内存分段写满或到达刷新间隔后写成磁盘分段.
+ * 同一层级的磁盘分段达到合并因子个数时，在后台合并线程上合并为上一层级的一个分段，分段数保持在对数级别.
+ * <p>
+ * 还在内存分段中的消息在进程退出时会丢失，最多为一个刷新间隔内收到的消息.
+ * <pre>
+ * SearchIndex index = new SearchIndex(new File("index"));
+ * SmartQQClient client = new SmartQQClient.Builder().callback(index).build();
+ *
+ * List&lt;SearchHit&gt; hits = index.search(SearchQuery.phrase("代购").inGroup(groupId).limit(20));
+ * </pre>
+ */
+public class SearchIndex implements MessageCallback, Closeable {
+
+    //日志
+    private static final Logger LOGGER = Logger.getLogger(SearchIndex.class);
+
+    /**
+     * 默认的内存分段最大文档数
+     */
+    public static final int DEFAULT_MAX_BUFFERED_DOCS = 10000;
+
+    /**
+     * 默认的刷新间隔（秒）
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL_SECONDS = 30;
+
+    /**
+     * 默认的合并因子
+     */
+    public static final int DEFAULT_MERGE_FACTOR = 10;
+
+    //等待索引的消息数上限，超过时丢弃新消息
+    private static final int MAX_QUEUED = 100000;
+
+    private static final String SEGMENT_SUFFIX = ".idx";
+
+    private final File dir;
+
+    private final int maxBufferedDocs;
+
+    private final int mergeFactor;
+
+    //磁盘分段，按文档顺序排列，层级高的在前；只在持有锁时替换，查询时取快照
+    private volatile List<DiskSegment> segments;
+
+    //当前的内存分段，只有索引线程写入
+    private volatile MemorySegment memory;
+
+    private final Object lock = new Object();
+
+    //下一个文档的序号
+    private long nextSeq;
+
+    //下一个分段文件的编号
+    private final AtomicInteger nextFileId = new AtomicInteger();
+
+    private final ScheduledExecutorService indexExecutor;
+
+    private final ExecutorService mergeExecutor;
+
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private volatile boolean closed;
+
+    /**
+     * 使用默认的内存分段大小、刷新间隔和合并因子
+     *
+     * @param dir 索引目录，不存在时创建
+     * @throws IOException
+     */
+    public SearchIndex(File dir) throws IOException {
+        this(dir, DEFAULT_MAX_BUFFERED_DOCS, DEFAULT_FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS, DEFAULT_MERGE_FACTOR);
+    }
+
+    /**
+     * @param dir             索引目录，不存在时创建
+     * @param maxBufferedDocs 内存分段的最大文档数
+     * @param flushInterval   内存分段最长多久写入磁盘
+     * @param unit            刷新间隔的单位
+     * @param mergeFactor     同一层级的分段达到多少个时合并
+     * @throws IOException
+     */
+    public SearchIndex(File dir, int maxBufferedDocs, long flushInterval, TimeUnit unit, int mergeFactor)
+            throws IOException {
+        if (maxBufferedDocs <= 0 || mergeFactor < 2) {
+            throw new IllegalArgumentException("内存分段大小必须大于0，合并因子至少为2");
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("无法创建索引目录：" + dir.getAbsolutePath());
+        }
+        this.dir = dir;
+        this.maxBufferedDocs = maxBufferedDocs;
+        this.mergeFactor = mergeFactor;
+        this.segments = Collections.unmodifiableList(openSegments());
+        for (DiskSegment segment : segments) {
+            nextSeq = Math.max(nextSeq, segment.getMinSeq() + segment.getDocCount());
+        }
+        this.memory = new MemorySegment(nextSeq);
+        this.indexExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("smartqq-index"));
+        this.mergeExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("smartqq-merge"));
+        indexExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flushMemory();
+            }
+        }, flushInterval, flushInterval, unit);
+        mergeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                merge();
+            }
+        });
+    }
+
+    //打开目录中的分段，去掉合并完成后没来得及删除的旧分段
+    private List<DiskSegment> openSegments() throws IOException {
+        File[] files = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SEGMENT_SUFFIX) || name.endsWith(SEGMENT_SUFFIX + ".tmp");
+            }
+        });
+        List<DiskSegment> opened = new ArrayList<>();
+        if (files == null) {
+            return opened;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(".tmp")) {
+                file.delete();
+                continue;
+            }
+            try {
+                int id = Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                nextFileId.set(Math.max(nextFileId.get(), id + 1));
+                opened.add(DiskSegment.open(file));
+            } catch (NumberFormatException | IOException e) {
+                LOGGER.warn("忽略无法读取的索引文件：" + name + "，" + e.getMessage());
+            }
+        }
+        //按第一个文档的序号排列，序号相同时文档多的（合并后的）在前
+        Collections.sort(opened, new Comparator<DiskSegment>() {
+            @Override
+            public int compare(DiskSegment o1, DiskSegment o2) {
+                if (o1.getMinSeq() != o2.getMinSeq()) {
+                    return o1.getMinSeq() < o2.getMinSeq() ? -1 : 1;
+                }
+                return o2.getDocCount() - o1.getDocCount();
+            }
+        });
+        List<DiskSegment> result = new ArrayList<>();
+        long covered = Long.MIN_VALUE;
+        for (DiskSegment segment : opened) {
+            long end = segment.getMinSeq() + segment.getDocCount();
+            if (end <= covered) {
+                //已经包含在合并后的分段中
+                segment.getFile().delete();
+                continue;
+            }
+            result.add(segment);
+            covered = end;
+        }
+        return result;
+    }
+
+    /**
+     * 索引私聊消息，只放入队列，立即返回
+     *
+     * @param message 私聊消息
+     */
+    public void add(Message message) {
+        enqueue(new SearchHit(SearchHit.Type.FRIEND, message.getUserId(), message.getUserId(), message.getTime(),
+                message.getContent()));
+    }
+
+    /**
+     * 索引群消息，只放入队列，立即返回
+     *
+     * @param message 群消息
+     */
+    public void add(GroupMessage message) {
+        enqueue(new SearchHit(SearchHit.Type.GROUP, message.getGroupId(), message.getUserId(), message.getTime(),
+                message.getContent()));
+    }
+
+    /**
+     * 索引讨论组消息，只放入队列，立即返回
+     *
+     * @param message 讨论组消息
+     */
+    public void add(DiscussMessage message) {
+        enqueue(new SearchHit(SearchHit.Type.DISCUSS, message.getDiscussId(), message.getUserId(), message.getTime(),
+                message.getContent()));
+    }
+
+    private void enqueue(final SearchHit doc) {
+        if (closed) {
+            return;
+        }
+        if (queued.incrementAndGet() > MAX_QUEUED) {
+            queued.decrementAndGet();
+            LOGGER.warn("索引队列已满，丢弃消息");
+            return;
+        }
+        indexExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                queued.decrementAndGet();
+                memory.add(doc);
+                if (memory.getDocCount() >= maxBufferedDocs) {
+                    flushMemory();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onMessage(Message message) {
+        add(message);
+    }
+
+    @Override
+    public void onGroupMessage(GroupMessage message) {
+        add(message);
+    }
+
+    @Override
+    public void onDiscussMessage(DiscussMessage message) {
+        add(message);
+    }
+
+    //把内存分段写成磁盘分段，只在索引线程上执行
+    private void flushMemory() {
+        MemorySegment current = memory;
+        int count = current.getDocCount();
+        if (count == 0) {
+            return;
+        }
+        DiskSegment written;
+        try {
+            written = DiskSegment.write(current, newSegmentFile(), 0);
+        } catch (IOException e) {
+            //保留内存分段，下次再试
+            LOGGER.error("写入索引分段失败：" + e.getMessage());
+            return;
+        }
+        synchronized (lock) {
+            segments = append(segments, written);
+            nextSeq = current.getMinSeq() + count;
+            memory = new MemorySegment(nextSeq);
+        }
+        if (!closed) {
+            mergeExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    merge();
+                }
+            });
+        }
+    }
+
+    private File newSegmentFile() {
+        return new File(dir, String.format("%010d%s", nextFileId.getAndIncrement(), SEGMENT_SUFFIX));
+    }
+
+    private static List<DiskSegment> append(List<DiskSegment> list, DiskSegment segment) {
+        List<DiskSegment> result = new ArrayList<>(list);
+        result.add(segment);
+        return Collections.unmodifiableList(result);
+    }
+
+    //合并同一层级的分段，直到每个层级的分段数都少于合并因子，只在合并线程上执行
+    private void merge() {
+        while (!closed) {
+            List<DiskSegment> snapshot = segments;
+            int start = findMergeRun(snapshot);
+            if (start < 0) {
+                return;
+            }
+            List<DiskSegment> inputs = snapshot.subList(start, start + mergeFactor);
+            DiskSegment merged;
+            try {
+                MemorySegment combined = new MemorySegment(inputs.get(0).getMinSeq());
+                for (DiskSegment input : inputs) {
+                    combined.addAll(input);
+                }
+                merged = DiskSegment.write(combined, newSegmentFile(), inputs.get(0).getLevel() + 1);
+            } catch (IOException e) {
+                LOGGER.error("合并索引分段失败：" + e.getMessage());
+                return;
+            }
+            synchronized (lock) {
+                //合并期间只会在末尾追加新的分段，合并的分段位置不变
+                List<DiskSegment> result = new ArrayList<>(segments);
+                result.subList(start, start + mergeFactor).clear();
+                result.add(start, merged);
+                segments = Collections.unmodifiableList(result);
+            }
+            for (DiskSegment input : inputs) {
+                if (!input.getFile().delete()) {
+                    LOGGER.warn("删除索引分段失败：" + input.getFile().getName());
+                }
+            }
+        }
+    }
+
+    //找到连续mergeFactor个同一层级的分段，返回起始下标，没有时返回-1
+    private int findMergeRun(List<DiskSegment> list) {
+        int runStart = 0;
+        for (int i = 1; i <= list.size(); i++) {
+            if (i == list.size() || list.get(i).getLevel() != list.get(runStart).getLevel()) {
+                if (i - runStart >= mergeFactor) {
+                    return runStart;
+                }
+                runStart = i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 搜索消息，包括已经放入队列并被索引线程处理过的消息
+     *
+     * @param query 查询条件
+     * @return 从新到旧排列
+     */
+    public List<SearchHit> search(SearchQuery query) {
+        List<DiskSegment> diskSegments;
+        MemorySegment current;
+        synchronized (lock) {
+            diskSegments = segments;
+            current = memory;
+        }
+        List<SearchHit> hits = new ArrayList<>();
+        current.search(query, hits);
+        for (int i = diskSegments.size() - 1; i >= 0 && hits.size() < query.getLimit(); i--) {
+            diskSegments.get(i).search(query, hits);
+        }
+        return hits;
+    }
+
+    /**
+     * 等待队列中的消息都被索引并把内存分段写入磁盘，之后再合并
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        try {
+            indexExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    flushMemory();
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("等待索引写入时被中断", e);
+        } catch (ExecutionException e) {
+            throw new IOException("写入索引失败", e.getCause());
+        }
+    }
+
+    //磁盘分段数，用于测试
+    int getSegmentCount() {
+        return segments.size();
+    }
+
+    //等待后台合并完成，用于测试
+    void awaitMerges() throws InterruptedException, ExecutionException {
+        mergeExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get();
+    }
+
+    /**
+     * 索引队列中剩余的消息并写入磁盘后关闭，正在进行的合并会先完成
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            closed = true;
+            indexExecutor.shutdown();
+            mergeExecutor.shutdown();
+            try {
+                mergeExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,138 @@
+package com.scienjus.smartqq.search;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 搜索条件.
+ * <pre>
+ * //两个群中最近一周包含“代购”的消息
+ * SearchQuery query = SearchQuery.phrase("代购")
+ *         .inGroup(groupId1)
+ *         .inGroup(groupId2)
+ *         .between(weekAgo, now)
+ *         .limit(50);
+ * </pre>
+ */
+public class SearchQuery {
+
+    private final List<String> tokens;
+
+    private final boolean phrase;
+
+    //限定的会话，为空时不限定
+    private final Set<Long> keys = new HashSet<>();
+
+    private long fromTime = Long.MIN_VALUE;
+
+    private long toTime = Long.MAX_VALUE;
+
+    private int limit = 100;
+
+    private SearchQuery(String text, boolean phrase) {
+        this.tokens = Tokenizer.tokenize(text);
+        this.phrase = phrase;
+        if (tokens.isEmpty()) {
+            throw new IllegalArgumentException("查询中没有可以搜索的词：" + text);
+        }
+    }
+
+    /**
+     * 包含关键词中所有的词，不要求相邻，如“吃饭 今晚”可以匹配“今晚一起去吃饭”
+     *
+     * @param keywords 关键词，中文至少两个字
+     * @return
+     */
+    public static SearchQuery term(String keywords) {
+        return new SearchQuery(keywords, false);
+    }
+
+    /**
+     * 包含完整的短语
+     *
+     * @param text 短语，中文至少两个字
+     * @return
+     */
+    public static SearchQuery phrase(String text) {
+        return new SearchQuery(text, true);
+    }
+
+    /**
+     * 限定在群中，可以多次调用限定多个群
+     *
+     * @param groupId 群id
+     * @return
+     */
+    public SearchQuery inGroup(long groupId) {
+        keys.add(SearchHit.key(SearchHit.Type.GROUP, groupId));
+        return this;
+    }
+
+    /**
+     * 限定在讨论组中，可以多次调用
+     *
+     * @param discussId 讨论组id
+     * @return
+     */
+    public SearchQuery inDiscuss(long discussId) {
+        keys.add(SearchHit.key(SearchHit.Type.DISCUSS, discussId));
+        return this;
+    }
+
+    /**
+     * 限定在与好友的私聊中，可以多次调用
+     *
+     * @param userId 好友id
+     * @return
+     */
+    public SearchQuery withFriend(long userId) {
+        keys.add(SearchHit.key(SearchHit.Type.FRIEND, userId));
+        return this;
+    }
+
+    /**
+     * 限定时间范围
+     *
+     * @param fromTime 开始时间（秒，包含）
+     * @param toTime   结束时间（秒，包含）
+     * @return
+     */
+    public SearchQuery between(long fromTime, long toTime) {
+        this.fromTime = fromTime;
+        this.toTime = toTime;
+        return this;
+    }
+
+    /**
+     * 最多返回的结果数，默认100
+     *
+     * @param limit
+     * @return
+     */
+    public SearchQuery limit(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit必须大于0");
+        }
+        this.limit = limit;
+        return this;
+    }
+
+    List<String> getTokens() {
+        return tokens;
+    }
+
+    boolean isPhrase() {
+        return phrase;
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    //文档的会话和时间是否满足条件
+    boolean accept(long key, long time) {
+        return time >= fromTime && time <= toTime && (keys.isEmpty() || keys.contains(key));
+    }
+
+}
@@ -0,0 +1,126 @@
+package com.scienjus.smartqq.search;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 索引的一个分段，文档号从0开始按写入顺序递增.
+ * 倒排表统一表示为int数组：[文档号, 词频, 位置...]按文档号升序重复.
+ */
+abstract class Segment {
+
+    /**
+     * 文档数
+     *
+     * @return
+     */
+    abstract int getDocCount();
+
+    /**
+     * 第一个文档在整个索引中的序号，用于恢复分段的先后顺序
+     *
+     * @return
+     */
+    abstract long getMinSeq();
+
+    /**
+     * 按字典序返回所有的词，用于合并
+     *
+     * @return
+     */
+    abstract List<String> getTerms();
+
+    /**
+     * 获得词的倒排表
+     *
+     * @param term 词
+     * @return 不存在时返回null
+     */
+    abstract int[] getPostings(String term);
+
+    abstract long getKey(int doc);
+
+    abstract long getTime(int doc);
+
+    abstract SearchHit getHit(int doc);
+
+    /**
+     * 从新到旧把匹配的文档加入out，out中的结果数达到上限后停止
+     *
+     * @param query 查询条件
+     * @param out   结果
+     */
+    void search(SearchQuery query, List<SearchHit> out) {
+        List<String> tokens = query.getTokens();
+        int n = tokens.size();
+        int[][] postings = new int[n][];
+        //从文档最少的词开始遍历
+        int driver = 0;
+        for (int i = 0; i < n; i++) {
+            postings[i] = getPostings(tokens.get(i));
+            if (postings[i] == null) {
+                return;
+            }
+            if (postings[i].length < postings[driver].length) {
+                driver = i;
+            }
+        }
+        IntList matches = new IntList();
+        int[] cursors = new int[n];
+        int[] main = postings[driver];
+        outer:
+        while (cursors[driver] < main.length) {
+            int doc = main[cursors[driver]];
+            boolean all = true;
+            for (int i = 0; i < n; i++) {
+                if (i == driver) {
+                    continue;
+                }
+                int[] list = postings[i];
+                int cursor = cursors[i];
+                while (cursor < list.length && list[cursor] < doc) {
+                    cursor += 2 + list[cursor + 1];
+                }
+                cursors[i] = cursor;
+                if (cursor >= list.length) {
+                    break outer;
+                }
+                if (list[cursor] != doc) {
+                    all = false;
+                }
+            }
+            if (all && query.accept(getKey(doc), getTime(doc))
+                    && (!query.isPhrase() || matchesPhrase(postings, cursors))) {
+                matches.add(doc);
+            }
+            cursors[driver] += 2 + main[cursors[driver] + 1];
+        }
+        for (int i = matches.size() - 1; i >= 0 && out.size() < query.getLimit(); i--) {
+            out.add(getHit(matches.get(i)));
+        }
+    }
+
+    //所有词都位于同一个文档时，检查是否存在位置p使第i个词出现在p+i
+    private static boolean matchesPhrase(int[][] postings, int[] cursors) {
+        int[] first = postings[0];
+        int start = cursors[0] + 2;
+        int end = start + first[cursors[0] + 1];
+        for (int j = start; j < end; j++) {
+            int position = first[j];
+            boolean matched = true;
+            for (int i = 1; i < postings.length && matched; i++) {
+                matched = containsPosition(postings[i], cursors[i], position + i);
+            }
+            if (matched) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsPosition(int[] list, int cursor, int position) {
+        int start = cursor + 2;
+        return Arrays.binarySearch(list, start, start + list[cursor + 1], position) >= 0;
+    }
+
+}
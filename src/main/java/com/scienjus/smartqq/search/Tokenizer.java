@@ -0,0 +1,73 @@
+package com.scienjus.smartqq.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 分词器.
+ * 连续的中日韩文字切成相互重叠的二元组（“今晚吃饭”切成“今晚”、“晚吃”、“吃饭”），只有一个字时保留单字；
+ * 连续的字母和数字作为一个词，转为小写；其它字符（标点、空白、表情）作为分隔符.
+ * 每个词的位置依次加1，短语查询要求查询中的词在消息中的位置也依次相邻.
+ */
+final class Tokenizer {
+
+    private Tokenizer() {
+    }
+
+    /**
+     * 切分文本，返回的列表下标即词的位置
+     *
+     * @param text 文本，可以为null
+     * @return
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            int c = text.codePointAt(i);
+            if (isCjk(c)) {
+                int start = i;
+                int previous = -1;
+                while (i < length && isCjk(text.codePointAt(i))) {
+                    int next = i + Character.charCount(text.codePointAt(i));
+                    if (previous >= 0) {
+                        tokens.add(text.substring(previous, next));
+                    }
+                    previous = i;
+                    i = next;
+                }
+                //只有一个字
+                if (previous == start) {
+                    tokens.add(text.substring(start, i));
+                }
+            } else if (Character.isLetterOrDigit(c)) {
+                int start = i;
+                while (i < length) {
+                    int next = text.codePointAt(i);
+                    if (isCjk(next) || !Character.isLetterOrDigit(next)) {
+                        break;
+                    }
+                    i += Character.charCount(next);
+                }
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+            } else {
+                i += Character.charCount(c);
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isCjk(int c) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(c);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+
+}
@@ -0,0 +1,111 @@
+package com.scienjus.smartqq.session;
+
+import com.alibaba.fastjson.JSON;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.AclEntry;
+import java.nio.file.attribute.AclEntryPermission;
+import java.nio.file.attribute.AclEntryType;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * 把登录状态以json格式保存在本地文件中.
+ * 文件中包含可以直接登录的凭证，创建时只允许当前用户读写.
+ */
+public class FileSessionStore implements SessionStore {
+
+    //日志
+    private static final Logger LOGGER = Logger.getLogger(FileSessionStore.class);
+
+    //rw-------
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rw-------");
+
+    private final File file;
+
+    /**
+     * @param file 保存登录状态的文件
+     */
+    public FileSessionStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @param path 保存登录状态的文件路径
+     */
+    public FileSessionStore(String path) {
+        this(new File(path));
+    }
+
+    @Override
+    public SessionSnapshot load() {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            String json = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            return JSON.parseObject(json, SessionSnapshot.class);
+        } catch (Exception e) {
+            LOGGER.warn("读取登录状态失败：" + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void save(SessionSnapshot snapshot) {
+        File dir = file.getAbsoluteFile().getParentFile();
+        File temp = new File(dir, file.getName() + ".tmp");
+        try {
+            //先写临时文件再替换，避免写到一半退出时留下损坏的文件
+            //临时文件创建时就只允许当前用户读写，再写入凭证
+            createPrivateFile(temp.toPath());
+            Files.write(temp.toPath(), JSON.toJSONString(snapshot).getBytes(StandardCharsets.UTF_8));
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn("保存登录状态失败：" + e.getMessage());
+            temp.delete();
+        }
+    }
+
+    //创建只允许当前用户读写的空文件，Windows等不支持POSIX权限的系统上在写入前把ACL改为只有文件所有者
+    private static void createPrivateFile(Path path) throws IOException {
+        Files.deleteIfExists(path);
+        if (path.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+            return;
+        }
+        Files.createFile(path);
+        AclFileAttributeView acl = Files.getFileAttributeView(path, AclFileAttributeView.class);
+        if (acl != null) {
+            acl.setAcl(Collections.singletonList(AclEntry.newBuilder()
+                    .setType(AclEntryType.ALLOW)
+                    .setPrincipal(acl.getOwner())
+                    .setPermissions(EnumSet.allOf(AclEntryPermission.class))
+                    .build()));
+        } else {
+            File file = path.toFile();
+            file.setReadable(false, false);
+            file.setReadable(true, true);
+            file.setWritable(false, false);
+            file.setWritable(true, true);
+        }
+    }
+
+    @Override
+    public void clear() {
+        if (file.exists() && !file.delete()) {
+            LOGGER.warn("删除登录状态失败：" + file.getAbsolutePath());
+        }
+    }
+
+}
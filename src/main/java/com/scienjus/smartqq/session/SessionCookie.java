@@ -0,0 +1,83 @@
+package com.scienjus.smartqq.session;
+
+import java.util.Date;
+
+/**
+ * 保存下来的Cookie.
+ */
+public class SessionCookie {
+
+    private String name;
+
+    private String value;
+
+    private String domain;
+
+    private String path;
+
+    //过期时间，会话Cookie为null
+    private Date expiry;
+
+    private boolean secure;
+
+    public SessionCookie() {
+    }
+
+    public SessionCookie(String name, String value, String domain, String path, Date expiry, boolean secure) {
+        this.name = name;
+        this.value = value;
+        this.domain = domain;
+        this.path = path;
+        this.expiry = expiry;
+        this.secure = secure;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public void setValue(String value) {
+        this.value = value;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public void setDomain(String domain) {
+        this.domain = domain;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public Date getExpiry() {
+        return expiry;
+    }
+
+    public void setExpiry(Date expiry) {
+        this.expiry = expiry;
+    }
+
+    public boolean isSecure() {
+        return secure;
+    }
+
+    public void setSecure(boolean secure) {
+        this.secure = secure;
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.scienjus.smartqq.session;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 登录状态快照，包含鉴权参数和会话Cookie，用于重启后免扫码登录.
+ */
+public class SessionSnapshot {
+
+    private String ptwebqq;
+
+    private String vfwebqq;
+
+    private long uin;
+
+    private String psessionid;
+
+    private List<SessionCookie> cookies = new ArrayList<>();
+
+    //保存时间
+    private long savedAt;
+
+    public String getPtwebqq() {
+        return ptwebqq;
+    }
+
+    public void setPtwebqq(String ptwebqq) {
+        this.ptwebqq = ptwebqq;
+    }
+
+    public String getVfwebqq() {
+        return vfwebqq;
+    }
+
+    public void setVfwebqq(String vfwebqq) {
+        this.vfwebqq = vfwebqq;
+    }
+
+    public long getUin() {
+        return uin;
+    }
+
+    public void setUin(long uin) {
+        this.uin = uin;
+    }
+
+    public String getPsessionid() {
+        return psessionid;
+    }
+
+    public void setPsessionid(String psessionid) {
+        this.psessionid = psessionid;
+    }
+
+    public List<SessionCookie> getCookies() {
+        return cookies;
+    }
+
+    public void setCookies(List<SessionCookie> cookies) {
+        this.cookies = cookies;
+    }
+
+    public long getSavedAt() {
+        return savedAt;
+    }
+
+    public void setSavedAt(long savedAt) {
+        this.savedAt = savedAt;
+    }
+
+}
@@ -0,0 +1,27 @@
+package com.scienjus.smartqq.session;
+
+/**
+ * 登录状态的存储.
+ * 客户端启动时先尝试用保存的状态恢复登录，失败时才会扫码登录，登录成功后保存新的状态.
+ */
+public interface SessionStore {
+
+    /**
+     * 读取保存的登录状态
+     *
+     * @return 没有保存过或读取失败时返回null
+     */
+    SessionSnapshot load();
+
+    /**
+     * 保存登录状态，覆盖之前保存的状态
+     *
+     * @param snapshot
+     */
+    void save(SessionSnapshot snapshot);
+
+    /**
+     * 删除保存的登录状态，在恢复登录失败后调用
+     */
+    void clear();
+}
@@ -0,0 +1,197 @@
+package com.scienjus.smartqq.transport;
+
+import com.scienjus.smartqq.session.SessionCookie;
+import com.scienjus.smartqq.util.NamedThreadFactory;
+import net.dongliu.requests.exception.RequestException;
+import org.apache.http.HttpEntity;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * 基于HttpAsyncClient的NIO传输层.
+ * 请求在少量IO线程上完成，等待响应时不占用线程，适合一个进程中同时运行大量账号，每个账号都挂起一个拉取消息的长轮询.
+ * 回调在IO线程上执行.
+ */
+public class AsyncHttpTransport implements HttpTransport {
+
+    private final CloseableHttpAsyncClient client;
+
+    //普通请求的超时设置
+    private final RequestConfig requestConfig;
+
+    //长轮询的超时设置
+    private final RequestConfig pollConfig;
+
+    /**
+     * 最多200个连接，连接超时和读取超时10秒，长轮询读取超时65秒，IO线程数为CPU核数
+     */
+    public AsyncHttpTransport() {
+        this(200, 10000, 10000, 65000, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param maxConnections       最大连接数，同时也是每个域名的最大连接数，至少为同时挂起的长轮询数加上发送线程数
+     * @param connectTimeoutMillis 连接超时
+     * @param readTimeoutMillis    普通请求的读取超时
+     * @param pollTimeoutMillis    长轮询的读取超时
+     * @param ioThreads            IO线程数
+     */
+    public AsyncHttpTransport(int maxConnections, int connectTimeoutMillis, int readTimeoutMillis,
+                              int pollTimeoutMillis, int ioThreads) {
+        this.requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeoutMillis)
+                .setConnectionRequestTimeout(connectTimeoutMillis)
+                .setSocketTimeout(readTimeoutMillis)
+                .build();
+        this.pollConfig = RequestConfig.copy(requestConfig)
+                .setSocketTimeout(pollTimeoutMillis)
+                .build();
+        this.client = HttpAsyncClients.custom()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnections)
+                .setDefaultRequestConfig(requestConfig)
+                .setDefaultIOReactorConfig(IOReactorConfig.custom()
+                        .setIoThreadCount(ioThreads)
+                        .setConnectTimeout(connectTimeoutMillis)
+                        .build())
+                .setThreadFactory(new NamedThreadFactory("smartqq-io"))
+                .build();
+        this.client.start();
+    }
+
+    @Override
+    public TransportSession newSession() {
+        return new AsyncSession(new BasicCookieStore());
+    }
+
+    @Override
+    public void close() {
+        try {
+            client.close();
+        } catch (IOException e) {
+            throw new RequestException(e);
+        }
+    }
+
+    private class AsyncSession implements TransportSession {
+
+        private final CookieStore cookieStore;
+
+        AsyncSession(CookieStore cookieStore) {
+            this.cookieStore = cookieStore;
+        }
+
+        @Override
+        public HttpResponse execute(HttpRequest request) {
+            Future<org.apache.http.HttpResponse> future = client.execute(build(request), context(), null);
+            try {
+                return convert(future.get());
+            } catch (InterruptedException e) {
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new RequestException(e);
+            } catch (ExecutionException e) {
+                throw new RequestException(e.getCause());
+            } catch (IOException e) {
+                throw new RequestException(e);
+            }
+        }
+
+        @Override
+        public void execute(HttpRequest request, final ResponseCallback callback) {
+            client.execute(build(request), context(), new FutureCallback<org.apache.http.HttpResponse>() {
+                @Override
+                public void completed(org.apache.http.HttpResponse response) {
+                    HttpResponse converted;
+                    try {
+                        converted = convert(response);
+                    } catch (IOException e) {
+                        callback.onFailure(new RequestException(e));
+                        return;
+                    }
+                    callback.onResponse(converted);
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    callback.onFailure(new RequestException(e));
+                }
+
+                @Override
+                public void cancelled() {
+                    callback.onFailure(new RequestException("请求已取消"));
+                }
+            });
+        }
+
+        //每个请求使用单独的上下文，同一个会话的请求共用CookieStore
+        private HttpClientContext context() {
+            HttpClientContext context = HttpClientContext.create();
+            context.setCookieStore(cookieStore);
+            return context;
+        }
+
+        @Override
+        public List<SessionCookie> getCookies() {
+            return CookieStores.export(cookieStore);
+        }
+
+        @Override
+        public void addCookies(List<SessionCookie> cookies) {
+            CookieStores.restore(cookieStore, cookies);
+        }
+
+        @Override
+        public void clearCookies() {
+            cookieStore.clear();
+        }
+    }
+
+    private HttpRequestBase build(HttpRequest request) {
+        HttpRequestBase method;
+        if (request.getMethod() == HttpRequest.Method.GET) {
+            method = new HttpGet(request.getUrl());
+        } else {
+            HttpPost post = new HttpPost(request.getUrl());
+            List<NameValuePair> forms = new ArrayList<>();
+            for (Map.Entry<String, String> form : request.getForms()) {
+                forms.add(new BasicNameValuePair(form.getKey(), form.getValue()));
+            }
+            post.setEntity(new UrlEncodedFormEntity(forms, StandardCharsets.UTF_8));
+            method = post;
+        }
+        for (Map.Entry<String, String> header : request.getHeaders()) {
+            method.addHeader(header.getKey(), header.getValue());
+        }
+        method.setConfig(request.isLongPoll() ? pollConfig : requestConfig);
+        return method;
+    }
+
+    private static HttpResponse convert(org.apache.http.HttpResponse response) throws IOException {
+        HttpEntity entity = response.getEntity();
+        byte[] body = entity == null ? null : EntityUtils.toByteArray(entity);
+        return new HttpResponse(response.getStatusLine().getStatusCode(), body);
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.scienjus.smartqq.transport;
+
+import com.scienjus.smartqq.session.SessionCookie;
+import org.apache.http.client.CookieStore;
+import org.apache.http.cookie.ClientCookie;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.impl.cookie.BasicClientCookie;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * HttpClient的CookieStore与{@link SessionCookie}之间的转换.
+ */
+class CookieStores {
+
+    private CookieStores() {
+    }
+
+    //导出所有未过期的Cookie
+    static List<SessionCookie> export(CookieStore store) {
+        store.clearExpired(new Date());
+        List<SessionCookie> cookies = new ArrayList<>();
+        for (Cookie cookie : store.getCookies()) {
+            cookies.add(new SessionCookie(cookie.getName(), cookie.getValue(), cookie.getDomain(),
+                    cookie.getPath(), cookie.getExpiryDate(), cookie.isSecure()));
+        }
+        return cookies;
+    }
+
+    //添加Cookie，同名Cookie会被覆盖
+    static void restore(CookieStore store, List<SessionCookie> cookies) {
+        for (SessionCookie cookie : cookies) {
+            BasicClientCookie clientCookie = new BasicClientCookie(cookie.getName(), cookie.getValue());
+            clientCookie.setDomain(cookie.getDomain());
+            clientCookie.setPath(cookie.getPath());
+            clientCookie.setExpiryDate(cookie.getExpiry());
+            clientCookie.setSecure(cookie.isSecure());
+            //与服务器返回的Cookie一样按域名匹配，否则子域名的请求不会带上这些Cookie
+            clientCookie.setAttribute(ClientCookie.DOMAIN_ATTR, cookie.getDomain());
+            store.addCookie(clientCookie);
+        }
+    }
+
+}
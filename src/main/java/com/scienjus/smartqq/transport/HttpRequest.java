@@ -0,0 +1,112 @@
+package com.scienjus.smartqq.transport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 传输层的Http请求.
+ */
+public class HttpRequest {
+
+    /**
+     * 请求方法
+     */
+    public enum Method {
+        GET, POST
+    }
+
+    private final Method method;
+
+    private final String url;
+
+    private final List<Map.Entry<String, String>> headers = new ArrayList<>();
+
+    //表单参数，只用于POST
+    private final List<Map.Entry<String, String>> forms = new ArrayList<>();
+
+    //是否为长轮询，传输层会使用更长的读取超时
+    private boolean longPoll;
+
+    public HttpRequest(Method method, String url) {
+        this.method = method;
+        this.url = url;
+    }
+
+    public static HttpRequest get(String url) {
+        return new HttpRequest(Method.GET, url);
+    }
+
+    public static HttpRequest post(String url) {
+        return new HttpRequest(Method.POST, url);
+    }
+
+    public HttpRequest addHeader(String name, String value) {
+        headers.add(new Pair(name, value));
+        return this;
+    }
+
+    public HttpRequest addForm(String name, String value) {
+        forms.add(new Pair(name, value));
+        return this;
+    }
+
+    public HttpRequest longPoll(boolean longPoll) {
+        this.longPoll = longPoll;
+        return this;
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public List<Map.Entry<String, String>> getHeaders() {
+        return Collections.unmodifiableList(headers);
+    }
+
+    public List<Map.Entry<String, String>> getForms() {
+        return Collections.unmodifiableList(forms);
+    }
+
+    public boolean isLongPoll() {
+        return longPoll;
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + url;
+    }
+
+    private static class Pair implements Map.Entry<String, String> {
+
+        private final String key;
+
+        private final String value;
+
+        Pair(String key, String value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public String getValue() {
+            return value;
+        }
+
+        @Override
+        public String setValue(String value) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
@@ -0,0 +1,47 @@
+package com.scienjus.smartqq.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 传输层的Http响应，响应内容已经全部读入内存.
+ */
+public class HttpResponse {
+
+    private final int statusCode;
+
+    private final byte[] body;
+
+    public HttpResponse(int statusCode, byte[] body) {
+        this.statusCode = statusCode;
+        this.body = body == null ? new byte[0] : body;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * 获得响应内容，接口都使用UTF-8编码
+     *
+     * @return
+     */
+    public String getBody() {
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    public byte[] getBodyBytes() {
+        return body;
+    }
+
+    /**
+     * 以流的形式读取响应内容，用于流式解析
+     *
+     * @return
+     */
+    public InputStream getBodyStream() {
+        return new ByteArrayInputStream(body);
+    }
+
+}
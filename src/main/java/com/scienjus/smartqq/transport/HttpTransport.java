@@ -0,0 +1,27 @@
+package com.scienjus.smartqq.transport;
+
+import java.io.Closeable;
+
+/**
+ * Http传输层，SmartQQClient的所有请求都经过它发送.
+ * 一个传输层可以被多个账号共用，每个账号使用单独的{@link TransportSession}.
+ * <ul>
+ * <li>{@link RequestsTransport}：默认实现，阻塞IO</li>
+ * <li>{@link AsyncHttpTransport}：NIO实现，少量线程就可以同时挂起大量拉取消息的长轮询</li>
+ * </ul>
+ */
+public interface HttpTransport extends Closeable {
+
+    /**
+     * 创建一个新的会话，会话之间不共享Cookie
+     *
+     * @return
+     */
+    TransportSession newSession();
+
+    /**
+     * 关闭连接池等资源，之后所有会话都不能再使用
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,126 @@
+package com.scienjus.smartqq.transport;
+
+import com.scienjus.smartqq.session.SessionCookie;
+import net.dongliu.requests.Client;
+import net.dongliu.requests.HeadOnlyRequestBuilder;
+import net.dongliu.requests.PostRequestBuilder;
+import net.dongliu.requests.Response;
+import net.dongliu.requests.Session;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.protocol.HttpClientContext;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于requests的阻塞传输层，默认实现.
+ * requests不能单独设置某个请求的超时，所以长轮询使用另一个读取超时更长的客户端，两个客户端的会话共用Cookie.
+ */
+public class RequestsTransport implements HttpTransport {
+
+    private final Client client;
+
+    private final Client pollClient;
+
+    /**
+     * @param client     普通请求使用的客户端
+     * @param pollClient 长轮询使用的客户端
+     */
+    public RequestsTransport(Client client, Client pollClient) {
+        this.client = client;
+        this.pollClient = pollClient;
+    }
+
+    @Override
+    public TransportSession newSession() {
+        Session session = client.session();
+        Session pollSession = pollClient.session();
+        //requests没有公开会话的CookieStore，通过反射让两个会话共用同一个
+        context(pollSession).setCookieStore(context(session).getCookieStore());
+        return new RequestsSession(session, pollSession);
+    }
+
+    private static HttpClientContext context(Session session) {
+        try {
+            Method method = Session.class.getDeclaredMethod("getContext");
+            method.setAccessible(true);
+            return (HttpClientContext) method.invoke(session);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("无法访问会话的Cookie", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        pollClient.close();
+        client.close();
+    }
+
+    private static class RequestsSession implements TransportSession {
+
+        private final Session session;
+
+        private final Session pollSession;
+
+        private final CookieStore cookieStore;
+
+        RequestsSession(Session session, Session pollSession) {
+            this.session = session;
+            this.pollSession = pollSession;
+            this.cookieStore = context(session).getCookieStore();
+        }
+
+        @Override
+        public HttpResponse execute(HttpRequest request) {
+            Session target = request.isLongPoll() ? pollSession : session;
+            Response<byte[]> response;
+            if (request.getMethod() == HttpRequest.Method.GET) {
+                HeadOnlyRequestBuilder builder = target.get(request.getUrl());
+                for (Map.Entry<String, String> header : request.getHeaders()) {
+                    builder.addHeader(header.getKey(), header.getValue());
+                }
+                response = builder.bytes();
+            } else {
+                PostRequestBuilder builder = target.post(request.getUrl());
+                for (Map.Entry<String, String> header : request.getHeaders()) {
+                    builder.addHeader(header.getKey(), header.getValue());
+                }
+                for (Map.Entry<String, String> form : request.getForms()) {
+                    builder.addForm(form.getKey(), form.getValue());
+                }
+                response = builder.bytes();
+            }
+            return new HttpResponse(response.getStatusCode(), response.getBody());
+        }
+
+        //阻塞实现，在当前线程中完成请求
+        @Override
+        public void execute(HttpRequest request, ResponseCallback callback) {
+            HttpResponse response;
+            try {
+                response = execute(request);
+            } catch (Exception e) {
+                callback.onFailure(e);
+                return;
+            }
+            callback.onResponse(response);
+        }
+
+        @Override
+        public List<SessionCookie> getCookies() {
+            return CookieStores.export(cookieStore);
+        }
+
+        @Override
+        public void addCookies(List<SessionCookie> cookies) {
+            CookieStores.restore(cookieStore, cookies);
+        }
+
+        @Override
+        public void clearCookies() {
+            cookieStore.clear();
+        }
+    }
+
+}
@@ -0,0 +1,19 @@
+package com.scienjus.smartqq.transport;
+
+/**
+ * 异步请求完成后的回调，在传输层的线程上执行，不要在回调中阻塞
+ */
+public interface ResponseCallback {
+
+    /**
+     * 收到响应（包括非200的响应）
+     * @param response
+     */
+    void onResponse(HttpResponse response);
+
+    /**
+     * 请求失败（网络错误、超时等），异常为RequestException，cause为原始的IOException
+     * @param e
+     */
+    void onFailure(Exception e);
+}
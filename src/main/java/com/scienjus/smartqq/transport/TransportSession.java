@@ -0,0 +1,48 @@
+package com.scienjus.smartqq.transport;
+
+import com.scienjus.smartqq.session.SessionCookie;
+
+import java.util.List;
+
+/**
+ * 一个账号的Http会话，持有该账号的Cookie.
+ */
+public interface TransportSession {
+
+    /**
+     * 发送请求并等待响应
+     *
+     * @param request 请求
+     * @return 响应，非200的响应也会正常返回
+     * @throws net.dongliu.requests.exception.RequestException 网络错误、超时等
+     */
+    HttpResponse execute(HttpRequest request);
+
+    /**
+     * 发送请求，不等待响应.
+     * 阻塞的实现可以在当前线程中完成请求后再调用回调.
+     *
+     * @param request  请求
+     * @param callback 请求完成后的回调
+     */
+    void execute(HttpRequest request, ResponseCallback callback);
+
+    /**
+     * 获得会话中所有未过期的Cookie
+     *
+     * @return
+     */
+    List<SessionCookie> getCookies();
+
+    /**
+     * 添加Cookie，同名Cookie会被覆盖
+     *
+     * @param cookies
+     */
+    void addCookies(List<SessionCookie> cookies);
+
+    /**
+     * 清空Cookie
+     */
+    void clearCookies();
+}
@@ -0,0 +1,36 @@
+package com.scienjus.smartqq.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 带名称前缀的线程工厂，方便在线程栈中区分各个工作线程.
+ */
+public class NamedThreadFactory implements ThreadFactory {
+
+    //线程名前缀
+    private final String prefix;
+
+    //是否为守护线程
+    private final boolean daemon;
+
+    //线程序号
+    private final AtomicInteger index = new AtomicInteger(1);
+
+    public NamedThreadFactory(String prefix) {
+        this(prefix, true);
+    }
+
+    public NamedThreadFactory(String prefix, boolean daemon) {
+        this.prefix = prefix;
+        this.daemon = daemon;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, prefix + "-" + index.getAndIncrement());
+        thread.setDaemon(daemon);
+        return thread;
+    }
+
+}
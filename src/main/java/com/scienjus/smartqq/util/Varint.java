@@ -0,0 +1,79 @@
+package com.scienjus.smartqq.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 变长整数编码，每个字节存7位，最高位表示后面还有字节.
+ * 有符号数先做zigzag变换，绝对值小的负数也只占很少的字节.
+ */
+public final class Varint {
+
+    private Varint() {
+    }
+
+    public static void write(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    public static void writeSigned(ByteArrayOutputStream out, long value) {
+        write(out, (value << 1) ^ (value >> 63));
+    }
+
+    public static long read(ByteBuffer in) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("变长整数过长");
+    }
+
+    public static long readSigned(ByteBuffer in) {
+        long value = read(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public static int readInt(ByteBuffer in) {
+        long value = read(in);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("变长整数超出范围：" + value);
+        }
+        return (int) value;
+    }
+
+    //字符串为长度+1（null为0）加UTF-8
+    public static void writeString(ByteArrayOutputStream out, String s) {
+        if (s == null) {
+            write(out, 0);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        write(out, bytes.length + 1);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    public static String readString(ByteBuffer in) {
+        int length = readInt(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (!in.hasArray()) {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        String s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+
+}
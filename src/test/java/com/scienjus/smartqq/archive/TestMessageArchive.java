@@ -0,0 +1,165 @@
+package com.scienjus.smartqq.archive;
+
+import com.alibaba.fastjson.JSON;
+import com.scienjus.smartqq.model.DiscussMessage;
+import com.scienjus.smartqq.model.Font;
+import com.scienjus.smartqq.model.GroupMessage;
+import com.scienjus.smartqq.model.Message;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestMessageArchive {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final Font FONT = new Font("微软雅黑", 10, "000000", new int[]{0, 0, 0}).intern();
+
+    private static GroupMessage groupMessage(long groupId, long time, String content) {
+        GroupMessage message = new GroupMessage();
+        message.setGroupId(groupId);
+        message.setUserId(1000000000L + time % 7);
+        message.setTime(time);
+        message.setContent(content);
+        message.setFont(time % 2 == 0 ? FONT : Font.DEFAULT_FONT);
+        return message;
+    }
+
+    @Test
+    public void queriesAfterReopen() throws IOException {
+        File dir = folder.newFolder();
+        MessageArchive archive = new MessageArchive(dir, 10, 4);
+        long jsonSize = 0;
+        for (int i = 0; i < 300; i++) {
+            GroupMessage message = groupMessage(100 + i % 3, 1456688700 + i, "消息" + i);
+            archive.append(message);
+            jsonSize += JSON.toJSONString(message).length();
+        }
+        Message friend = new Message();
+        friend.setUserId(100);
+        friend.setTime(1456689000);
+        friend.setContent("私聊");
+        archive.append(friend);
+        DiscussMessage discuss = new DiscussMessage();
+        discuss.setDiscussId(100);
+        discuss.setTime(1456689001);
+        archive.append(discuss);
+        archive.close();
+
+        long archiveSize = 0;
+        for (File file : dir.listFiles()) {
+            archiveSize += file.length();
+        }
+        assertTrue(archiveSize * 3 < jsonSize);
+
+        archive = new MessageArchive(dir, 10, 4);
+        List<GroupMessage> latest = archive.getGroupMessages(101, 0, Long.MAX_VALUE, 5);
+        assertEquals(5, latest.size());
+        assertEquals("消息286", latest.get(0).getContent());
+        assertEquals("消息298", latest.get(4).getContent());
+        GroupMessage last = latest.get(4);
+        assertEquals(101, last.getGroupId());
+        assertEquals(1456688700 + 298, last.getTime());
+        assertEquals(1000000000L + (1456688700 + 298) % 7, last.getUserId());
+        assertSame(FONT, last.getFont());
+        assertSame(Font.DEFAULT_FONT, latest.get(3).getFont());
+
+        List<GroupMessage> range = archive.getGroupMessages(100, 1456688700 + 30, 1456688700 + 38, 100);
+        assertEquals(3, range.size());
+        assertEquals("消息30", range.get(0).getContent());
+
+        List<Message> friends = archive.getFriendMessages(100, 0, Long.MAX_VALUE, 10);
+        assertEquals(1, friends.size());
+        assertEquals("私聊", friends.get(0).getContent());
+        assertNull(friends.get(0).getFont());
+        List<DiscussMessage> discusses = archive.getDiscussMessages(100, 0, Long.MAX_VALUE, 10);
+        assertEquals(1, discusses.size());
+        assertNull(discusses.get(0).getContent());
+
+        //继续写入后未刷新的消息也能查到
+        archive.append(groupMessage(101, 1456689100, "重新打开后"));
+        latest = archive.getGroupMessages(101, 0, Long.MAX_VALUE, 2);
+        assertEquals("消息298", latest.get(0).getContent());
+        assertEquals("重新打开后", latest.get(1).getContent());
+        archive.close();
+    }
+
+    @Test
+    public void readsOnlyRelevantBlocks() throws IOException {
+        MessageArchive archive = new MessageArchive(folder.newFolder(), 100, 4);
+        for (int i = 0; i < 100; i++) {
+            archive.append(groupMessage(1, 1000 + i, "早期" + i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            archive.append(groupMessage(2, 2000 + i, "近期" + i));
+        }
+        archive.flush();
+
+        assertEquals(100, archive.getGroupMessages(1, 0, Long.MAX_VALUE, 1000).size());
+        assertEquals(1, archive.getBlocksRead());
+        //最近的150条只需要读最后两个数据块
+        List<GroupMessage> latest = archive.getGroupMessages(2, 0, Long.MAX_VALUE, 150);
+        assertEquals("近期850", latest.get(0).getContent());
+        assertEquals(3, archive.getBlocksRead());
+        //时间范围只覆盖一个数据块
+        assertEquals(10, archive.getGroupMessages(2, 2500, 2509, 1000).size());
+        assertEquals(4, archive.getBlocksRead());
+        archive.close();
+    }
+
+    @Test
+    public void flushesBufferedMessagesPeriodically() throws Exception {
+        File dir = folder.newFolder();
+        MessageArchive archive = new MessageArchive(dir, 100, 4, 100, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 5; i++) {
+            archive.append(groupMessage(1, 1000 + i, "消息" + i));
+        }
+        //不满一个数据块，到达刷新间隔后也写入文件
+        File segment = new File(dir, "0000000000.archive");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (segment.length() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(segment.length() > 0);
+        List<GroupMessage> messages = archive.getGroupMessages(1, 0, Long.MAX_VALUE, 1000);
+        assertEquals(5, messages.size());
+        assertEquals(1, archive.getBlocksRead());
+        archive.close();
+    }
+
+    @Test
+    public void recoversSegmentWithoutIndex() throws IOException {
+        File dir = folder.newFolder();
+        MessageArchive archive = new MessageArchive(dir, 10, 100);
+        for (int i = 0; i < 50; i++) {
+            archive.append(groupMessage(1, 1000 + i, "消息" + i));
+        }
+        archive.close();
+        //模拟写完数据块后、写入索引前进程退出，末尾还有写到一半的数据
+        File segment = new File(dir, "0000000000.archive");
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 20);
+            file.seek(file.length());
+            file.write(new byte[]{0, 0, 0, 100, 1, 2, 3});
+        }
+
+        archive = new MessageArchive(dir, 10, 100);
+        List<GroupMessage> messages = archive.getGroupMessages(1, 0, Long.MAX_VALUE, 1000);
+        assertEquals(50, messages.size());
+        assertEquals("消息49", messages.get(49).getContent());
+        assertSame(FONT, messages.get(0).getFont());
+        archive.close();
+    }
+}
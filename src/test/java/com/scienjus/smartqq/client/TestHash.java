@@ -0,0 +1,68 @@
+package com.scienjus.smartqq.client;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestHash {
+
+    //改写前的实现
+    private static String legacyHash(long x, String K) {
+        int[] N = new int[4];
+        for (int T = 0; T < K.length(); T++) {
+            N[T % 4] ^= K.charAt(T);
+        }
+        String[] U = {"EC", "OK"};
+        long[] V = new long[4];
+        V[0] = x >> 24 & 255 ^ U[0].charAt(0);
+        V[1] = x >> 16 & 255 ^ U[0].charAt(1);
+        V[2] = x >> 8 & 255 ^ U[1].charAt(0);
+        V[3] = x & 255 ^ U[1].charAt(1);
+
+        long[] U1 = new long[8];
+
+        for (int T = 0; T < 8; T++) {
+            U1[T] = T % 2 == 0 ? N[T >> 1] : V[T >> 1];
+        }
+
+        String[] N1 = {"0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "A", "B", "C", "D", "E", "F"};
+        String V1 = "";
+        for (long aU1 : U1) {
+            V1 += N1[(int) ((aU1 >> 4) & 15)];
+            V1 += N1[(int) (aU1 & 15)];
+        }
+        return V1;
+    }
+
+    @Test
+    public void matchesLegacyForRecordedValues() {
+        String ptwebqq = "e2f1b0d5e7c3a6bd84ac0c4f73e8fdbb2e3b1c3b5f1c0f3c7a8e6b5d4c3b2a19";
+        assertEquals(legacyHash(3023615011L, ptwebqq), SmartQQClient.hash(3023615011L, ptwebqq));
+        assertEquals(legacyHash(10000L, ""), SmartQQClient.hash(10000L, ""));
+        assertEquals(legacyHash(0L, "a"), SmartQQClient.hash(0L, "a"));
+    }
+
+    @Test
+    public void matchesLegacyForRandomValues() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            long uin = random.nextBoolean() ? random.nextLong() : random.nextInt(Integer.MAX_VALUE);
+            char[] chars = new char[random.nextInt(80)];
+            for (int j = 0; j < chars.length; j++) {
+                //包含非ASCII字符，检查只取低8位的行为一致
+                chars[j] = (char) (random.nextInt(4) == 0 ? random.nextInt(0x10000) : 0x20 + random.nextInt(0x5f));
+            }
+            String ptwebqq = new String(chars);
+            assertEquals(legacyHash(uin, ptwebqq), SmartQQClient.hash(uin, ptwebqq));
+        }
+    }
+
+    @Test
+    public void hash33IsStable() {
+        assertEquals(0, SmartQQClient.hash33(""));
+        assertEquals(97, SmartQQClient.hash33("a"));
+        assertEquals(97 * 33 + 98, SmartQQClient.hash33("ab"));
+    }
+}
@@ -0,0 +1,70 @@
+package com.scienjus.smartqq.client;
+
+import com.alibaba.fastjson.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestMessageIdGenerator {
+
+    private static final int THREADS = 32;
+
+    private static final int SENDS_PER_THREAD = 5000;
+
+    @Test
+    public void sendRequestsFromManyThreadsHaveUniqueMessageIds() throws Exception {
+        final MessageIdGenerator generator = new MessageIdGenerator();
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<List<Long>>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final TargetType type = TargetType.values()[t % TargetType.values().length];
+            futures.add(executor.submit(new Callable<List<Long>>() {
+                @Override
+                public List<Long> call() throws Exception {
+                    start.await();
+                    List<Long> ids = new ArrayList<>(SENDS_PER_THREAD);
+                    for (int i = 0; i < SENDS_PER_THREAD; i++) {
+                        JSONObject r = SmartQQClient.buildSendRequest(type, i, "hello", generator.nextId(), "session");
+                        ids.add(r.getLongValue("msg_id"));
+                    }
+                    return ids;
+                }
+            }));
+        }
+        start.countDown();
+        Set<Long> unique = new HashSet<>();
+        for (Future<List<Long>> future : futures) {
+            unique.addAll(future.get());
+        }
+        executor.shutdown();
+        assertEquals(THREADS * SENDS_PER_THREAD, unique.size());
+    }
+
+    @Test
+    public void generatorsAreIndependentPerClient() {
+        MessageIdGenerator first = new MessageIdGenerator(100);
+        MessageIdGenerator second = new MessageIdGenerator(100);
+        assertEquals(100, first.nextId());
+        assertEquals(101, first.nextId());
+        assertEquals(100, second.nextId());
+    }
+
+    @Test
+    public void defaultSeedIsInWebQQRange() {
+        long id = new MessageIdGenerator().nextId();
+        assertTrue(id >= 10000000L && id < 90000000L);
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.scienjus.smartqq.client;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.scienjus.smartqq.callback.MessageCallback;
+import com.scienjus.smartqq.model.DiscussMessage;
+import com.scienjus.smartqq.model.GroupMessage;
+import com.scienjus.smartqq.model.Message;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestPollMessageDecoder {
+
+    private static final String FONT = "[\"font\",{\"color\":\"000000\",\"name\":\"微软雅黑\",\"size\":10,\"style\":[0,0,0]}]";
+
+    private static final String GROUP_VALUE = "{\"content\":[" + FONT + ",\"hello \",[\"face\",14],\" world\"],"
+            + "\"from_uin\":2323421101,\"group_code\":2323421101,\"msg_id\":50873,\"msg_type\":4,"
+            + "\"send_uin\":3938287219,\"time\":1456688700,\"to_uin\":3023615011}";
+
+    private static final String FRIEND_VALUE = "{\"content\":[" + FONT + ",\"hi\"],"
+            + "\"from_uin\":3938287219,\"msg_id\":1,\"msg_type\":0,\"time\":1456688701,\"to_uin\":3023615011}";
+
+    private static final String DISCUSS_VALUE = "{\"content\":[" + FONT + ",\"discuss\"],"
+            + "\"did\":1234567,\"from_uin\":1234567,\"msg_id\":2,\"send_uin\":3938287219,\"time\":1456688702}";
+
+    @Test
+    public void decodesAllMessageTypesLikeTheJsonConstructors() {
+        String body = "{\"result\":["
+                + "{\"poll_type\":\"group_message\",\"value\":" + GROUP_VALUE + "},"
+                + "{\"value\":" + FRIEND_VALUE + ",\"poll_type\":\"message\"},"
+                + "{\"poll_type\":\"discu_message\",\"value\":" + DISCUSS_VALUE + "},"
+                + "{\"poll_type\":\"input_notify\",\"value\":{\"from_uin\":1}}"
+                + "],\"retcode\":0}";
+        Collector collector = new Collector();
+        assertEquals(Integer.valueOf(0), PollMessageDecoder.decode(new StringReader(body), collector));
+        assertEquals(3, collector.count);
+
+        GroupMessage expectedGroup = new GroupMessage(JSON.parseObject(GROUP_VALUE));
+        GroupMessage group = collector.groupMessages.get(0);
+        assertEquals(expectedGroup.getContent(), group.getContent());
+        assertEquals(expectedGroup.getGroupId(), group.getGroupId());
+        assertEquals(expectedGroup.getUserId(), group.getUserId());
+        assertEquals(expectedGroup.getTime(), group.getTime());
+        assertEquals(expectedGroup.getFont().getName(), group.getFont().getName());
+        assertEquals(expectedGroup.getFont().getSize(), group.getFont().getSize());
+        assertEquals(expectedGroup.getFont().getColor(), group.getFont().getColor());
+        assertArrayEquals(expectedGroup.getFont().getStyle(), group.getFont().getStyle());
+
+        Message expectedFriend = new Message(JSON.parseObject(FRIEND_VALUE));
+        Message friend = collector.messages.get(0);
+        assertEquals(expectedFriend.getContent(), friend.getContent());
+        assertEquals(expectedFriend.getUserId(), friend.getUserId());
+        assertEquals(expectedFriend.getTime(), friend.getTime());
+
+        DiscussMessage discuss = collector.discussMessages.get(0);
+        assertEquals("discuss", discuss.getContent());
+        assertEquals(1234567, discuss.getDiscussId());
+        assertEquals(3938287219L, discuss.getUserId());
+    }
+
+    @Test
+    public void returnsRetcodeWithoutResult() {
+        Collector collector = new Collector();
+        JSONObject body = new JSONObject();
+        body.put("retcode", 103);
+        body.put("errmsg", "error");
+        assertEquals(Integer.valueOf(103), PollMessageDecoder.decode(new StringReader(body.toJSONString()), collector));
+        assertEquals(0, collector.count);
+    }
+
+    @Test
+    public void missingRetcodeIsNull() {
+        assertNull(PollMessageDecoder.decode(new StringReader("{\"result\":[]}"), new Collector()));
+    }
+
+    private static class Collector implements MessageCallback {
+
+        private final List<Message> messages = new ArrayList<>();
+        private final List<GroupMessage> groupMessages = new ArrayList<>();
+        private final List<DiscussMessage> discussMessages = new ArrayList<>();
+        private int count;
+
+        @Override
+        public void onMessage(Message message) {
+            messages.add(message);
+            count++;
+        }
+
+        @Override
+        public void onGroupMessage(GroupMessage message) {
+            groupMessages.add(message);
+            count++;
+        }
+
+        @Override
+        public void onDiscussMessage(DiscussMessage message) {
+            discussMessages.add(message);
+            count++;
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.scienjus.smartqq.client;
+
+import net.dongliu.requests.exception.RequestException;
+import org.junit.Test;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestRetryPolicy {
+
+    @Test
+    public void delayGrowsExponentiallyUpToMaxDelay() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000, 2, 0, 60000, TimeUnit.MILLISECONDS);
+        assertEquals(100, policy.getDelayMillis(0));
+        assertEquals(200, policy.getDelayMillis(1));
+        assertEquals(800, policy.getDelayMillis(3));
+        assertEquals(1000, policy.getDelayMillis(4));
+        assertEquals(1000, policy.getDelayMillis(100));
+    }
+
+    @Test
+    public void jitterKeepsDelayWithinRange() {
+        RetryPolicy policy = new RetryPolicy(10, 1000, 1000, 2, 0.5, 60000, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 1000; i++) {
+            long delay = policy.getDelayMillis(0);
+            assertTrue(delay >= 500 && delay <= 1000);
+        }
+    }
+
+    @Test
+    public void onlyTransientFailuresAreRetryable() {
+        RetryPolicy policy = RetryPolicy.DEFAULT;
+        assertTrue(policy.isRetryableStatus(404));
+        assertTrue(policy.isRetryableStatus(502));
+        assertTrue(policy.isRetryableStatus(429));
+        assertFalse(policy.isRetryableStatus(403));
+        assertTrue(policy.isRetryable(new RequestException(new SocketTimeoutException())));
+        assertFalse(policy.isRetryable(new RequestException("请求失败，Api返回码[100001]")));
+    }
+
+    @Test
+    public void retryStopsAfterMaxAttempts() {
+        RetryPolicy.Retry retry = new RetryPolicy(3, 0, 0, 1, 0, 60000, TimeUnit.MILLISECONDS).newRetry();
+        assertFalse(retry.shouldRetry(200));
+        assertTrue(retry.shouldRetry(404));
+        assertTrue(retry.shouldRetry(500));
+        assertFalse(retry.shouldRetry(500));
+        assertEquals(3, retry.getAttempts());
+    }
+
+    @Test
+    public void retryStopsWhenElapsedTimeWouldBeExceeded() {
+        RetryPolicy.Retry retry = new RetryPolicy(10, 1, 1, 1, 0, 0, TimeUnit.SECONDS).newRetry();
+        assertFalse(retry.shouldRetry(404));
+    }
+}
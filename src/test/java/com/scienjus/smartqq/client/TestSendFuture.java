@@ -0,0 +1,94 @@
+package com.scienjus.smartqq.client;
+
+import com.scienjus.smartqq.callback.SendCallback;
+import com.scienjus.smartqq.model.SendResult;
+import org.junit.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestSendFuture {
+
+    @Test
+    public void cancelAfterCompleteHasNoEffect() throws Exception {
+        SendFuture future = new SendFuture();
+        SendResult result = new SendResult(200, 0);
+        assertTrue(future.complete(result));
+        assertFalse(future.cancel(false));
+        assertFalse(future.isCancelled());
+        assertSame(result, future.get());
+    }
+
+    @Test
+    public void cancelOrCompleteWinsAtomically() throws Exception {
+        final SendResult result = new SendResult(200, 0);
+        for (int i = 0; i < 2000; i++) {
+            final SendFuture future = new SendFuture();
+            final AtomicReference<Object> notified = new AtomicReference<>();
+            future.addCallback(new SendCallback() {
+                @Override
+                public void onComplete(SendResult completed) {
+                    notified.set(completed);
+                }
+
+                @Override
+                public void onError(Throwable e) {
+                    notified.set(e);
+                }
+            });
+
+            final CountDownLatch ready = new CountDownLatch(1);
+            final AtomicBoolean completed = new AtomicBoolean();
+            Thread completer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ready.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    completed.set(future.complete(result));
+                }
+            });
+            completer.start();
+            ready.countDown();
+            boolean cancelled = future.cancel(false);
+            completer.join(5000);
+
+            //只有一方成功，且结果与成功的一方一致
+            assertNotEquals(cancelled, completed.get());
+            assertEquals(cancelled, future.isCancelled());
+            if (cancelled) {
+                assertTrue(notified.get() instanceof CancellationException);
+                try {
+                    future.get(1, TimeUnit.SECONDS);
+                    fail();
+                } catch (CancellationException expected) {
+                    //取消成功
+                }
+            } else {
+                assertSame(result, notified.get());
+                assertSame(result, future.get(1, TimeUnit.SECONDS));
+            }
+        }
+    }
+
+    @Test(expected = ExecutionException.class)
+    public void reportsFailure() throws Exception {
+        SendFuture future = new SendFuture();
+        assertTrue(future.fail(new IllegalStateException("boom")));
+        assertFalse(future.isCancelled());
+        future.get();
+    }
+}
@@ -0,0 +1,157 @@
+package com.scienjus.smartqq.client;
+
+import com.scienjus.smartqq.model.SendResult;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 不启动调度线程，由测试传入时间驱动调度.
+ */
+public class TestSendScheduler {
+
+    private static long ms(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    private static SendScheduler bind(SendScheduler scheduler) {
+        scheduler.bind(null, 0);
+        return scheduler;
+    }
+
+    //在now时刻可以发出的消息，格式为"接收者:内容"，取出后立即视为发送完成
+    private static List<String> collect(SendScheduler scheduler, long now) {
+        List<SendScheduler.Batch> batches = new ArrayList<>();
+        scheduler.collect(now, batches);
+        List<String> sent = new ArrayList<>();
+        for (SendScheduler.Batch batch : batches) {
+            sent.add(batch.getTargetId() + ":" + batch.getContent());
+            complete(batch);
+        }
+        return sent;
+    }
+
+    private static void complete(SendScheduler.Batch batch) {
+        for (SendFuture future : batch.getFutures()) {
+            future.complete(new SendResult(200, 0));
+        }
+    }
+
+    @Test
+    public void limitsGlobalRateAndRotatesTargets() {
+        //全局每秒2条，接收者不限
+        SendScheduler scheduler = bind(new SendScheduler(2, 100));
+        scheduler.submit(TargetType.GROUP, 1, "a", 0);
+        scheduler.submit(TargetType.GROUP, 1, "b", 0);
+        scheduler.submit(TargetType.GROUP, 2, "c", 0);
+        scheduler.submit(TargetType.GROUP, 3, "d", 0);
+
+        List<SendScheduler.Batch> batches = new ArrayList<>();
+        assertEquals(ms(500), scheduler.collect(0, batches));
+        assertEquals(1, batches.size());
+        assertEquals("a", batches.get(0).getContent());
+        complete(batches.get(0));
+
+        assertEquals(Arrays.<String>asList(), collect(scheduler, ms(499)));
+        //发过的接收者排到队尾，其它接收者轮流发送
+        assertEquals(Arrays.asList("2:c"), collect(scheduler, ms(500)));
+        assertEquals(Arrays.asList("3:d"), collect(scheduler, ms(1000)));
+        assertEquals(Arrays.asList("1:b"), collect(scheduler, ms(1500)));
+        assertEquals(0, scheduler.getQueueSize());
+    }
+
+    @Test
+    public void limitsEachTargetSeparately() {
+        //接收者每秒1条，全局不限
+        SendScheduler scheduler = new SendScheduler(100, 1);
+        scheduler.setGlobalBurst(10);
+        bind(scheduler);
+        scheduler.submit(TargetType.FRIEND, 1, "a", 0);
+        scheduler.submit(TargetType.FRIEND, 1, "b", 0);
+        scheduler.submit(TargetType.FRIEND, 2, "c", 0);
+
+        //被限速的接收者不影响其它接收者
+        assertEquals(Arrays.asList("1:a", "2:c"), collect(scheduler, 0));
+        List<SendScheduler.Batch> batches = new ArrayList<>();
+        assertEquals(ms(1000), scheduler.collect(0, batches));
+        assertTrue(batches.isEmpty());
+        assertEquals(Arrays.asList("1:b"), collect(scheduler, ms(1000)));
+    }
+
+    @Test
+    public void coalescesWithinWindowUpToMaxLength() throws Exception {
+        SendScheduler scheduler = new SendScheduler(100, 100);
+        scheduler.setGlobalBurst(10);
+        scheduler.setPerTargetBurst(10);
+        scheduler.setCoalesceWindow(100, TimeUnit.MILLISECONDS);
+        scheduler.setMaxCoalescedLength(11);
+        bind(scheduler);
+        SendFuture hello = scheduler.submit(TargetType.GROUP, 1, "hello", 0);
+        SendFuture world = scheduler.submit(TargetType.GROUP, 1, "world", 0);
+        scheduler.submit(TargetType.GROUP, 1, "again", 0);
+        scheduler.submit(TargetType.GROUP, 1, "x", ms(50));
+        scheduler.submit(TargetType.GROUP, 2, "toolong", ms(50));
+
+        //最早的消息还在合并窗口内
+        List<SendScheduler.Batch> batches = new ArrayList<>();
+        assertEquals(ms(50), scheduler.collect(ms(50), batches));
+        assertTrue(batches.isEmpty());
+
+        //"hello\nworld"正好11个字符，再拼上"again"就超长了，留到下一条
+        scheduler.collect(ms(100), batches);
+        assertEquals(1, batches.size());
+        assertEquals("hello\nworld", batches.get(0).getContent());
+        assertEquals(2, batches.get(0).getFutures().size());
+        assertSame(hello, batches.get(0).getFutures().get(0));
+        assertSame(world, batches.get(0).getFutures().get(1));
+        complete(batches.get(0));
+
+        assertEquals(Arrays.asList("1:again\nx"), collect(scheduler, ms(100)));
+        //单条超长的消息照常发送
+        assertEquals(Arrays.asList("2:toolong"), collect(scheduler, ms(150)));
+        assertEquals(0, scheduler.getQueueSize());
+    }
+
+    @Test
+    public void waitsForPreviousBatchOfSameTarget() {
+        SendScheduler scheduler = new SendScheduler(100, 100);
+        scheduler.setGlobalBurst(10);
+        scheduler.setPerTargetBurst(10);
+        bind(scheduler);
+        scheduler.submit(TargetType.GROUP, 1, "a", 0);
+        scheduler.submit(TargetType.GROUP, 1, "b", 0);
+        scheduler.submit(TargetType.GROUP, 2, "c", 0);
+
+        List<SendScheduler.Batch> batches = new ArrayList<>();
+        scheduler.collect(0, batches);
+        assertEquals(2, batches.size());
+        //"a"还在发送，即使有令牌也不发"b"，其它接收者不受影响
+        assertEquals(Arrays.<String>asList(), collect(scheduler, ms(100)));
+        batches.get(0).getFutures().get(0).fail(new IllegalStateException("发送失败"));
+        assertEquals(Arrays.asList("1:b"), collect(scheduler, ms(100)));
+    }
+
+    @Test
+    public void closeFailsQueuedMessages() throws Exception {
+        SendScheduler scheduler = bind(new SendScheduler(1, 1));
+        SendFuture future = scheduler.submit(TargetType.DISCUSS, 1, "a", 0);
+        scheduler.close();
+        assertEquals(0, scheduler.getQueueSize());
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertTrue(scheduler.submit(TargetType.DISCUSS, 1, "b", 0).isDone());
+    }
+}
@@ -0,0 +1,81 @@
+package com.scienjus.smartqq.client;
+
+import com.scienjus.smartqq.callback.MessageCallback;
+import com.scienjus.smartqq.constant.SessionState;
+import com.scienjus.smartqq.metrics.MetricsRegistry;
+import com.scienjus.smartqq.model.DiscussMessage;
+import com.scienjus.smartqq.model.GroupMessage;
+import com.scienjus.smartqq.model.Message;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestSmartQQClientBuilder {
+
+    @Test
+    public void buildDoesNotLogin() throws Exception {
+        SmartQQClient client = new SmartQQClient.Builder()
+                .maxConnections(20)
+                .maxConnectionsPerRoute(10)
+                .connectTimeout(5, TimeUnit.SECONDS)
+                .readTimeout(5, TimeUnit.SECONDS)
+                .pollTimeout(90, TimeUnit.SECONDS)
+                .keepAlive(1, TimeUnit.MINUTES)
+                .build();
+        assertEquals(SessionState.LOGGING_IN, client.getSessionState());
+        client.close();
+        assertEquals(SessionState.CLOSED, client.getSessionState());
+    }
+
+    //注册表中发送队列长度的account标签
+    private static Set<String> queueDepthAccounts(MetricsRegistry metrics) {
+        Set<String> accounts = new HashSet<>();
+        for (MetricsRegistry.Family family : metrics.getFamilies()) {
+            if (family.getName().equals("smartqq_send_queue_depth")) {
+                for (Map.Entry<Map<String, String>, Object> series : family.getSeries()) {
+                    accounts.add(series.getKey().get("account"));
+                }
+            }
+        }
+        return accounts;
+    }
+
+    @Test
+    public void sharedRegistryKeepsSeriesOfEachClient() throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry();
+        SmartQQClient a = new SmartQQClient.Builder().metrics(metrics).metricsAccount("a").build();
+        SmartQQClient b = new SmartQQClient.Builder().metrics(metrics).metricsAccount("b").build();
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), queueDepthAccounts(metrics));
+
+        //关闭的客户端不再出现在注册表中
+        a.close();
+        assertEquals(Collections.singleton("b"), queueDepthAccounts(metrics));
+        b.close();
+        assertTrue(queueDepthAccounts(metrics).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorRequiresDispatcherForCallback() {
+        new SmartQQClient(new MessageCallback() {
+            @Override
+            public void onMessage(Message message) {
+            }
+
+            @Override
+            public void onGroupMessage(GroupMessage message) {
+            }
+
+            @Override
+            public void onDiscussMessage(DiscussMessage message) {
+            }
+        }, null);
+    }
+}
@@ -0,0 +1,506 @@
+package com.scienjus.smartqq.client;
+
+import com.scienjus.smartqq.callback.MessageCallback;
+import com.scienjus.smartqq.callback.SessionListener;
+import com.scienjus.smartqq.constant.ApiURL;
+import com.scienjus.smartqq.constant.SessionState;
+import com.scienjus.smartqq.dispatch.DirectMessageDispatcher;
+import com.scienjus.smartqq.dispatch.ThreadPoolMessageDispatcher;
+import com.scienjus.smartqq.journal.MessageJournal;
+import com.scienjus.smartqq.mock.MockSmartQQServer;
+import com.scienjus.smartqq.model.DiscussInfo;
+import com.scienjus.smartqq.model.DiscussMessage;
+import com.scienjus.smartqq.model.Friend;
+import com.scienjus.smartqq.model.GroupInfo;
+import com.scienjus.smartqq.model.GroupMessage;
+import com.scienjus.smartqq.metrics.MetricsRegistry;
+import com.scienjus.smartqq.model.Message;
+import com.scienjus.smartqq.session.SessionSnapshot;
+import com.scienjus.smartqq.session.SessionStore;
+import com.scienjus.smartqq.transport.AsyncHttpTransport;
+import net.dongliu.requests.exception.RequestException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestSmartQQClientEndToEnd {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockSmartQQServer server;
+
+    private SmartQQClient client;
+
+    private final BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+
+    private final MessageCallback callback = new MessageCallback() {
+        @Override
+        public void onMessage(Message message) {
+            received.add(message);
+        }
+
+        @Override
+        public void onGroupMessage(GroupMessage message) {
+            received.add(message);
+        }
+
+        @Override
+        public void onDiscussMessage(DiscussMessage message) {
+            received.add(message);
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        server = MockSmartQQServer.start();
+        server.setPollHoldMillis(200);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (client != null) {
+            client.close();
+        }
+        server.close();
+        new File("qrcode.png").delete();
+    }
+
+    //保存过ptwebqq的登录状态，不需要扫码
+    private static SessionStore savedSession() {
+        final SessionSnapshot snapshot = new SessionSnapshot();
+        snapshot.setPtwebqq("mock-ptwebqq");
+        snapshot.setVfwebqq("mock-vfwebqq");
+        snapshot.setUin(MockSmartQQServer.SELF_UIN);
+        snapshot.setPsessionid("expired");
+        return new SessionStore() {
+            @Override
+            public SessionSnapshot load() {
+                return snapshot;
+            }
+
+            @Override
+            public void save(SessionSnapshot saved) {
+            }
+
+            @Override
+            public void clear() {
+            }
+        };
+    }
+
+    private Object nextMessage() throws InterruptedException {
+        Object message = received.poll(10, TimeUnit.SECONDS);
+        assertNotNull("没有收到消息", message);
+        return message;
+    }
+
+    @Test
+    public void qrLoginReceivesAndSendsMessages() throws InterruptedException {
+        server.setScanDelay(1);
+        client = new SmartQQClient.Builder().callback(callback).build();
+        client.start();
+        assertEquals(SessionState.ONLINE, client.getSessionState());
+        assertEquals(2, server.getRequestCount(MockSmartQQServer.PTQRLOGIN));
+
+        server.pushFriendMessage(MockSmartQQServer.FRIEND_UIN, "你好");
+        Message message = (Message) nextMessage();
+        assertEquals("你好", message.getContent());
+        assertEquals(MockSmartQQServer.FRIEND_UIN, message.getUserId());
+
+        client.sendMessageToFriend(MockSmartQQServer.FRIEND_UIN, "收到");
+        assertEquals(Arrays.asList("收到"), server.getSentTexts(MockSmartQQServer.SEND_BUDDY_MSG2));
+    }
+
+    @Test
+    public void asyncTransportResumesSavedSession() throws InterruptedException {
+        client = new SmartQQClient.Builder()
+                .callback(callback)
+                .sessionStore(savedSession())
+                .transport(new AsyncHttpTransport(10, 1000, 1000, 2000, 1))
+                .build();
+        client.start();
+        assertEquals(0, server.getRequestCount(MockSmartQQServer.PTQRSHOW));
+
+        server.pushGroupMessage(MockSmartQQServer.GROUP_ID, MockSmartQQServer.FRIEND_UIN, "群消息");
+        server.pushDiscussMessage(MockSmartQQServer.DISCUSS_ID, MockSmartQQServer.FRIEND_UIN, "讨论组消息");
+        GroupMessage group = (GroupMessage) nextMessage();
+        assertEquals("群消息", group.getContent());
+        assertEquals(MockSmartQQServer.GROUP_ID, group.getGroupId());
+        DiscussMessage discuss = (DiscussMessage) nextMessage();
+        assertEquals(MockSmartQQServer.DISCUSS_ID, discuss.getDiscussId());
+    }
+
+    @Test
+    public void recoversAfterSessionExpires() throws InterruptedException {
+        client = new SmartQQClient.Builder().callback(callback).sessionStore(savedSession()).build();
+        client.start();
+        assertEquals(1, server.getRequestCount(MockSmartQQServer.LOGIN2));
+
+        server.expireSession();
+        server.pushFriendMessage(MockSmartQQServer.FRIEND_UIN, "重新登录后收到");
+        assertEquals("重新登录后收到", ((Message) nextMessage()).getContent());
+        assertEquals(SessionState.ONLINE, client.getSessionState());
+        assertEquals(2, server.getRequestCount(MockSmartQQServer.LOGIN2));
+    }
+
+    @Test
+    public void goesOfflineWithoutQrCodeWhenSessionCannotBeRecovered() throws Exception {
+        client = new SmartQQClient.Builder()
+                .callback(callback)
+                .sessionStore(savedSession())
+                .retryPolicy(new RetryPolicy(1, 0, 0, 1, 0, 0, TimeUnit.MILLISECONDS))
+                .build();
+        final CountDownLatch offline = new CountDownLatch(1);
+        client.addSessionListener(new SessionListener() {
+            @Override
+            public void onStateChanged(SessionState oldState, SessionState newState) {
+                if (newState == SessionState.OFFLINE) {
+                    offline.countDown();
+                }
+            }
+        });
+        client.start();
+
+        server.failNext(MockSmartQQServer.LOGIN2, 500, Integer.MAX_VALUE);
+        server.expireSession();
+        assertTrue(offline.await(20, TimeUnit.SECONDS));
+        //默认不在拉取线程上扫码
+        assertEquals(0, server.getRequestCount(MockSmartQQServer.PTQRSHOW));
+    }
+
+    @Test
+    public void keepsPollingWhileReloginWaitsForQrCode() throws Exception {
+        //只有第一次能读到保存的登录状态，之后重新登录需要扫码
+        final SessionStore saved = savedSession();
+        client = new SmartQQClient.Builder()
+                .callback(callback)
+                .sessionStore(new SessionStore() {
+                    private boolean loaded;
+
+                    @Override
+                    public synchronized SessionSnapshot load() {
+                        if (loaded) {
+                            return null;
+                        }
+                        loaded = true;
+                        return saved.load();
+                    }
+
+                    @Override
+                    public void save(SessionSnapshot snapshot) {
+                    }
+
+                    @Override
+                    public void clear() {
+                    }
+                })
+                .build();
+        client.start();
+
+        server.setScanDelay(Integer.MAX_VALUE);
+        final SmartQQClient relogging = client;
+        Thread relogin = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    relogging.relogin();
+                } catch (IllegalStateException expected) {
+                    //客户端关闭时放弃扫码
+                }
+            }
+        });
+        relogin.start();
+        awaitQrPolling(1);
+
+        //等待扫码期间仍然用原来的登录状态拉取消息
+        server.pushFriendMessage(MockSmartQQServer.FRIEND_UIN, "扫码期间收到");
+        assertEquals("扫码期间收到", ((Message) nextMessage()).getContent());
+        assertTrue(relogin.isAlive());
+
+        client.close();
+        relogin.join(5000);
+        assertFalse(relogin.isAlive());
+    }
+
+    @Test
+    public void stopsWaitingForQrCodeOnCloseOrInterrupt() throws Exception {
+        server.setScanDelay(Integer.MAX_VALUE);
+        client = new SmartQQClient.Builder().build();
+        Thread closed = startInBackground(client);
+        awaitQrPolling(1);
+        client.close();
+        closed.join(5000);
+        assertFalse(closed.isAlive());
+
+        SmartQQClient interrupted = new SmartQQClient.Builder().build();
+        Thread thread = startInBackground(interrupted);
+        awaitQrPolling(server.getRequestCount(MockSmartQQServer.PTQRLOGIN) + 1);
+        thread.interrupt();
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+        interrupted.close();
+    }
+
+    private static Thread startInBackground(final SmartQQClient client) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    client.start();
+                } catch (IllegalStateException expected) {
+                    //放弃等待扫码
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    //等待客户端开始轮询扫码结果
+    private void awaitQrPolling(int requests) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (server.getRequestCount(MockSmartQQServer.PTQRLOGIN) < requests
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(server.getRequestCount(MockSmartQQServer.PTQRLOGIN) >= requests);
+    }
+
+    @Test
+    public void retriesTransientFailures() {
+        client = new SmartQQClient.Builder().sessionStore(savedSession()).metricsAccount("bot").build();
+        client.start();
+
+        server.failNext(MockSmartQQServer.SEND_QUN_MSG2, 503, 2);
+        client.sendMessageToGroup(MockSmartQQServer.GROUP_ID, "重试");
+        assertEquals(3, server.getRequestCount(MockSmartQQServer.SEND_QUN_MSG2));
+        assertEquals(Arrays.asList("重试"), server.getSentTexts(MockSmartQQServer.SEND_QUN_MSG2));
+
+        //每次重试单独计数
+        MetricsRegistry metrics = client.getMetrics();
+        String api = ApiURL.SEND_MESSAGE_TO_GROUP.name();
+        assertEquals(3, metrics.counter("smartqq_api_requests_total", "", "account", "bot", "api", api).getValue());
+        assertEquals(2, metrics.counter("smartqq_api_errors_total", "", "account", "bot", "api", api,
+                "reason", "http_503").getValue());
+        assertEquals(3, metrics.histogram("smartqq_api_latency_seconds", "", null, "account", "bot", "api", api)
+                .getCount());
+    }
+
+    @Test
+    public void doesNotResendMessageAfterReadTimeout() throws InterruptedException {
+        client = new SmartQQClient.Builder()
+                .sessionStore(savedSession())
+                .readTimeout(300, TimeUnit.MILLISECONDS)
+                .build();
+        client.start();
+
+        //服务端收到了消息，但响应晚于客户端的读取超时
+        server.setLatency(MockSmartQQServer.SEND_QUN_MSG2, 1000);
+        try {
+            client.sendMessageToGroup(MockSmartQQServer.GROUP_ID, "只发一次");
+            fail("读取超时应该抛出异常");
+        } catch (RequestException e) {
+            //发送接口超时后不重试
+        }
+        assertEquals(1, server.getRequestCount(MockSmartQQServer.SEND_QUN_MSG2));
+        Thread.sleep(1500);
+        assertEquals(Arrays.asList("只发一次"), server.getSentTexts(MockSmartQQServer.SEND_QUN_MSG2));
+    }
+
+    @Test
+    public void readsContacts() {
+        client = new SmartQQClient.Builder().sessionStore(savedSession()).build();
+        client.start();
+
+        List<Friend> friends = client.getFriendList();
+        assertEquals(1, friends.size());
+        assertEquals("备注", friends.get(0).getMarkname());
+        assertEquals(MockSmartQQServer.GROUP_CODE, client.getGroupList().get(0).getCode());
+
+        GroupInfo groupInfo = client.getGroupInfo(MockSmartQQServer.GROUP_CODE);
+        assertEquals("群名片", groupInfo.getDisplayName(MockSmartQQServer.FRIEND_UIN));
+        assertEquals(10, groupInfo.getUser(MockSmartQQServer.FRIEND_UIN).getStatus());
+
+        DiscussInfo discussInfo = client.getDiscussInfo(MockSmartQQServer.DISCUSS_ID);
+        assertEquals("online", discussInfo.getUser(MockSmartQQServer.FRIEND_UIN).getStatus());
+    }
+
+    @Test
+    public void replaysJournaledMessagesAfterRestart() throws Exception {
+        File dir = folder.newFolder();
+        //第一次运行时回调一直阻塞到客户端关闭之后，模拟处理到一半进程退出
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        client = new SmartQQClient.Builder()
+                .callback(new MessageCallback() {
+                    @Override
+                    public void onMessage(Message message) {
+                        blocked.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+
+                    @Override
+                    public void onGroupMessage(GroupMessage message) {
+                    }
+
+                    @Override
+                    public void onDiscussMessage(DiscussMessage message) {
+                    }
+                })
+                .sessionStore(savedSession())
+                .journal(new MessageJournal(dir))
+                .dispatcher(new DirectMessageDispatcher())
+                .build();
+        client.start();
+        server.pushFriendMessage(MockSmartQQServer.FRIEND_UIN, "需要重放");
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+        client.close();
+        release.countDown();
+
+        client = new SmartQQClient.Builder()
+                .callback(callback)
+                .sessionStore(savedSession())
+                .journal(new MessageJournal(dir))
+                .build();
+        client.start();
+        Message replayed = (Message) nextMessage();
+        assertEquals("需要重放", replayed.getContent());
+        assertEquals(MockSmartQQServer.FRIEND_UIN, replayed.getUserId());
+    }
+
+    @Test
+    public void commitsQueuedMessagesBeforeClosingJournal() throws Exception {
+        File dir = folder.newFolder();
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ThreadPoolMessageDispatcher dispatcher = new ThreadPoolMessageDispatcher();
+        client = new SmartQQClient.Builder()
+                .callback(new MessageCallback() {
+                    @Override
+                    public void onMessage(Message message) {
+                        received.add(message);
+                        //第一条消息阻塞，后面的消息留在分发队列里
+                        blocked.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+
+                    @Override
+                    public void onGroupMessage(GroupMessage message) {
+                    }
+
+                    @Override
+                    public void onDiscussMessage(DiscussMessage message) {
+                    }
+                })
+                .sessionStore(savedSession())
+                .journal(new MessageJournal(dir))
+                .dispatcher(dispatcher)
+                .build();
+        client.start();
+        for (int i = 0; i < 3; i++) {
+            server.pushFriendMessage(MockSmartQQServer.FRIEND_UIN, "消息" + i);
+        }
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (dispatcher.getQueueSize() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(2, dispatcher.getQueueSize());
+
+        final SmartQQClient closing = client;
+        Thread closer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    closing.close();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        closer.start();
+        Thread.sleep(200);
+        release.countDown();
+        closer.join(10000);
+        assertFalse(closer.isAlive());
+        client = null;
+        assertEquals(3, received.size());
+
+        //关闭前执行完的消息都已提交，不会重放
+        MessageJournal journal = new MessageJournal(dir);
+        try {
+            assertEquals(0, journal.replay(new DirectMessageDispatcher(), callback));
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void scheduledSendsToOneTargetArriveInOrder() throws Exception {
+        client = new SmartQQClient.Builder().sessionStore(savedSession()).build();
+        client.start();
+        SendScheduler scheduler = new SendScheduler(1000, 1000);
+        scheduler.setGlobalBurst(100);
+        scheduler.setPerTargetBurst(100);
+        client.setSendScheduler(scheduler);
+        server.setLatency(MockSmartQQServer.SEND_QUN_MSG2, 20);
+
+        List<String> expected = new ArrayList<>();
+        List<SendFuture> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            expected.add("第" + i + "条");
+            futures.add(client.sendMessageToGroupAsync(MockSmartQQServer.GROUP_ID, "第" + i + "条"));
+        }
+        for (SendFuture future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(expected, server.getSentTexts(MockSmartQQServer.SEND_QUN_MSG2));
+        assertEquals(1, server.getMaxConcurrentRequests(MockSmartQQServer.SEND_QUN_MSG2));
+    }
+
+    @Test
+    public void interruptedScheduledSendThrows() throws Exception {
+        client = new SmartQQClient.Builder().sessionStore(savedSession()).build();
+        client.start();
+        client.setSendScheduler(new SendScheduler(1, 1));
+        server.setLatency(MockSmartQQServer.SEND_QUN_MSG2, 500);
+
+        Thread.currentThread().interrupt();
+        try {
+            client.sendMessageToGroup(MockSmartQQServer.GROUP_ID, "被中断");
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause() instanceof InterruptedException);
+        } finally {
+            //恢复了中断标志
+            assertTrue(Thread.interrupted());
+        }
+    }
+}
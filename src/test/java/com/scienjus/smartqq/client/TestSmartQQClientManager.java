@@ -0,0 +1,129 @@
+package com.scienjus.smartqq.client;
+
+import com.scienjus.smartqq.callback.MessageCallback;
+import com.scienjus.smartqq.callback.SessionListener;
+import com.scienjus.smartqq.constant.SessionState;
+import com.scienjus.smartqq.dispatch.DirectMessageDispatcher;
+import com.scienjus.smartqq.mock.MockSmartQQServer;
+import com.scienjus.smartqq.model.DiscussMessage;
+import com.scienjus.smartqq.model.GroupMessage;
+import com.scienjus.smartqq.model.Message;
+import com.scienjus.smartqq.session.SessionSnapshot;
+import com.scienjus.smartqq.session.SessionStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestSmartQQClientManager {
+
+    private MockSmartQQServer server;
+
+    private SmartQQClientManager manager;
+
+    @Before
+    public void setUp() throws IOException {
+        server = MockSmartQQServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (manager != null) {
+            manager.close();
+        }
+        server.close();
+    }
+
+    //保存过ptwebqq的登录状态，不需要扫码
+    private static SessionStore savedSession() {
+        final SessionSnapshot snapshot = new SessionSnapshot();
+        snapshot.setPtwebqq("mock-ptwebqq");
+        snapshot.setVfwebqq("mock-vfwebqq");
+        snapshot.setUin(MockSmartQQServer.SELF_UIN);
+        return new SessionStore() {
+            @Override
+            public SessionSnapshot load() {
+                return snapshot;
+            }
+
+            @Override
+            public void save(SessionSnapshot saved) {
+            }
+
+            @Override
+            public void clear() {
+            }
+        };
+    }
+
+    //只为了让账号开始拉取消息
+    private static final MessageCallback IGNORE = new MessageCallback() {
+        @Override
+        public void onMessage(Message message) {
+        }
+
+        @Override
+        public void onGroupMessage(GroupMessage message) {
+        }
+
+        @Override
+        public void onDiscussMessage(DiscussMessage message) {
+        }
+    };
+
+    @Test
+    public void pollsAllAccountsConcurrently() throws InterruptedException {
+        //挂起时间足够长，所有账号的长轮询会同时在服务端等待
+        server.setPollHoldMillis(3000);
+        int accounts = 5;
+        manager = new SmartQQClientManager(20, accounts, new DirectMessageDispatcher());
+        for (int i = 0; i < accounts; i++) {
+            manager.addAccount("account-" + i, IGNORE, savedSession());
+        }
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (server.getMaxConcurrentRequests(MockSmartQQServer.POLL2) < accounts
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(accounts, server.getMaxConcurrentRequests(MockSmartQQServer.POLL2));
+    }
+
+    @Test
+    public void recoveringAccountDoesNotBlockSharedPollThread() throws InterruptedException {
+        server.setPollHoldMillis(200);
+        //两个账号共用一个拉取线程
+        manager = new SmartQQClientManager(10, 1, new DirectMessageDispatcher());
+        final Map<String, Long> offlineAt = new ConcurrentHashMap<>();
+        final CountDownLatch offline = new CountDownLatch(2);
+        for (final String name : Arrays.asList("a", "b")) {
+            SmartQQClient client = manager.addAccount(name, IGNORE, savedSession());
+            client.setRetryPolicy(new RetryPolicy(1, 0, 0, 1, 0, 0, TimeUnit.MILLISECONDS));
+            client.addSessionListener(new SessionListener() {
+                @Override
+                public void onStateChanged(SessionState oldState, SessionState newState) {
+                    if (newState == SessionState.OFFLINE && offlineAt.put(name, System.nanoTime()) == null) {
+                        offline.countDown();
+                    }
+                }
+            });
+        }
+
+        server.failNext(MockSmartQQServer.LOGIN2, 500, Integer.MAX_VALUE);
+        server.expireSession();
+        assertTrue(offline.await(30, TimeUnit.SECONDS));
+        //两个账号的退避等待交替进行，不会等一个账号恢复失败后另一个才开始
+        long gap = Math.abs(offlineAt.get("a") - offlineAt.get("b"));
+        assertTrue("两个账号进入OFFLINE的间隔过长：" + TimeUnit.NANOSECONDS.toMillis(gap) + "ms",
+                gap < TimeUnit.SECONDS.toNanos(3));
+    }
+}
@@ -0,0 +1,58 @@
+package com.scienjus.smartqq.client;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestTokenBucket {
+
+    private static long ms(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Test
+    public void allowsBurstThenRefillsAtRate() {
+        //每秒10个，最多积攒2个
+        TokenBucket bucket = new TokenBucket(10, 2, 0);
+        assertEquals(0, bucket.nanosUntilAvailable(0));
+        bucket.consume(0);
+        assertEquals(0, bucket.nanosUntilAvailable(0));
+        bucket.consume(0);
+        assertFalse(bucket.isFull(0));
+
+        assertEquals(ms(100), bucket.nanosUntilAvailable(0));
+        assertEquals(ms(60), bucket.nanosUntilAvailable(ms(40)));
+        assertEquals(0, bucket.nanosUntilAvailable(ms(100)));
+        bucket.consume(ms(100));
+        assertEquals(ms(100), bucket.nanosUntilAvailable(ms(100)));
+    }
+
+    @Test
+    public void neverExceedsCapacity() {
+        TokenBucket bucket = new TokenBucket(10, 2, 0);
+        bucket.consume(0);
+        bucket.consume(0);
+        //空闲很久之后也只能连续发送capacity次
+        assertTrue(bucket.isFull(ms(10000)));
+        bucket.consume(ms(10000));
+        bucket.consume(ms(10000));
+        assertEquals(ms(100), bucket.nanosUntilAvailable(ms(10000)));
+    }
+
+    @Test
+    public void ignoresClockGoingBackwards() {
+        TokenBucket bucket = new TokenBucket(10, 1, ms(500));
+        bucket.consume(ms(500));
+        assertEquals(ms(100), bucket.nanosUntilAvailable(0));
+        assertEquals(0, bucket.nanosUntilAvailable(ms(600)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidRate() {
+        new TokenBucket(0, 1, 0);
+    }
+}
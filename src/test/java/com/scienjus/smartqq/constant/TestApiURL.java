@@ -0,0 +1,63 @@
+package com.scienjus.smartqq.constant;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestApiURL {
+
+    //改写前的实现
+    private static String legacyBuildUrl(ApiURL api, Object... params) {
+        int i = 1;
+        String url = api.getUrl();
+        for (Object param : params) {
+            url = url.replace("{" + i++ + "}", param.toString());
+        }
+        return url;
+    }
+
+    @After
+    public void tearDown() {
+        ApiURL.setBaseUrl(null);
+    }
+
+    @Test
+    public void matchesLegacyForAllUrls() {
+        Object[] params = {3056318101L, "e7d2d4e3b9c05b6f4e5ad2f0dd2e1f6f8a1c4e0e", "8368046764001d636f6e6e"};
+        for (ApiURL api : ApiURL.values()) {
+            assertEquals(api.name(), legacyBuildUrl(api, params), api.buildUrl(params));
+        }
+        assertEquals(legacyBuildUrl(ApiURL.VERIFY_QR_CODE, 1736455418), ApiURL.VERIFY_QR_CODE.buildUrl(1736455418));
+    }
+
+    @Test
+    public void encodesParams() {
+        assertEquals("https://s.web2.qq.com/api/get_group_info_ext2?gcode=1&vfwebqq=a%2Bb%26c%3D%E4%B8%AD&t=0.1",
+                ApiURL.GET_GROUP_INFO.buildUrl(1, "a+b&c=中"));
+    }
+
+    @Test
+    public void ptwebqqUrlIsNotEncoded() {
+        String url = "https://ptlogin2.web2.qq.com/check_sig?pttype=1&uin=10000&service=ptqrlogin";
+        assertEquals(url, ApiURL.GET_PTWEBQQ.buildUrl(url));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingParamsAreRejected() {
+        ApiURL.GET_FRIEND_INFO.buildUrl(1, "vfwebqq");
+    }
+
+    @Test
+    public void baseUrlReplacesSchemeAndHost() {
+        assertEquals("https://d1.web2.qq.com/channel", ApiURL.POLL_MESSAGE.getOrigin());
+        ApiURL.setBaseUrl("http://127.0.0.1:8080");
+        assertEquals("http://127.0.0.1:8080/channel/poll2", ApiURL.POLL_MESSAGE.getUrl());
+        assertEquals("http://127.0.0.1:8080/channel", ApiURL.POLL_MESSAGE.getOrigin());
+        assertEquals("http://127.0.0.1:8080/api/get_group_info_ext2?gcode=1&vfwebqq=v&t=0.1",
+                ApiURL.GET_GROUP_INFO.buildUrl(1, "v"));
+        assertEquals("{1}", ApiURL.GET_PTWEBQQ.getUrl());
+        ApiURL.setBaseUrl(null);
+        assertEquals("https://d1.web2.qq.com/channel/poll2", ApiURL.POLL_MESSAGE.getUrl());
+    }
+}
@@ -0,0 +1,145 @@
+package com.scienjus.smartqq.contact;
+
+import com.scienjus.smartqq.client.RetryPolicy;
+import com.scienjus.smartqq.client.SmartQQClient;
+import com.scienjus.smartqq.mock.MockSmartQQServer;
+import com.scienjus.smartqq.model.Friend;
+import com.scienjus.smartqq.model.Group;
+import com.scienjus.smartqq.session.SessionSnapshot;
+import com.scienjus.smartqq.session.SessionStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestContactDirectory {
+
+    private MockSmartQQServer server;
+
+    private SmartQQClient client;
+
+    private ContactDirectory directory;
+
+    @Before
+    public void setUp() throws IOException {
+        server = MockSmartQQServer.start();
+        //不设置回调，只登录不拉取消息；失败时不重试
+        client = new SmartQQClient.Builder()
+                .sessionStore(savedSession())
+                .retryPolicy(new RetryPolicy(1, 0, 0, 1, 0, 0, TimeUnit.MILLISECONDS))
+                .build();
+        client.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (directory != null) {
+            directory.close();
+        }
+        client.close();
+        server.close();
+    }
+
+    //保存过ptwebqq的登录状态，不需要扫码
+    private static SessionStore savedSession() {
+        final SessionSnapshot snapshot = new SessionSnapshot();
+        snapshot.setPtwebqq("mock-ptwebqq");
+        snapshot.setVfwebqq("mock-vfwebqq");
+        snapshot.setUin(MockSmartQQServer.SELF_UIN);
+        return new SessionStore() {
+            @Override
+            public SessionSnapshot load() {
+                return snapshot;
+            }
+
+            @Override
+            public void save(SessionSnapshot saved) {
+            }
+
+            @Override
+            public void clear() {
+            }
+        };
+    }
+
+    private int groupRequests() {
+        return server.getRequestCount(MockSmartQQServer.GET_GROUP_NAME_LIST_MASK2);
+    }
+
+    @Test
+    public void replacesSnapshotAndKeepsOldListOnFailure() {
+        directory = new ContactDirectory(client, 1, TimeUnit.HOURS);
+        assertTrue(directory.refreshNow());
+        Group group = directory.getGroup(MockSmartQQServer.GROUP_ID);
+        Friend friend = directory.getFriend(MockSmartQQServer.FRIEND_UIN);
+        assertEquals("测试群", group.getName());
+        assertNotNull(friend);
+        List<Group> groups = directory.getGroups();
+        assertEquals(1, groups.size());
+
+        //群列表获取失败时保留旧的群列表，其它列表换成新的
+        server.failNext(MockSmartQQServer.GET_GROUP_NAME_LIST_MASK2, 500, 1);
+        assertFalse(directory.refreshNow());
+        assertSame(group, directory.getGroup(MockSmartQQServer.GROUP_ID));
+        Friend refreshed = directory.getFriend(MockSmartQQServer.FRIEND_UIN);
+        assertNotSame(friend, refreshed);
+        assertEquals(friend.getUserId(), refreshed.getUserId());
+        assertNotNull(directory.getDiscuss(MockSmartQQServer.DISCUSS_ID));
+
+        //已经取出的列表是只读的副本，不受刷新影响
+        assertTrue(directory.refreshNow());
+        assertNotSame(group, directory.getGroup(MockSmartQQServer.GROUP_ID));
+        assertSame(group, groups.get(0));
+        try {
+            groups.clear();
+            fail();
+        } catch (UnsupportedOperationException expected) {
+            //只读
+        }
+    }
+
+    @Test
+    public void unknownIdTriggersOneBackgroundRefresh() throws InterruptedException {
+        directory = new ContactDirectory(client, 1, TimeUnit.HOURS);
+        int before = groupRequests();
+        for (int i = 0; i < 3; i++) {
+            assertNull(directory.getGroup(MockSmartQQServer.GROUP_ID));
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (directory.getGroup(MockSmartQQServer.GROUP_ID) == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertNotNull(directory.getGroup(MockSmartQQServer.GROUP_ID));
+        //多次查询合并为一次刷新，刚刷新过不会再触发
+        assertNull(directory.getGroup(42));
+        Thread.sleep(200);
+        assertEquals(before + 1, groupRequests());
+    }
+
+    @Test
+    public void startWaitsOnePeriodBeforeFirstRefresh() throws InterruptedException {
+        directory = new ContactDirectory(client, 500, TimeUnit.MILLISECONDS);
+        int before = groupRequests();
+        directory.start();
+        Thread.sleep(200);
+        assertEquals(before, groupRequests());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (groupRequests() == before && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(before + 1, groupRequests());
+    }
+}
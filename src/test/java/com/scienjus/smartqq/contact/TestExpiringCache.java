@@ -0,0 +1,139 @@
+package com.scienjus.smartqq.contact;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class TestExpiringCache {
+
+    //在调用线程上执行刷新，方便断言
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void concurrentMissesLoadOnce() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExpiringCache<Long, String> cache = new ExpiringCache<>(new ExpiringCache.Loader<Long, String>() {
+            @Override
+            public String load(Long key) {
+                loads.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return "group" + key;
+            }
+        }, 10, 1, 0, TimeUnit.HOURS, DIRECT);
+
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        List<Future<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            futures.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    return cache.get(1L);
+                }
+            }));
+        }
+        Thread.sleep(100);
+        release.countDown();
+        for (Future<String> future : futures) {
+            assertEquals("group1", future.get());
+        }
+        executor.shutdown();
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void expiredEntriesAreReloaded() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        ExpiringCache<Long, Integer> cache = new ExpiringCache<>(new ExpiringCache.Loader<Long, Integer>() {
+            @Override
+            public Integer load(Long key) {
+                return loads.incrementAndGet();
+            }
+        }, 10, 20, 0, TimeUnit.MILLISECONDS, DIRECT);
+        assertEquals(Integer.valueOf(1), cache.get(1L));
+        assertEquals(Integer.valueOf(1), cache.get(1L));
+        Thread.sleep(40);
+        assertNull(cache.getIfPresent(1L));
+        assertEquals(Integer.valueOf(2), cache.get(1L));
+    }
+
+    @Test
+    public void refreshReturnsStaleValueAndReloadsInBackground() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        ExpiringCache<Long, Integer> cache = new ExpiringCache<>(new ExpiringCache.Loader<Long, Integer>() {
+            @Override
+            public Integer load(Long key) {
+                return loads.incrementAndGet();
+            }
+        }, 10, 1000, 20, TimeUnit.MILLISECONDS, DIRECT);
+        assertEquals(Integer.valueOf(1), cache.get(1L));
+        Thread.sleep(40);
+        assertEquals(Integer.valueOf(1), cache.get(1L));
+        assertEquals(Integer.valueOf(2), cache.get(1L));
+    }
+
+    @Test
+    public void failedLoadsAreNotCached() {
+        final AtomicInteger loads = new AtomicInteger();
+        ExpiringCache<Long, Integer> cache = new ExpiringCache<>(new ExpiringCache.Loader<Long, Integer>() {
+            @Override
+            public Integer load(Long key) {
+                if (loads.incrementAndGet() == 1) {
+                    throw new IllegalStateException("boom");
+                }
+                return loads.get();
+            }
+        }, 10, 1, 0, TimeUnit.HOURS, DIRECT);
+        try {
+            cache.get(1L);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("boom", e.getMessage());
+        }
+        assertEquals(Integer.valueOf(2), cache.get(1L));
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        ExpiringCache<Long, Integer> cache = new ExpiringCache<>(new ExpiringCache.Loader<Long, Integer>() {
+            @Override
+            public Integer load(Long key) {
+                return loads.incrementAndGet();
+            }
+        }, 2, 1, 0, TimeUnit.HOURS, DIRECT);
+        cache.get(1L);
+        Thread.sleep(2);
+        cache.get(2L);
+        Thread.sleep(2);
+        cache.get(1L);
+        Thread.sleep(2);
+        cache.get(3L);
+        assertEquals(2, cache.size());
+        assertEquals(Integer.valueOf(1), cache.getIfPresent(1L));
+        assertNull(cache.getIfPresent(2L));
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.scienjus.smartqq.dispatch;
+
+import com.scienjus.smartqq.callback.MessageCallback;
+import com.scienjus.smartqq.model.DiscussMessage;
+import com.scienjus.smartqq.model.GroupMessage;
+import com.scienjus.smartqq.model.Message;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestPartitionedMessageDispatcher {
+
+    @Test
+    public void keepsOrderWithinEachGroup() {
+        final int groups = 8;
+        final int messagesPerGroup = 50;
+        //每个群收到的消息序号
+        final Map<Long, List<Integer>> received = new ConcurrentHashMap<>();
+        //每个群正在执行的回调数
+        final Map<Long, AtomicInteger> running = new ConcurrentHashMap<>();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final Set<String> threads = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        for (long groupId = 1; groupId <= groups; groupId++) {
+            received.put(groupId, Collections.synchronizedList(new ArrayList<Integer>()));
+            running.put(groupId, new AtomicInteger());
+        }
+
+        MessageCallback callback = new MessageCallback() {
+            private final Random random = new Random(42);
+
+            @Override
+            public void onMessage(Message message) {
+            }
+
+            @Override
+            public void onGroupMessage(GroupMessage message) {
+                threads.add(Thread.currentThread().getName());
+                AtomicInteger counter = running.get(message.getGroupId());
+                if (counter.incrementAndGet() > 1) {
+                    overlaps.incrementAndGet();
+                }
+                try {
+                    int delay;
+                    synchronized (random) {
+                        delay = random.nextInt(3);
+                    }
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                received.get(message.getGroupId()).add(Integer.valueOf(message.getContent()));
+                counter.decrementAndGet();
+            }
+
+            @Override
+            public void onDiscussMessage(DiscussMessage message) {
+            }
+        };
+
+        PartitionedMessageDispatcher dispatcher = new PartitionedMessageDispatcher(4, 1024, OverflowPolicy.BLOCK);
+        //各个群的消息交替到达
+        for (int i = 0; i < messagesPerGroup; i++) {
+            for (long groupId = 1; groupId <= groups; groupId++) {
+                GroupMessage message = new GroupMessage();
+                message.setGroupId(groupId);
+                message.setContent(String.valueOf(i));
+                dispatcher.dispatch(message, callback);
+            }
+        }
+        dispatcher.close();
+
+        for (long groupId = 1; groupId <= groups; groupId++) {
+            List<Integer> sequence = received.get(groupId);
+            assertEquals(messagesPerGroup, sequence.size());
+            for (int i = 0; i < messagesPerGroup; i++) {
+                assertEquals("群" + groupId + "的消息乱序", i, sequence.get(i).intValue());
+            }
+        }
+        //同一个群的回调不会并发执行，不同群分散到多个线程上
+        assertEquals(0, overlaps.get());
+        assertTrue(threads.size() > 1);
+    }
+}
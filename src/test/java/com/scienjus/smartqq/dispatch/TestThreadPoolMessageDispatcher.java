@@ -0,0 +1,198 @@
+package com.scienjus.smartqq.dispatch;
+
+import com.scienjus.smartqq.callback.MessageCallback;
+import com.scienjus.smartqq.model.DiscussMessage;
+import com.scienjus.smartqq.model.GroupMessage;
+import com.scienjus.smartqq.model.Message;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestThreadPoolMessageDispatcher {
+
+    //按执行顺序记录消息内容，被丢弃的消息记为"-内容"
+    private final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+
+    //第一条消息开始执行
+    private final CountDownLatch started = new CountDownLatch(1);
+
+    //放行第一条消息
+    private final CountDownLatch gate = new CountDownLatch(1);
+
+    private ThreadPoolMessageDispatcher dispatcher;
+
+    @After
+    public void tearDown() {
+        gate.countDown();
+        if (dispatcher != null) {
+            dispatcher.close();
+        }
+    }
+
+    private class Recorder implements MessageCallback, DiscardListener {
+
+        private final String name;
+
+        Recorder(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void onMessage(Message message) {
+            log.add(name);
+        }
+
+        @Override
+        public void onGroupMessage(GroupMessage message) {
+        }
+
+        @Override
+        public void onDiscussMessage(DiscussMessage message) {
+        }
+
+        @Override
+        public void onDiscarded() {
+            log.add("-" + name);
+        }
+    }
+
+    //占住唯一的工作线程，直到放行
+    private class Blocker extends Recorder {
+
+        Blocker(String name) {
+            super(name);
+        }
+
+        @Override
+        public void onMessage(Message message) {
+            started.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.onMessage(message);
+        }
+    }
+
+    //单个工作线程，队列长度1：A在执行，B在排队，再分发的消息就会溢出
+    private void fill(OverflowPolicy policy) throws InterruptedException {
+        dispatcher = new ThreadPoolMessageDispatcher(1, 1, policy);
+        dispatcher.dispatch(new Message(), new Blocker("A"));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        dispatcher.dispatch(new Message(), new Recorder("B"));
+        assertEquals(1, dispatcher.getQueueSize());
+    }
+
+    private void awaitLog(int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (log.size() < size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(size, log.size());
+    }
+
+    @Test
+    public void blockAppliesBackPressure() throws Exception {
+        fill(OverflowPolicy.BLOCK);
+        Thread poller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatcher.dispatch(new Message(), new Recorder("C"));
+            }
+        });
+        poller.start();
+        poller.join(300);
+        //队列满时拉取线程阻塞在分发上
+        assertTrue(poller.isAlive());
+
+        gate.countDown();
+        poller.join(5000);
+        assertFalse(poller.isAlive());
+        awaitLog(3);
+        assertEquals(Arrays.asList("A", "B", "C"), log);
+    }
+
+    @Test
+    public void callerRunsOverflowOnPollingThread() throws Exception {
+        fill(OverflowPolicy.CALLER_RUNS);
+        final String caller = Thread.currentThread().getName();
+        final List<String> threads = new ArrayList<>();
+        dispatcher.dispatch(new Message(), new Recorder("C") {
+            @Override
+            public void onMessage(Message message) {
+                threads.add(Thread.currentThread().getName());
+                super.onMessage(message);
+            }
+        });
+        assertEquals(Collections.singletonList(caller), threads);
+        assertEquals(Collections.singletonList("C"), log);
+
+        gate.countDown();
+        awaitLog(3);
+        assertEquals(Arrays.asList("C", "A", "B"), log);
+    }
+
+    @Test
+    public void discardDropsNewMessage() throws Exception {
+        fill(OverflowPolicy.DISCARD);
+        dispatcher.dispatch(new Message(), new Recorder("C"));
+        assertEquals(Collections.singletonList("-C"), log);
+
+        gate.countDown();
+        awaitLog(3);
+        assertEquals(Arrays.asList("-C", "A", "B"), log);
+    }
+
+    @Test
+    public void discardOldestDropsQueuedMessage() throws Exception {
+        fill(OverflowPolicy.DISCARD_OLDEST);
+        dispatcher.dispatch(new Message(), new Recorder("C"));
+        assertEquals(Collections.singletonList("-B"), log);
+        assertEquals(1, dispatcher.getQueueSize());
+
+        gate.countDown();
+        awaitLog(3);
+        assertEquals(Arrays.asList("-B", "A", "C"), log);
+    }
+
+    @Test
+    public void closeDrainsQueuedMessages() throws Exception {
+        dispatcher = new ThreadPoolMessageDispatcher(1, 16, OverflowPolicy.BLOCK);
+        dispatcher.dispatch(new Message(), new Blocker("A"));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (String name : Arrays.asList("B", "C", "D")) {
+            dispatcher.dispatch(new Message(), new Recorder(name));
+        }
+
+        Thread closer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatcher.close();
+            }
+        });
+        closer.start();
+        closer.join(300);
+        //还有消息没执行完，关闭一直等待
+        assertTrue(closer.isAlive());
+
+        gate.countDown();
+        closer.join(5000);
+        assertFalse(closer.isAlive());
+        assertEquals(Arrays.asList("A", "B", "C", "D"), log);
+
+        //关闭后分发的消息直接丢弃
+        dispatcher.dispatch(new Message(), new Recorder("E"));
+        assertEquals(Arrays.asList("A", "B", "C", "D", "-E"), log);
+    }
+}
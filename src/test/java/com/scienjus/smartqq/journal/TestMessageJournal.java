@@ -0,0 +1,309 @@
+package com.scienjus.smartqq.journal;
+
+import com.scienjus.smartqq.callback.MessageCallback;
+import com.scienjus.smartqq.dispatch.DirectMessageDispatcher;
+import com.scienjus.smartqq.dispatch.OverflowPolicy;
+import com.scienjus.smartqq.dispatch.ThreadPoolMessageDispatcher;
+import com.scienjus.smartqq.model.DiscussMessage;
+import com.scienjus.smartqq.model.Font;
+import com.scienjus.smartqq.model.GroupMessage;
+import com.scienjus.smartqq.model.Message;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestMessageJournal {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    //记录收到的消息，fail为true时抛出异常
+    private static class Recorder implements MessageCallback {
+
+        private final List<Object> received = new ArrayList<>();
+
+        private boolean fail;
+
+        private void receive(Object message) {
+            if (fail) {
+                throw new IllegalStateException("回调失败");
+            }
+            received.add(message);
+        }
+
+        @Override
+        public void onMessage(Message message) {
+            receive(message);
+        }
+
+        @Override
+        public void onGroupMessage(GroupMessage message) {
+            receive(message);
+        }
+
+        @Override
+        public void onDiscussMessage(DiscussMessage message) {
+            receive(message);
+        }
+    }
+
+    private static Message friendMessage(String content) {
+        Message message = new Message();
+        message.setTime(1456688700);
+        message.setUserId(1234567890L);
+        message.setContent(content);
+        message.setFont(Font.DEFAULT_FONT);
+        return message;
+    }
+
+    private static int replay(MessageJournal journal, Recorder recorder) {
+        return journal.replay(new DirectMessageDispatcher(), recorder);
+    }
+
+    @Test
+    public void replaysUnacknowledgedMessages() throws IOException {
+        File dir = folder.newFolder();
+        MessageJournal journal = new MessageJournal(dir);
+        long first = journal.append(friendMessage("第一条"));
+        GroupMessage group = new GroupMessage();
+        group.setGroupId(2323421101L);
+        group.setUserId(42);
+        group.setTime(1456688701);
+        group.setContent("群消息");
+        long second = journal.append(group);
+        DiscussMessage discuss = new DiscussMessage();
+        discuss.setDiscussId(1234567L);
+        discuss.setContent("讨论组消息");
+        journal.append(discuss);
+        journal.acknowledge(first);
+        assertEquals(second, journal.getCommittedOffset());
+        journal.close();
+
+        journal = new MessageJournal(dir);
+        Recorder recorder = new Recorder();
+        assertEquals(2, replay(journal, recorder));
+        GroupMessage replayedGroup = (GroupMessage) recorder.received.get(0);
+        assertEquals(2323421101L, replayedGroup.getGroupId());
+        assertEquals(42, replayedGroup.getUserId());
+        assertEquals(1456688701, replayedGroup.getTime());
+        assertEquals("群消息", replayedGroup.getContent());
+        assertEquals(null, replayedGroup.getFont());
+        DiscussMessage replayedDiscuss = (DiscussMessage) recorder.received.get(1);
+        assertEquals(1234567L, replayedDiscuss.getDiscussId());
+        assertEquals("讨论组消息", replayedDiscuss.getContent());
+        assertEquals(journal.getEndOffset(), journal.getCommittedOffset());
+        journal.close();
+
+        journal = new MessageJournal(dir);
+        assertEquals(0, replay(journal, new Recorder()));
+        journal.close();
+    }
+
+    @Test
+    public void commitsOnlyAfterEarlierMessagesSucceed() throws IOException {
+        File dir = folder.newFolder();
+        MessageJournal journal = new MessageJournal(dir);
+        Recorder recorder = new Recorder();
+        //第一条还没有执行回调，进程就退出了
+        long first = journal.append(friendMessage("未处理"));
+        long second = journal.append(friendMessage("已处理"));
+        journal.acknowledging(second, recorder).onMessage(friendMessage("已处理"));
+        assertEquals(first, journal.getCommittedOffset());
+        assertEquals(1, journal.getPendingCount());
+        journal.close();
+
+        journal = new MessageJournal(dir);
+        recorder = new Recorder();
+        assertEquals(2, replay(journal, recorder));
+        Message replayed = (Message) recorder.received.get(0);
+        assertEquals("未处理", replayed.getContent());
+        assertSame(Font.DEFAULT_FONT, replayed.getFont());
+        journal.close();
+    }
+
+    @Test
+    public void movesPoisonMessageToDeadLetters() throws IOException {
+        File dir = folder.newFolder();
+        MessageJournal journal = new MessageJournal(dir, 1024, 0, TimeUnit.MILLISECONDS, 3);
+        //前两次失败，第三次成功
+        final AtomicInteger attempts = new AtomicInteger();
+        Recorder flaky = new Recorder() {
+            @Override
+            public void onMessage(Message message) {
+                if (attempts.incrementAndGet() < 3) {
+                    throw new IllegalStateException("暂时失败");
+                }
+                super.onMessage(message);
+            }
+        };
+        long first = journal.append(friendMessage("重试后成功"));
+        journal.acknowledging(first, flaky).onMessage(friendMessage("重试后成功"));
+        assertEquals(3, attempts.get());
+        assertEquals(1, flaky.received.size());
+
+        Recorder poison = new Recorder();
+        poison.fail = true;
+        long second = journal.append(friendMessage("一直失败"));
+        journal.acknowledging(second, poison).onMessage(friendMessage("一直失败"));
+        //之后的消息不会被卡住
+        long third = journal.append(friendMessage("之后的消息"));
+        journal.acknowledging(third, new Recorder()).onMessage(friendMessage("之后的消息"));
+        assertEquals(0, journal.getPendingCount());
+        assertEquals(journal.getEndOffset(), journal.getCommittedOffset());
+        journal.close();
+
+        journal = new MessageJournal(dir);
+        assertEquals(0, replay(journal, new Recorder()));
+        journal.append(friendMessage("再次打开后"));
+        List<Object> deadLetters = journal.readDeadLetters();
+        assertEquals(1, deadLetters.size());
+        assertEquals("一直失败", ((Message) deadLetters.get(0)).getContent());
+        journal.close();
+    }
+
+    @Test
+    public void releasesMessagesDiscardedByDispatcher() throws Exception {
+        File dir = folder.newFolder();
+        MessageJournal journal = new MessageJournal(dir);
+        //一个工作线程，队列长度为1，工作线程被占住时第三条消息被丢弃
+        ThreadPoolMessageDispatcher dispatcher = new ThreadPoolMessageDispatcher(1, 1, OverflowPolicy.DISCARD);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Recorder blocking = new Recorder() {
+            @Override
+            public void onMessage(Message message) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.onMessage(message);
+            }
+        };
+        for (int i = 0; i < 3; i++) {
+            Message message = friendMessage("消息" + i);
+            dispatcher.dispatch(message, journal.acknowledging(journal.append(message), blocking));
+            if (i == 0) {
+                started.await();
+            }
+        }
+        assertEquals(2, journal.getPendingCount());
+        release.countDown();
+        dispatcher.close();
+
+        assertEquals(0, journal.getPendingCount());
+        assertEquals(journal.getEndOffset(), journal.getCommittedOffset());
+        assertEquals(2, blocking.received.size());
+        List<Object> deadLetters = journal.readDeadLetters();
+        assertEquals(1, deadLetters.size());
+        assertEquals("消息2", ((Message) deadLetters.get(0)).getContent());
+
+        //分发器关闭后提交的消息也会被释放
+        Message late = friendMessage("关闭后");
+        dispatcher.dispatch(late, journal.acknowledging(journal.append(late), blocking));
+        assertEquals(0, journal.getPendingCount());
+        assertEquals(2, journal.readDeadLetters().size());
+        journal.close();
+    }
+
+    @Test
+    public void rollsAndDeletesConsumedSegments() throws IOException {
+        File dir = folder.newFolder();
+        MessageJournal journal = new MessageJournal(dir, 1024, 0, TimeUnit.MILLISECONDS);
+        List<Long> offsets = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            offsets.add(journal.append(friendMessage("消息" + i)));
+            journal.sync();
+        }
+        assertTrue(segmentCount(dir) > 5);
+        for (int i = 0; i < 90; i++) {
+            journal.acknowledge(offsets.get(i));
+        }
+        journal.close();
+
+        journal = new MessageJournal(dir, 1024, 0, TimeUnit.MILLISECONDS);
+        assertTrue(segmentCount(dir) <= 2);
+        Recorder recorder = new Recorder();
+        assertEquals(10, replay(journal, recorder));
+        assertEquals("消息90", ((Message) recorder.received.get(0)).getContent());
+        journal.close();
+    }
+
+    @Test
+    public void deadLettersMessageFromEarlierSegment() throws IOException {
+        File dir = folder.newFolder();
+        MessageJournal journal = new MessageJournal(dir, 1024, 0, TimeUnit.MILLISECONDS, 1);
+        long poisoned = journal.append(friendMessage("早期的消息"));
+        List<Long> offsets = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            offsets.add(journal.append(friendMessage("消息" + i)));
+        }
+        assertTrue(segmentCount(dir) > 2);
+
+        //记录所在的分段已经不是当前写入的分段
+        Recorder poison = new Recorder();
+        poison.fail = true;
+        journal.acknowledging(poisoned, poison).onMessage(friendMessage("早期的消息"));
+        List<Object> deadLetters = journal.readDeadLetters();
+        assertEquals(1, deadLetters.size());
+        assertEquals("早期的消息", ((Message) deadLetters.get(0)).getContent());
+        for (int i = 0; i < 40; i++) {
+            journal.acknowledge(offsets.get(i));
+        }
+        journal.close();
+
+        //从之前分段的中间开始重放
+        journal = new MessageJournal(dir, 1024, 0, TimeUnit.MILLISECONDS);
+        Recorder recorder = new Recorder();
+        assertEquals(10, replay(journal, recorder));
+        assertEquals("消息40", ((Message) recorder.received.get(0)).getContent());
+        assertEquals(journal.getEndOffset(), journal.getCommittedOffset());
+        journal.close();
+    }
+
+    @Test
+    public void ignoresTornRecord() throws IOException {
+        File dir = folder.newFolder();
+        MessageJournal journal = new MessageJournal(dir);
+        journal.append(friendMessage("完整"));
+        long torn = journal.append(friendMessage("写到一半"));
+        journal.close();
+        //破坏第二条记录的内容
+        try (RandomAccessFile file = new RandomAccessFile(new File(dir, String.format("%020d.journal", 0)), "rw")) {
+            file.seek(torn + 20);
+            file.write(0xff);
+        }
+
+        journal = new MessageJournal(dir);
+        assertEquals(torn, journal.getEndOffset());
+        journal.append(friendMessage("之后写入"));
+        Recorder recorder = new Recorder();
+        assertEquals(2, replay(journal, recorder));
+        assertEquals("之后写入", ((Message) recorder.received.get(1)).getContent());
+        journal.close();
+    }
+
+    private static int segmentCount(File dir) {
+        int count = 0;
+        for (String name : dir.list()) {
+            if (name.endsWith(".journal")) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
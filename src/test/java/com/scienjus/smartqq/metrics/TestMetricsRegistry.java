@@ -0,0 +1,100 @@
+package com.scienjus.smartqq.metrics;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestMetricsRegistry {
+
+    @Test
+    public void sameNameAndLabelsReturnSameMetric() {
+        MetricsRegistry registry = new MetricsRegistry();
+        Counter counter = registry.counter("requests_total", "请求次数", "api", "POLL_MESSAGE");
+        assertSame(counter, registry.counter("requests_total", "请求次数", "api", "POLL_MESSAGE"));
+        assertFalse(counter == registry.counter("requests_total", "请求次数", "api", "SEND_MESSAGE_TO_FRIEND"));
+
+        Histogram histogram = registry.histogram("latency_seconds", "耗时", Histogram.LATENCY_BUCKETS);
+        assertSame(histogram, registry.histogram("latency_seconds", "耗时", Histogram.LATENCY_BUCKETS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTypeConflict() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("requests_total", "请求次数");
+        registry.histogram("requests_total", "请求次数", Histogram.LATENCY_BUCKETS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnpairedLabels() {
+        new MetricsRegistry().counter("requests_total", "请求次数", "api");
+    }
+
+    @Test
+    public void histogramBuckets() {
+        Histogram histogram = new Histogram(0.01, 0.1);
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(5));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(10));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(50));
+        histogram.record(TimeUnit.SECONDS.toNanos(1));
+        assertArrayEquals(new long[]{2, 1, 1}, histogram.getCounts());
+        assertEquals(4, histogram.getCount());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1065), histogram.getSumNanos());
+    }
+
+    @Test
+    public void prometheusText() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("requests_total", "请求次数", "api", "POLL_MESSAGE").add(3);
+        registry.gauge("queue_depth", "队列长度", new Gauge() {
+            @Override
+            public long getValue() {
+                return 7;
+            }
+        });
+        Histogram histogram = registry.histogram("latency_seconds", "耗时", new double[]{0.01, 0.1});
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(5));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(50));
+
+        String text = PrometheusTextFormat.toString(registry);
+        assertEquals("# HELP latency_seconds 耗时\n"
+                + "# TYPE latency_seconds histogram\n"
+                + "latency_seconds_bucket{le=\"0.01\"} 1\n"
+                + "latency_seconds_bucket{le=\"0.1\"} 2\n"
+                + "latency_seconds_bucket{le=\"+Inf\"} 2\n"
+                + "latency_seconds_sum 0.055\n"
+                + "latency_seconds_count 2\n"
+                + "# HELP queue_depth 队列长度\n"
+                + "# TYPE queue_depth gauge\n"
+                + "queue_depth 7\n"
+                + "# HELP requests_total 请求次数\n"
+                + "# TYPE requests_total counter\n"
+                + "requests_total{api=\"POLL_MESSAGE\"} 3\n", text);
+    }
+
+    @Test
+    public void jmxAttributes() throws Exception {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("requests_total", "请求次数", "api", "POLL_MESSAGE").increment();
+        registry.histogram("latency_seconds", "耗时", Histogram.LATENCY_BUCKETS).record(TimeUnit.MILLISECONDS.toNanos(20));
+
+        JmxMetricsExporter exporter = new JmxMetricsExporter("test", server);
+        exporter.start(registry);
+        try {
+            assertEquals(1L, server.getAttribute(exporter.getObjectName(), "requests_total{api=POLL_MESSAGE}"));
+            assertEquals(1L, server.getAttribute(exporter.getObjectName(), "latency_seconds_count"));
+            assertEquals(0.02, (Double) server.getAttribute(exporter.getObjectName(), "latency_seconds_mean"), 1e-9);
+        } finally {
+            exporter.close();
+        }
+        assertTrue(server.queryNames(exporter.getObjectName(), null).isEmpty());
+    }
+}
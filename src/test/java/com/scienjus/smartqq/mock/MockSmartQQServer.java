@@ -0,0 +1,575 @@
+package com.scienjus.smartqq.mock;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.scienjus.smartqq.constant.ApiURL;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 本地的SmartQQ模拟服务器.
+ * 实现登录、拉取消息、发送消息以及好友、群和讨论组相关的接口，返回固定的联系人数据，配合{@link ApiURL#setBaseUrl(String)}使用.
+ * <ul>
+ * <li>拉取消息按脚本返回：每次poll2请求取出队列中的一个响应，队列为空时挂起到超时后返回空结果</li>
+ * <li>可以让任意接口在接下来的若干次请求中返回指定的Http返回码，或者在响应前等待一段时间</li>
+ * <li>每次login2创建一个新的登录状态，多个客户端可以同时在线；可以让所有登录状态失效，此时poll2和get_online_buddies2返回103，直到重新调用login2</li>
+ * </ul>
+ */
+public class MockSmartQQServer implements Closeable {
+
+    public static final String PTQRSHOW = "/ptqrshow";
+
+    public static final String PTQRLOGIN = "/ptqrlogin";
+
+    public static final String CHECK_SIG = "/check_sig";
+
+    public static final String GET_VFWEBQQ = "/api/getvfwebqq";
+
+    public static final String LOGIN2 = "/channel/login2";
+
+    public static final String POLL2 = "/channel/poll2";
+
+    public static final String SEND_BUDDY_MSG2 = "/channel/send_buddy_msg2";
+
+    public static final String SEND_QUN_MSG2 = "/channel/send_qun_msg2";
+
+    public static final String SEND_DISCU_MSG2 = "/channel/send_discu_msg2";
+
+    public static final String GET_ONLINE_BUDDIES2 = "/channel/get_online_buddies2";
+
+    public static final String GET_SELF_INFO2 = "/api/get_self_info2";
+
+    public static final String GET_USER_FRIENDS2 = "/api/get_user_friends2";
+
+    public static final String GET_GROUP_NAME_LIST_MASK2 = "/api/get_group_name_list_mask2";
+
+    public static final String GET_DISCUS_LIST = "/api/get_discus_list";
+
+    public static final String GET_GROUP_INFO_EXT2 = "/api/get_group_info_ext2";
+
+    public static final String GET_DISCU_INFO = "/channel/get_discu_info";
+
+    public static final String GET_FRIEND_INFO2 = "/api/get_friend_info2";
+
+    public static final String GET_FRIEND_UIN2 = "/api/get_friend_uin2";
+
+    public static final String GET_RECENT_LIST2 = "/channel/get_recent_list2";
+
+    //登录账号
+    public static final long SELF_UIN = 3023615011L;
+
+    //固定的联系人数据
+    public static final long FRIEND_UIN = 3938287219L;
+
+    public static final long GROUP_ID = 2323421101L;
+
+    public static final long GROUP_CODE = 3056318101L;
+
+    public static final long DISCUSS_ID = 1234567L;
+
+    private static final String QRSIG = "mock-qrsig";
+
+    private static final String PTWEBQQ = "mock-ptwebqq";
+
+    private static final String VFWEBQQ = "mock-vfwebqq";
+
+    private static final String FONT = "[\"font\",{\"color\":\"000000\",\"name\":\"微软雅黑\",\"size\":10,\"style\":[0,0,0]}]";
+
+    private static final String EMPTY_POLL = "{\"errmsg\":\"error!!!\",\"retcode\":0}";
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    //拉取消息的脚本，每个元素是一次poll2的完整响应
+    private final BlockingQueue<String> pollScript = new LinkedBlockingQueue<>();
+
+    //路径到剩余的失败次数和返回码
+    private final ConcurrentMap<String, Failure> failures = new ConcurrentHashMap<>();
+
+    //路径到响应前的等待时间
+    private final ConcurrentMap<String, Long> latencies = new ConcurrentHashMap<>();
+
+    //路径到请求次数
+    private final ConcurrentMap<String, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+
+    //路径到正在处理的请求数
+    private final ConcurrentMap<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+
+    //路径到同时处理的最大请求数
+    private final ConcurrentMap<String, AtomicInteger> maxInFlight = new ConcurrentHashMap<>();
+
+    //路径到收到的参数r
+    private final ConcurrentMap<String, List<JSONObject>> receivedForms = new ConcurrentHashMap<>();
+
+    private final AtomicInteger messageId = new AtomicInteger();
+
+    private final AtomicInteger sessionCount = new AtomicInteger();
+
+    //当前有效的psessionid
+    private final Set<String> sessions = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    //扫码确认前返回"未失效"的次数
+    private volatile int scanDelay;
+
+    //没有消息时poll2挂起的时间
+    private volatile long pollHoldMillis = 1000;
+
+    public MockSmartQQServer() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        //poll2会挂起请求，每个请求使用单独的线程
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "mock-smartqq-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.server.setExecutor(executor);
+        this.server.createContext("/", new Dispatcher());
+        this.server.start();
+    }
+
+    /**
+     * 启动服务器并让ApiURL指向它
+     *
+     * @return
+     * @throws IOException
+     */
+    public static MockSmartQQServer start() throws IOException {
+        MockSmartQQServer server = new MockSmartQQServer();
+        ApiURL.setBaseUrl(server.getBaseUrl());
+        return server;
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * 扫码确认前，ptqrlogin先返回几次"二维码未失效"
+     *
+     * @param times 次数
+     */
+    public void setScanDelay(int times) {
+        this.scanDelay = times;
+    }
+
+    /**
+     * 没有消息时poll2挂起的时间，应小于客户端的长轮询超时
+     *
+     * @param millis 毫秒
+     */
+    public void setPollHoldMillis(long millis) {
+        this.pollHoldMillis = millis;
+    }
+
+    /**
+     * 在拉取消息的脚本末尾加入一条好友消息
+     *
+     * @param fromUin 好友id
+     * @param text    消息内容
+     */
+    public void pushFriendMessage(long fromUin, String text) {
+        pushMessage("message", "{\"content\":[" + FONT + "," + JSON.toJSONString(text) + "],"
+                + "\"from_uin\":" + fromUin + ",\"msg_id\":" + messageId.incrementAndGet() + ",\"msg_type\":0,"
+                + "\"time\":" + now() + ",\"to_uin\":" + SELF_UIN + "}");
+    }
+
+    /**
+     * 在拉取消息的脚本末尾加入一条群消息
+     *
+     * @param groupId 群id
+     * @param sendUin 发送者id
+     * @param text    消息内容
+     */
+    public void pushGroupMessage(long groupId, long sendUin, String text) {
+        pushMessage("group_message", "{\"content\":[" + FONT + "," + JSON.toJSONString(text) + "],"
+                + "\"from_uin\":" + groupId + ",\"group_code\":" + groupId + ",\"msg_id\":" + messageId.incrementAndGet()
+                + ",\"msg_type\":4,\"send_uin\":" + sendUin + ",\"time\":" + now() + ",\"to_uin\":" + SELF_UIN + "}");
+    }
+
+    /**
+     * 在拉取消息的脚本末尾加入一条讨论组消息
+     *
+     * @param discussId 讨论组id
+     * @param sendUin   发送者id
+     * @param text      消息内容
+     */
+    public void pushDiscussMessage(long discussId, long sendUin, String text) {
+        pushMessage("discu_message", "{\"content\":[" + FONT + "," + JSON.toJSONString(text) + "],"
+                + "\"did\":" + discussId + ",\"from_uin\":" + discussId + ",\"msg_id\":" + messageId.incrementAndGet()
+                + ",\"send_uin\":" + sendUin + ",\"time\":" + now() + "}");
+    }
+
+    private void pushMessage(String pollType, String value) {
+        pushPollResponse("{\"result\":[{\"poll_type\":\"" + pollType + "\",\"value\":" + value + "}],\"retcode\":0}");
+    }
+
+    /**
+     * 在拉取消息的脚本末尾加入一次完整的poll2响应
+     *
+     * @param body 响应内容
+     */
+    public void pushPollResponse(String body) {
+        pollScript.add(body);
+    }
+
+    /**
+     * 让所有登录状态失效，之后poll2和get_online_buddies2返回103，直到客户端重新调用login2
+     */
+    public void expireSession() {
+        sessions.clear();
+    }
+
+    /**
+     * 让指定接口接下来的几次请求返回Http错误
+     *
+     * @param path       接口路径
+     * @param statusCode Http返回码
+     * @param times      次数
+     */
+    public void failNext(String path, int statusCode, int times) {
+        failures.put(path, new Failure(statusCode, times));
+    }
+
+    /**
+     * 指定接口在响应前等待一段时间
+     *
+     * @param path   接口路径
+     * @param millis 毫秒，0表示不等待
+     */
+    public void setLatency(String path, long millis) {
+        latencies.put(path, millis);
+    }
+
+    /**
+     * 获得接口收到的请求次数
+     *
+     * @param path 接口路径
+     * @return
+     */
+    public int getRequestCount(String path) {
+        AtomicInteger count = requestCounts.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * 获得接口同时处理的最大请求数
+     *
+     * @param path 接口路径
+     * @return
+     */
+    public int getMaxConcurrentRequests(String path) {
+        AtomicInteger max = maxInFlight.get(path);
+        return max == null ? 0 : max.get();
+    }
+
+    /**
+     * 获得post接口成功处理的请求的参数r，按收到的顺序排列
+     *
+     * @param path 接口路径
+     * @return
+     */
+    public List<JSONObject> getReceivedForms(String path) {
+        List<JSONObject> forms = receivedForms.get(path);
+        return forms == null ? Collections.<JSONObject>emptyList() : new ArrayList<>(forms);
+    }
+
+    /**
+     * 获得收到的已发送消息的文本
+     *
+     * @param path 发送接口的路径
+     * @return
+     */
+    public List<String> getSentTexts(String path) {
+        List<String> texts = new ArrayList<>();
+        for (JSONObject r : getReceivedForms(path)) {
+            texts.add(JSON.parseArray(r.getString("content")).getString(0));
+        }
+        return texts;
+    }
+
+    @Override
+    public void close() {
+        ApiURL.setBaseUrl(null);
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private static long now() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    private class Dispatcher implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String path = exchange.getRequestURI().getPath();
+            AtomicInteger active = counter(inFlight, path);
+            try {
+                counter(requestCounts, path).incrementAndGet();
+                int current = active.incrementAndGet();
+                AtomicInteger max = counter(maxInFlight, path);
+                int previous = max.get();
+                while (previous < current && !max.compareAndSet(previous, current)) {
+                    previous = max.get();
+                }
+
+                Map<String, String> params = parse(exchange.getRequestURI().getRawQuery());
+                String form = read(exchange.getRequestBody());
+
+                Long latency = latencies.get(path);
+                if (latency != null && latency > 0) {
+                    Thread.sleep(latency);
+                }
+                Failure failure = failures.get(path);
+                if (failure != null && failure.remaining.getAndDecrement() > 0) {
+                    respond(exchange, failure.statusCode, "");
+                    return;
+                }
+
+                //只记录成功处理的请求的参数
+                JSONObject r = null;
+                if ("POST".equals(exchange.getRequestMethod())) {
+                    String value = parse(form).get("r");
+                    r = value == null ? new JSONObject() : JSON.parseObject(value);
+                    List<JSONObject> forms = receivedForms.get(path);
+                    if (forms == null) {
+                        receivedForms.putIfAbsent(path, new CopyOnWriteArrayList<JSONObject>());
+                        forms = receivedForms.get(path);
+                    }
+                    forms.add(r);
+                }
+                route(exchange, path, params, r);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                active.decrementAndGet();
+                exchange.close();
+            }
+        }
+
+        private void route(HttpExchange exchange, String path, Map<String, String> params, JSONObject r)
+                throws IOException, InterruptedException {
+            switch (path) {
+                case PTQRSHOW:
+                    exchange.getResponseHeaders().add("Set-Cookie", "qrsig=" + QRSIG + "; Path=/");
+                    respond(exchange, 200, "\u0089PNG");
+                    break;
+                case PTQRLOGIN:
+                    if (scanDelay > 0) {
+                        scanDelay--;
+                        respond(exchange, 200, "ptuiCB('66','0','','0','二维码未失效。', '');");
+                    } else {
+                        respond(exchange, 200, "ptuiCB('0','0','" + getBaseUrl() + CHECK_SIG
+                                + "?uin=" + SELF_UIN + "','0','登录成功！', 'mock');");
+                    }
+                    break;
+                case CHECK_SIG:
+                    exchange.getResponseHeaders().add("Set-Cookie", "ptwebqq=" + PTWEBQQ + "; Path=/");
+                    respond(exchange, 200, "");
+                    break;
+                case GET_VFWEBQQ:
+                    respondResult(exchange, json("vfwebqq", VFWEBQQ));
+                    break;
+                case LOGIN2:
+                    String psessionid = "mock-psessionid-" + sessionCount.incrementAndGet();
+                    sessions.add(psessionid);
+                    respondResult(exchange, json("uin", SELF_UIN, "psessionid", psessionid, "status", "online"));
+                    break;
+                case GET_ONLINE_BUDDIES2:
+                    if (!isValid(params.get("psessionid"))) {
+                        respondRetcode(exchange, 103);
+                    } else {
+                        respondResult(exchange, new JSONArray(Arrays.<Object>asList(
+                                json("uin", FRIEND_UIN, "status", "online", "client_type", 1))));
+                    }
+                    break;
+                case POLL2:
+                    if (!isValid(r.getString("psessionid"))) {
+                        respondRetcode(exchange, 103);
+                        break;
+                    }
+                    String body = pollScript.poll(pollHoldMillis, TimeUnit.MILLISECONDS);
+                    respond(exchange, 200, body == null ? EMPTY_POLL : body);
+                    break;
+                case SEND_BUDDY_MSG2:
+                case SEND_QUN_MSG2:
+                case SEND_DISCU_MSG2:
+                    respond(exchange, 200, "{\"retcode\":0,\"result\":\"ok\"}");
+                    break;
+                case GET_SELF_INFO2:
+                    respondResult(exchange, userInfo(SELF_UIN, "mock"));
+                    break;
+                case GET_FRIEND_INFO2:
+                    respondResult(exchange, userInfo(Long.parseLong(params.get("tuin")), "friend"));
+                    break;
+                case GET_FRIEND_UIN2:
+                    respondResult(exchange, json("uiuin", "", "account", 10000, "uin", Long.parseLong(params.get("tuin"))));
+                    break;
+                case GET_USER_FRIENDS2:
+                    respondResult(exchange, json(
+                            "friends", array(json("flag", 0, "uin", FRIEND_UIN, "categories", 0)),
+                            "marknames", array(json("uin", FRIEND_UIN, "markname", "备注", "type", 0)),
+                            "categories", array(json("index", 1, "sort", 1, "name", "同学")),
+                            "vipinfo", array(json("vip_level", 0, "u", FRIEND_UIN, "is_vip", 0)),
+                            "info", array(json("face", 0, "flag", 0, "nick", "好友", "uin", FRIEND_UIN))));
+                    break;
+                case GET_GROUP_NAME_LIST_MASK2:
+                    respondResult(exchange, json(
+                            "gmasklist", array(),
+                            "gnamelist", array(json("flag", 0, "name", "测试群", "gid", GROUP_ID, "code", GROUP_CODE)),
+                            "gmarklist", array()));
+                    break;
+                case GET_DISCUS_LIST:
+                    respondResult(exchange, json("dnamelist", array(json("name", "测试讨论组", "did", DISCUSS_ID))));
+                    break;
+                case GET_GROUP_INFO_EXT2:
+                    respondResult(exchange, json(
+                            "ginfo", json("gid", GROUP_ID, "code", GROUP_CODE, "name", "测试群", "owner", SELF_UIN,
+                                    "createtime", 1456688700, "memo", "", "markname", ""),
+                            "minfo", array(json("nick", "mock", "province", "", "gender", "male", "uin", SELF_UIN,
+                                    "country", "", "city", ""),
+                                    json("nick", "好友", "province", "", "gender", "female", "uin", FRIEND_UIN,
+                                            "country", "", "city", "")),
+                            "stats", array(json("client_type", 1, "uin", FRIEND_UIN, "stat", 10)),
+                            "cards", array(json("muin", FRIEND_UIN, "card", "群名片")),
+                            "vipinfo", array(json("vip_level", 0, "u", FRIEND_UIN, "is_vip", 0))));
+                    break;
+                case GET_DISCU_INFO:
+                    respondResult(exchange, json(
+                            "info", json("did", DISCUSS_ID, "discu_name", "测试讨论组"),
+                            "mem_info", array(json("uin", SELF_UIN, "nick", "mock"), json("uin", FRIEND_UIN, "nick", "好友")),
+                            "mem_status", array(json("uin", FRIEND_UIN, "status", "online", "client_type", 1))));
+                    break;
+                case GET_RECENT_LIST2:
+                    respondResult(exchange, array(json("uin", FRIEND_UIN, "type", 0)));
+                    break;
+                default:
+                    respond(exchange, 404, "");
+            }
+        }
+    }
+
+    private boolean isValid(String psessionid) {
+        return psessionid != null && sessions.contains(psessionid);
+    }
+
+    private static AtomicInteger counter(ConcurrentMap<String, AtomicInteger> counters, String path) {
+        AtomicInteger counter = counters.get(path);
+        if (counter == null) {
+            counters.putIfAbsent(path, new AtomicInteger());
+            counter = counters.get(path);
+        }
+        return counter;
+    }
+
+    private static JSONObject userInfo(long uin, String nick) {
+        return json("uin", String.valueOf(uin), "nick", nick, "account", String.valueOf(uin), "gender", "male",
+                "lnick", "", "vip_info", 0);
+    }
+
+    private static JSONObject json(Object... keyValues) {
+        JSONObject json = new JSONObject(true);
+        for (int i = 0; i < keyValues.length; i += 2) {
+            json.put((String) keyValues[i], keyValues[i + 1]);
+        }
+        return json;
+    }
+
+    private static JSONArray array(Object... items) {
+        return new JSONArray(new ArrayList<>(Arrays.asList(items)));
+    }
+
+    private static void respondResult(HttpExchange exchange, Object result) throws IOException {
+        JSONObject json = json("retcode", 0, "result", result);
+        respond(exchange, 200, json.toJSONString());
+    }
+
+    private static void respondRetcode(HttpExchange exchange, int retcode) throws IOException {
+        respond(exchange, 200, json("retcode", retcode, "errmsg", "error").toJSONString());
+    }
+
+    private static void respond(HttpExchange exchange, int statusCode, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(statusCode, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            OutputStream out = exchange.getResponseBody();
+            out.write(bytes);
+            out.close();
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, String> parse(String query) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int index = pair.indexOf('=');
+            if (index > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, index), "UTF-8"),
+                        URLDecoder.decode(pair.substring(index + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    //接下来若干次请求的失败设置
+    private static class Failure {
+
+        private final int statusCode;
+
+        private final AtomicInteger remaining;
+
+        Failure(int statusCode, int times) {
+            this.statusCode = statusCode;
+            this.remaining = new AtomicInteger(times);
+        }
+    }
+
+}
@@ -0,0 +1,48 @@
+package com.scienjus.smartqq.model;
+
+import com.alibaba.fastjson.JSON;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class TestFont {
+
+    private static final String CONTENT = "[[\"font\",{\"color\":\"000000\",\"name\":\"微软雅黑\",\"size\":10,\"style\":[0,0,0]}],\"hi\"]";
+
+    @Test
+    public void messagesWithTheSameFontShareOneInstance() {
+        Message first = new Message(JSON.parseObject("{\"content\":" + CONTENT + ",\"from_uin\":1,\"time\":1}"));
+        GroupMessage second = new GroupMessage(JSON.parseObject("{\"content\":" + CONTENT + ",\"send_uin\":2,\"group_code\":3,\"time\":2}"));
+        assertSame(first.getFont(), second.getFont());
+        assertEquals("微软雅黑", first.getFont().getName());
+        assertEquals(10, first.getFont().getSize());
+        assertEquals("000000", first.getFont().getColor());
+        assertArrayEquals(new int[]{0, 0, 0}, first.getFont().getStyle());
+    }
+
+    @Test
+    public void internReturnsDefaultFontForEqualValues() {
+        Font font = new Font("宋体", 10, "000000", new int[]{0, 0, 0});
+        assertNotSame(Font.DEFAULT_FONT, font);
+        assertSame(Font.DEFAULT_FONT, font.intern());
+    }
+
+    @Test
+    public void sharedFontCannotBeModifiedThroughStyle() {
+        int[] style = new int[]{1, 0, 0};
+        Font font = new Font("宋体", 12, "ff0000", style).intern();
+        style[0] = 0;
+        font.getStyle()[1] = 1;
+        assertArrayEquals(new int[]{1, 0, 0}, font.getStyle());
+    }
+
+    @Test
+    public void serializesLikeBefore() {
+        Font font = JSON.parseObject(JSON.toJSONString(Font.DEFAULT_FONT), Font.class);
+        assertEquals(Font.DEFAULT_FONT, font);
+    }
+
+}
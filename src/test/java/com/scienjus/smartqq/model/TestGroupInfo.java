@@ -0,0 +1,54 @@
+package com.scienjus.smartqq.model;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TestGroupInfo {
+
+    private static GroupUser user(long uin, String nick, String card) {
+        GroupUser user = new GroupUser();
+        user.setUin(uin);
+        user.setNick(nick);
+        user.setCard(card);
+        return user;
+    }
+
+    @Test
+    public void displayNamePrefersCardOverNick() {
+        GroupInfo info = new GroupInfo();
+        info.addUser(user(1, "nick1", "card1"));
+        info.addUser(user(2, "nick2", ""));
+        info.addUser(user(3, "nick3", null));
+        assertEquals("card1", info.getDisplayName(1));
+        assertEquals("nick2", info.getDisplayName(2));
+        assertEquals("nick3", info.getDisplayName(3));
+        assertNull(info.getDisplayName(4));
+    }
+
+    @Test
+    public void setUsersRebuildsIndex() {
+        GroupInfo info = new GroupInfo();
+        info.addUser(user(1, "old", null));
+        GroupUser replacement = user(2, "new", null);
+        info.setUsers(Arrays.asList(replacement));
+        assertNull(info.getUser(1));
+        assertSame(replacement, info.getUser(2));
+    }
+
+    @Test
+    public void discussDisplayNameIsNick() {
+        DiscussUser user = new DiscussUser();
+        user.setUin(5);
+        user.setNick("discuss");
+        DiscussInfo info = new DiscussInfo();
+        info.addUser(user);
+        assertEquals("discuss", info.getDisplayName(5));
+        assertNull(info.getDisplayName(6));
+    }
+
+}
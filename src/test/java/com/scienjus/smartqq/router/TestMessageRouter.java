@@ -0,0 +1,163 @@
+package com.scienjus.smartqq.router;
+
+import com.scienjus.smartqq.model.DiscussMessage;
+import com.scienjus.smartqq.model.GroupMessage;
+import com.scienjus.smartqq.model.Message;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestMessageRouter {
+
+    //记录处理器收到的消息
+    private static class Recorder implements MessageHandler {
+
+        private final String name;
+
+        private final List<String> log;
+
+        Recorder(String name, List<String> log) {
+            this.name = name;
+            this.log = log;
+        }
+
+        @Override
+        public void handle(MessageContext context) {
+            log.add(name + ":" + context.getMatched() + "@" + context.getOffset()
+                    + (context.getArgument() == null ? "" : "|" + context.getArgument()));
+        }
+    }
+
+    private static GroupMessage groupMessage(long groupId, String content) {
+        GroupMessage message = new GroupMessage();
+        message.setGroupId(groupId);
+        message.setUserId(42);
+        message.setContent(content);
+        return message;
+    }
+
+    private static Message friendMessage(long userId, String content) {
+        Message message = new Message();
+        message.setUserId(userId);
+        message.setContent(content);
+        return message;
+    }
+
+    @Test
+    public void automatonFindsOverlappingKeywords() {
+        Automaton automaton = new Automaton.Builder()
+                .add("he", 0).add("she", 1).add("his", 2).add("hers", 3)
+                .build();
+        List<String> found = new ArrayList<>();
+        String text = "ushers";
+        int node = 0;
+        for (int i = 0; i < text.length(); i++) {
+            node = automaton.step(node, text.charAt(i));
+            for (int output = automaton.outputs(node).length > 0 ? node : automaton.outputLink(node);
+                 output >= 0; output = automaton.outputLink(output)) {
+                for (int id : automaton.outputs(output)) {
+                    found.add(id + "@" + i);
+                }
+            }
+        }
+        assertEquals(Arrays.asList("1@3", "0@3", "3@5"), found);
+    }
+
+    @Test
+    public void routesCommandsPrefixesAndKeywords() {
+        List<String> log = new ArrayList<>();
+        MessageRouter router = new MessageRouter.Builder()
+                .add(Route.command("/help", new Recorder("help", log)))
+                .add(Route.command("/help me", new Recorder("helpMe", log)))
+                .add(Route.prefix("#", new Recorder("topic", log)))
+                .add(Route.keyword("代购", new Recorder("ad", log)))
+                .add(Route.keyword("购物", new Recorder("shop", log)))
+                .add(Route.keyword("VPN", new Recorder("vpn", log)).ignoreCase())
+                .add(Route.keyword("QQ", new Recorder("qq", log)))
+                .fallback(new Recorder("fallback", log))
+                .build();
+
+        router.onGroupMessage(groupMessage(1, "  /help   all  "));
+        assertEquals(Arrays.asList("help:/help@2|all"), log);
+
+        log.clear();
+        router.onGroupMessage(groupMessage(1, "/help me now"));
+        assertEquals(Arrays.asList("help:/help@0|me now", "helpMe:/help me@0|now"), log);
+
+        log.clear();
+        router.onGroupMessage(groupMessage(1, "/helpme"));
+        assertEquals(Arrays.asList("fallback:null@-1"), log);
+
+        log.clear();
+        router.onGroupMessage(groupMessage(1, "#代购物品 代购"));
+        assertEquals(Arrays.asList("topic:#@0|代购物品 代购", "ad:代购@1", "shop:购物@2"), log);
+
+        log.clear();
+        router.onGroupMessage(groupMessage(1, "便宜vpn，加qq，加QQ"));
+        assertEquals(Arrays.asList("vpn:vpn@2", "qq:QQ@11"), log);
+    }
+
+    @Test
+    public void appliesScopesAndIsolatesFailures() {
+        final List<String> log = new ArrayList<>();
+        MessageRouter router = new MessageRouter.Builder()
+                .add(Route.keyword("广告", new MessageHandler() {
+                    @Override
+                    public void handle(MessageContext context) {
+                        throw new IllegalStateException("boom");
+                    }
+                }))
+                .add(Route.keyword("广告", new Recorder("group", log)).inGroup(1).inGroup(2))
+                .add(Route.keyword("广告", new Recorder("friend", log)).withFriend(7))
+                .add(Route.command("/kick", new Recorder("kick", log)).inDiscuss(3))
+                .fallback(new Recorder("fallback", log))
+                .build();
+
+        router.onGroupMessage(groupMessage(2, "广告"));
+        router.onGroupMessage(groupMessage(5, "广告"));
+        router.onMessage(friendMessage(7, "广告"));
+        router.onMessage(friendMessage(8, "广告"));
+        assertEquals(Arrays.asList("group:广告@0", "friend:广告@0"), log);
+
+        log.clear();
+        DiscussMessage discuss = new DiscussMessage();
+        discuss.setDiscussId(3);
+        discuss.setContent("/kick 42 43");
+        router.onDiscussMessage(discuss);
+        discuss.setDiscussId(4);
+        router.onDiscussMessage(discuss);
+        router.onGroupMessage(groupMessage(3, "/kick 42"));
+        assertEquals(Arrays.asList("kick:/kick@0|42 43", "fallback:null@-1", "fallback:null@-1"), log);
+    }
+
+    @Test
+    public void exposesMessageAndArguments() {
+        final List<MessageContext> contexts = new ArrayList<>();
+        MessageRouter router = new MessageRouter.Builder()
+                .add(Route.command("/ban", new MessageHandler() {
+                    @Override
+                    public void handle(MessageContext context) {
+                        contexts.add(context);
+                    }
+                }))
+                .build();
+        GroupMessage message = groupMessage(9, "/ban  42\t30m");
+        router.onGroupMessage(message);
+        router.onGroupMessage(groupMessage(9, null));
+
+        assertEquals(1, contexts.size());
+        MessageContext context = contexts.get(0);
+        assertEquals(MessageContext.Type.GROUP, context.getType());
+        assertEquals(9, context.getConversationId());
+        assertEquals(42, context.getUserId());
+        assertArrayEquals(new String[]{"42", "30m"}, context.getArguments());
+        assertEquals(message, context.getGroupMessage());
+        assertNull(context.getFriendMessage());
+    }
+}
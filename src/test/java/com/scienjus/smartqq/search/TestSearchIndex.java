@@ -0,0 +1,111 @@
+package com.scienjus.smartqq.search;
+
+import com.scienjus.smartqq.model.GroupMessage;
+import com.scienjus.smartqq.model.Message;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestSearchIndex {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static GroupMessage groupMessage(long groupId, long time, String content) {
+        GroupMessage message = new GroupMessage();
+        message.setGroupId(groupId);
+        message.setUserId(42);
+        message.setTime(time);
+        message.setContent(content);
+        return message;
+    }
+
+    @Test
+    public void tokenizesCjkAsBigrams() {
+        assertEquals(Arrays.asList("今晚", "晚一", "一起", "起吃", "吃饭", "饭吗", "ok", "hello", "世界"),
+                Tokenizer.tokenize("今晚一起吃饭吗？OK Hello世界"));
+        assertEquals(Arrays.asList("好", "的"), Tokenizer.tokenize("好 的"));
+        assertTrue(Tokenizer.tokenize("[表情] ！").size() == 1);
+    }
+
+    @Test
+    public void termAndPhraseQueries() throws Exception {
+        File dir = folder.newFolder();
+        SearchIndex index = new SearchIndex(dir);
+        index.add(groupMessage(1, 100, "今晚一起去吃饭"));
+        index.add(groupMessage(1, 200, "吃饭了吗，今晚加班"));
+        index.add(groupMessage(2, 300, "今晚吃饭的地方定了"));
+        Message friend = new Message();
+        friend.setUserId(7);
+        friend.setTime(400);
+        friend.setContent("今晚吃饭");
+        index.add(friend);
+        index.flush();
+
+        List<SearchHit> hits = index.search(SearchQuery.term("今晚 吃饭"));
+        assertEquals(4, hits.size());
+        //从新到旧
+        assertEquals(SearchHit.Type.FRIEND, hits.get(0).getType());
+        assertEquals(7, hits.get(0).getConversationId());
+
+        hits = index.search(SearchQuery.phrase("今晚吃饭"));
+        assertEquals(2, hits.size());
+        assertEquals("今晚吃饭的地方定了", hits.get(1).getContent());
+
+        hits = index.search(SearchQuery.term("今晚 吃饭").inGroup(1));
+        assertEquals(2, hits.size());
+        hits = index.search(SearchQuery.term("今晚 吃饭").inGroup(1).inGroup(2).between(150, 300));
+        assertEquals(2, hits.size());
+        assertEquals(300, hits.get(0).getTime());
+        assertEquals(200, hits.get(1).getTime());
+        assertEquals(42, hits.get(1).getUserId());
+        assertEquals(1, index.search(SearchQuery.term("今晚").limit(1)).size());
+        assertEquals(0, index.search(SearchQuery.phrase("加班吃饭")).size());
+
+        //还在内存分段中的消息也能搜索到
+        index.add(groupMessage(1, 500, "明天不加班"));
+        index.close();
+
+        index = new SearchIndex(dir);
+        hits = index.search(SearchQuery.phrase("加班"));
+        assertEquals(2, hits.size());
+        assertEquals("明天不加班", hits.get(0).getContent());
+        assertEquals(SearchHit.Type.GROUP, hits.get(0).getType());
+        index.close();
+    }
+
+    @Test
+    public void mergesSegmentsInBackground() throws Exception {
+        File dir = folder.newFolder();
+        SearchIndex index = new SearchIndex(dir, 10, 1, TimeUnit.HOURS, 3);
+        for (int i = 0; i < 100; i++) {
+            index.add(groupMessage(i % 2, i, "第" + i + "条消息 " + (i % 5 == 0 ? "关键词" : "其它")));
+        }
+        index.flush();
+        index.awaitMerges();
+        //100条消息写成10个分段，合并后剩下 1个2级 + 1个0级
+        assertEquals(2, index.getSegmentCount());
+
+        List<SearchHit> hits = index.search(SearchQuery.phrase("关键词").limit(1000));
+        assertEquals(20, hits.size());
+        assertEquals(95, hits.get(0).getTime());
+        assertEquals(0, hits.get(19).getTime());
+        assertEquals(10, index.search(SearchQuery.phrase("关键词").inGroup(0)).size());
+        index.close();
+
+        index = new SearchIndex(dir, 10, 1, TimeUnit.HOURS, 3);
+        assertEquals(2, index.getSegmentCount());
+        hits = index.search(SearchQuery.term("消息 37"));
+        assertEquals(1, hits.size());
+        assertEquals("第37条消息 其它", hits.get(0).getContent());
+        index.close();
+    }
+}
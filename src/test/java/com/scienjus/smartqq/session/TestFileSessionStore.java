@@ -0,0 +1,82 @@
+package com.scienjus.smartqq.session;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Collections;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class TestFileSessionStore {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void savedSnapshotCanBeLoaded() {
+        FileSessionStore store = new FileSessionStore(new File(folder.getRoot(), "session.json"));
+        SessionSnapshot snapshot = new SessionSnapshot();
+        snapshot.setPtwebqq("ptwebqq");
+        snapshot.setVfwebqq("vfwebqq");
+        snapshot.setUin(123456789L);
+        snapshot.setPsessionid("psessionid");
+        snapshot.setSavedAt(1000L);
+        Date expiry = new Date(2000000000000L);
+        snapshot.setCookies(Collections.singletonList(new SessionCookie("ptwebqq", "value", ".qq.com", "/", expiry, true)));
+        store.save(snapshot);
+
+        SessionSnapshot loaded = store.load();
+        assertEquals("ptwebqq", loaded.getPtwebqq());
+        assertEquals("vfwebqq", loaded.getVfwebqq());
+        assertEquals(123456789L, loaded.getUin());
+        assertEquals("psessionid", loaded.getPsessionid());
+        assertEquals(1000L, loaded.getSavedAt());
+        assertEquals(1, loaded.getCookies().size());
+        SessionCookie cookie = loaded.getCookies().get(0);
+        assertEquals("value", cookie.getValue());
+        assertEquals(".qq.com", cookie.getDomain());
+        assertEquals(expiry, cookie.getExpiry());
+    }
+
+    @Test
+    public void missingOrBrokenFileLoadsNull() throws Exception {
+        File file = new File(folder.getRoot(), "session.json");
+        FileSessionStore store = new FileSessionStore(file);
+        assertNull(store.load());
+        Files.write(file.toPath(), "{broken".getBytes(StandardCharsets.UTF_8));
+        assertNull(store.load());
+    }
+
+    @Test
+    public void savedFileIsOwnerOnly() throws Exception {
+        File file = new File(folder.getRoot(), "session.json");
+        Assume.assumeTrue(file.toPath().getFileSystem().supportedFileAttributeViews().contains("posix"));
+        //残留的临时文件权限过宽也不能沿用
+        File temp = new File(folder.getRoot(), "session.json.tmp");
+        Files.write(temp.toPath(), new byte[0]);
+        Files.setPosixFilePermissions(temp.toPath(), PosixFilePermissions.fromString("rw-rw-rw-"));
+
+        new FileSessionStore(file).save(new SessionSnapshot());
+        assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(file.toPath()));
+        assertFalse(temp.exists());
+    }
+
+    @Test
+    public void clearDeletesFile() {
+        File file = new File(folder.getRoot(), "session.json");
+        FileSessionStore store = new FileSessionStore(file);
+        store.save(new SessionSnapshot());
+        store.clear();
+        assertFalse(file.exists());
+        assertNull(store.load());
+    }
+}
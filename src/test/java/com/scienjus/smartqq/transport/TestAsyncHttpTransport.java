@@ -0,0 +1,144 @@
+package com.scienjus.smartqq.transport;
+
+import com.scienjus.smartqq.session.SessionCookie;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestAsyncHttpTransport {
+
+    private HttpServer server;
+
+    private AsyncHttpTransport transport;
+
+    private String baseUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        //返回请求方法、Cookie和表单
+        server.createContext("/echo", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String body = exchange.getRequestMethod()
+                        + "|" + exchange.getRequestHeaders().getFirst("Cookie")
+                        + "|" + exchange.getRequestHeaders().getFirst("Referer")
+                        + "|" + URLDecoder.decode(read(exchange.getRequestBody()), "UTF-8");
+                respond(exchange, body);
+            }
+        });
+        server.createContext("/login", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("Set-Cookie", "ptwebqq=abc; Path=/");
+                respond(exchange, "ok");
+            }
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        transport = new AsyncHttpTransport(10, 1000, 1000, 1000, 1);
+    }
+
+    @After
+    public void tearDown() {
+        transport.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void postSendsFormsAndHeaders() {
+        HttpResponse response = transport.newSession().execute(HttpRequest.post(baseUrl + "/echo")
+                .addHeader("Referer", "http://d1.web2.qq.com")
+                .addForm("r", "{\"key\":\"中文\"}"));
+        assertEquals(200, response.getStatusCode());
+        assertEquals("POST|null|http://d1.web2.qq.com|r={\"key\":\"中文\"}", response.getBody());
+    }
+
+    @Test
+    public void cookiesAreKeptPerSession() {
+        TransportSession session = transport.newSession();
+        session.execute(HttpRequest.get(baseUrl + "/login"));
+        List<SessionCookie> cookies = session.getCookies();
+        assertEquals(1, cookies.size());
+        assertEquals("ptwebqq", cookies.get(0).getName());
+        assertEquals("GET|ptwebqq=abc|null|", session.execute(HttpRequest.get(baseUrl + "/echo")).getBody());
+        assertTrue(transport.newSession().getCookies().isEmpty());
+    }
+
+    @Test
+    public void callbackReceivesResponse() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<HttpResponse> result = new AtomicReference<>();
+        transport.newSession().execute(HttpRequest.get(baseUrl + "/echo").longPoll(true), new ResponseCallback() {
+            @Override
+            public void onResponse(HttpResponse response) {
+                result.set(response);
+                latch.countDown();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals("GET|null|null|", result.get().getBody());
+    }
+
+    @Test
+    public void callbackReceivesFailure() throws InterruptedException {
+        server.stop(0);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<Exception> result = new AtomicReference<>();
+        transport.newSession().execute(HttpRequest.get(baseUrl + "/echo"), new ResponseCallback() {
+            @Override
+            public void onResponse(HttpResponse response) {
+                latch.countDown();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                result.set(e);
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(result.get() != null);
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+}
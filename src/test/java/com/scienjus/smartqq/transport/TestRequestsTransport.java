@@ -0,0 +1,74 @@
+package com.scienjus.smartqq.transport;
+
+import com.scienjus.smartqq.session.SessionCookie;
+import net.dongliu.requests.Client;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestRequestsTransport {
+
+    private RequestsTransport transport;
+
+    @Before
+    public void setUp() {
+        transport = new RequestsTransport(Client.pooled().build(), Client.pooled().build());
+    }
+
+    @After
+    public void tearDown() {
+        transport.close();
+    }
+
+    @Test
+    public void restoredCookiesAreExported() {
+        Date expiry = new Date(System.currentTimeMillis() + 3600 * 1000);
+        TransportSession session = transport.newSession();
+        session.addCookies(Arrays.asList(
+                new SessionCookie("ptwebqq", "abc", ".qq.com", "/", null, false),
+                new SessionCookie("p_skey", "def", "web2.qq.com", "/", expiry, true)));
+
+        List<SessionCookie> cookies = session.getCookies();
+        assertEquals(2, cookies.size());
+        for (SessionCookie cookie : cookies) {
+            if ("ptwebqq".equals(cookie.getName())) {
+                assertEquals("abc", cookie.getValue());
+                assertEquals(".qq.com", cookie.getDomain());
+            } else {
+                assertEquals("def", cookie.getValue());
+                assertEquals(expiry, cookie.getExpiry());
+                assertTrue(cookie.isSecure());
+            }
+        }
+    }
+
+    @Test
+    public void expiredCookiesAreNotExported() {
+        TransportSession session = transport.newSession();
+        session.addCookies(Arrays.asList(
+                new SessionCookie("ptwebqq", "abc", ".qq.com", "/", new Date(System.currentTimeMillis() - 1000), false)));
+        assertTrue(session.getCookies().isEmpty());
+    }
+
+    @Test
+    public void clearRemovesAllCookies() {
+        TransportSession session = transport.newSession();
+        session.addCookies(Arrays.asList(new SessionCookie("ptwebqq", "abc", ".qq.com", "/", null, false)));
+        session.clearCookies();
+        assertTrue(session.getCookies().isEmpty());
+    }
+
+    @Test
+    public void sessionsDoNotShareCookies() {
+        TransportSession first = transport.newSession();
+        first.addCookies(Arrays.asList(new SessionCookie("ptwebqq", "abc", ".qq.com", "/", null, false)));
+        assertTrue(transport.newSession().getCookies().isEmpty());
+    }
+}